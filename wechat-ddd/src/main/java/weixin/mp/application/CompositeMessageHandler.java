@@ -3,25 +3,79 @@ package weixin.mp.application;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import weixin.mp.domain.Context;
+import weixin.mp.domain.EventType;
+import weixin.mp.domain.InterestedEvent;
+import weixin.mp.domain.MessageType;
 import weixin.mp.domain.ReplyMessage;
 import weixin.mp.domain.RequestMessage;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.EnumMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+/**
+ * 组合消息处理器
+ * <ul>
+ *     <li>未指定时延预算：按顺序调用，仅接受调用时已完成的回复</li>
+ *     <li>指定时延预算：同时调用所有处理器，预算内最先完成的实质回复胜出，其余取消；{@link ReplyMessage#ACK}与空回复同等对待，
+ *     预算内均无实质回复才返回{@link ReplyMessage#ACK}</li>
+ * </ul>
+ * 构造时按{@link MessageHandler#messageTypes()}、{@link MessageHandler#eventTypes()}建立路由表，每条消息只交给声明过该类型的处理器
+ */
 public class CompositeMessageHandler implements MessageHandler {
 
     private static final Logger log = LoggerFactory.getLogger(CompositeMessageHandler.class);
 
     private final List<MessageHandler> delegates;
 
+    private final Duration budget;
+
+    private final Map<MessageType, List<MessageHandler>> messageRoutes = new EnumMap<>(MessageType.class);
+
+    private final Map<EventType, List<MessageHandler>> eventRoutes = new EnumMap<>(EventType.class);
+
     public CompositeMessageHandler(List<MessageHandler> delegates) {
+        this(delegates, null);
+    }
+
+    /**
+     * @param delegates 处理器
+     * @param budget 并行处理的时延预算，为null时顺序处理
+     */
+    public CompositeMessageHandler(List<MessageHandler> delegates, Duration budget) {
         this.delegates = delegates;
+        this.budget = budget;
+        for (MessageType messageType : MessageType.values()) {
+            if (messageType != MessageType.EVENT && messageType.isPresentOnRequest()) {
+                messageRoutes.put(messageType, delegates.stream().filter(h -> h.messageTypes().contains(messageType)).toList());
+            }
+        }
+        for (EventType eventType : EventType.values()) {
+            eventRoutes.put(eventType, delegates.stream()
+                    .filter(h -> h.messageTypes().contains(MessageType.EVENT) && h.eventTypes().contains(eventType))
+                    .toList());
+        }
+    }
+
+    private List<MessageHandler> route(RequestMessage msg) {
+        List<MessageHandler> candidates = msg instanceof InterestedEvent event ?
+                eventRoutes.get(event.eventType()) :
+                messageRoutes.get(msg.msgType());
+        return candidates != null ? candidates : delegates; // unknown type
     }
 
     @Override
     public CompletableFuture<ReplyMessage> handleMessage(Context ctx, RequestMessage msg) {
-        for (MessageHandler delegate : delegates) {
+        List<MessageHandler> candidates = route(msg);
+        if (budget != null) {
+            return fanOut(ctx, msg, candidates);
+        }
+        for (MessageHandler delegate : candidates) {
             CompletableFuture<ReplyMessage> reply = delegate.handleMessage(ctx, msg);
             if (reply != null && reply.isDone()) {
                 return reply;
@@ -30,4 +84,50 @@ public class CompositeMessageHandler implements MessageHandler {
         log.warn("No suitable MessageHandler match [{}]'s request message", ctx.appId());
         return CompletableFuture.completedFuture(ReplyMessage.ACK);
     }
+
+    private CompletableFuture<ReplyMessage> fanOut(Context ctx, RequestMessage msg, List<MessageHandler> candidates) {
+        CompletableFuture<ReplyMessage> winner = new CompletableFuture<>();
+        List<CompletableFuture<ReplyMessage>> started = new ArrayList<>(candidates.size());
+        AtomicInteger remaining = new AtomicInteger(candidates.size() + 1); // the extra one is released after all started
+        for (MessageHandler delegate : candidates) {
+            CompletableFuture<ReplyMessage> reply;
+            try {
+                reply = delegate.handleMessage(ctx, msg);
+            } catch (RuntimeException e) {
+                log.error(e.getMessage(), e);
+                reply = null;
+            }
+            if (reply == null) {
+                remaining.decrementAndGet();
+                continue;
+            }
+            started.add(reply);
+            reply.whenComplete((r, e) -> {
+                if (e == null && r != null && r != ReplyMessage.ACK) {
+                    winner.complete(r);
+                } else if (e != null) {
+                    log.debug("MessageHandler for [{}] give up: {}", ctx.appId(), e.getMessage());
+                }
+                if (remaining.decrementAndGet() == 0) {
+                    acknowledge(ctx, winner);
+                }
+            });
+        }
+        if (remaining.decrementAndGet() == 0) {
+            acknowledge(ctx, winner);
+        }
+        winner.completeOnTimeout(ReplyMessage.ACK, budget.toMillis(), TimeUnit.MILLISECONDS);
+        winner.whenComplete((r, e) -> {
+            for (CompletableFuture<ReplyMessage> reply : started) {
+                reply.cancel(false);
+            }
+        });
+        return winner;
+    }
+
+    private void acknowledge(Context ctx, CompletableFuture<ReplyMessage> winner) {
+        if (winner.complete(ReplyMessage.ACK)) {
+            log.warn("No suitable MessageHandler match [{}]'s request message", ctx.appId());
+        }
+    }
 }
@@ -0,0 +1,162 @@
+package weixin.mp.application;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import weixin.mp.domain.Context;
+import weixin.mp.domain.ReplyMessage;
+import weixin.mp.domain.RequestMessage;
+
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 消息排重：微信服务器5秒内收不到响应会重试，总共重试三次。
+ * 窗口期内重复的消息（普通消息按MsgId，事件按FromUserName + CreateTime）直接复用首次处理的回复，不再交给处理器。
+ * 本地窗口有容量上限，多节点部署时可叠加分布式登记（如redis SETNX），其他节点已受理的消息仅确认接收；
+ * 本节点处理失败时撤销登记，微信重试时可再次处理。
+ */
+public class DeduplicatingMessageHandler implements MessageHandler {
+
+    private static final Logger log = LoggerFactory.getLogger(DeduplicatingMessageHandler.class);
+
+    private static final String KEY_FMT = "%1$s.%2$s";
+
+    private final MessageHandler delegate;
+
+    private final long window;
+
+    private final int capacity;
+
+    private final Registry registry;
+
+    /**
+     * 插入顺序即过期顺序，头部最先过期
+     */
+    private final LinkedHashMap<String, Entry> recent = new LinkedHashMap<>();
+
+    /**
+     * 分布式登记
+     */
+    public interface Registry {
+
+        /**
+         * @param key 消息标识
+         * @param window 排重窗口
+         * @return 首次登记返回true，窗口期内已被登记返回false
+         */
+        CompletableFuture<Boolean> register(String key, Duration window);
+
+        /**
+         * 撤销登记，处理失败时调用
+         * @param key 消息标识
+         * @return 撤销完成
+         */
+        CompletableFuture<Void> unregister(String key);
+    }
+
+    /**
+     * @param reply 首次处理的回复
+     * @param expireAt 过期时间
+     */
+    private record Entry(CompletableFuture<ReplyMessage> reply, long expireAt) {}
+
+    public DeduplicatingMessageHandler(MessageHandler delegate, Duration window, int capacity) {
+        this(delegate, window, capacity, null);
+    }
+
+    /**
+     * @param delegate 实际处理器
+     * @param window 排重窗口
+     * @param capacity 本地窗口最多记录的消息数
+     * @param registry 分布式登记，可为null
+     */
+    public DeduplicatingMessageHandler(MessageHandler delegate, Duration window, int capacity, Registry registry) {
+        this.delegate = delegate;
+        this.window = window.toMillis();
+        this.capacity = capacity;
+        this.registry = registry;
+    }
+
+    @Override
+    public CompletableFuture<ReplyMessage> handleMessage(Context ctx, RequestMessage msg) {
+        String msgId = msg.msgId() != null ? msg.msgId() : msg.fromOpenId() + msg.timestamp();
+        String key = KEY_FMT.formatted(ctx.appId(), msgId);
+        long now = System.currentTimeMillis();
+        CompletableFuture<ReplyMessage> reply = new CompletableFuture<>();
+        synchronized (recent) {
+            evict(now);
+            Entry existing = recent.get(key);
+            if (existing != null) {
+                log.info("[{}] duplicate message {}, reuse reply", ctx.appId(), msgId);
+                return existing.reply();
+            }
+            recent.put(key, new Entry(reply, now + window));
+        }
+        CompletableFuture<ReplyMessage> handled;
+        if (registry == null) {
+            handled = handle(ctx, msg);
+        } else {
+            handled = registry.register(key, Duration.ofMillis(window))
+                    .exceptionally(e -> {
+                        log.warn("register message {} fail, handle anyway: {}", key, e.getMessage());
+                        return Boolean.TRUE;
+                    })
+                    .thenCompose(first -> {
+                        if (first) {
+                            return handle(ctx, msg).exceptionallyCompose(e -> unregister(key)
+                                    .thenCompose(v -> CompletableFuture.<ReplyMessage>failedFuture(e)));
+                        }
+                        log.info("[{}] message {} accepted by other node", ctx.appId(), msgId);
+                        return CompletableFuture.completedFuture(ReplyMessage.ACK);
+                    });
+        }
+        handled.whenComplete((r, e) -> {
+            if (e != null) {
+                synchronized (recent) {
+                    Entry entry = recent.get(key);
+                    if (entry != null && entry.reply() == reply) {
+                        recent.remove(key); // let retry handle again
+                    }
+                }
+                reply.completeExceptionally(e);
+            } else {
+                reply.complete(r);
+            }
+        });
+        return reply;
+    }
+
+    private CompletableFuture<ReplyMessage> handle(Context ctx, RequestMessage msg) {
+        CompletableFuture<ReplyMessage> reply;
+        try {
+            reply = delegate.handleMessage(ctx, msg);
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        return reply != null ? reply : CompletableFuture.completedFuture(ReplyMessage.ACK);
+    }
+
+    /**
+     * 撤销失败时窗口期内的重试会被当作其他节点已受理
+     */
+    private CompletableFuture<Void> unregister(String key) {
+        return registry.unregister(key).exceptionally(e -> {
+            log.warn("unregister message {} fail, retry within window will be dropped: {}", key, e.getMessage());
+            return null;
+        });
+    }
+
+    private void evict(long now) {
+        Iterator<Map.Entry<String, Entry>> it = recent.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, Entry> head = it.next();
+            if (head.getValue().expireAt() > now && recent.size() < capacity) {
+                break;
+            }
+            it.remove();
+        }
+    }
+}
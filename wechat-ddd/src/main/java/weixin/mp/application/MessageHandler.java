@@ -1,13 +1,35 @@
 package weixin.mp.application;
 
 import weixin.mp.domain.Context;
+import weixin.mp.domain.EventType;
+import weixin.mp.domain.MessageType;
 import weixin.mp.domain.ReplyMessage;
 import weixin.mp.domain.RequestMessage;
 
+import java.util.EnumSet;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 
 public interface MessageHandler {
 
     CompletableFuture<ReplyMessage> handleMessage(Context ctx, RequestMessage msg);
 
+    /**
+     * 组合处理器据此预先建立路由表，仅把声明的消息类型交给本处理器
+     *
+     * @return 可处理的消息类型，默认全部
+     */
+    default Set<MessageType> messageTypes() {
+        return EnumSet.allOf(MessageType.class);
+    }
+
+    /**
+     * 仅当{@link #messageTypes()}包含{@link MessageType#EVENT}时生效
+     *
+     * @return 可处理的事件类型，默认全部
+     */
+    default Set<EventType> eventTypes() {
+        return EnumSet.allOf(EventType.class);
+    }
+
 }
@@ -1,7 +1,5 @@
 package weixin.mp.domain;
 
-import java.util.Arrays;
-
 /**
  * 服务器验证消息
  *
@@ -11,10 +9,7 @@ import java.util.Arrays;
 public record ChallengeMessage(Context ctx, String signature, String timestamp, String nonce) {
 
     public boolean check() {
-        String[] tmp = {timestamp, nonce, ctx.token()};
-        Arrays.sort(tmp);
-        String computedSignature = TrustableMessage.MP_INSTANCE.digest(String.join("", tmp));
-        return signature.equalsIgnoreCase(computedSignature);
+        return TrustableMessage.MP_INSTANCE.verify(signature, timestamp, nonce, ctx.token());
     }
 
 }
@@ -36,6 +36,18 @@ public enum FileType {
     },
     WEBP,
     PSD,
+    HEIC() {
+        @Override
+        public Iterator<FileType> alias() {
+            return List.of(HEIF).iterator();
+        }
+    },
+    HEIF() {
+        @Override
+        public Iterator<FileType> alias() {
+            return List.of(HEIC).iterator();
+        }
+    },
     // 音频
     WMA() {
         @Override
@@ -91,6 +103,7 @@ public enum FileType {
     AVI,
     FLV,
     MKV,
+    WEBM,
     MOV,
     // 办公
     RTF,
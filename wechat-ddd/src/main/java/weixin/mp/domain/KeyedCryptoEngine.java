@@ -0,0 +1,77 @@
+package weixin.mp.domain;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 按密钥缓存解码后的SecretKeySpec/IvParameterSpec，Cipher及MessageDigest按线程复用，单条消息只需重新init
+ */
+final class KeyedCryptoEngine {
+
+    private final String keyAlgorithm;
+
+    private final int ivLength;
+
+    private final Map<String, Keys> keys = new ConcurrentHashMap<>();
+
+    private final ThreadLocal<MessageDigest> digests;
+
+    private final ThreadLocal<Cipher> ciphers;
+
+    /**
+     * @param key 解码后的密钥
+     * @param iv 初始化向量，取密钥前若干字节
+     */
+    private record Keys(SecretKeySpec key, IvParameterSpec iv) {}
+
+    KeyedCryptoEngine(String digestAlgorithm, String cipherAlgorithm, String keyAlgorithm, int ivLength) {
+        this.keyAlgorithm = keyAlgorithm;
+        this.ivLength = ivLength;
+        this.digests = ThreadLocal.withInitial(() -> {
+            try {
+                return MessageDigest.getInstance(digestAlgorithm);
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        this.ciphers = ThreadLocal.withInitial(() -> {
+            try {
+                return Cipher.getInstance(cipherAlgorithm);
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+    }
+
+    /**
+     * @return 当前线程已重置的摘要实例，不可跨线程传递
+     */
+    MessageDigest digest() {
+        MessageDigest md = digests.get();
+        md.reset();
+        return md;
+    }
+
+    /**
+     * @param encodingKey base64编码的密钥(EncodingAESKey)
+     * @param mode {@link Cipher#ENCRYPT_MODE} 或 {@link Cipher#DECRYPT_MODE}
+     * @return 当前线程已初始化的加解密实例，不可跨线程传递
+     */
+    Cipher cipher(String encodingKey, int mode) throws GeneralSecurityException {
+        Keys k = keys.computeIfAbsent(encodingKey, this::decode);
+        Cipher cipher = ciphers.get();
+        cipher.init(mode, k.key(), k.iv());
+        return cipher;
+    }
+
+    private Keys decode(String encodingKey) {
+        byte[] aesKey = Base64.getDecoder().decode(encodingKey);
+        return new Keys(new SecretKeySpec(aesKey, keyAlgorithm), new IvParameterSpec(aesKey, 0, ivLength));
+    }
+}
@@ -1,14 +1,11 @@
 package weixin.mp.domain;
 
-import java.util.Arrays;
+import java.nio.ByteBuffer;
 
 public record RequestMessageRetriever(Context ctx, String msgSignature, String timestamp, String nonce, String encryptMsg) {
 
     public boolean check()  {
-        String[] tmp = new String[] {ctx.token(), timestamp, nonce, encryptMsg};
-        Arrays.sort(tmp);
-        String computedSignature = TrustableMessage.MP_INSTANCE.digest(String.join("", tmp));
-        return msgSignature.equalsIgnoreCase(computedSignature);
+        return TrustableMessage.MP_INSTANCE.verify(msgSignature, ctx.token(), timestamp, nonce, encryptMsg);
     }
 
     public String retrieve(String encryptAlgorithm) {
@@ -18,4 +15,12 @@ public record RequestMessageRetriever(Context ctx, String msgSignature, String t
         }
         return null;
     }
+
+    /**
+     * @param encryptAlgorithm 加密算法
+     * @return 解密后的xml字节，在当前线程下次解密前有效；appId不匹配时返回null
+     */
+    public ByteBuffer unwrap(String encryptAlgorithm) {
+        return TrustableMessage.MP_INSTANCE.decrypt(ctx.key(), encryptMsg, ctx.appId());
+    }
 }
@@ -1,11 +1,10 @@
 package weixin.mp.domain;
 
 import javax.crypto.Cipher;
-import javax.crypto.spec.IvParameterSpec;
-import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.security.DigestException;
 import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
 import java.util.Base64;
 import java.util.HexFormat;
@@ -19,8 +18,27 @@ public interface TrustableMessage {
 
     String digest(String content);
 
+    /**
+     * 各部分按字典序原地排序后依次计算摘要，不拼接字符串，并与十六进制签名做常量时间比较
+     *
+     * @param signature 十六进制签名，忽略大小写
+     * @param components 参与签名的各部分，数组会被排序
+     * @return 签名是否一致，签名或任一部分缺失时为false
+     */
+    boolean verify(String signature, String... components);
+
     MessageWrapper decrypt(String key, String ciphertext);
 
+    /**
+     * 解密到当前线程复用的缓冲区，不生成中间字符串
+     *
+     * @param key 消息加解密密钥
+     * @param ciphertext base64编码的密文
+     * @param appId 期望的开发者ID
+     * @return 仅包含xml内容的只读视图，在同一线程下次解密前有效；appId不匹配时返回null
+     */
+    ByteBuffer decrypt(String key, String ciphertext, String appId);
+
     String encrypt(String key, byte[] plaintext);
 
     TrustableMessage MP_INSTANCE = new TrustableMessage() {
@@ -37,25 +55,121 @@ public interface TrustableMessage {
 
         private static final int BLOCK_SIZE = 32;
 
+        private static final KeyedCryptoEngine ENGINE = new KeyedCryptoEngine(DIGEST_ALGORITHM, CIPHER_ALGORITHM, KEY_ALGORITHM, OFFSET);
+
+        private static final int DIGEST_LENGTH = 20;
+
+        /**
+         * 0: 解密结果; 1: 摘要输入; 2: 摘要输出
+         */
+        private static final ThreadLocal<byte[][]> SCRATCH = ThreadLocal.withInitial(() -> new byte[][] {new byte[0], new byte[256], new byte[DIGEST_LENGTH]});
+
+        private static final String BASE64_ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+
+        private static final byte[] BASE64_INDEX = new byte[128];
+
+        static {
+            Arrays.fill(BASE64_INDEX, (byte) -1);
+            for (int i = 0; i < BASE64_ALPHABET.length(); i++) {
+                BASE64_INDEX[BASE64_ALPHABET.charAt(i)] = (byte) i;
+            }
+        }
+
+        /**
+         * 将base64字符直接解码到目标数组，省去String到byte[]再到byte[]的两次复制
+         */
+        private static int decodeBase64(String src, byte[] dst) {
+            int length = src.length();
+            while (length > 0 && src.charAt(length - 1) == '=') {
+                length--;
+            }
+            int bits = 0;
+            int accumulated = 0;
+            int position = 0;
+            for (int i = 0; i < length; i++) {
+                char c = src.charAt(i);
+                int index = c < BASE64_INDEX.length ? BASE64_INDEX[c] : -1;
+                if (index < 0) {
+                    throw new IllegalArgumentException("Illegal base64 character " + Integer.toString(c, 16));
+                }
+                accumulated = (accumulated << 6) | index;
+                bits += 6;
+                if (bits >= 8) {
+                    bits -= 8;
+                    dst[position++] = (byte) (accumulated >> bits);
+                }
+            }
+            return position;
+        }
+
         @Override
         public String digest(String content) {
+            byte[] digest = ENGINE.digest().digest(content.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest);
+        }
+
+        @Override
+        public boolean verify(String signature, String... components) {
+            if (signature == null || signature.length() != DIGEST_LENGTH * 2) {
+                return false;
+            }
+            for (String component : components) {
+                if (component == null) {
+                    return false;
+                }
+            }
+            for (int i = 1; i < components.length; i++) { // insertion sort, only 3 or 4 components
+                String current = components[i];
+                int j = i - 1;
+                while (j >= 0 && components[j].compareTo(current) > 0) {
+                    components[j + 1] = components[j];
+                    j--;
+                }
+                components[j + 1] = current;
+            }
+            byte[][] scratch = SCRATCH.get();
+            MessageDigest md = ENGINE.digest();
+            for (String component : components) {
+                update(md, component, scratch);
+            }
+            byte[] computed = scratch[2];
             try {
-                MessageDigest md = MessageDigest.getInstance(DIGEST_ALGORITHM);
-                byte[] digest = md.digest(content.getBytes(StandardCharsets.UTF_8));
-                return HexFormat.of().formatHex(digest);
-            } catch (NoSuchAlgorithmException nae) {
-                throw new RuntimeException(nae);
+                md.digest(computed, 0, DIGEST_LENGTH);
+            } catch (DigestException e) {
+                throw new RuntimeException(e);
+            }
+            int diff = 0;
+            for (int i = 0; i < DIGEST_LENGTH; i++) {
+                int high = Character.digit(signature.charAt(i * 2), 16);
+                int low = Character.digit(signature.charAt(i * 2 + 1), 16);
+                diff |= (high | low) >>> 31; // -1 when not a hex digit
+                diff |= ((high << 4) | low) ^ (computed[i] & 0xFF);
+            }
+            return diff == 0;
+        }
+
+        private static void update(MessageDigest md, String component, byte[][] scratch) {
+            int length = component.length();
+            if (scratch[1].length < length) {
+                scratch[1] = new byte[length];
+            }
+            byte[] input = scratch[1];
+            for (int i = 0; i < length; i++) {
+                char c = component.charAt(i);
+                if (c >= 0x80) {
+                    md.update(component.getBytes(StandardCharsets.UTF_8));
+                    return;
+                }
+                input[i] = (byte) c;
             }
+            md.update(input, 0, length);
         }
 
         @Override
         public MessageWrapper decrypt(String key, String ciphertext) {
             try {
-                byte[] aesKey = Base64.getDecoder().decode(key);
-                Cipher cipher = Cipher.getInstance(CIPHER_ALGORITHM); // PKCS7Padding require bouncycastle, mix ok, encrypt except 'pad block corrupted'
-                SecretKeySpec keySpec = new SecretKeySpec(aesKey, KEY_ALGORITHM);
-                IvParameterSpec iv = new IvParameterSpec(Arrays.copyOfRange(aesKey, 0, OFFSET));
-                cipher.init(Cipher.DECRYPT_MODE, keySpec, iv);
+                // PKCS7Padding require bouncycastle, mix ok, encrypt except 'pad block corrupted'
+                Cipher cipher = ENGINE.cipher(key, Cipher.DECRYPT_MODE);
                 byte[] data = Base64.getDecoder().decode(ciphertext);
                 byte[] plainContainer = cipher.doFinal(data);
                 byte[] networkOrder = Arrays.copyOfRange(plainContainer, OFFSET, CONTENT_OFFSET);
@@ -76,6 +190,43 @@ public interface TrustableMessage {
             }
         }
 
+        @Override
+        public ByteBuffer decrypt(String key, String ciphertext, String appId) {
+            byte[][] scratch = SCRATCH.get();
+            int maxLength = (ciphertext.length() + 3) / 4 * 3;
+            if (scratch[0].length < maxLength) {
+                scratch[0] = new byte[maxLength];
+            }
+            byte[] plainContainer = scratch[0];
+            try {
+                Cipher cipher = ENGINE.cipher(key, Cipher.DECRYPT_MODE);
+                int dataLength = decodeBase64(ciphertext, plainContainer);
+                int plainLength = cipher.doFinal(plainContainer, 0, dataLength, plainContainer, 0);
+                int xmlLength = 0;
+                for (int i = OFFSET; i < CONTENT_OFFSET; i++) {
+                    xmlLength <<= 8;
+                    xmlLength |= (plainContainer[i] & 0xFF);
+                }
+                int paddingLength = plainContainer[plainLength - 1];
+                if (paddingLength < 1 || paddingLength > BLOCK_SIZE) { // should not here
+                    paddingLength = 0;
+                }
+                int appIdOffset = CONTENT_OFFSET + xmlLength;
+                int appIdLength = plainLength - paddingLength - appIdOffset;
+                if (appIdLength != appId.length()) {
+                    return null;
+                }
+                for (int i = 0; i < appIdLength; i++) {
+                    if (plainContainer[appIdOffset + i] != (byte) appId.charAt(i)) {
+                        return null;
+                    }
+                }
+                return ByteBuffer.wrap(plainContainer, CONTENT_OFFSET, xmlLength).asReadOnlyBuffer();
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }
+
         @Override
         public String encrypt(String key, byte[] plaintext) {
             int paddingLength = BLOCK_SIZE - (plaintext.length % BLOCK_SIZE);
@@ -84,16 +235,10 @@ public interface TrustableMessage {
             }
             byte[] padded = new byte[plaintext.length + paddingLength];
             System.arraycopy(plaintext, 0, padded, 0, plaintext.length);
-            for (int i = plaintext.length; i < plaintext.length + paddingLength; i++) {
-                padded[i++] = (byte) (paddingLength & 0xFF);
-            }
+            Arrays.fill(padded, plaintext.length, padded.length, (byte) (paddingLength & 0xFF));
 
             try {
-                byte[] aesKey = Base64.getDecoder().decode(key);
-                Cipher cipher = Cipher.getInstance(CIPHER_ALGORITHM);
-                SecretKeySpec keySpec = new SecretKeySpec(aesKey, KEY_ALGORITHM);
-                IvParameterSpec iv = new IvParameterSpec(Arrays.copyOfRange(aesKey, 0, OFFSET));
-                cipher.init(Cipher.ENCRYPT_MODE, keySpec, iv);
+                Cipher cipher = ENGINE.cipher(key, Cipher.ENCRYPT_MODE);
                 byte[] encrypted = cipher.doFinal(padded);
                 return Base64.getEncoder().encodeToString(encrypted);
             } catch (Exception e) {
@@ -2,6 +2,7 @@ package weixin.mp.facade;
 
 import jakarta.validation.constraints.NotEmpty;
 
+import java.io.InputStream;
 import java.util.concurrent.CompletableFuture;
 
 /**
@@ -44,6 +45,21 @@ public interface MessageFacade {
     CompletableFuture<Response> onMessage(@NotEmpty String signature, @NotEmpty String timestamp, @NotEmpty String nonce, String openid,
                                      String encryptAlgorithm, String messageSignature, @NotEmpty String raw);
 
+    /**
+     * 接受微信服务器推送的消息，直接从字节流解析，避免请求体与字符串之间的反复编解码
+     *
+     * @param signature 微信加密签名，signature结合了开发者填写的 token 参数和请求中的 timestamp 参数、nonce参数
+     * @param timestamp 时间戳
+     * @param nonce 随机数
+     * @param openid 发消息给公众号的用户
+     * @param encryptAlgorithm 加密算法（密文模式或混合模式才有）
+     * @param messageSignature 消息签名（密文模式或混合模式才有）
+     * @param raw UTF-8编码的xml加密内容及其他信息，方法返回前已读取完毕，由调用方关闭
+     * @return 确认接收消息或回复xml数据
+     */
+    CompletableFuture<Response> onMessage(@NotEmpty String signature, @NotEmpty String timestamp, @NotEmpty String nonce, String openid,
+                                     String encryptAlgorithm, String messageSignature, InputStream raw);
+
     /**
      * 收到消息的回复。如果只是确认，则取text，否则取xml
      */
@@ -7,20 +7,28 @@ import weixin.mp.domain.ChallengeMessage;
 import weixin.mp.domain.Context;
 import weixin.mp.domain.MessageCorruptException;
 import weixin.mp.domain.ReplyMessage;
+import weixin.mp.domain.RequestMessage;
 import weixin.mp.domain.RequestMessageRetriever;
 import weixin.mp.domain.ResponseMessageBuilder;
 
-import java.util.Map;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
- * 微信公众号门面
+ * 微信公众号门面。等待回复不阻塞调用线程，超时先确认接收，迟到的回复通过客服消息推送
  *
  * @author iMinusMinus
  * @date 2022-12-03
  */
-public record MessageFacadeImpl(Context ctx, MessageHandler handler) implements MessageFacade {
+public record MessageFacadeImpl(Context ctx, MessageHandler handler, WeixinCustomServiceApiFacade customService) implements MessageFacade {
 
     private static final Logger log = LoggerFactory.getLogger(MessageFacadeImpl.class);
 
@@ -29,6 +37,22 @@ public record MessageFacadeImpl(Context ctx, MessageHandler handler) implements
      */
     private static final int WAIT_MSG_TIMEOUT = 4500;
 
+    /**
+     * 微信重试的时间范围（三次重试，每次最多等待5秒），此期间同一消息的迟到回复只推送一次
+     */
+    private static final int LATE_REPLY_WINDOW = 20_000;
+
+    private static final String KEY_FMT = "%1$s.%2$s";
+
+    /**
+     * 已安排推送迟到回复的消息。重复投递的消息（排重后共享同一回复）各自超时，只有首个安排推送
+     */
+    private static final Set<String> LATE_REPLIES = ConcurrentHashMap.newKeySet();
+
+    public MessageFacadeImpl(Context ctx, MessageHandler handler) {
+        this(ctx, handler, null);
+    }
+
     @Override
     public CompletableFuture<String> challenge(String signature, String timestamp, String nonce, String echoStr) {
         ChallengeMessage challenge = new ChallengeMessage(ctx, signature, timestamp, nonce);
@@ -43,33 +67,111 @@ public record MessageFacadeImpl(Context ctx, MessageHandler handler) implements
     @Override
     public CompletableFuture<Response> onMessage(String signature, String timestamp, String nonce, String openid,
                                             String encryptAlgorithm, String messageSignature, String raw) {
+        return onMessage(signature, timestamp, nonce, openid, encryptAlgorithm, messageSignature,
+                new ByteArrayInputStream(raw.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Override
+    public CompletableFuture<Response> onMessage(String signature, String timestamp, String nonce, String openid,
+                                            String encryptAlgorithm, String messageSignature, InputStream raw) {
         challenge(signature, timestamp, nonce, openid);
+        RequestMessage message;
         if (ctx.strict() == null || !ctx.strict()) {
             log.trace("'{}' not in encrypt mode", ctx.appId());
+            try {
+                message = XmlParser.parse(raw);
+            } catch (IllegalArgumentException e) {
+                log.info("'{}' message malformed: {}", ctx.appId(), e.getMessage());
+                return CompletableFuture.failedFuture(new MessageCorruptException("message/event to " + ctx.appId() + " malformed", e));
+            }
         } else {
-            Map<String, String> map = XmlParser.xmlToMap(raw);
-            String encrypt = map.get(XmlParser.ENCRYPT_TAG);
+            String encrypt = XmlParser.lookup(raw, XmlParser.ENCRYPT_TAG);
             RequestMessageRetriever request = new RequestMessageRetriever(ctx, messageSignature, timestamp, nonce, encrypt);
             boolean trustable = request.check();
             if (!trustable) {
                 log.info("'{}' message check fail", ctx.appId());
                 return CompletableFuture.failedFuture(new MessageCorruptException("message/event to " + ctx.appId() + " corrupt"));
             }
-            raw = request.retrieve(encryptAlgorithm);
-            log.debug("decrypt message for '{}': {}", ctx.appId(), raw);
+            ByteBuffer plaintext = request.unwrap(encryptAlgorithm);
+            if (plaintext == null) {
+                log.info("'{}' message appId mismatch", ctx.appId());
+                return CompletableFuture.failedFuture(new MessageCorruptException("message/event to " + ctx.appId() + " corrupt"));
+            }
+            if (log.isDebugEnabled()) {
+                log.debug("decrypt message for '{}': {}", ctx.appId(), StandardCharsets.UTF_8.decode(plaintext.duplicate()));
+            }
+            try {
+                message = XmlParser.parse(plaintext);
+            } catch (IllegalArgumentException e) {
+                log.info("'{}' decrypted message malformed: {}", ctx.appId(), e.getMessage());
+                return CompletableFuture.failedFuture(new MessageCorruptException("message/event to " + ctx.appId() + " malformed", e));
+            }
         }
-        CompletableFuture<ReplyMessage> replyMessage = handler.handleMessage(ctx, XmlParser.parse(raw));
-        ReplyMessage reply;
-        try {
-            reply = replyMessage.get(WAIT_MSG_TIMEOUT, TimeUnit.MILLISECONDS);
-        } catch (Exception e) {
-            log.error(e.getMessage(), e);
-            return CompletableFuture.failedFuture(e);
+        String key = KEY_FMT.formatted(ctx.appId(), message.msgId() != null ? message.msgId() : message.fromOpenId() + message.timestamp());
+        CompletableFuture<ReplyMessage> replyMessage = handler.handleMessage(ctx, message);
+        if (replyMessage == null) {
+            replyMessage = CompletableFuture.completedFuture(ReplyMessage.ACK);
+        }
+        final CompletableFuture<ReplyMessage> lateReply = replyMessage;
+        return replyMessage.copy()
+                .orTimeout(WAIT_MSG_TIMEOUT, TimeUnit.MILLISECONDS)
+                .exceptionally(e -> {
+                    Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                    if (!(cause instanceof TimeoutException)) {
+                        log.error(cause.getMessage(), cause);
+                        throw e instanceof CompletionException ce ? ce : new CompletionException(e);
+                    }
+                    log.warn("'{}' message not replied in {}ms, acknowledge now and push reply later", ctx.appId(), WAIT_MSG_TIMEOUT);
+                    pushLater(key, lateReply);
+                    return ReplyMessage.ACK;
+                })
+                .thenApply(reply -> {
+                    if (reply != ReplyMessage.ACK && reply != ReplyMessage.NO_RETRY && LATE_REPLIES.contains(key)) {
+                        log.info("'{}' reply of {} pushed by customer service, acknowledge only", ctx.appId(), key);
+                        reply = ReplyMessage.ACK;
+                    }
+                    log.debug("handle '{}' message return result: {}", ctx.appId(), reply);
+                    ResponseMessageBuilder builder = new ResponseMessageBuilder(ctx, System.currentTimeMillis(), nonce, reply);
+                    return (reply == ReplyMessage.ACK || reply == ReplyMessage.NO_RETRY) ?
+                            new Response(builder.build(), null) : new Response(null, builder.build());
+                });
+    }
+
+    /**
+     * 回复完成后推送，同一消息只安排一次；处理失败时记录日志。
+     * 登记在重试时间范围过后移除，与回复是否完成无关，处理器始终不完成时也不会残留
+     */
+    private void pushLater(String key, CompletableFuture<ReplyMessage> lateReply) {
+        if (!LATE_REPLIES.add(key)) {
+            log.info("'{}' late reply of {} already scheduled", ctx.appId(), key);
+            return;
         }
-        log.debug("handle '{}' message return result: {}", ctx.appId(), reply);
-        ResponseMessageBuilder builder = new ResponseMessageBuilder(ctx, System.currentTimeMillis(), nonce, reply);
-        Response response = (reply == ReplyMessage.ACK || reply == ReplyMessage.NO_RETRY) ?
-                new Response(builder.build(), null) : new Response(null, builder.build());
-        return CompletableFuture.completedFuture(response);
+        CompletableFuture.delayedExecutor(LATE_REPLY_WINDOW, TimeUnit.MILLISECONDS).execute(() -> LATE_REPLIES.remove(key));
+        lateReply.whenComplete((reply, e) -> {
+            if (e != null) {
+                Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                log.error("'{}' handle message {} fail after acknowledged: {}", ctx.appId(), key, cause.getMessage(), cause);
+                return;
+            }
+            push(reply);
+        });
+    }
+
+    /**
+     * 超时后才产生的回复已无法随响应返回，改由客服消息推送
+     */
+    private void push(ReplyMessage reply) {
+        if (reply == null || reply == ReplyMessage.ACK || reply == ReplyMessage.NO_RETRY) {
+            return;
+        }
+        if (customService == null) {
+            log.warn("'{}' discard late reply: {}", ctx.appId(), reply);
+            return;
+        }
+        customService.echo(reply).whenComplete((ignore, e) -> {
+            if (e != null) {
+                log.error("'{}' push late reply fail: {}", ctx.appId(), e.getMessage());
+            }
+        });
     }
 }
@@ -9,9 +9,14 @@ import weixin.mp.domain.RequestMessage;
 
 import javax.xml.stream.XMLEventReader;
 import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 import javax.xml.stream.events.XMLEvent;
 import java.io.ByteArrayInputStream;
+import java.io.InputStream;
 import java.math.BigDecimal;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -41,6 +46,11 @@ public abstract class XmlParser {
 
     private static final String MEDIA_ID_TAG = "MediaId";
 
+    /**
+     * 配置完成后的XMLInputFactory创建reader是线程安全的，避免每条消息都查找实现类
+     */
+    private static final XMLInputFactory FACTORY = newFactory();
+
     protected String toAccount;
 
     protected String fromOpenId;
@@ -59,11 +69,18 @@ public abstract class XmlParser {
 
     abstract RequestMessage build();
 
-    public static Map<String, String> xmlToMap(String xml) {
+    private static XMLInputFactory newFactory() {
         XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+        return factory;
+    }
+
+    public static Map<String, String> xmlToMap(String xml) {
         Map<String, String> kv = new LinkedHashMap<>();
         try (ByteArrayInputStream bais = new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8))) {
-            XMLEventReader reader = factory.createXMLEventReader(bais);
+            XMLEventReader reader = FACTORY.createXMLEventReader(bais);
             String tagName = null;
             while (reader.hasNext()) {
                 XMLEvent event = reader.nextEvent();
@@ -82,16 +99,133 @@ public abstract class XmlParser {
         return kv;
     }
 
+    /**
+     * 流式查找第一个指定标签的文本，找到即停止读取
+     *
+     * @param xml UTF-8编码的消息
+     * @param tag 标签名
+     * @return 标签文本，不存在则返回null
+     */
+    public static String lookup(InputStream xml, String tag) {
+        XMLStreamReader reader = null;
+        try {
+            reader = FACTORY.createXMLStreamReader(xml, StandardCharsets.UTF_8.name());
+            while (reader.hasNext()) {
+                if (reader.next() == XMLStreamConstants.START_ELEMENT && tag.equals(reader.getLocalName())) {
+                    return reader.getElementText();
+                }
+            }
+        } catch (XMLStreamException e) {
+            log.error(e.getMessage(), e);
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (XMLStreamException ignore) {
+                }
+            }
+        }
+        return null;
+    }
+
+    public static RequestMessage parse(ByteBuffer xml) {
+        if (xml.hasArray()) {
+            return parse(new ByteArrayInputStream(xml.array(), xml.arrayOffset() + xml.position(), xml.remaining()));
+        }
+        byte[] copy = new byte[xml.remaining()];
+        xml.duplicate().get(copy);
+        return parse(new ByteArrayInputStream(copy));
+    }
+
     public static RequestMessage parse(String xml) {
-        Map<String, String> kv = xmlToMap(xml);
-        return mapToBean(kv);
+        return parse(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * 单次遍历解析：MsgType/Event一经读到即确定具体解析器，此前读到的标签暂存后回放，不再构造中间Map
+     *
+     * @param xml UTF-8编码的消息
+     * @return 请求消息
+     * @throws IllegalArgumentException xml格式错误，或缺少/无法识别MsgType、Event
+     */
+    public static RequestMessage parse(InputStream xml) {
+        XMLStreamReader reader = null;
+        try {
+            reader = FACTORY.createXMLStreamReader(xml, StandardCharsets.UTF_8.name());
+            return stream(reader);
+        } catch (XMLStreamException e) {
+            log.error(e.getMessage(), e);
+            throw new IllegalArgumentException("malformed xml message", e);
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (XMLStreamException ignore) {
+                }
+            }
+        }
+    }
+
+    private static RequestMessage stream(XMLStreamReader reader) throws XMLStreamException {
+        PendingXmlParser pending = new PendingXmlParser();
+        XmlParser xmlParser = pending;
+        String tagName = null;
+        while (reader.hasNext()) {
+            switch (reader.next()) {
+                case XMLStreamConstants.START_ELEMENT -> tagName = reader.getLocalName();
+                case XMLStreamConstants.END_ELEMENT -> tagName = null;
+                case XMLStreamConstants.CHARACTERS, XMLStreamConstants.CDATA, XMLStreamConstants.SPACE -> {
+                    if (tagName != null) {
+                        accept(xmlParser, tagName, reader.getText());
+                        if (xmlParser == pending && pending.resolvable()) {
+                            xmlParser = pending.resolve();
+                        }
+                    }
+                }
+                default -> {}
+            }
+        }
+        if (xmlParser == pending) {
+            xmlParser = pending.resolve();
+        }
+        return xmlParser.build();
     }
 
     static RequestMessage mapToBean(Map<String, String> kv) {
+        XmlParser xmlParser = newXmlParser(kv.get(MSG_TYPE_TAG), kv.get(InterestedEvent.EVENT_TAG));
+        for (Map.Entry<String, String> pair : kv.entrySet()) {
+            accept(xmlParser, pair.getKey(), pair.getValue());
+        }
+        return xmlParser.build();
+    }
+
+    private static void accept(XmlParser xmlParser, String tagName, String text) {
+        switch (tagName) {
+            case TO_TAG -> xmlParser.toAccount = text;
+            case FROM_TAG -> xmlParser.fromOpenId = text;
+            case TIMESTAMP_TAG -> xmlParser.timestamp = Long.parseLong(text, 10) * 1000;
+            case MSG_TYPE_TAG -> xmlParser.msgType = text;
+            case MSG_ID_TAG -> xmlParser.msgId = text;
+            case MSG_DATA_ID_TAG -> xmlParser.msgDataId = text;
+            default -> {
+                if (tagName.startsWith(ID_TAG)) {
+                    if (xmlParser.idx.isEmpty()) {
+                        xmlParser.idx = new ArrayList<>();
+                    }
+                    xmlParser.idx.add(text);
+                } else {
+                    xmlParser.handle(tagName, text);
+                }
+            }
+        }
+    }
+
+    private static XmlParser newXmlParser(String messageType, String eventType) {
+        MessageType msgType = MessageType.getInstance(messageType);
+        if (msgType == null) {
+            throw new IllegalArgumentException("msgType not found: " + messageType);
+        }
         XmlParser xmlParser;
-        MessageType msgType = MessageType.getInstance(kv.get(MSG_TYPE_TAG));
-        assert msgType != null;
-        String eventType = kv.get(InterestedEvent.EVENT_TAG);
         switch (msgType) {
             case TEXT-> xmlParser = new TextXmlParser();
             case IMAGE -> xmlParser = new ImageXmlParser();
@@ -103,32 +237,60 @@ public abstract class XmlParser {
             case EVENT -> xmlParser = newEventXmlParser(eventType);
             default -> throw new IllegalArgumentException("msgType not found: " + msgType);
         }
-        for (Map.Entry<String, String> pair : kv.entrySet()) {
-            switch (pair.getKey()) {
-                case TO_TAG -> xmlParser.toAccount = pair.getValue();
-                case FROM_TAG -> xmlParser.fromOpenId = pair.getValue();
-                case TIMESTAMP_TAG -> xmlParser.timestamp = Long.parseLong(pair.getValue(), 10) * 1000;
-                case MSG_TYPE_TAG -> xmlParser.msgType = pair.getValue();
-                case MSG_ID_TAG -> xmlParser.msgId = pair.getValue();
-                case MSG_DATA_ID_TAG -> xmlParser.msgDataId = pair.getValue();
-                default -> {
-                    if (pair.getKey().startsWith(ID_TAG)) {
-                        if (xmlParser.idx.isEmpty()) {
-                            xmlParser.idx = new ArrayList<>();
-                        }
-                        xmlParser.idx.add(pair.getValue());
-                    } else {
-                        xmlParser.handle(pair.getKey(), pair.getValue());
-                    }
-                }
+        return xmlParser;
+    }
+
+    /**
+     * 尚未读到MsgType（事件则还需Event）时，公共字段直接记录，其余标签按文档顺序暂存，待确定具体解析器后回放
+     */
+    private static class PendingXmlParser extends XmlParser {
+
+        private String eventType;
+
+        private List<String> tags = Collections.emptyList();
+
+        @Override
+        void handle(String tagName, String text) {
+            if (InterestedEvent.EVENT_TAG.equals(tagName)) {
+                eventType = text;
             }
+            if (tags.isEmpty()) {
+                tags = new ArrayList<>();
+            }
+            tags.add(tagName);
+            tags.add(text);
+        }
+
+        boolean resolvable() {
+            return msgType != null && (eventType != null || !MessageType.EVENT.getValue().equals(msgType));
+        }
+
+        XmlParser resolve() {
+            XmlParser xmlParser = newXmlParser(msgType, eventType);
+            xmlParser.toAccount = toAccount;
+            xmlParser.fromOpenId = fromOpenId;
+            xmlParser.timestamp = timestamp;
+            xmlParser.msgType = msgType;
+            xmlParser.msgId = msgId;
+            xmlParser.msgDataId = msgDataId;
+            xmlParser.idx = idx;
+            for (int i = 0; i < tags.size(); i += 2) {
+                xmlParser.handle(tags.get(i), tags.get(i + 1));
+            }
+            return xmlParser;
+        }
+
+        @Override
+        RequestMessage build() {
+            throw new IllegalStateException("msgType not resolved");
         }
-        return xmlParser.build();
     }
 
     private static XmlParser newEventXmlParser(String eventType) {
         EventType event = EventType.getInstance(eventType);
-        assert event != null;
+        if (event == null) {
+            throw new IllegalArgumentException("event not found: " + eventType);
+        }
         XmlParser eventXmlParser;
         switch (event) {
             case SUBSCRIBE -> eventXmlParser = new SubscribeEventXmlParser();
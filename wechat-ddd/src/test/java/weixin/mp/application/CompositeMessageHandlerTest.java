@@ -0,0 +1,147 @@
+package weixin.mp.application;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import weixin.mp.domain.Context;
+import weixin.mp.domain.EventType;
+import weixin.mp.domain.InterestedEvent;
+import weixin.mp.domain.MessageType;
+import weixin.mp.domain.ReplyMessage;
+import weixin.mp.domain.RequestMessage;
+
+import java.time.Duration;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class CompositeMessageHandlerTest {
+
+    private static final Context CTX = new Context("gh_de0f036ce08f", "wxd3a0f6c8176edcab", null, "GreedIsGood", null, null);
+
+    private static final RequestMessage TEXT = new RequestMessage.TextMessage("ooUo26seZPcU3qKfcMiXLneG3fO4", "gh_de0f036ce08f",
+            1668869541000L, "23892468385179204", null, "文本消息", List.of());
+
+    private static final ReplyMessage REPLY = new ReplyMessage.TextMessage("ooUo26seZPcU3qKfcMiXLneG3fO4", "gh_de0f036ce08f", 1668869542000L, "回复");
+
+    private static final Duration BUDGET = Duration.ofMillis(300);
+
+    private static MessageHandler delayed(ReplyMessage reply, long millis) {
+        return (ctx, msg) -> CompletableFuture.supplyAsync(() -> reply, CompletableFuture.delayedExecutor(millis, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    @DisplayName("顺序模式：仅接受调用时已完成的回复")
+    public void testSequential() throws Exception {
+        CompletableFuture<ReplyMessage> pending = new CompletableFuture<>();
+        MessageHandler handler = new CompositeMessageHandler(List.of(
+                (ctx, msg) -> null,
+                (ctx, msg) -> pending,
+                (ctx, msg) -> CompletableFuture.completedFuture(REPLY)));
+        Assertions.assertSame(REPLY, handler.handleMessage(CTX, TEXT).get());
+
+        handler = new CompositeMessageHandler(List.of((ctx, msg) -> pending));
+        Assertions.assertSame(ReplyMessage.ACK, handler.handleMessage(CTX, TEXT).get());
+    }
+
+    @Test
+    @DisplayName("预算模式：最先完成的实质回复胜出，其余取消")
+    public void testFirstReplyWins() throws Exception {
+        CompletableFuture<ReplyMessage> slow = new CompletableFuture<>();
+        MessageHandler handler = new CompositeMessageHandler(List.of((ctx, msg) -> slow, delayed(REPLY, 50)), BUDGET);
+        Assertions.assertSame(REPLY, handler.handleMessage(CTX, TEXT).get(1, TimeUnit.SECONDS));
+        Assertions.assertThrows(CancellationException.class, () -> slow.get(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    @DisplayName("预算模式：ACK与空回复同等对待，不抢占之后到达的实质回复")
+    public void testAckDoesNotWin() throws Exception {
+        MessageHandler handler = new CompositeMessageHandler(List.of(
+                (ctx, msg) -> CompletableFuture.completedFuture(ReplyMessage.ACK),
+                (ctx, msg) -> CompletableFuture.completedFuture(null),
+                delayed(REPLY, 50)), BUDGET);
+        Assertions.assertSame(REPLY, handler.handleMessage(CTX, TEXT).get(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    @DisplayName("预算模式：均无实质回复时立即返回ACK，不必等到预算耗尽")
+    public void testAllAck() throws Exception {
+        MessageHandler handler = new CompositeMessageHandler(List.of(
+                (ctx, msg) -> CompletableFuture.completedFuture(ReplyMessage.ACK),
+                (ctx, msg) -> CompletableFuture.failedFuture(new IllegalStateException("give up")),
+                (ctx, msg) -> {
+                    throw new IllegalStateException("broken");
+                },
+                (ctx, msg) -> null), Duration.ofSeconds(10));
+        Assertions.assertSame(ReplyMessage.ACK, handler.handleMessage(CTX, TEXT).get(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    @DisplayName("预算模式：超出预算返回ACK并取消未完成的处理")
+    public void testBudgetExceeded() throws Exception {
+        CompletableFuture<ReplyMessage> slow = new CompletableFuture<>();
+        MessageHandler handler = new CompositeMessageHandler(List.of(
+                (ctx, msg) -> CompletableFuture.completedFuture(ReplyMessage.ACK),
+                (ctx, msg) -> slow), BUDGET);
+        long start = System.nanoTime();
+        Assertions.assertSame(ReplyMessage.ACK, handler.handleMessage(CTX, TEXT).get(1, TimeUnit.SECONDS));
+        Assertions.assertTrue(System.nanoTime() - start >= BUDGET.toNanos());
+        Assertions.assertThrows(CancellationException.class, () -> slow.get(1, TimeUnit.SECONDS));
+    }
+
+    /**
+     * 只声明部分消息、事件类型的处理器，记录被调用的次数
+     */
+    private static MessageHandler declaring(AtomicInteger calls, ReplyMessage reply, Set<MessageType> messageTypes, Set<EventType> eventTypes) {
+        return new MessageHandler() {
+            @Override
+            public CompletableFuture<ReplyMessage> handleMessage(Context ctx, RequestMessage msg) {
+                calls.incrementAndGet();
+                return CompletableFuture.completedFuture(reply);
+            }
+
+            @Override
+            public Set<MessageType> messageTypes() {
+                return messageTypes;
+            }
+
+            @Override
+            public Set<EventType> eventTypes() {
+                return eventTypes;
+            }
+        };
+    }
+
+    @Test
+    @DisplayName("按声明的消息类型路由，未声明的处理器不被调用")
+    public void testRouteMessage() throws Exception {
+        AtomicInteger imageCalls = new AtomicInteger();
+        AtomicInteger textCalls = new AtomicInteger();
+        MessageHandler handler = new CompositeMessageHandler(List.of(
+                declaring(imageCalls, ReplyMessage.NO_RETRY, EnumSet.of(MessageType.IMAGE), EnumSet.noneOf(EventType.class)),
+                declaring(textCalls, REPLY, EnumSet.of(MessageType.TEXT), EnumSet.noneOf(EventType.class))));
+        Assertions.assertSame(REPLY, handler.handleMessage(CTX, TEXT).get());
+        Assertions.assertEquals(0, imageCalls.get());
+        Assertions.assertEquals(1, textCalls.get());
+    }
+
+    @Test
+    @DisplayName("事件需同时声明EVENT及事件类型；无处理器可路由时返回ACK")
+    public void testRouteEvent() throws Exception {
+        RequestMessage subscribe = new InterestedEvent.SubscribeEvent("ooUo26seZPcU3qKfcMiXLneG3fO4", "gh_de0f036ce08f", 1670592443000L, null, null);
+        RequestMessage scan = new InterestedEvent.ScanEvent("ooUo26seZPcU3qKfcMiXLneG3fO4", "gh_de0f036ce08f", 1670592443000L, "110", null);
+        AtomicInteger undeclaredCalls = new AtomicInteger();
+        AtomicInteger subscribeCalls = new AtomicInteger();
+        MessageHandler handler = new CompositeMessageHandler(List.of(
+                declaring(undeclaredCalls, ReplyMessage.NO_RETRY, EnumSet.of(MessageType.TEXT), EnumSet.of(EventType.SUBSCRIBE)),
+                declaring(subscribeCalls, REPLY, EnumSet.of(MessageType.EVENT), EnumSet.of(EventType.SUBSCRIBE))), BUDGET);
+        Assertions.assertSame(REPLY, handler.handleMessage(CTX, subscribe).get(1, TimeUnit.SECONDS));
+        Assertions.assertSame(ReplyMessage.ACK, handler.handleMessage(CTX, scan).get(1, TimeUnit.SECONDS));
+        Assertions.assertEquals(0, undeclaredCalls.get());
+        Assertions.assertEquals(1, subscribeCalls.get());
+    }
+}
@@ -0,0 +1,166 @@
+package weixin.mp.application;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import weixin.mp.domain.Context;
+import weixin.mp.domain.InterestedEvent;
+import weixin.mp.domain.ReplyMessage;
+import weixin.mp.domain.RequestMessage;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class DeduplicatingMessageHandlerTest {
+
+    private static final Context CTX = new Context("gh_de0f036ce08f", "wxd3a0f6c8176edcab", null, "GreedIsGood", null, null);
+
+    private static final Context OTHER_CTX = new Context("gh_b4f0e22ae50e", "wxabb8e5e80f591861", null, "GreedIsGood", null, null);
+
+    private static final ReplyMessage REPLY = new ReplyMessage.TextMessage("ooUo26seZPcU3qKfcMiXLneG3fO4", "gh_de0f036ce08f", 1668869542000L, "回复");
+
+    private static RequestMessage text(String msgId) {
+        return new RequestMessage.TextMessage("ooUo26seZPcU3qKfcMiXLneG3fO4", "gh_de0f036ce08f", 1668869541000L, msgId, null, "文本消息", List.of());
+    }
+
+    /**
+     * 以内存集合模拟多个节点共享的分布式登记
+     */
+    private static class MemoryRegistry implements DeduplicatingMessageHandler.Registry {
+
+        private final Set<String> keys = ConcurrentHashMap.newKeySet();
+
+        @Override
+        public CompletableFuture<Boolean> register(String key, Duration window) {
+            return CompletableFuture.completedFuture(keys.add(key));
+        }
+
+        @Override
+        public CompletableFuture<Void> unregister(String key) {
+            keys.remove(key);
+            return CompletableFuture.completedFuture(null);
+        }
+    }
+
+    /**
+     * 记录调用次数，回复由调用方控制
+     */
+    private static MessageHandler counting(AtomicInteger calls, CompletableFuture<ReplyMessage> reply) {
+        return (ctx, msg) -> {
+            calls.incrementAndGet();
+            return reply;
+        };
+    }
+
+    @Test
+    @DisplayName("窗口期内重复的消息复用首次处理的回复，不再交给处理器")
+    public void testDuplicate() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        CompletableFuture<ReplyMessage> pending = new CompletableFuture<>();
+        MessageHandler handler = new DeduplicatingMessageHandler(counting(calls, pending), Duration.ofSeconds(15), 16);
+        CompletableFuture<ReplyMessage> first = handler.handleMessage(CTX, text("23892468385179204"));
+        CompletableFuture<ReplyMessage> retried = handler.handleMessage(CTX, text("23892468385179204"));
+        Assertions.assertSame(first, retried);
+        Assertions.assertFalse(first.isDone());
+        pending.complete(REPLY);
+        Assertions.assertSame(REPLY, retried.get());
+        Assertions.assertEquals(1, calls.get());
+
+        handler.handleMessage(CTX, text("23892468385179205"));
+        handler.handleMessage(OTHER_CTX, text("23892468385179204"));
+        Assertions.assertEquals(3, calls.get());
+    }
+
+    @Test
+    @DisplayName("事件没有MsgId，按FromUserName + CreateTime排重")
+    public void testDuplicateEvent() {
+        AtomicInteger calls = new AtomicInteger();
+        MessageHandler handler = new DeduplicatingMessageHandler(counting(calls, CompletableFuture.completedFuture(REPLY)), Duration.ofSeconds(15), 16);
+        handler.handleMessage(CTX, new InterestedEvent.SubscribeEvent("ooUo26seZPcU3qKfcMiXLneG3fO4", "gh_de0f036ce08f", 1670592443000L, null, null));
+        handler.handleMessage(CTX, new InterestedEvent.SubscribeEvent("ooUo26seZPcU3qKfcMiXLneG3fO4", "gh_de0f036ce08f", 1670592443000L, null, null));
+        handler.handleMessage(CTX, new InterestedEvent.SubscribeEvent("ooUo26seZPcU3qKfcMiXLneG3fO4", "gh_de0f036ce08f", 1670592444000L, null, null));
+        Assertions.assertEquals(2, calls.get());
+    }
+
+    @Test
+    @DisplayName("处理失败后移出窗口，微信重试时重新处理")
+    public void testRetryAfterFailure() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        MessageHandler handler = new DeduplicatingMessageHandler((ctx, msg) -> {
+            if (calls.incrementAndGet() == 1) {
+                throw new IllegalStateException("first attempt fail");
+            }
+            return null;
+        }, Duration.ofSeconds(15), 16);
+        CompletableFuture<ReplyMessage> first = handler.handleMessage(CTX, text("23892468385179204"));
+        ExecutionException e = Assertions.assertThrows(ExecutionException.class, first::get);
+        Assertions.assertInstanceOf(IllegalStateException.class, e.getCause());
+        Assertions.assertSame(ReplyMessage.ACK, handler.handleMessage(CTX, text("23892468385179204")).get());
+        Assertions.assertEquals(2, calls.get());
+    }
+
+    @Test
+    @DisplayName("过期或超出容量的记录被淘汰")
+    public void testEvict() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        MessageHandler handler = new DeduplicatingMessageHandler(counting(calls, CompletableFuture.completedFuture(REPLY)), Duration.ofSeconds(15), 2);
+        handler.handleMessage(CTX, text("1"));
+        handler.handleMessage(CTX, text("2"));
+        handler.handleMessage(CTX, text("3")); // evict 1
+        handler.handleMessage(CTX, text("1"));
+        Assertions.assertEquals(4, calls.get());
+
+        handler = new DeduplicatingMessageHandler(counting(calls, CompletableFuture.completedFuture(REPLY)), Duration.ofMillis(50), 16);
+        handler.handleMessage(CTX, text("4"));
+        Thread.sleep(100);
+        handler.handleMessage(CTX, text("4"));
+        Assertions.assertEquals(6, calls.get());
+    }
+
+    @Test
+    @DisplayName("其他节点已登记的消息仅确认接收；登记失败时照常处理")
+    public void testRegistry() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        MemoryRegistry registry = new MemoryRegistry();
+        registry.keys.add(CTX.appId() + ".accepted");
+        MessageHandler handler = new DeduplicatingMessageHandler(counting(calls, CompletableFuture.completedFuture(REPLY)), Duration.ofSeconds(15), 16, registry);
+        Assertions.assertSame(ReplyMessage.ACK, handler.handleMessage(CTX, text("accepted")).get());
+        Assertions.assertSame(REPLY, handler.handleMessage(CTX, text("23892468385179204")).get());
+        Assertions.assertEquals(1, calls.get());
+
+        handler = new DeduplicatingMessageHandler(counting(calls, CompletableFuture.completedFuture(REPLY)), Duration.ofSeconds(15), 16,
+                new MemoryRegistry() {
+                    @Override
+                    public CompletableFuture<Boolean> register(String key, Duration window) {
+                        return CompletableFuture.failedFuture(new IllegalStateException("redis down"));
+                    }
+                });
+        Assertions.assertSame(REPLY, handler.handleMessage(CTX, text("23892468385179204")).get());
+        Assertions.assertEquals(2, calls.get());
+    }
+
+    @Test
+    @DisplayName("处理失败后撤销分布式登记，微信重试到其他节点时重新处理")
+    public void testRegistryRetryAfterFailure() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        MessageHandler failing = (ctx, msg) -> {
+            calls.incrementAndGet();
+            return CompletableFuture.failedFuture(new IllegalStateException("first attempt fail"));
+        };
+        MemoryRegistry registry = new MemoryRegistry();
+        MessageHandler node = new DeduplicatingMessageHandler(failing, Duration.ofSeconds(15), 16, registry);
+        MessageHandler other = new DeduplicatingMessageHandler(counting(calls, CompletableFuture.completedFuture(REPLY)), Duration.ofSeconds(15), 16, registry);
+
+        ExecutionException e = Assertions.assertThrows(ExecutionException.class, node.handleMessage(CTX, text("23892468385179204"))::get);
+        Assertions.assertInstanceOf(IllegalStateException.class, e.getCause());
+        Assertions.assertTrue(registry.keys.isEmpty());
+        Assertions.assertSame(REPLY, other.handleMessage(CTX, text("23892468385179204")).get());
+        Assertions.assertEquals(2, calls.get());
+        Assertions.assertEquals(Set.of(CTX.appId() + ".23892468385179204"), registry.keys);
+    }
+}
@@ -0,0 +1,101 @@
+package weixin.mp.domain;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HexFormat;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 对比每次调用都getInstance、解码密钥的原实现与{@link KeyedCryptoEngine}按密钥、按线程缓存后的实现。
+ * 不随单元测试执行，运行：先mvn test-compile，再以测试classpath执行main方法
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TrustableMessageBenchmark {
+
+    private static final String CONTENT = "1669731472" + "1487905294" + "GreedIsGood";
+
+    /**
+     * 原实现：每次调用都查找算法实现、解码密钥
+     */
+    static String digest(String content) throws Exception {
+        MessageDigest md = MessageDigest.getInstance("SHA-1");
+        return HexFormat.of().formatHex(md.digest(content.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * 原实现：每次调用都查找算法实现、解码密钥，明文逐段复制
+     */
+    static TrustableMessage.MessageWrapper decrypt(String key, String ciphertext) throws Exception {
+        byte[] aesKey = Base64.getDecoder().decode(key);
+        Cipher cipher = Cipher.getInstance("AES/CBC/NoPadding");
+        cipher.init(Cipher.DECRYPT_MODE, new SecretKeySpec(aesKey, "AES"), new IvParameterSpec(Arrays.copyOfRange(aesKey, 0, 16)));
+        byte[] plainContainer = cipher.doFinal(Base64.getDecoder().decode(ciphertext));
+        int xmlLength = 0;
+        for (byte b : Arrays.copyOfRange(plainContainer, 16, 20)) {
+            xmlLength = (xmlLength << 8) | (b & 0xFF);
+        }
+        int paddingLength = plainContainer[plainContainer.length - 1];
+        if (paddingLength < 1 || paddingLength > 32) {
+            paddingLength = 0;
+        }
+        String xml = new String(Arrays.copyOfRange(plainContainer, 20, 20 + xmlLength), StandardCharsets.UTF_8);
+        String appId = new String(Arrays.copyOfRange(plainContainer, 20 + xmlLength, plainContainer.length - paddingLength), StandardCharsets.UTF_8);
+        return new TrustableMessage.MessageWrapper(appId, xml);
+    }
+
+    @Benchmark
+    public String digestBaseline() throws Exception {
+        return digest(CONTENT);
+    }
+
+    @Benchmark
+    public String digestCached() {
+        return TrustableMessage.MP_INSTANCE.digest(CONTENT);
+    }
+
+    @Benchmark
+    public TrustableMessage.MessageWrapper decryptBaseline() throws Exception {
+        return decrypt(TrustableMessageTest.KEY, TrustableMessageTest.CIPHERTEXT);
+    }
+
+    @Benchmark
+    public TrustableMessage.MessageWrapper decryptCached() {
+        return TrustableMessage.MP_INSTANCE.decrypt(TrustableMessageTest.KEY, TrustableMessageTest.CIPHERTEXT);
+    }
+
+    @Benchmark
+    public ByteBuffer decryptInPlace() {
+        return TrustableMessage.MP_INSTANCE.decrypt(TrustableMessageTest.KEY, TrustableMessageTest.CIPHERTEXT, TrustableMessageTest.APP_ID);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(TrustableMessageBenchmark.class.getSimpleName())
+                .addProfiler("gc")
+                .build()).run();
+    }
+}
@@ -0,0 +1,159 @@
+package weixin.mp.domain;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import javax.crypto.Cipher;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class TrustableMessageTest {
+
+    static final String KEY = "h7ZycbpEh2vNdfkYulfw9pG95HjLYwmrKBFeqIktff6";
+
+    static final String APP_ID = "wxabb8e5e80f591861";
+
+    static final String CIPHERTEXT = "nXJsNjyg1mO1CZAvs4n6iAMSg8m3JIcmsUeWJEtr2SU/mskaPsywpBbc0wxE+vaPgTlECUnInGypLFOkvKR5vloY+55xynbMZ+DzKo1WFf7No3CkjiDD6bSA7MFuVAGNAYYDfXhhDe5bSFLmHQOOGAbEL0dtyNXXLcNAglSv6qbC94GYljypiBfRH4Wm4JnYjvaFZG4CwtFFsh80cSMIyj+qTv9zVURbcY6T6I2JNzM0txYg8hb6IMvbT1+OTNUZ2j1yqWFYsWYl7IqLCSaWPNVgwn7Nx/S8Y9au/BnXO1yy+Y0akzVvycG/BOQ3PfOkx00nryYE3O2GNz/LCVnbI0Z00ZEo3W3Ea1fWgUH7blbXl2tvjyxxTTySQYYbkiwVNeSLYYAMzjALXBaGJDi3TeiCOwwNryoq9LGWveMHbOI8Bwu4VNlxkIc28bRxMECJLv9AbcuYvriR/t6YaOCFrg==";
+
+    private static final String OTHER_KEY = "i64vvcS4XJpwDWdEBiLNQhYsv2BRDTo4udCzbIpluvX";
+
+    /**
+     * 按微信的格式组装明文：16字节随机数 + 4字节网络字节序的xml长度 + xml + appId
+     */
+    private static byte[] wrap(String xml, String appId) {
+        byte[] content = xml.getBytes(StandardCharsets.UTF_8);
+        byte[] id = appId.getBytes(StandardCharsets.UTF_8);
+        return ByteBuffer.allocate(20 + content.length + id.length)
+                .put("0123456789abcdef".getBytes(StandardCharsets.US_ASCII))
+                .putInt(content.length)
+                .put(content)
+                .put(id)
+                .array();
+    }
+
+    private static String toString(ByteBuffer buffer) {
+        return StandardCharsets.UTF_8.decode(buffer.duplicate()).toString();
+    }
+
+    @Test
+    @DisplayName("SHA-1摘要")
+    public void testDigest() {
+        Assertions.assertEquals("a9993e364706816aba3e25717850c26c9cd0d89d", TrustableMessage.MP_INSTANCE.digest("abc"));
+        Assertions.assertEquals("a9993e364706816aba3e25717850c26c9cd0d89d", TrustableMessage.MP_INSTANCE.digest("abc"));
+        Assertions.assertEquals("da39a3ee5e6b4b0d3255bfef95601890afd80709", TrustableMessage.MP_INSTANCE.digest(""));
+    }
+
+    @Test
+    @DisplayName("解密微信推送的密文")
+    public void testDecrypt() {
+        TrustableMessage.MessageWrapper wrapper = TrustableMessage.MP_INSTANCE.decrypt(KEY, CIPHERTEXT);
+        Assertions.assertEquals(APP_ID, wrapper.appId());
+        Assertions.assertTrue(wrapper.content().startsWith("<xml><ToUserName><![CDATA[gh_b4f0e22ae50e]]></ToUserName>"));
+        Assertions.assertTrue(wrapper.content().endsWith("<MsgId>23904806341841418</MsgId>\n</xml>"));
+
+        ByteBuffer xml = TrustableMessage.MP_INSTANCE.decrypt(KEY, CIPHERTEXT, APP_ID);
+        Assertions.assertNotNull(xml);
+        Assertions.assertTrue(xml.isReadOnly());
+        Assertions.assertEquals(wrapper.content(), toString(xml));
+    }
+
+    @Test
+    @DisplayName("appId不匹配时返回null")
+    public void testDecryptAppIdMismatch() {
+        Assertions.assertNull(TrustableMessage.MP_INSTANCE.decrypt(KEY, CIPHERTEXT, "wxd3a0f6c8176edcab"));
+        Assertions.assertNull(TrustableMessage.MP_INSTANCE.decrypt(KEY, CIPHERTEXT, APP_ID + "0"));
+    }
+
+    @Test
+    @DisplayName("加密后解密还原，多个密钥交替使用")
+    public void testEncryptThenDecrypt() {
+        String xml = "<xml><Content><![CDATA[测试文本消息]]></Content></xml>";
+        for (int padding = 0; padding < 40; padding++) {
+            String content = xml + " ".repeat(padding);
+            for (String key : new String[] {KEY, OTHER_KEY}) {
+                String ciphertext = TrustableMessage.MP_INSTANCE.encrypt(key, wrap(content, APP_ID));
+                Assertions.assertEquals(content, toString(TrustableMessage.MP_INSTANCE.decrypt(key, ciphertext, APP_ID)));
+                TrustableMessage.MessageWrapper wrapper = TrustableMessage.MP_INSTANCE.decrypt(key, ciphertext);
+                Assertions.assertEquals(APP_ID, wrapper.appId());
+                Assertions.assertEquals(content, wrapper.content());
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("同一线程复用Cipher、MessageDigest，不同线程各自持有")
+    public void testEnginePerThread() throws Exception {
+        KeyedCryptoEngine engine = new KeyedCryptoEngine("SHA-1", "AES/CBC/NoPadding", "AES", 16);
+        Cipher cipher = engine.cipher(KEY, Cipher.DECRYPT_MODE);
+        Assertions.assertSame(cipher, engine.cipher(OTHER_KEY, Cipher.ENCRYPT_MODE));
+        Assertions.assertSame(engine.digest(), engine.digest());
+        Cipher other = CompletableFuture.supplyAsync(() -> {
+            try {
+                return engine.cipher(KEY, Cipher.DECRYPT_MODE);
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        }).get();
+        Assertions.assertNotSame(cipher, other);
+    }
+
+    @Test
+    @DisplayName("多线程并发解密互不干扰")
+    public void testDecryptConcurrently() throws Exception {
+        String expected = TrustableMessage.MP_INSTANCE.decrypt(KEY, CIPHERTEXT).content();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<CompletableFuture<String>> results = new ArrayList<>();
+            for (int i = 0; i < 64; i++) {
+                results.add(CompletableFuture.supplyAsync(() -> {
+                    String xml = null;
+                    for (int j = 0; j < 100; j++) {
+                        xml = toString(TrustableMessage.MP_INSTANCE.decrypt(KEY, CIPHERTEXT, APP_ID));
+                    }
+                    return xml;
+                }, executor));
+            }
+            for (CompletableFuture<String> result : results) {
+                Assertions.assertEquals(expected, result.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    @DisplayName("服务器验证及消息体签名")
+    public void testVerify() {
+        Context ctx = new Context(null, APP_ID, null, "GreedIsGood", KEY, true);
+        Assertions.assertTrue(new ChallengeMessage(ctx, "dd5ed7952f4a30058844643e67b86823fcf0cedf", "1669731472", "1487905294").check());
+        Assertions.assertTrue(new ChallengeMessage(ctx, "DD5ED7952F4A30058844643E67B86823FCF0CEDF", "1669731472", "1487905294").check());
+        Assertions.assertTrue(new RequestMessageRetriever(ctx, "2152b4cd4935c9a21b5c3a0e97b197b74d8fd65d", "1669731472", "1487905294", CIPHERTEXT).check());
+
+        Assertions.assertFalse(new ChallengeMessage(ctx, "dd5ed7952f4a30058844643e67b86823fcf0cede", "1669731472", "1487905294").check());
+        Assertions.assertFalse(new ChallengeMessage(ctx, "dd5ed7952f4a30058844643e67b86823fcf0ced", "1669731472", "1487905294").check());
+        Assertions.assertFalse(new ChallengeMessage(ctx, "dd5ed7952f4a30058844643e67b86823fcf0cedg", "1669731472", "1487905294").check());
+        Assertions.assertFalse(new ChallengeMessage(ctx, null, "1669731472", "1487905294").check());
+        Assertions.assertFalse(new ChallengeMessage(ctx, "dd5ed7952f4a30058844643e67b86823fcf0cedf", "1669731473", "1487905294").check());
+        Assertions.assertFalse(new RequestMessageRetriever(ctx, "2152b4cd4935c9a21b5c3a0e97b197b74d8fd65d", "1669731472", "1487905294", null).check());
+    }
+
+    @Test
+    @DisplayName("签名与拼接字符串后计算摘要的结果一致，各部分原地排序")
+    public void testVerifyMatchesDigest() {
+        String[] components = {"GreedIsGood", "1669731472", "随机数", "1487905294"};
+        String[] sorted = components.clone();
+        Arrays.sort(sorted);
+        String signature = TrustableMessage.MP_INSTANCE.digest(String.join("", sorted));
+        Assertions.assertTrue(TrustableMessage.MP_INSTANCE.verify(signature, components));
+        Assertions.assertEquals(List.of(sorted), List.of(components));
+        Assertions.assertTrue(TrustableMessage.MP_INSTANCE.verify(signature, "1487905294", "随机数", "GreedIsGood", "1669731472"));
+        Assertions.assertFalse(TrustableMessage.MP_INSTANCE.verify(signature, "1487905294", "GreedIsGood", "1669731472"));
+    }
+}
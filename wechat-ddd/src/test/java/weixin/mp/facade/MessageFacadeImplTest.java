@@ -0,0 +1,108 @@
+package weixin.mp.facade;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import weixin.mp.domain.Context;
+import weixin.mp.domain.MessageCorruptException;
+import weixin.mp.domain.ReplyMessage;
+
+import java.lang.reflect.Proxy;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+public class MessageFacadeImplTest {
+
+    private static final Context CTX = new Context("gh_de0f036ce08f", "wxd3a0f6c8176edcab", null, "GreedIsGood", null, null);
+
+    private static final String XML_FMT = """
+            <xml><ToUserName><![CDATA[gh_de0f036ce08f]]></ToUserName>
+            <FromUserName><![CDATA[ooUo26seZPcU3qKfcMiXLneG3fO4]]></FromUserName>
+            <CreateTime>1668869541</CreateTime>
+            <MsgType><![CDATA[text]]></MsgType>
+            <Content><![CDATA[文本消息]]></Content>
+            <MsgId>%1$s</MsgId>
+            </xml>
+            """;
+
+    private static final ReplyMessage REPLY = new ReplyMessage.TextMessage("ooUo26seZPcU3qKfcMiXLneG3fO4", "gh_de0f036ce08f", 1668869542000L, "回复");
+
+    /**
+     * 只记录推送的客服消息
+     */
+    private static WeixinCustomServiceApiFacade customService(List<ReplyMessage> pushed) {
+        return (WeixinCustomServiceApiFacade) Proxy.newProxyInstance(MessageFacadeImplTest.class.getClassLoader(),
+                new Class<?>[] {WeixinCustomServiceApiFacade.class}, (proxy, method, args) -> {
+                    if ("echo".equals(method.getName())) {
+                        pushed.add((ReplyMessage) args[0]);
+                        return CompletableFuture.completedFuture(null);
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                });
+    }
+
+    private static MessageFacade.Response onMessage(MessageFacade facade, String msgId) throws Exception {
+        return facade.onMessage("signature", "1668869542", "973755032", "ooUo26seZPcU3qKfcMiXLneG3fO4", null, null, XML_FMT.formatted(msgId))
+                .get(10, TimeUnit.SECONDS);
+    }
+
+    @Test
+    @DisplayName("及时回复随响应返回")
+    public void testReply() throws Exception {
+        List<ReplyMessage> pushed = new CopyOnWriteArrayList<>();
+        MessageFacade facade = new MessageFacadeImpl(CTX, (ctx, msg) -> CompletableFuture.completedFuture(REPLY), customService(pushed));
+        MessageFacade.Response response = onMessage(facade, "23892468385179201");
+        Assertions.assertNull(response.text());
+        Assertions.assertTrue(response.xml().contains("<![CDATA[回复]]>"));
+        Assertions.assertTrue(pushed.isEmpty());
+    }
+
+    @Test
+    @DisplayName("格式错误的消息以MessageCorruptException失败")
+    public void testMalformed() {
+        MessageFacade facade = new MessageFacadeImpl(CTX, (ctx, msg) -> CompletableFuture.completedFuture(REPLY));
+        CompletableFuture<MessageFacade.Response> response = facade.onMessage("signature", "1668869542", "973755032", null, null, null, "<xml><MsgType>");
+        ExecutionException e = Assertions.assertThrows(ExecutionException.class, response::get);
+        Assertions.assertInstanceOf(MessageCorruptException.class, e.getCause());
+    }
+
+    @Test
+    @DisplayName("超时先确认接收；重复投递的消息共享回复，迟到的回复只推送一次，之后的重试仅确认")
+    public void testLateReplyPushedOnce() throws Exception {
+        List<ReplyMessage> pushed = new CopyOnWriteArrayList<>();
+        CompletableFuture<ReplyMessage> late = new CompletableFuture<>();
+        MessageFacade facade = new MessageFacadeImpl(CTX, (ctx, msg) -> late, customService(pushed));
+        CompletableFuture<MessageFacade.Response> first = CompletableFuture.supplyAsync(() -> {
+            try {
+                return onMessage(facade, "23892468385179202");
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        MessageFacade.Response redelivered = onMessage(facade, "23892468385179202");
+        Assertions.assertEquals(ReplyMessage.ACK_CONTENT, redelivered.text());
+        Assertions.assertEquals(ReplyMessage.ACK_CONTENT, first.get(10, TimeUnit.SECONDS).text());
+        Assertions.assertTrue(pushed.isEmpty());
+
+        late.complete(REPLY);
+        Assertions.assertEquals(List.of(REPLY), pushed);
+
+        MessageFacade.Response retried = onMessage(facade, "23892468385179202");
+        Assertions.assertEquals(ReplyMessage.ACK_CONTENT, retried.text());
+        Assertions.assertEquals(List.of(REPLY), pushed);
+    }
+
+    @Test
+    @DisplayName("超时后处理失败不推送")
+    public void testLateFailure() throws Exception {
+        List<ReplyMessage> pushed = new CopyOnWriteArrayList<>();
+        CompletableFuture<ReplyMessage> late = new CompletableFuture<>();
+        MessageFacade facade = new MessageFacadeImpl(CTX, (ctx, msg) -> late, customService(pushed));
+        Assertions.assertEquals(ReplyMessage.ACK_CONTENT, onMessage(facade, "23892468385179203").text());
+        late.completeExceptionally(new IllegalStateException("handler fail"));
+        Assertions.assertTrue(pushed.isEmpty());
+    }
+}
@@ -0,0 +1,143 @@
+package weixin.mp.facade;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import weixin.mp.domain.InterestedEvent;
+import weixin.mp.domain.RequestMessage;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+public class XmlParserTest {
+
+    private static final String TEXT = """
+            <xml><ToUserName><![CDATA[gh_de0f036ce08f]]></ToUserName>
+            <FromUserName><![CDATA[ooUo26seZPcU3qKfcMiXLneG3fO4]]></FromUserName>
+            <CreateTime>1668869541</CreateTime>
+            <MsgType><![CDATA[text]]></MsgType>
+            <Content><![CDATA[文本消息]]></Content>
+            <MsgId>23892468385179204</MsgId>
+            </xml>
+            """;
+
+    @Test
+    @DisplayName("文本消息")
+    public void testParseText() {
+        RequestMessage message = XmlParser.parse(TEXT);
+        RequestMessage.TextMessage text = Assertions.assertInstanceOf(RequestMessage.TextMessage.class, message);
+        Assertions.assertEquals("gh_de0f036ce08f", text.toAccount());
+        Assertions.assertEquals("ooUo26seZPcU3qKfcMiXLneG3fO4", text.fromOpenId());
+        Assertions.assertEquals(1668869541000L, text.timestamp());
+        Assertions.assertEquals("23892468385179204", text.msgId());
+        Assertions.assertEquals("文本消息", text.content());
+        Assertions.assertTrue(text.idx().isEmpty());
+    }
+
+    @Test
+    @DisplayName("字节流、字节缓冲区、字符串解析结果一致")
+    public void testParseSources() {
+        byte[] bytes = TEXT.getBytes(StandardCharsets.UTF_8);
+        RequestMessage expected = XmlParser.parse(TEXT);
+        Assertions.assertEquals(expected, XmlParser.parse(new ByteArrayInputStream(bytes)));
+        Assertions.assertEquals(expected, XmlParser.parse(ByteBuffer.wrap(bytes)));
+        Assertions.assertEquals(expected, XmlParser.parse(ByteBuffer.allocateDirect(bytes.length).put(bytes).flip()));
+        ByteBuffer slice = ByteBuffer.allocate(bytes.length + 8).position(4).put(bytes).position(4).limit(4 + bytes.length).slice();
+        Assertions.assertEquals(expected, XmlParser.parse(slice));
+    }
+
+    @Test
+    @DisplayName("MsgType/Event出现在其他标签之后，暂存的标签回放给具体解析器")
+    public void testParseTypeAfterFields() {
+        String xml = """
+                <xml><ToUserName><![CDATA[gh_de0f036ce08f]]></ToUserName>
+                <FromUserName><![CDATA[ooUo26seZPcU3qKfcMiXLneG3fO4]]></FromUserName>
+                <CreateTime>1670592443</CreateTime>
+                <EventKey><![CDATA[qrscene_110]]></EventKey>
+                <Ticket><![CDATA[gQGP8DwAAAAAAAAAAS5odHRwOi8vd2VpeGluLnFxLmNvbS9xLzAybUdKYm9weGFjU0cxeFJVajF6MU0AAgSFN5NjAwTwAAAA]]></Ticket>
+                <MsgType><![CDATA[event]]></MsgType>
+                <Event><![CDATA[subscribe]]></Event>
+                </xml>
+                """;
+        InterestedEvent.SubscribeEvent event = Assertions.assertInstanceOf(InterestedEvent.SubscribeEvent.class, XmlParser.parse(xml));
+        Assertions.assertEquals("qrscene_110", event.eventKey());
+        Assertions.assertEquals("gQGP8DwAAAAAAAAAAS5odHRwOi8vd2VpeGluLnFxLmNvbS9xLzAybUdKYm9weGFjU0cxeFJVajF6MU0AAgSFN5NjAwTwAAAA", event.ticket());
+    }
+
+    @Test
+    @DisplayName("模板消息送达通知")
+    public void testParseTemplateMsgPushResult() {
+        String xml = """
+                <xml>
+                <ToUserName><![CDATA[gh_de0f036ce08f]]></ToUserName>
+                <FromUserName><![CDATA[ooUo26seZPcU3qKfcMiXLneG3fO4]]></FromUserName>
+                <CreateTime>1395658920</CreateTime>
+                <MsgType><![CDATA[event]]></MsgType>
+                <Event><![CDATA[TEMPLATESENDJOBFINISH]]></Event>
+                <MsgID>200163836</MsgID>
+                <Status><![CDATA[failed:user block]]></Status>
+                </xml>
+                """;
+        InterestedEvent.TemplateMsgPushResultEvent event = Assertions.assertInstanceOf(InterestedEvent.TemplateMsgPushResultEvent.class, XmlParser.parse(xml));
+        Assertions.assertEquals("200163836", event.msgId());
+        Assertions.assertEquals("failed:user block", event.status());
+        Assertions.assertEquals(1395658920000L, event.timestamp());
+    }
+
+    @Test
+    @DisplayName("图文消息中的多个Id标签")
+    public void testParseIdx() {
+        String xml = """
+                <xml><ToUserName><![CDATA[gh_de0f036ce08f]]></ToUserName>
+                <FromUserName><![CDATA[ooUo26seZPcU3qKfcMiXLneG3fO4]]></FromUserName>
+                <CreateTime>1668869541</CreateTime>
+                <MsgType><![CDATA[text]]></MsgType>
+                <Content><![CDATA[评论]]></Content>
+                <MsgDataId>2247483652</MsgDataId>
+                <Idx>1</Idx>
+                <Idx>2</Idx>
+                </xml>
+                """;
+        RequestMessage.TextMessage text = Assertions.assertInstanceOf(RequestMessage.TextMessage.class, XmlParser.parse(xml));
+        Assertions.assertEquals("2247483652", text.msgDataId());
+        Assertions.assertEquals(List.of("1", "2"), text.idx());
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+            "",
+            "not xml",
+            "<xml><ToUserName>gh_de0f036ce08f</ToUserName><MsgType>text</MsgType>",
+            "<xml><MsgType>text</MsgType></ToUserName></xml>",
+            "<xml><!DOCTYPE xml [<!ENTITY xxe SYSTEM \"file:///etc/passwd\">]><MsgType>&xxe;</MsgType></xml>",
+    })
+    @DisplayName("格式错误的xml抛出IllegalArgumentException，不再返回空结果")
+    public void testParseMalformed(String xml) {
+        Assertions.assertThrows(IllegalArgumentException.class, () -> XmlParser.parse(xml));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+            "<xml><ToUserName>gh_de0f036ce08f</ToUserName><Content>no type</Content></xml>",
+            "<xml><MsgType>unknown</MsgType></xml>",
+            "<xml><MsgType>event</MsgType><Event>unknown</Event></xml>",
+            "<xml><MsgType>text</MsgType><CreateTime>yesterday</CreateTime></xml>",
+    })
+    @DisplayName("缺少或无法识别MsgType、Event同样抛出IllegalArgumentException")
+    public void testParseUnresolvable(String xml) {
+        Assertions.assertThrows(IllegalArgumentException.class, () -> XmlParser.parse(xml));
+    }
+
+    @Test
+    @DisplayName("流式查找密文标签")
+    public void testLookup() {
+        String xml = "<xml><ToUserName><![CDATA[gh_b4f0e22ae50e]]></ToUserName><Encrypt><![CDATA[cipher]]></Encrypt></xml>";
+        Assertions.assertEquals("cipher", XmlParser.lookup(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)), XmlParser.ENCRYPT_TAG));
+        Assertions.assertNull(XmlParser.lookup(new ByteArrayInputStream("<xml></xml>".getBytes(StandardCharsets.UTF_8)), XmlParser.ENCRYPT_TAG));
+        Assertions.assertNull(XmlParser.lookup(new ByteArrayInputStream("<xml>".getBytes(StandardCharsets.UTF_8)), XmlParser.ENCRYPT_TAG));
+    }
+}
@@ -13,6 +13,9 @@ module wechat.spring {
     requires com.fasterxml.jackson.annotation;
     requires spring.data.redis;
     requires com.fasterxml.jackson.databind;
+    requires reactor.netty.core;
+    requires reactor.netty.http;
+    requires io.netty.transport;
 
     // runtime
     requires spring.core;
@@ -31,6 +34,7 @@ module wechat.spring {
     opens weixin.mp.infrastructure.config;
     exports weixin.mp.infrastructure.config to spring.web;
     opens weixin.mp.infrastructure.exceptions;
+    opens weixin.mp.infrastructure.bulk;
     exports weixin.mp.infrastructure.endpoint.vo to spring.web;
     opens weixin.mp.infrastructure.endpoint.vo; // class org.springframework.beans.BeanUtils (in module spring.beans) cannot access class weixin.mp.infrastructure.endpoint.MessageController (in module wechat.spring) because module wechat.spring does not export weixin.mp to module spring.beans
 
@@ -0,0 +1,140 @@
+package weixin.mp.infrastructure.bulk;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 按加性增、乘性减调整的并发窗口：
+ * <ul>
+ *     <li>在途请求数未达窗口时立即放行，否则排队</li>
+ *     <li>每完成约一个窗口的请求，窗口加1，直至上限</li>
+ *     <li>被限流时窗口减半（不小于1），一个冷却期内只减一次，避免同一波限流把窗口压到底</li>
+ *     <li>按秒分桶统计最近一分钟的成功数，得到持续发送速率</li>
+ * </ul>
+ */
+final class AdaptiveWindow {
+
+    private static final long DECREASE_COOLDOWN = TimeUnit.SECONDS.toNanos(1);
+
+    private static final int RATE_BUCKETS = 60;
+
+    private final int max;
+
+    private final Deque<CompletableFuture<Void>> waiters = new ArrayDeque<>();
+
+    private final long[] buckets = new long[RATE_BUCKETS];
+
+    private final long createdAt = System.nanoTime();
+
+    private double limit;
+
+    private int inFlight;
+
+    private long decreasedAt = createdAt - DECREASE_COOLDOWN;
+
+    private long lastSecond;
+
+    private long succeeded;
+
+    private long failed;
+
+    private long throttled;
+
+    /**
+     * @param max 窗口上限，初始即为上限
+     */
+    AdaptiveWindow(int max) {
+        this.max = max;
+        this.limit = max;
+    }
+
+    /**
+     * @return 获得在途名额后完成
+     */
+    synchronized CompletableFuture<Void> acquire() {
+        if (inFlight < (int) limit) {
+            inFlight++;
+            return CompletableFuture.completedFuture(null);
+        }
+        CompletableFuture<Void> waiter = new CompletableFuture<>();
+        waiters.add(waiter);
+        return waiter;
+    }
+
+    /**
+     * 归还名额并按结果调整窗口
+     * @param success 是否成功
+     * @param throttle 是否被限流
+     */
+    void release(boolean success, boolean throttle) {
+        long now = System.nanoTime();
+        synchronized (this) {
+            inFlight--;
+            if (throttle) {
+                throttled++;
+                if (now - decreasedAt >= DECREASE_COOLDOWN) {
+                    limit = Math.max(1, limit / 2);
+                    decreasedAt = now;
+                }
+            } else if (success) {
+                succeeded++;
+                buckets[(int) (advance(now) % RATE_BUCKETS)]++;
+                limit = Math.min(max, limit + 1 / limit);
+            } else {
+                failed++;
+            }
+        }
+        grant();
+    }
+
+    /**
+     * 放行排队的请求，跳过已取消的
+     */
+    private void grant() {
+        while (true) {
+            CompletableFuture<Void> next;
+            synchronized (this) {
+                if (inFlight >= (int) limit || waiters.isEmpty()) {
+                    return;
+                }
+                next = waiters.poll();
+                inFlight++;
+            }
+            if (next.complete(null)) {
+                continue;
+            }
+            synchronized (this) {
+                inFlight--;
+            }
+        }
+    }
+
+    /**
+     * 清空已过期的秒级桶
+     * @return 当前秒
+     */
+    private long advance(long now) {
+        long second = TimeUnit.NANOSECONDS.toSeconds(now - createdAt);
+        for (long s = Math.max(lastSecond + 1, second - RATE_BUCKETS + 1); s <= second; s++) {
+            buckets[(int) (s % RATE_BUCKETS)] = 0;
+        }
+        lastSecond = Math.max(lastSecond, second);
+        return second;
+    }
+
+    /**
+     * @return 当前指标
+     */
+    synchronized TemplateSender.Metrics metrics() {
+        long now = System.nanoTime();
+        long second = advance(now);
+        long recent = 0;
+        for (long count : buckets) {
+            recent += count;
+        }
+        long elapsed = Math.min(RATE_BUCKETS, Math.max(1, second));
+        return new TemplateSender.Metrics(succeeded, failed, throttled, inFlight, (int) limit, (double) recent / elapsed);
+    }
+}
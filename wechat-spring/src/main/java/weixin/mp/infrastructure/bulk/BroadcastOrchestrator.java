@@ -0,0 +1,375 @@
+package weixin.mp.infrastructure.bulk;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.retry.Retry;
+import weixin.mp.domain.MessageType;
+import weixin.mp.facade.dto.Material;
+import weixin.mp.infrastructure.cache.CacheKey;
+import weixin.mp.infrastructure.cache.Checkpoint;
+import weixin.mp.infrastructure.exceptions.ClientError;
+import weixin.mp.infrastructure.rpc.Weixin;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+/**
+ * 按openid列表群发超过单次上限的受众：
+ * <ul>
+ *     <li>受众均分为若干分片，每片不超过10000个openid</li>
+ *     <li>可先设置群发速度，再按实际下发速度估算每片的下发时间，错开各分片的提交</li>
+ *     <li>每片以"任务标识-分片序号-发送次数"作为clientmsgid，超时等原因重复提交时微信不会重复发送</li>
+ *     <li>提交后轮询群发状态直至结束，发送失败的分片以新的clientmsgid重发，发送成功的分片不再发送</li>
+ *     <li>分片状态保存为断点：以相同的任务标识和受众（顺序不变）再次执行时跳过已成功的分片，继续跟踪发送中的分片；全部分片发送成功后清除断点</li>
+ * </ul>
+ */
+public class BroadcastOrchestrator {
+
+    private static final Logger log = LoggerFactory.getLogger(BroadcastOrchestrator.class);
+
+    /**
+     * 根据OpenID列表群发每次最多10000个
+     */
+    public static final int SHARD_SIZE = 10000;
+
+    /**
+     * 根据OpenID列表群发至少2个
+     */
+    public static final int MIN_SHARD_SIZE = 2;
+
+    /**
+     * clientmsgid长度限制64字节，留出分片序号和发送次数
+     */
+    private static final int MAX_JOB_ID_LENGTH = 40;
+
+    private static final String CLIENT_MSG_ID_FMT = "%1$s-%2$d-%3$d";
+
+    /**
+     * 每个分片在一次执行中最多发送的次数
+     */
+    private static final int MAX_ATTEMPTS = 3;
+
+    private static final int MAX_SUBMIT_RETRIES = 3;
+
+    private static final Duration SUBMIT_BACKOFF = Duration.ofSeconds(5);
+
+    private static final Duration POLL_INTERVAL = Duration.ofSeconds(5);
+
+    /**
+     * 跟踪群发状态最多轮询次数，超出后分片保持发送中，再次执行时继续跟踪
+     */
+    private static final int MAX_POLLS = 720;
+
+    private static final String STATUS_SUCCESS = "SEND_SUCCESS";
+
+    private static final String STATUS_SENDING = "SENDING";
+
+    private static final String STATUS_FAIL = "SEND_FAIL";
+
+    private static final String STATUS_DELETE = "DELETE";
+
+    private static final String SHARD_SEPARATOR = ",";
+
+    private static final String FIELD_SEPARATOR = ":";
+
+    private final Checkpoint checkpoint;
+
+    private final int concurrency;
+
+    public enum State {
+        PENDING,
+        SENDING,
+        SUCCEEDED,
+        FAILED,
+        ;
+    }
+
+    /**
+     * @param index 分片序号
+     * @param size 分片用户数
+     * @param attempt 发送次数，从0开始，用于生成clientmsgid
+     * @param msgId 群发msgid，未提交成功时为null
+     * @param state 分片状态
+     */
+    public record Shard(int index, int size, int attempt, String msgId, State state) {}
+
+    /**
+     * @param shard 状态变化的分片
+     * @param shards 分片数
+     * @param succeeded 发送成功的分片数
+     * @param failed 发送失败的分片数
+     * @param users 受众用户数
+     * @param reached 发送成功的分片包含的用户数
+     */
+    public record Progress(Shard shard, int shards, int succeeded, int failed, long users, long reached) {}
+
+    /**
+     * @param checkpoint 断点，可为null（不能断点续传，仅依赖24小时内clientmsgid排重）
+     * @param concurrency 每个任务同时提交、跟踪的分片数
+     */
+    public BroadcastOrchestrator(Checkpoint checkpoint, int concurrency) {
+        this.checkpoint = checkpoint;
+        this.concurrency = concurrency;
+    }
+
+    /**
+     * @param weixin 公众号客户端
+     * @param jobId 任务标识，不超过40个字符，再次执行同一任务时须相同
+     * @param users 受众openid，至少2个
+     * @param type 群发的消息类型
+     * @param material 群发内容
+     * @param forcePublish 图文消息被判定为转载时，是否继续群发
+     * @param speed 群发速度，为null时保持当前速度
+     * @return 每个分片状态变化后的进度
+     */
+    public Flux<Progress> broadcast(Weixin weixin, String jobId, List<String> users, MessageType type, Material material,
+                                    boolean forcePublish, Integer speed) {
+        if (jobId == null || jobId.isEmpty() || jobId.length() > MAX_JOB_ID_LENGTH) {
+            throw new IllegalArgumentException("任务标识不能为空且不能超过" + MAX_JOB_ID_LENGTH + "个字符");
+        }
+        if (users == null || users.size() < MIN_SHARD_SIZE) {
+            throw new IllegalArgumentException("群发受众至少" + MIN_SHARD_SIZE + "个openid");
+        }
+        String appId = weixin.ctx().appId();
+        String key = CacheKey.BROADCAST_CHECKPOINT_FMT.formatted(appId, jobId);
+        List<List<String>> audience = split(users);
+        Mono<Optional<String>> resume = checkpoint == null ?
+                Mono.just(Optional.empty()) :
+                Mono.fromFuture(() -> checkpoint.load(key)).map(Optional::of).defaultIfEmpty(Optional.empty());
+        return Mono.zip(resume, transmission(weixin, speed))
+                .map(t -> new Job(weixin, jobId, key, audience, type, material, forcePublish, t.getT1().orElse(null), t.getT2()))
+                .flatMapMany(job -> Flux.range(0, audience.size()).flatMap(index -> run(job, index), concurrency)
+                        .concatWith(Mono.defer(job::finish)))
+                .doOnComplete(() -> log.info("'{}' broadcast job {} completed", appId, jobId));
+    }
+
+    /**
+     * 均分受众，每片不超过{@link #SHARD_SIZE}个；受众不少于{@link #MIN_SHARD_SIZE}个时，每片也不少于{@link #MIN_SHARD_SIZE}个
+     */
+    private static List<List<String>> split(List<String> users) {
+        int shards = (users.size() + SHARD_SIZE - 1) / SHARD_SIZE;
+        List<List<String>> audience = new ArrayList<>(shards);
+        for (int i = 0; i < shards; i++) {
+            audience.add(users.subList((int) ((long) users.size() * i / shards), (int) ((long) users.size() * (i + 1) / shards)));
+        }
+        return audience;
+    }
+
+    /**
+     * @return 实际下发速度（每秒用户数），获取失败时为0（不错开提交）
+     */
+    private static Mono<Long> transmission(Weixin weixin, Integer speed) {
+        Mono<Void> change = speed == null ? Mono.empty() : Mono.fromFuture(() -> weixin.changeBroadcastSpeed(speed));
+        return change.then(Mono.fromFuture(() -> weixin.retrieveBroadcastSpeed())
+                .map(t -> {
+                    log.info("'{}' broadcast speed level {}, {} users per second", weixin.ctx().appId(), t.level(), t.qps());
+                    return (long) t.qps();
+                })
+                .onErrorResume(e -> {
+                    log.warn("'{}' retrieve broadcast speed fail, submit shards without pacing: {}", weixin.ctx().appId(), e.getMessage());
+                    return Mono.just(0L);
+                }));
+    }
+
+    private Flux<Progress> run(Job job, int index) {
+        Shard shard = job.get(index);
+        return switch (shard.state()) {
+            case SUCCEEDED -> Flux.empty();
+            case SENDING -> track(job, shard, MAX_ATTEMPTS);
+            // 未确认提交成功的沿用原clientmsgid，避免重复发送
+            case PENDING, FAILED -> submit(job, index, shard.msgId() == null ? shard.attempt() : shard.attempt() + 1, MAX_ATTEMPTS);
+        };
+    }
+
+    private Flux<Progress> submit(Job job, int index, int attempt, int remaining) {
+        List<String> users = job.audience.get(index);
+        String clientMsgId = CLIENT_MSG_ID_FMT.formatted(job.jobId, index, attempt);
+        return Mono.delay(Duration.ofMillis(job.reserve(users.size())))
+                .then(Throttle.retry(Mono.fromFuture(() ->
+                        job.weixin.broadcast(null, users, job.type, job.material, job.forcePublish, clientMsgId))))
+                .retryWhen(Retry.backoff(MAX_SUBMIT_RETRIES, SUBMIT_BACKOFF)
+                        .filter(e -> !(e instanceof ClientError))
+                        .onRetryExhaustedThrow((spec, signal) -> signal.failure()))
+                .map(receipt -> new Shard(index, users.size(), attempt, String.valueOf(receipt.msgId()), State.SENDING))
+                .onErrorResume(e -> {
+                    log.warn("'{}' broadcast job {} submit shard {} fail: {}", job.weixin.ctx().appId(), job.jobId, index, e.getMessage());
+                    return Mono.just(new Shard(index, users.size(), attempt, null, State.FAILED));
+                })
+                .flatMapMany(shard -> shard.state() == State.SENDING ?
+                        job.report(shard).concatWith(track(job, shard, remaining)) :
+                        job.report(shard));
+    }
+
+    private Flux<Progress> track(Job job, Shard shard, int remaining) {
+        return Throttle.retry(Mono.fromFuture(() -> job.weixin.fetchBroadcastStatus(shard.msgId())))
+                .delaySubscription(POLL_INTERVAL)
+                .filter(status -> !STATUS_SENDING.equals(status))
+                .repeatWhenEmpty(MAX_POLLS, Function.identity())
+                .flatMapMany(status -> switch (status) {
+                    case STATUS_SUCCESS, STATUS_DELETE -> job.report(new Shard(shard.index(), shard.size(), shard.attempt(), shard.msgId(), State.SUCCEEDED));
+                    case STATUS_FAIL -> {
+                        if (remaining > 1) {
+                            log.info("'{}' broadcast job {} shard {} fail, resend", job.weixin.ctx().appId(), job.jobId, shard.index());
+                            yield submit(job, shard.index(), shard.attempt() + 1, remaining - 1);
+                        }
+                        yield job.report(new Shard(shard.index(), shard.size(), shard.attempt(), shard.msgId(), State.FAILED));
+                    }
+                    default -> {
+                        log.warn("'{}' broadcast job {} shard {} unknown status: {}", job.weixin.ctx().appId(), job.jobId, shard.index(), status);
+                        yield Flux.empty();
+                    }
+                })
+                .onErrorResume(e -> {
+                    log.warn("'{}' broadcast job {} track shard {} fail, keep it sending: {}", job.weixin.ctx().appId(), job.jobId, shard.index(), e.getMessage());
+                    return Flux.empty();
+                });
+    }
+
+    /**
+     * 一次群发任务的执行上下文及分片状态
+     */
+    private final class Job {
+
+        private final Weixin weixin;
+
+        private final String jobId;
+
+        private final String key;
+
+        private final List<List<String>> audience;
+
+        private final MessageType type;
+
+        private final Material material;
+
+        private final boolean forcePublish;
+
+        /**
+         * 每秒下发的用户数，不大于0时不错开提交
+         */
+        private final long qps;
+
+        private final Shard[] shards;
+
+        private long users;
+
+        private long nextSubmitAt;
+
+        private CompletableFuture<Void> persisted = CompletableFuture.completedFuture(null);
+
+        Job(Weixin weixin, String jobId, String key, List<List<String>> audience, MessageType type, Material material,
+            boolean forcePublish, String saved, long qps) {
+            this.weixin = weixin;
+            this.jobId = jobId;
+            this.key = key;
+            this.audience = audience;
+            this.type = type;
+            this.material = material;
+            this.forcePublish = forcePublish;
+            this.qps = qps;
+            this.shards = new Shard[audience.size()];
+            String[] states = saved == null ? null : saved.split(SHARD_SEPARATOR);
+            if (states != null && states.length != shards.length) {
+                throw new IllegalStateException("audience of broadcast job " + jobId + " changed");
+            }
+            for (int i = 0; i < shards.length; i++) {
+                int size = audience.get(i).size();
+                users += size;
+                if (states == null) {
+                    shards[i] = new Shard(i, size, 0, null, State.PENDING);
+                } else {
+                    String[] fields = states[i].split(FIELD_SEPARATOR, -1);
+                    shards[i] = new Shard(i, size, Integer.parseInt(fields[0]), fields[1].isEmpty() ? null : fields[1], State.valueOf(fields[2]));
+                }
+            }
+            if (states != null) {
+                log.info("'{}' resume broadcast job {}", weixin.ctx().appId(), jobId);
+            }
+        }
+
+        synchronized Shard get(int index) {
+            return shards[index];
+        }
+
+        /**
+         * @return 距离可提交的毫秒数：按下发速度，前一片下发完毕后再提交
+         */
+        synchronized long reserve(int size) {
+            if (qps <= 0) {
+                return 0;
+            }
+            long now = System.currentTimeMillis();
+            long start = Math.max(now, nextSubmitAt);
+            nextSubmitAt = start + size * 1000L / qps;
+            return start - now;
+        }
+
+        /**
+         * 更新分片状态并保存断点
+         * @return 更新后的进度
+         */
+        Flux<Progress> report(Shard shard) {
+            Progress progress;
+            CompletableFuture<Void> saved;
+            synchronized (this) {
+                shards[shard.index()] = shard;
+                int succeeded = 0;
+                int failed = 0;
+                long reached = 0;
+                for (Shard s : shards) {
+                    if (s.state() == State.SUCCEEDED) {
+                        succeeded++;
+                        reached += s.size();
+                    } else if (s.state() == State.FAILED) {
+                        failed++;
+                    }
+                }
+                progress = new Progress(shard, shards.length, succeeded, failed, users, reached);
+                saved = checkpoint == null ?
+                        persisted :
+                        (persisted = persisted.thenCompose(x -> checkpoint.save(key, encode())).exceptionally(e -> {
+                            log.warn("'{}' save broadcast job {} checkpoint fail: {}", weixin.ctx().appId(), jobId, e.getMessage());
+                            return null;
+                        }));
+            }
+            return Mono.fromFuture(saved).thenReturn(progress).flux();
+        }
+
+        /**
+         * 全部分片发送成功后清除断点，在此前的保存之后执行；仍有失败或发送中的分片时保留，再次执行时继续
+         */
+        Mono<Progress> finish() {
+            CompletableFuture<Void> cleared;
+            synchronized (this) {
+                if (checkpoint == null || Arrays.stream(shards).anyMatch(s -> s.state() != State.SUCCEEDED)) {
+                    return Mono.empty();
+                }
+                cleared = persisted = persisted.thenCompose(x -> checkpoint.clear(key)).exceptionally(e -> {
+                    log.warn("'{}' clear broadcast job {} checkpoint fail: {}", weixin.ctx().appId(), jobId, e.getMessage());
+                    return null;
+                });
+            }
+            return Mono.fromFuture(cleared).then(Mono.empty());
+        }
+
+        private synchronized String encode() {
+            StringBuilder sb = new StringBuilder(shards.length * 24);
+            for (Shard s : shards) {
+                if (sb.length() > 0) {
+                    sb.append(SHARD_SEPARATOR);
+                }
+                sb.append(s.attempt()).append(FIELD_SEPARATOR)
+                        .append(s.msgId() == null ? "" : s.msgId()).append(FIELD_SEPARATOR)
+                        .append(s.state().name());
+            }
+            return sb.toString();
+        }
+    }
+}
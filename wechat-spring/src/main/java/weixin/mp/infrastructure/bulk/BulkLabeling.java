@@ -0,0 +1,91 @@
+package weixin.mp.infrastructure.bulk;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import weixin.mp.infrastructure.rpc.Weixin;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiFunction;
+
+/**
+ * 批量为用户打标签、取消标签：
+ * <ul>
+ *     <li>按每次最多50个openid切分批次</li>
+ *     <li>同时进行的批次有上限，调用频率受公众号限流约束</li>
+ *     <li>调用太频繁时按指数退避重试该批次</li>
+ *     <li>单个批次失败不影响其他批次，每个批次返回一个结果</li>
+ * </ul>
+ */
+public class BulkLabeling {
+
+    private static final Logger log = LoggerFactory.getLogger(BulkLabeling.class);
+
+    /**
+     * 批量为用户打标签、取消标签每次传入的openid列表个数不能超过50个
+     */
+    public static final int BATCH_SIZE = 50;
+
+    private final int concurrency;
+
+    /**
+     * @param index 批次序号，从0开始
+     * @param tagId 标签id
+     * @param users 该批次的openid
+     * @param error 失败原因，成功时为null
+     */
+    public record Result(long index, int tagId, List<String> users, Throwable error) {
+        public boolean isSuccess() {
+            return error == null;
+        }
+    }
+
+    /**
+     * @param concurrency 每个公众号同时进行的批次数
+     */
+    public BulkLabeling(int concurrency) {
+        this.concurrency = concurrency;
+    }
+
+    /**
+     * @param weixin 公众号客户端
+     * @param users 粉丝openid
+     * @param tagId 标签id
+     * @return 每个批次的结果，按完成先后顺序
+     */
+    public Flux<Result> mark(Weixin weixin, Flux<String> users, int tagId) {
+        return label(weixin, users, tagId, weixin::mark);
+    }
+
+    public Flux<Result> mark(Weixin weixin, List<String> users, int tagId) {
+        return mark(weixin, Flux.fromIterable(users), tagId);
+    }
+
+    /**
+     * @param weixin 公众号客户端
+     * @param users 粉丝openid
+     * @param tagId 标签id
+     * @return 每个批次的结果，按完成先后顺序
+     */
+    public Flux<Result> unmark(Weixin weixin, Flux<String> users, int tagId) {
+        return label(weixin, users, tagId, weixin::unmark);
+    }
+
+    public Flux<Result> unmark(Weixin weixin, List<String> users, int tagId) {
+        return unmark(weixin, Flux.fromIterable(users), tagId);
+    }
+
+    private Flux<Result> label(Weixin weixin, Flux<String> users, int tagId,
+                               BiFunction<List<String>, Integer, CompletableFuture<Void>> operation) {
+        return users.buffer(BATCH_SIZE)
+                .index()
+                .flatMap(batch -> Throttle.retry(Mono.fromFuture(() -> operation.apply(batch.getT2(), tagId)))
+                        .thenReturn(new Result(batch.getT1(), tagId, batch.getT2(), null))
+                        .onErrorResume(e -> {
+                            log.warn("'{}' label batch {} with tag {} fail: {}", weixin.ctx().appId(), batch.getT1(), tagId, e.getMessage());
+                            return Mono.just(new Result(batch.getT1(), tagId, batch.getT2(), e));
+                        }), concurrency);
+    }
+}
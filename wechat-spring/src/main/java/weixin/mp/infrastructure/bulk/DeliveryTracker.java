@@ -0,0 +1,305 @@
+package weixin.mp.infrastructure.bulk;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import weixin.mp.application.EventDispatcher;
+import weixin.mp.domain.Context;
+import weixin.mp.domain.EventType;
+import weixin.mp.domain.InterestedEvent;
+import weixin.mp.domain.MessageType;
+import weixin.mp.domain.RequestMessage;
+
+import java.io.Closeable;
+import java.time.Duration;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 关联模板消息的发送与送达通知（TEMPLATESENDJOBFINISH事件）：
+ * <ul>
+ *     <li>发送成功后按公众号、msgid登记发送时间和上下文，每个公众号一个以long为键的有界映射，超出容量时淘汰最早登记的</li>
+ *     <li>重复登记同一msgid时，先前等待中的CompletableFuture随最后一次等待一同完成，不会因被替换而永不完成</li>
+ *     <li>收到送达通知时取出登记，统计送达结果及时延，等待中的CompletableFuture随之完成</li>
+ *     <li>超过期限仍未收到通知的视为过期，等待中的CompletableFuture以{@link Status#EXPIRED}完成</li>
+ * </ul>
+ * 不需要逐条持久化发送记录即可得到端到端的送达时延和成功率
+ */
+public class DeliveryTracker implements EventDispatcher, Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(DeliveryTracker.class);
+
+    private static final String STATUS_SUCCESS = "success";
+
+    private static final String STATUS_USER_BLOCK = "block";
+
+    private static final long SWEEP_INTERVAL = TimeUnit.SECONDS.toMillis(10);
+
+    private final int capacity;
+
+    private final long window;
+
+    private final Map<String, Account> accounts = new ConcurrentHashMap<>();
+
+    private final ScheduledExecutorService sweeper;
+
+    public enum Status {
+        /**
+         * 送达
+         */
+        SUCCESS,
+        /**
+         * 用户拒绝接收
+         */
+        USER_BLOCK,
+        /**
+         * 发送失败
+         */
+        FAILED,
+        /**
+         * 期限内未收到通知，或因容量不足被淘汰
+         */
+        EXPIRED,
+        ;
+    }
+
+    /**
+     * @param appId 公众号appId
+     * @param msgId 模板消息id
+     * @param status 送达结果
+     * @param latency 发送成功到收到送达通知的毫秒数，过期时为-1
+     * @param attachment 登记时的上下文
+     */
+    public record Delivery(String appId, long msgId, Status status, long latency, Object attachment) {}
+
+    /**
+     * @param tracked 累计登记数，重复登记同一msgid只计一次
+     * @param pending 等待通知的条目数
+     * @param succeeded 送达数
+     * @param blocked 用户拒绝接收数
+     * @param failed 发送失败数
+     * @param expired 过期数
+     * @param unmatched 未找到登记的通知数
+     * @param averageLatency 平均送达时延（毫秒）
+     * @param maxLatency 最大送达时延（毫秒）
+     */
+    public record Stats(long tracked, long pending, long succeeded, long blocked, long failed, long expired, long unmatched,
+                        double averageLatency, long maxLatency) {}
+
+    /**
+     * 等待送达通知的登记
+     */
+    private record Pending(CompletableFuture<Delivery> future, Object attachment) {}
+
+    /**
+     * 公众号的登记及统计，登记的读写以index加锁
+     */
+    private static final class Account {
+
+        private final ExpiringLongMap<Object> index;
+
+        private final LongAdder tracked = new LongAdder();
+
+        private final LongAdder succeeded = new LongAdder();
+
+        private final LongAdder blocked = new LongAdder();
+
+        private final LongAdder failed = new LongAdder();
+
+        private final LongAdder expired = new LongAdder();
+
+        private final LongAdder unmatched = new LongAdder();
+
+        private final LongAdder latencySum = new LongAdder();
+
+        private final AtomicLong latencyMax = new AtomicLong();
+
+        Account(int capacity) {
+            this.index = new ExpiringLongMap<>(capacity);
+        }
+    }
+
+    /**
+     * @param capacity 每个公众号最多登记的条目数
+     * @param window 等待送达通知的期限
+     */
+    public DeliveryTracker(int capacity, Duration window) {
+        this.capacity = capacity;
+        this.window = window.toMillis();
+        this.sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "delivery-tracker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.sweeper.scheduleWithFixedDelay(this::sweep, SWEEP_INTERVAL, SWEEP_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @param appId 公众号appId
+     * @param msgId 发送成功返回的msgid
+     * @param attachment 上下文，可为null
+     */
+    public void track(String appId, long msgId, Object attachment) {
+        register(appId, msgId, attachment);
+    }
+
+    /**
+     * @param appId 公众号appId
+     * @param msgId 发送成功返回的msgid
+     * @param attachment 上下文，可为null
+     * @return 收到送达通知或过期后完成
+     */
+    public CompletableFuture<Delivery> await(String appId, long msgId, Object attachment) {
+        CompletableFuture<Delivery> future = new CompletableFuture<>();
+        register(appId, msgId, new Pending(future, attachment));
+        return future;
+    }
+
+    private void register(String appId, long msgId, Object value) {
+        if (msgId == 0) {
+            log.warn("'{}' template message without msgid, skip tracking", appId);
+            return;
+        }
+        Account account = accounts.computeIfAbsent(appId, k -> new Account(capacity));
+        long now = System.currentTimeMillis();
+        boolean inserted;
+        synchronized (account.index) {
+            inserted = account.index.put(msgId, now, value, DeliveryTracker::merge, (key, time, v) -> expire(account, appId, key, v));
+        }
+        if (inserted) {
+            account.tracked.increment();
+        }
+    }
+
+    /**
+     * 重复登记：新的等待替换旧的，旧的随之完成；仅登记上下文时保留等待中的
+     */
+    private static Object merge(Object old, Object value) {
+        if (!(old instanceof Pending replaced)) {
+            return value;
+        }
+        if (!(value instanceof Pending pending)) {
+            return replaced;
+        }
+        pending.future().whenComplete((delivery, e) -> {
+            if (e != null) {
+                replaced.future().completeExceptionally(e);
+            } else {
+                replaced.future().complete(new Delivery(delivery.appId(), delivery.msgId(), delivery.status(),
+                        delivery.latency(), replaced.attachment()));
+            }
+        });
+        return pending;
+    }
+
+    @Override
+    public void dispatch(Context ctx, RequestMessage msg) {
+        if (!(msg instanceof InterestedEvent.TemplateMsgPushResultEvent event)) {
+            return;
+        }
+        Account account = accounts.get(ctx.appId());
+        if (account == null) {
+            return;
+        }
+        long msgId;
+        try {
+            msgId = Long.parseLong(event.msgId());
+        } catch (NumberFormatException e) {
+            log.warn("'{}' malformed template message id: {}", ctx.appId(), event.msgId());
+            account.unmatched.increment();
+            return;
+        }
+        // 以收到通知的时间计算时延，通知的创建时间只精确到秒
+        long arrived = System.currentTimeMillis();
+        boolean found;
+        synchronized (account.index) {
+            found = account.index.remove(msgId, (key, time, v) -> resolve(account, ctx.appId(), key, status(event.status()),
+                    Math.max(0, arrived - time), v));
+        }
+        if (!found) {
+            account.unmatched.increment();
+        }
+    }
+
+    @Override
+    public Set<MessageType> messageTypes() {
+        return EnumSet.of(MessageType.EVENT);
+    }
+
+    @Override
+    public Set<EventType> eventTypes() {
+        return EnumSet.of(EventType.TEMPLATE_MSG_PUSH_RESULT);
+    }
+
+    /**
+     * @param appId 公众号appId
+     * @return 累计统计，未登记过时为null
+     */
+    public Stats stats(String appId) {
+        Account account = accounts.get(appId);
+        if (account == null) {
+            return null;
+        }
+        int pending;
+        synchronized (account.index) {
+            pending = account.index.size();
+        }
+        long succeeded = account.succeeded.sum();
+        long blocked = account.blocked.sum();
+        long failed = account.failed.sum();
+        long delivered = succeeded + blocked + failed;
+        return new Stats(account.tracked.sum(), pending, succeeded, blocked, failed, account.expired.sum(), account.unmatched.sum(),
+                delivered == 0 ? 0 : (double) account.latencySum.sum() / delivered, account.latencyMax.get());
+    }
+
+    private static Status status(String status) {
+        if (STATUS_SUCCESS.equals(status)) {
+            return Status.SUCCESS;
+        }
+        return status != null && status.contains(STATUS_USER_BLOCK) ? Status.USER_BLOCK : Status.FAILED;
+    }
+
+    private void resolve(Account account, String appId, long msgId, Status status, long latency, Object value) {
+        switch (status) {
+            case SUCCESS -> account.succeeded.increment();
+            case USER_BLOCK -> account.blocked.increment();
+            default -> account.failed.increment();
+        }
+        account.latencySum.add(latency);
+        account.latencyMax.accumulateAndGet(latency, Math::max);
+        complete(appId, msgId, status, latency, value);
+    }
+
+    private void expire(Account account, String appId, long msgId, Object value) {
+        account.expired.increment();
+        complete(appId, msgId, Status.EXPIRED, -1, value);
+    }
+
+    private static void complete(String appId, long msgId, Status status, long latency, Object value) {
+        if (value instanceof Pending pending) {
+            // 异步完成，回调不占用登记的锁
+            pending.future().completeAsync(() -> new Delivery(appId, msgId, status, latency, pending.attachment()));
+        }
+    }
+
+    private void sweep() {
+        long deadline = System.currentTimeMillis() - window;
+        accounts.forEach((appId, account) -> {
+            synchronized (account.index) {
+                account.index.expire(deadline, (key, time, v) -> expire(account, appId, key, v));
+            }
+        });
+    }
+
+    @Override
+    public void close() {
+        sweeper.shutdownNow();
+    }
+}
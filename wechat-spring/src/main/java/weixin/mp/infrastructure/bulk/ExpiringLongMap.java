@@ -0,0 +1,247 @@
+package weixin.mp.infrastructure.bulk;
+
+import java.util.function.BinaryOperator;
+
+/**
+ * 以long为键、有容量上限、按写入时间过期的映射，避免装箱，百万级条目只占用几个数组：
+ * <ul>
+ *     <li>开放寻址（线性探测）哈希表，键、写入时间、值分别存放在平行数组中，负载因子不超过0.5</li>
+ *     <li>数组从小容量开始按需翻倍，条目少的公众号不预先占用容量上限对应的内存</li>
+ *     <li>删除时后移填补空位，不留墓碑</li>
+ *     <li>环形队列按写入顺序记录键，写入时间单调递增，队首最先过期；容量满时淘汰队首</li>
+ * </ul>
+ * 0保留为空槽标记，不能作为键。非线程安全，由调用方加锁
+ */
+final class ExpiringLongMap<V> {
+
+    private static final long EMPTY = 0;
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final int capacity;
+
+    private long[] keys;
+
+    private long[] times;
+
+    private Object[] values;
+
+    private int mask;
+
+    /**
+     * 写入顺序，可能包含已删除的键
+     */
+    private long[] order;
+
+    private int head;
+
+    private int queued;
+
+    private int size;
+
+    /**
+     * 被淘汰（过期或容量满）的条目
+     */
+    @FunctionalInterface
+    interface Evicted<V> {
+        void accept(long key, long time, V value);
+    }
+
+    /**
+     * @param capacity 最多保存的条目数
+     */
+    ExpiringLongMap(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        int initial = Math.min(capacity, INITIAL_CAPACITY);
+        int slots = Integer.highestOneBit(initial) << 2;
+        this.capacity = capacity;
+        this.keys = new long[slots];
+        this.times = new long[slots];
+        this.values = new Object[slots];
+        this.mask = slots - 1;
+        this.order = new long[initial];
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * 写入新键，已存在的键保留原写入时间，只替换值
+     * @param key 键，不能为0
+     * @param time 写入时间
+     * @param value 值
+     * @param evicted 容量满时被淘汰的条目
+     * @return 是否新写入，已存在时为false
+     */
+    boolean put(long key, long time, V value, Evicted<V> evicted) {
+        return put(key, time, value, (old, v) -> v, evicted);
+    }
+
+    /**
+     * 写入新键，已存在的键保留原写入时间，值由merge合并，被替换的值不会被丢弃
+     * @param key 键，不能为0
+     * @param time 写入时间
+     * @param value 值
+     * @param merge 键已存在时以(原值, 新值)计算保存的值
+     * @param evicted 容量满时被淘汰的条目
+     * @return 是否新写入，已存在时为false
+     */
+    boolean put(long key, long time, V value, BinaryOperator<V> merge, Evicted<V> evicted) {
+        if (key == EMPTY) {
+            throw new IllegalArgumentException("key must not be " + EMPTY);
+        }
+        int slot = find(key);
+        if (slot >= 0) {
+            values[slot] = merge.apply(value(slot), value);
+            return false;
+        }
+        if (queued == order.length && order.length < capacity) {
+            growOrder();
+        }
+        while (queued == order.length) {
+            poll(evicted);
+        }
+        if ((size + 1) * 2 > keys.length) {
+            rehash(keys.length << 1);
+        }
+        slot = home(key);
+        while (keys[slot] != EMPTY) {
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        times[slot] = time;
+        values[slot] = value;
+        size++;
+        order[(head + queued) % order.length] = key;
+        queued++;
+        return true;
+    }
+
+    /**
+     * @param key 键
+     * @param removed 被删除的条目
+     * @return 是否存在
+     */
+    boolean remove(long key, Evicted<V> removed) {
+        int slot = find(key);
+        if (slot < 0) {
+            return false;
+        }
+        removed.accept(key, times[slot], value(slot));
+        delete(slot);
+        return true;
+    }
+
+    /**
+     * 淘汰写入时间不晚于期限的条目
+     * @param deadline 期限
+     * @param evicted 被淘汰的条目
+     */
+    void expire(long deadline, Evicted<V> evicted) {
+        while (queued > 0) {
+            int slot = find(order[head]);
+            if (slot >= 0 && times[slot] > deadline) {
+                return;
+            }
+            poll(evicted);
+        }
+    }
+
+    /**
+     * 出队，键仍存在时淘汰
+     */
+    private void poll(Evicted<V> evicted) {
+        int slot = find(order[head]);
+        head = (head + 1) % order.length;
+        queued--;
+        if (slot >= 0) {
+            evicted.accept(keys[slot], times[slot], value(slot));
+            delete(slot);
+        }
+    }
+
+    /**
+     * 写入顺序队列翻倍（不超过容量上限），队首移到数组开头
+     */
+    private void growOrder() {
+        long[] grown = new long[(int) Math.min(capacity, (long) order.length << 1)];
+        for (int i = 0; i < queued; i++) {
+            grown[i] = order[(head + i) % order.length];
+        }
+        order = grown;
+        head = 0;
+    }
+
+    /**
+     * 哈希表扩容，逐个重新插入
+     */
+    private void rehash(int slots) {
+        long[] oldKeys = keys;
+        long[] oldTimes = times;
+        Object[] oldValues = values;
+        keys = new long[slots];
+        times = new long[slots];
+        values = new Object[slots];
+        mask = slots - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) {
+                int slot = home(oldKeys[i]);
+                while (keys[slot] != EMPTY) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                times[slot] = oldTimes[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private V value(int slot) {
+        return (V) values[slot];
+    }
+
+    private int find(long key) {
+        int slot = home(key);
+        while (keys[slot] != EMPTY) {
+            if (keys[slot] == key) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    private int home(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    /**
+     * 后移删除：把探测链上可以前移的条目移入空位，直至遇到空槽
+     */
+    private void delete(int slot) {
+        int hole = slot;
+        int i = slot;
+        while (true) {
+            i = (i + 1) & mask;
+            if (keys[i] == EMPTY) {
+                break;
+            }
+            int home = home(keys[i]);
+            if (((i - home) & mask) >= ((i - hole) & mask)) {
+                keys[hole] = keys[i];
+                times[hole] = times[i];
+                values[hole] = values[i];
+                hole = i;
+            }
+        }
+        keys[hole] = EMPTY;
+        times[hole] = 0;
+        values[hole] = null;
+        size--;
+    }
+}
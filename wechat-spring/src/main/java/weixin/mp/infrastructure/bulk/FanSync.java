@@ -0,0 +1,119 @@
+package weixin.mp.infrastructure.bulk;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import weixin.mp.facade.WeixinUserApiFacade.Customer;
+import weixin.mp.facade.WeixinUserApiFacade.WeixinClientUser;
+import weixin.mp.facade.dto.Pageable;
+import weixin.mp.infrastructure.cache.CacheKey;
+import weixin.mp.infrastructure.cache.Checkpoint;
+import weixin.mp.infrastructure.rpc.Weixin;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 全量同步粉丝信息：
+ * <ul>
+ *     <li>按next_openid逐页拉取openid（每页最多10000个），处理当前页时预取下一页</li>
+ *     <li>每100个openid批量获取一次用户信息，同时进行的批次有上限，调用频率受公众号限流约束</li>
+ *     <li>调用太频繁时按指数退避重试该批次，其他错误终止同步</li>
+ *     <li>一页的用户信息全部写入后才保存断点（该页最后一个openid），中断后从断点继续，全部完成后清除断点</li>
+ * </ul>
+ */
+public class FanSync {
+
+    private static final Logger log = LoggerFactory.getLogger(FanSync.class);
+
+    /**
+     * 批量获取用户基本信息最多支持一次拉取100条
+     */
+    public static final int BATCH_SIZE = 100;
+
+    private final Checkpoint checkpoint;
+
+    private final int concurrency;
+
+    /**
+     * 同步结果的去处，如数据库、消息队列
+     */
+    @FunctionalInterface
+    public interface Sink {
+
+        /**
+         * @param appId 公众号appId
+         * @param customers 一批用户信息
+         * @return 写入完成
+         */
+        CompletableFuture<Void> write(String appId, List<? extends Customer> customers);
+    }
+
+    /**
+     * @param cursor 已同步到的openid
+     * @param synced 本次已同步的用户数
+     * @param total 关注该公众号的总用户数
+     */
+    public record Progress(String cursor, long synced, int total) {}
+
+    private record Fan(String openId, String language) implements WeixinClientUser {}
+
+    /**
+     * @param checkpoint 断点，可为null（不能断点续传）
+     * @param concurrency 每个公众号同时获取用户信息的批次数
+     */
+    public FanSync(Checkpoint checkpoint, int concurrency) {
+        this.checkpoint = checkpoint;
+        this.concurrency = concurrency;
+    }
+
+    /**
+     * 从断点开始同步，无断点时从头开始
+     * @param weixin 公众号客户端
+     * @param sink 同步结果的去处
+     * @return 每页同步完成后的进度
+     */
+    public Flux<Progress> sync(Weixin weixin, Sink sink) {
+        String appId = weixin.ctx().appId();
+        String key = CacheKey.FAN_SYNC_CHECKPOINT_FMT.formatted(appId);
+        AtomicLong synced = new AtomicLong();
+        Mono<String> resume = checkpoint == null ? Mono.empty() : Mono.fromFuture(() -> checkpoint.load(key));
+        return resume.doOnNext(cursor -> log.info("'{}' resume fans sync from {}", appId, cursor))
+                .defaultIfEmpty("")
+                .flatMapMany(cursor -> listUsers(weixin, cursor)
+                        .expand(page -> hasNext(page) ? listUsers(weixin, page.cursorId()) : Mono.empty()))
+                .filter(page -> page.items() != null && !page.items().isEmpty())
+                .concatMap(page -> Flux.fromIterable(page.items())
+                        .buffer(BATCH_SIZE)
+                        .flatMap(openIds -> listCustomers(weixin, openIds)
+                                .flatMap(customers -> Mono.fromFuture(() -> sink.write(appId, customers))), concurrency)
+                        .then(save(key, page.cursorId()))
+                        .then(Mono.fromSupplier(() -> new Progress(page.cursorId(), synced.addAndGet(page.items().size()), page.total()))))
+                .concatWith(clear(key).then(Mono.empty()))
+                .doOnComplete(() -> log.info("'{}' fans sync completed, {} synced", appId, synced.get()))
+                .doOnError(e -> log.warn("'{}' fans sync interrupted after {} synced: {}", appId, synced.get(), e.getMessage()));
+    }
+
+    private static boolean hasNext(Pageable<String> page) {
+        return page.items() != null && !page.items().isEmpty() && page.cursorId() != null && !page.cursorId().isEmpty();
+    }
+
+    private Mono<Pageable<String>> listUsers(Weixin weixin, String cursor) {
+        return Throttle.retry(Mono.fromFuture(() -> weixin.listUsers(cursor.isEmpty() ? null : cursor)));
+    }
+
+    private Mono<List<? extends Customer>> listCustomers(Weixin weixin, List<String> openIds) {
+        WeixinClientUser[] users = openIds.stream().map(openId -> new Fan(openId, null)).toArray(WeixinClientUser[]::new);
+        return Throttle.retry(Mono.fromFuture(() -> weixin.listCustomers(users)));
+    }
+
+    private Mono<Void> save(String key, String cursor) {
+        return checkpoint == null ? Mono.empty() : Mono.fromFuture(() -> checkpoint.save(key, cursor));
+    }
+
+    private Mono<Void> clear(String key) {
+        return checkpoint == null ? Mono.empty() : Mono.fromFuture(() -> checkpoint.clear(key));
+    }
+}
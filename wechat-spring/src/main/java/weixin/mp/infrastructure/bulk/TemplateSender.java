@@ -0,0 +1,131 @@
+package weixin.mp.infrastructure.bulk;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import weixin.mp.facade.WeixinMessageApiFacade.TemplateMessage;
+import weixin.mp.infrastructure.exceptions.WeixinExceptionUtil;
+import weixin.mp.infrastructure.rpc.Weixin;
+
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 批量发送模板消息：
+ * <ul>
+ *     <li>每个公众号一个自适应并发窗口，同一公众号的多个批量任务共享，窗口上限可配置</li>
+ *     <li>微信返回调用太频繁（45011）时窗口减半并退避重试该消息，持续成功后窗口逐步恢复；
+ *     本地限流拒绝的请求未到达微信，只退避重试，不缩小窗口</li>
+ *     <li>超出每日调用额度（45009）后当天不再请求，剩余消息直接返回失败</li>
+ *     <li>消息按上游请求拉取，在途消息数不超过窗口上限，每条消息完成后返回回执</li>
+ *     <li>配置了{@link DeliveryTracker}时，发送成功的msgid连同接收者一起登记，等待送达通知</li>
+ * </ul>
+ */
+public class TemplateSender {
+
+    private static final Logger log = LoggerFactory.getLogger(TemplateSender.class);
+
+    private static final int API_TOO_FREQUENT = 45011;
+
+    private static final int DAILY_QUOTA_EXCEEDED = 45009;
+
+    /**
+     * 微信接口调用额度按北京时间每日零点重置
+     */
+    private static final ZoneId QUOTA_ZONE = ZoneId.of("Asia/Shanghai");
+
+    private final int maxInFlight;
+
+    private final DeliveryTracker tracker;
+
+    private final Map<String, AdaptiveWindow> windows = new ConcurrentHashMap<>();
+
+    private final Map<String, Long> exhausted = new ConcurrentHashMap<>();
+
+    /**
+     * @param message 模板消息
+     * @param msgId 发送成功时的消息id，微信未返回时为null
+     * @param error 发送失败的原因
+     */
+    public record Receipt(TemplateMessage message, Long msgId, Throwable error) {
+        public boolean isSuccess() {
+            return error == null;
+        }
+    }
+
+    /**
+     * @param sent 发送成功数
+     * @param failed 发送失败数（被限流的计入throttled）
+     * @param throttled 被限流次数
+     * @param inFlight 在途消息数
+     * @param limit 当前并发窗口
+     * @param rate 最近一分钟每秒发送成功数
+     */
+    public record Metrics(long sent, long failed, long throttled, int inFlight, int limit, double rate) {}
+
+    /**
+     * @param maxInFlight 每个公众号最多同时发送的消息数
+     * @param tracker 送达跟踪，可为null
+     */
+    public TemplateSender(int maxInFlight, DeliveryTracker tracker) {
+        this.maxInFlight = maxInFlight;
+        this.tracker = tracker;
+    }
+
+    /**
+     * @param weixin 公众号客户端
+     * @param messages 模板消息
+     * @return 每条消息的回执，按完成先后顺序
+     */
+    public Flux<Receipt> send(Weixin weixin, Flux<? extends TemplateMessage> messages) {
+        String appId = weixin.ctx().appId();
+        AdaptiveWindow window = windows.computeIfAbsent(appId, k -> new AdaptiveWindow(maxInFlight));
+        return messages.flatMap(msg -> send(weixin, window, msg)
+                .map(msgId -> new Receipt(msg, msgId, null))
+                .defaultIfEmpty(new Receipt(msg, null, null))
+                .onErrorResume(e -> Mono.just(new Receipt(msg, null, e))), maxInFlight);
+    }
+
+    /**
+     * @param appId 公众号appId
+     * @return 批量发送的指标，未发送过时为null
+     */
+    public Metrics metrics(String appId) {
+        AdaptiveWindow window = windows.get(appId);
+        return window != null ? window.metrics() : null;
+    }
+
+    /**
+     * @return 发送成功的msgid，微信未返回msgid时为空，不登记送达跟踪
+     */
+    private Mono<Long> send(Weixin weixin, AdaptiveWindow window, TemplateMessage msg) {
+        return Throttle.retry(Mono.defer(() -> {
+            String appId = weixin.ctx().appId();
+            Long until = exhausted.get(appId);
+            if (until != null && System.currentTimeMillis() < until) {
+                return Mono.error(WeixinExceptionUtil.create(DAILY_QUOTA_EXCEEDED, "daily quota exceeded"));
+            }
+            return Mono.usingWhen(Mono.fromFuture(window::acquire).thenReturn(window),
+                    w -> Mono.fromFuture(() -> weixin.send(msg)).doOnNext(msgId -> {
+                        if (tracker != null) {
+                            tracker.track(appId, msgId, msg.receiver());
+                        }
+                    }),
+                    w -> Mono.fromRunnable(() -> w.release(true, false)),
+                    (w, e) -> Mono.fromRunnable(() -> {
+                        w.release(false, WeixinExceptionUtil.errorCode(e) == API_TOO_FREQUENT);
+                        if (WeixinExceptionUtil.isQuotaExceeded(e)) {
+                            long resetAt = LocalDate.now(QUOTA_ZONE).plusDays(1).atStartOfDay(QUOTA_ZONE).toInstant().toEpochMilli();
+                            Long previous = exhausted.put(appId, resetAt);
+                            if (previous == null || previous != resetAt) {
+                                log.warn("'{}' template message daily quota exceeded, stop sending until {}", appId, resetAt);
+                            }
+                        }
+                    }),
+                    w -> Mono.fromRunnable(() -> w.release(false, false)));
+        }));
+    }
+}
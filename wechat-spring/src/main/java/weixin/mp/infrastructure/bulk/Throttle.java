@@ -0,0 +1,28 @@
+package weixin.mp.infrastructure.bulk;
+
+import reactor.core.publisher.Mono;
+import reactor.util.retry.Retry;
+import weixin.mp.infrastructure.exceptions.WeixinExceptionUtil;
+
+import java.time.Duration;
+
+/**
+ * 批量任务中调用太频繁时按指数退避（随机抖动）重试，重试耗尽或其他错误时抛出原始异常
+ */
+final class Throttle {
+
+    private static final int MAX_RETRIES = 5;
+
+    private static final Duration RETRY_BACKOFF = Duration.ofSeconds(1);
+
+    private static final Duration RETRY_MAX_BACKOFF = Duration.ofSeconds(30);
+
+    private Throttle() {}
+
+    static <T> Mono<T> retry(Mono<T> call) {
+        return call.retryWhen(Retry.backoff(MAX_RETRIES, RETRY_BACKOFF)
+                .maxBackoff(RETRY_MAX_BACKOFF)
+                .filter(WeixinExceptionUtil::isThrottled)
+                .onRetryExhaustedThrow((spec, signal) -> signal.failure()));
+    }
+}
@@ -7,8 +7,22 @@ public interface CacheKey {
 
     String TOKEN_FMT = "cache:weixin.mp.access_token.%1$s";
 
+    String SHARED_TOKEN_FMT = "weixin.mp.access_token.%1$s";
+
+    String CHANNEL_ACCESS_TOKEN = "weixin.mp.access_token";
+
     String CHANNEL_REPLY_MSG = "weixin.mp.reply.*";
 
     String REPLY_MSG_FMT = "weixin.mp.reply.%1$s.%2$s";
 
+    String DEDUPLICATE_MSG_FMT = "weixin.mp.dedup.%1$s";
+
+    String MEDIA_FMT = "weixin.mp.media.%1$s.%2$s";
+
+    String QUICK_RESPONSE_CODE_FMT = "weixin.mp.qrcode.%1$s";
+
+    String FAN_SYNC_CHECKPOINT_FMT = "weixin.mp.checkpoint.fans.%1$s";
+
+    String BROADCAST_CHECKPOINT_FMT = "weixin.mp.checkpoint.broadcast.%1$s.%2$s";
+
 }
@@ -0,0 +1,26 @@
+package weixin.mp.infrastructure.cache;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 批量任务的断点：保存已完成的位置，任务中断后从断点继续，全部完成后清除
+ */
+public interface Checkpoint {
+
+    /**
+     * @param key 任务标识
+     * @return 已完成的位置，不存在时为null
+     */
+    CompletableFuture<String> load(String key);
+
+    /**
+     * @param key 任务标识
+     * @param position 已完成的位置
+     */
+    CompletableFuture<Void> save(String key, String position);
+
+    /**
+     * @param key 任务标识
+     */
+    CompletableFuture<Void> clear(String key);
+}
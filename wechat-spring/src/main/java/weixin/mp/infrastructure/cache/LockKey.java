@@ -2,5 +2,10 @@ package weixin.mp.infrastructure.cache;
 
 public interface LockKey {
 
-    String TOKEN_LOCK_FMT = "token:weixin.mp.access_token.%1$s";
+    /**
+     * 锁key：appId + 操作
+     */
+    String LOCK_FMT = "lock:weixin.mp.%1$s.%2$s";
+
+    String ACCESS_TOKEN = "access_token";
 }
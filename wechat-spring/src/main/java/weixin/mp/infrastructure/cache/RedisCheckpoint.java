@@ -0,0 +1,40 @@
+package weixin.mp.infrastructure.cache;
+
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 基于redis的断点，多节点共享；长期未更新的断点自动过期，之后重新执行任务
+ */
+public class RedisCheckpoint implements Checkpoint {
+
+    private final ReactiveStringRedisTemplate stringRedisTemplate;
+
+    private final Duration retention;
+
+    /**
+     * @param stringRedisTemplate redis客户端
+     * @param retention 断点最后一次更新后的保留时间
+     */
+    public RedisCheckpoint(ReactiveStringRedisTemplate stringRedisTemplate, Duration retention) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.retention = retention;
+    }
+
+    @Override
+    public CompletableFuture<String> load(String key) {
+        return stringRedisTemplate.opsForValue().get(key).toFuture();
+    }
+
+    @Override
+    public CompletableFuture<Void> save(String key, String position) {
+        return stringRedisTemplate.opsForValue().set(key, position, retention).then().toFuture();
+    }
+
+    @Override
+    public CompletableFuture<Void> clear(String key) {
+        return stringRedisTemplate.delete(key).then().toFuture();
+    }
+}
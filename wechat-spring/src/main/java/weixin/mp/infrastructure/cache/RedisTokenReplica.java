@@ -0,0 +1,67 @@
+package weixin.mp.infrastructure.cache;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.redis.connection.ReactiveSubscription;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import reactor.util.retry.Retry;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+/**
+ * 基于redis的access_token副本：令牌以"过期时间|令牌"保存，刷新后在频道上发布appId作为失效通知
+ */
+public class RedisTokenReplica implements TokenReplica {
+
+    private static final Logger log = LoggerFactory.getLogger(RedisTokenReplica.class);
+
+    private static final char SEPARATOR = '|';
+
+    private static final Duration RESUBSCRIBE_BACKOFF = Duration.ofSeconds(1);
+
+    private final ReactiveStringRedisTemplate stringRedisTemplate;
+
+    public RedisTokenReplica(ReactiveStringRedisTemplate stringRedisTemplate) {
+        this.stringRedisTemplate = stringRedisTemplate;
+    }
+
+    @Override
+    public CompletableFuture<Token> load(String appId) {
+        return stringRedisTemplate.opsForValue().get(CacheKey.SHARED_TOKEN_FMT.formatted(appId))
+                .mapNotNull(RedisTokenReplica::decode)
+                .toFuture();
+    }
+
+    @Override
+    public CompletableFuture<Void> publish(String appId, Token token) {
+        Duration ttl = Duration.ofMillis(token.expireAt() - System.currentTimeMillis());
+        if (ttl.isNegative() || ttl.isZero()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return stringRedisTemplate.opsForValue()
+                .set(CacheKey.SHARED_TOKEN_FMT.formatted(appId), token.expireAt() + String.valueOf(SEPARATOR) + token.value(), ttl)
+                .then(stringRedisTemplate.convertAndSend(CacheKey.CHANNEL_ACCESS_TOKEN, appId))
+                .then()
+                .toFuture();
+    }
+
+    @Override
+    public void subscribe(Consumer<String> listener) {
+        stringRedisTemplate.listenToChannel(CacheKey.CHANNEL_ACCESS_TOKEN)
+                .map(ReactiveSubscription.Message::getMessage)
+                .doOnError(e -> log.warn("access_token channel broken, resubscribe: {}", e.getMessage()))
+                .retryWhen(Retry.backoff(Long.MAX_VALUE, RESUBSCRIBE_BACKOFF).maxBackoff(Duration.ofMinutes(1)))
+                .subscribe(listener);
+    }
+
+    private static Token decode(String value) {
+        int index = value.indexOf(SEPARATOR);
+        if (index <= 0) {
+            log.warn("malformed shared access_token");
+            return null;
+        }
+        return new Token(value.substring(index + 1), Long.parseLong(value, 0, index, 10));
+    }
+}
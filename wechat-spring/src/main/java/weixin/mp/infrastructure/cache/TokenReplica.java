@@ -0,0 +1,34 @@
+package weixin.mp.infrastructure.cache;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+/**
+ * access_token远端副本：本地内存为近端缓存，远端保存最新令牌并在刷新后通知各节点替换内存中的令牌
+ */
+public interface TokenReplica {
+
+    /**
+     * @param value access_token
+     * @param expireAt 过期时间
+     */
+    record Token(String value, long expireAt) {}
+
+    /**
+     * @param appId 公众号appId
+     * @return 远端保存的令牌，不存在时为null
+     */
+    CompletableFuture<Token> load(String appId);
+
+    /**
+     * 保存刷新后的令牌并通知其他节点
+     * @param appId 公众号appId
+     * @param token 新令牌
+     */
+    CompletableFuture<Void> publish(String appId, Token token);
+
+    /**
+     * @param listener 收到失效通知的appId
+     */
+    void subscribe(Consumer<String> listener);
+}
@@ -1,11 +1,16 @@
 package weixin.mp.infrastructure.config;
 
 import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+import org.springframework.util.unit.DataSize;
 
+import java.time.Duration;
 import java.util.Map;
 
 @ConfigurationProperties(prefix = "weixin")
-public record ManagementProperties(Map<String/* id */, Config> accounts) {
+public record ManagementProperties(Map<String/* id */, Config> accounts, @DefaultValue Http http,
+                                   @DefaultValue RateLimit rateLimit, @DefaultValue Media media,
+                                   @DefaultValue Bulk bulk, @DefaultValue Callback callback) {
 
     /**
      * @param accountId 微信公众号账号
@@ -18,6 +23,78 @@ public record ManagementProperties(Map<String/* id */, Config> accounts) {
      */
     public record Config(String accountId, String appId, String appSecret, String token, Boolean verify, Mode mode, String key) {}
 
+    /**
+     * 访问微信服务器的连接池
+     * @param maxConnections 最大连接数
+     * @param pendingAcquireMaxCount 等待获取连接的最大请求数，超出立即失败
+     * @param pendingAcquireTimeout 等待获取连接的超时时间
+     * @param maxIdleTime 连接最大空闲时间
+     * @param maxLifeTime 连接最长存活时间
+     * @param evictInterval 后台清理空闲、过期连接的间隔
+     * @param connectTimeout 建立连接超时时间
+     * @param responseTimeout 响应超时时间
+     * @param keepAlive 是否复用连接
+     * @param http2 服务器支持时是否使用HTTP/2
+     * @param metrics 是否记录连接池指标
+     * @param metricsInterval 未引入micrometer时输出连接池指标日志的间隔
+     */
+    public record Http(@DefaultValue("200") int maxConnections,
+                       @DefaultValue("1000") int pendingAcquireMaxCount,
+                       @DefaultValue("5s") Duration pendingAcquireTimeout,
+                       @DefaultValue("20s") Duration maxIdleTime,
+                       @DefaultValue("5m") Duration maxLifeTime,
+                       @DefaultValue("30s") Duration evictInterval,
+                       @DefaultValue("3s") Duration connectTimeout,
+                       @DefaultValue("10s") Duration responseTimeout,
+                       @DefaultValue("true") boolean keepAlive,
+                       @DefaultValue("false") boolean http2,
+                       @DefaultValue("true") boolean metrics,
+                       @DefaultValue("1m") Duration metricsInterval) {}
+
+    /**
+     * 调用微信接口的限流配置，每个公众号单独计数
+     * @param permitsPerSecond 每个公众号每秒调用次数，不大于0时不限制
+     * @param endpoints 接口({@link weixin.mp.infrastructure.rpc.WeixinUrl}名称) -> 每秒调用次数
+     * @param maxWait 超出配额时最长排队时间
+     */
+    public record RateLimit(@DefaultValue("0") double permitsPerSecond,
+                            Map<String, Double> endpoints,
+                            @DefaultValue("2s") Duration maxWait) {}
+
+    /**
+     * 素材、二维码的本地缓存
+     * @param cache 是否缓存
+     * @param directory 缓存目录，未配置时使用系统临时目录
+     * @param ttl 临时素材的缓存有效期，临时素材在微信服务器只保存3天；永久素材、二维码图片不过期
+     * @param maxSize 磁盘占用上限
+     * @param memory 热点文件映射到内存的上限
+     */
+    public record Media(@DefaultValue("false") boolean cache,
+                        String directory,
+                        @DefaultValue("1d") Duration ttl,
+                        @DefaultValue("1GB") DataSize maxSize,
+                        @DefaultValue("64MB") DataSize memory) {}
+
+    /**
+     * 批量任务（同步粉丝、打标签、分片群发、发送模板消息等）
+     * @param concurrency 每个任务同时进行的批次（分片）数
+     * @param checkpointRetention 断点最后一次更新后的保留时间
+     * @param messagesInFlight 每个公众号批量发送模板消息时最多同时发送的消息数
+     * @param trackingCapacity 每个公众号最多跟踪送达结果的模板消息数
+     * @param trackingWindow 等待模板消息送达通知的期限
+     */
+    public record Bulk(@DefaultValue("4") int concurrency,
+                       @DefaultValue("7d") Duration checkpointRetention,
+                       @DefaultValue("32") int messagesInFlight,
+                       @DefaultValue("1000000") int trackingCapacity,
+                       @DefaultValue("1h") Duration trackingWindow) {}
+
+    /**
+     * 接收微信服务器推送的消息
+     * @param maxBodySize 请求体大小上限，超出时返回413
+     */
+    public record Callback(@DefaultValue("64KB") DataSize maxBodySize) {}
+
     public enum Mode {
         PLAINTEXT,
         MIXTURE,
@@ -0,0 +1,86 @@
+package weixin.mp.infrastructure.config;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.netty.resources.ConnectionPoolMetrics;
+import reactor.netty.resources.ConnectionProvider;
+
+import java.io.Closeable;
+import java.net.SocketAddress;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * 未引入micrometer时记录连接池指标，按远端地址区分，定期输出到日志
+ */
+public class PoolMetricsRegistrar implements ConnectionProvider.MeterRegistrar, Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(PoolMetricsRegistrar.class);
+
+    private static final String POOL_FMT = "%1$s@%2$s";
+
+    private final Map<String, ConnectionPoolMetrics> pools = new ConcurrentHashMap<>();
+
+    private final ScheduledExecutorService reporter;
+
+    /**
+     * @param acquired 使用中的连接数
+     * @param allocated 已建立的连接数
+     * @param idle 空闲连接数
+     * @param pending 等待获取连接的请求数
+     * @param maxAllocated 最大连接数
+     */
+    public record Usage(int acquired, int allocated, int idle, int pending, int maxAllocated) {}
+
+    /**
+     * @param interval 输出指标日志的间隔
+     */
+    public PoolMetricsRegistrar(Duration interval) {
+        this.reporter = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "pool-metrics");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.reporter.scheduleWithFixedDelay(this::report, interval.toMillis(), interval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void registerMetrics(String poolName, String id, SocketAddress remoteAddress, ConnectionPoolMetrics metrics) {
+        log.info("connection pool [{}] created for {}", poolName, remoteAddress);
+        pools.put(POOL_FMT.formatted(poolName, remoteAddress), metrics);
+    }
+
+    /**
+     * @return 连接池 -> 当前使用情况
+     */
+    public Map<String, Usage> snapshot() {
+        return pools.entrySet().stream().collect(Collectors.toMap(Map.Entry::getKey, e -> {
+            ConnectionPoolMetrics metrics = e.getValue();
+            return new Usage(metrics.acquiredSize(), metrics.allocatedSize(), metrics.idleSize(),
+                    metrics.pendingAcquireSize(), metrics.maxAllocatedSize());
+        }));
+    }
+
+    /**
+     * 有请求等待连接时说明连接池不足，以warn输出
+     */
+    private void report() {
+        snapshot().forEach((pool, usage) -> {
+            if (usage.pending() > 0) {
+                log.warn("connection pool [{}] exhausted: {}", pool, usage);
+            } else {
+                log.info("connection pool [{}] usage: {}", pool, usage);
+            }
+        });
+    }
+
+    @Override
+    public void close() {
+        reporter.shutdownNow();
+    }
+}
@@ -1,35 +1,59 @@
 package weixin.mp.infrastructure.config;
 
+import io.netty.channel.ChannelOption;
 import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnBean;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.cache.CacheManager;
 import org.springframework.cache.annotation.EnableCaching;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.data.redis.core.ReactiveRedisTemplate;
 import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.http.client.reactive.ClientHttpConnector;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.util.ClassUtils;
 import reactor.core.publisher.Mono;
+import reactor.netty.http.HttpProtocol;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
 import weixin.mp.application.CompositeMessageHandler;
+import weixin.mp.application.DeduplicatingMessageHandler;
 import weixin.mp.application.EventDispatcher;
 import weixin.mp.application.MessageDispatcher;
 import weixin.mp.application.MessageHandler;
 import weixin.mp.domain.Context;
 import weixin.mp.domain.ReplyMessage;
 import weixin.mp.domain.RequestMessage;
+import weixin.mp.infrastructure.bulk.BroadcastOrchestrator;
+import weixin.mp.infrastructure.bulk.BulkLabeling;
+import weixin.mp.infrastructure.bulk.DeliveryTracker;
+import weixin.mp.infrastructure.bulk.FanSync;
+import weixin.mp.infrastructure.bulk.TemplateSender;
 import weixin.mp.infrastructure.cache.CacheKey;
-import weixin.mp.infrastructure.cache.LockKey;
+import weixin.mp.infrastructure.cache.CacheName;
+import weixin.mp.infrastructure.cache.Checkpoint;
+import weixin.mp.infrastructure.cache.RedisCheckpoint;
+import weixin.mp.infrastructure.cache.RedisTokenReplica;
+import weixin.mp.infrastructure.cache.TokenReplica;
 import weixin.mp.infrastructure.exceptions.RetryableException;
-import weixin.mp.infrastructure.lock.RedisBasedDistributableLock;
+import weixin.mp.infrastructure.limit.RateLimiter;
+import weixin.mp.infrastructure.lock.LockRegistry;
+import weixin.mp.infrastructure.lock.RedisLockRegistry;
+import weixin.mp.infrastructure.lock.StripedLockRegistry;
+import weixin.mp.infrastructure.rpc.MediaCache;
 import weixin.mp.infrastructure.rpc.OpenAI;
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.Function;
 
 /**
@@ -46,39 +70,185 @@ public class SpringConfiguration {
     @Value("${openai.bearerToken}")
     private String bearerToken;
 
-    private static final int WEIXIN_ACCESS_TOKEN_TTL = 7200 - 5 * 60;
-
     private static final int WEIXIN_REPLY_CACHE_EXPIRATION = 3 * 5;
 
+    /**
+     * 并行处理消息的时延预算，需小于门面等待回复的4.5秒
+     */
+    private static final int MESSAGE_HANDLE_BUDGET = 4000;
+
+    /**
+     * 本地排重窗口最多记录的消息数
+     */
+    private static final int DEDUPLICATE_CAPACITY = 100_000;
+
+    private static final String WEIXIN_CONNECTION_POOL = "weixin";
+
+    private static final String MICROMETER_METRICS = "io.micrometer.core.instrument.Metrics";
+
+    /**
+     * 单节点部署时锁分段数
+     */
+    private static final int LOCK_STRIPES = 64;
+
+    private static final String MEDIA_CACHE_DIRECTORY = "weixin-media";
+
     @Bean
     public Function<String, String> tenantDiscriminator(ManagementProperties managementProperties) {
         return Function.identity(); // XXX 使用配置或数据库做映射（注意保证唯一性）
     }
 
+    @Bean
+    public TenantRegistry tenantRegistry(ManagementProperties managementProperties,
+                                         @Qualifier("tenantDiscriminator") Function<String, String> tenantDiscriminator,
+                                         CacheManager cacheManager, LockRegistry lockRegistry, RateLimiter rateLimiter,
+                                         ObjectProvider<MediaCache> mediaCache,
+                                         @Qualifier("weixinHttpConnector") ClientHttpConnector weixinHttpConnector,
+                                         ObjectProvider<TokenReplica> tokenReplica) {
+        return new TenantRegistry(managementProperties, tenantDiscriminator, cacheManager.getCache(CacheName.ACCESS_TOKEN),
+                lockRegistry, rateLimiter, mediaCache.getIfAvailable(), weixinHttpConnector, tokenReplica.getIfAvailable());
+    }
+
+    @Bean
+    @ConditionalOnProperty(prefix = "weixin.media", name = "cache", havingValue = "true")
+    public MediaCache mediaCache(ManagementProperties managementProperties) throws IOException {
+        ManagementProperties.Media media = managementProperties.media();
+        Path directory = media.directory() != null ?
+                Path.of(media.directory()) :
+                Path.of(System.getProperty("java.io.tmpdir"), MEDIA_CACHE_DIRECTORY);
+        return new MediaCache(directory, media.ttl(), media.maxSize().toBytes(), media.memory().toBytes());
+    }
+
+    @Bean(destroyMethod = "close")
+    public PoolMetricsRegistrar poolMetricsRegistrar(ManagementProperties managementProperties) {
+        return new PoolMetricsRegistrar(managementProperties.http().metricsInterval());
+    }
+
+    /**
+     * 访问微信服务器的专用连接池，批量拉取、群发等流量不占用其他客户端的连接
+     */
+    @Bean(destroyMethod = "dispose")
+    public ConnectionProvider weixinConnectionProvider(ManagementProperties managementProperties, PoolMetricsRegistrar registrar) {
+        ManagementProperties.Http http = managementProperties.http();
+        ConnectionProvider.Builder builder = ConnectionProvider.builder(WEIXIN_CONNECTION_POOL)
+                .maxConnections(http.maxConnections())
+                .pendingAcquireMaxCount(http.pendingAcquireMaxCount())
+                .pendingAcquireTimeout(http.pendingAcquireTimeout())
+                .maxIdleTime(http.maxIdleTime())
+                .maxLifeTime(http.maxLifeTime())
+                .evictInBackground(http.evictInterval());
+        if (http.metrics()) {
+            if (ClassUtils.isPresent(MICROMETER_METRICS, null)) {
+                builder.metrics(true);
+            } else {
+                builder.metrics(true, () -> registrar);
+            }
+        }
+        return builder.build();
+    }
+
+    @Bean
+    public ClientHttpConnector weixinHttpConnector(@Qualifier("weixinConnectionProvider") ConnectionProvider weixinConnectionProvider,
+                                                   ManagementProperties managementProperties) {
+        ManagementProperties.Http http = managementProperties.http();
+        HttpClient httpClient = HttpClient.create(weixinConnectionProvider)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, (int) http.connectTimeout().toMillis())
+                .keepAlive(http.keepAlive())
+                .responseTimeout(http.responseTimeout());
+        if (http.http2()) {
+            httpClient = httpClient.protocol(HttpProtocol.H2, HttpProtocol.HTTP11).secure();
+        }
+        return new ReactorClientHttpConnector(httpClient);
+    }
+
+    @Bean
+    public RateLimiter rateLimiter(ManagementProperties managementProperties) {
+        ManagementProperties.RateLimit rateLimit = managementProperties.rateLimit();
+        return new RateLimiter(rateLimit.permitsPerSecond(), rateLimit.endpoints(), rateLimit.maxWait());
+    }
+
     @Bean
     public OpenAI chatGPT() {
         return new OpenAI.JavaClient(bearerToken);
     }
 
-    @Bean("xlock")
+    @Bean
+    @ConditionalOnBean(value = {ReactiveStringRedisTemplate.class})
+    public TokenReplica tokenReplica(ReactiveStringRedisTemplate stringRedisTemplate) {
+        return new RedisTokenReplica(stringRedisTemplate);
+    }
+
+    @Bean
     @ConditionalOnBean(value = {ReactiveStringRedisTemplate.class})
-    public Lock xlock(ReactiveStringRedisTemplate stringRedisTemplate) {
-        return new RedisBasedDistributableLock(stringRedisTemplate, LockKey.TOKEN_LOCK_FMT, Duration.ofSeconds(WEIXIN_ACCESS_TOKEN_TTL)); // FIXME
+    public Checkpoint checkpoint(ReactiveStringRedisTemplate stringRedisTemplate, ManagementProperties managementProperties) {
+        return new RedisCheckpoint(stringRedisTemplate, managementProperties.bulk().checkpointRetention());
     }
 
-    @Bean("xlock")
+    @Bean
+    public FanSync fanSync(ManagementProperties managementProperties, ObjectProvider<Checkpoint> checkpoint) {
+        return new FanSync(checkpoint.getIfAvailable(), managementProperties.bulk().concurrency());
+    }
+
+    @Bean
+    public BulkLabeling bulkLabeling(ManagementProperties managementProperties) {
+        return new BulkLabeling(managementProperties.bulk().concurrency());
+    }
+
+    @Bean
+    public BroadcastOrchestrator broadcastOrchestrator(ManagementProperties managementProperties, ObjectProvider<Checkpoint> checkpoint) {
+        return new BroadcastOrchestrator(checkpoint.getIfAvailable(), managementProperties.bulk().concurrency());
+    }
+
+    /**
+     * 同时作为事件处理器接收模板消息送达通知
+     */
+    @Bean
+    public DeliveryTracker deliveryTracker(ManagementProperties managementProperties) {
+        ManagementProperties.Bulk bulk = managementProperties.bulk();
+        return new DeliveryTracker(bulk.trackingCapacity(), bulk.trackingWindow());
+    }
+
+    @Bean
+    public TemplateSender templateSender(ManagementProperties managementProperties, DeliveryTracker deliveryTracker) {
+        return new TemplateSender(managementProperties.bulk().messagesInFlight(), deliveryTracker);
+    }
+
+    @Bean
+    @ConditionalOnBean(value = {ReactiveStringRedisTemplate.class})
+    public LockRegistry lockRegistry(ReactiveStringRedisTemplate stringRedisTemplate) {
+        return new RedisLockRegistry(stringRedisTemplate);
+    }
+
+    @Bean
     @ConditionalOnMissingBean(value = {ReactiveStringRedisTemplate.class})
-    public Lock accessTokenLock() {
-        return new ReentrantLock();
+    public LockRegistry localLockRegistry() {
+        return new StripedLockRegistry(LOCK_STRIPES);
     }
 
 
     @Bean
-    public MessageHandler messageHandler(ObjectProvider<EventDispatcher> eventDispatchers, ObjectProvider<MessageDispatcher> messageDispatchers) {
+    public MessageHandler messageHandler(ObjectProvider<EventDispatcher> eventDispatchers, ObjectProvider<MessageDispatcher> messageDispatchers,
+                                         ObjectProvider<ReactiveStringRedisTemplate> stringRedisTemplate) {
         List<MessageHandler> delegates = new ArrayList<>();
         delegates.addAll(eventDispatchers.stream().toList());
         delegates.addAll(messageDispatchers.stream().toList());
-        return new CompositeMessageHandler(delegates);
+        MessageHandler composite = new CompositeMessageHandler(delegates, Duration.ofMillis(MESSAGE_HANDLE_BUDGET));
+        ReactiveStringRedisTemplate redisTemplate = stringRedisTemplate.getIfAvailable();
+        DeduplicatingMessageHandler.Registry registry = redisTemplate == null ? null : new DeduplicatingMessageHandler.Registry() {
+            @Override
+            public CompletableFuture<Boolean> register(String key, Duration window) {
+                return redisTemplate.opsForValue()
+                        .setIfAbsent(CacheKey.DEDUPLICATE_MSG_FMT.formatted(key), Boolean.TRUE.toString(), window)
+                        .toFuture();
+            }
+
+            @Override
+            public CompletableFuture<Void> unregister(String key) {
+                return redisTemplate.delete(CacheKey.DEDUPLICATE_MSG_FMT.formatted(key)).then().toFuture();
+            }
+        };
+        return new DeduplicatingMessageHandler(composite, Duration.ofSeconds(WEIXIN_REPLY_CACHE_EXPIRATION),
+                DEDUPLICATE_CAPACITY, registry);
     }
 
     @Bean
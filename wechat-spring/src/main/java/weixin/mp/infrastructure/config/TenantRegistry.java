@@ -0,0 +1,126 @@
+package weixin.mp.infrastructure.config;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.cache.Cache;
+import org.springframework.http.client.reactive.ClientHttpConnector;
+import org.springframework.web.reactive.function.client.WebClient;
+import weixin.mp.domain.Context;
+import weixin.mp.infrastructure.cache.TokenReplica;
+import weixin.mp.infrastructure.limit.RateLimiter;
+import weixin.mp.infrastructure.lock.LockRegistry;
+import weixin.mp.infrastructure.rpc.MediaCache;
+import weixin.mp.infrastructure.rpc.Weixin;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * 每个公众号一个装配好的客户端（上下文、access_token缓存、锁、限流、素材缓存、连接池、access_token远端副本），启动时创建，配置变更时重建
+ */
+public class TenantRegistry {
+
+    private static final Logger log = LoggerFactory.getLogger(TenantRegistry.class);
+
+    private final Function<String, String> tenantDiscriminator;
+
+    private final Cache cache;
+
+    private final LockRegistry locks;
+
+    private final RateLimiter limiter;
+
+    private final MediaCache media;
+
+    private final WebClient httpClient;
+
+    private final TokenReplica replica;
+
+    private final Map<String, Client> tenants = new ConcurrentHashMap<>();
+
+    private volatile Map<String, ManagementProperties.Config> accounts;
+
+    /**
+     * @param config 创建客户端时的配置
+     * @param weixin 客户端
+     */
+    private record Client(ManagementProperties.Config config, Weixin weixin) {}
+
+    public TenantRegistry(ManagementProperties managementProperties, Function<String, String> tenantDiscriminator,
+                          Cache cache, LockRegistry locks, RateLimiter limiter, MediaCache media) {
+        this(managementProperties, tenantDiscriminator, cache, locks, limiter, media, null, null);
+    }
+
+    /**
+     * @param connector 访问微信服务器的专用连接池，可为null
+     * @param replica 多节点共享的access_token远端副本，可为null
+     */
+    public TenantRegistry(ManagementProperties managementProperties, Function<String, String> tenantDiscriminator,
+                          Cache cache, LockRegistry locks, RateLimiter limiter, MediaCache media,
+                          ClientHttpConnector connector, TokenReplica replica) {
+        this.tenantDiscriminator = tenantDiscriminator;
+        this.cache = cache;
+        this.locks = locks;
+        this.limiter = limiter;
+        this.media = media;
+        this.httpClient = connector != null ? Weixin.webClient(connector) : null;
+        this.replica = replica;
+        refresh(managementProperties);
+        if (replica != null) {
+            replica.subscribe(this::reloadAccessToken);
+        }
+    }
+
+    /**
+     * 配置变更后调用：新增、修改的账号重建客户端，删除的账号移除
+     */
+    public void refresh(ManagementProperties managementProperties) {
+        Map<String, ManagementProperties.Config> latest = managementProperties.accounts() == null ?
+                Map.of() :
+                managementProperties.accounts();
+        accounts = latest;
+        tenants.keySet().retainAll(latest.keySet());
+        latest.forEach((key, cfg) -> tenants.compute(key, (k, tenant) ->
+                tenant != null && tenant.config().equals(cfg) ? tenant : create(k, cfg)));
+    }
+
+    /**
+     * @param id 多公众号场景下用于区分账号主体
+     * @return 公众号客户端
+     */
+    public Weixin weixin(String id) {
+        String key = tenantDiscriminator.apply(id);
+        Client tenant = tenants.get(key);
+        if (tenant == null) {
+            tenant = tenants.computeIfAbsent(key, k -> create(k, Objects.requireNonNull(accounts.get(k), "unknown account: " + id)));
+        }
+        return tenant.weixin();
+    }
+
+    /**
+     * @param id 多公众号场景下用于区分账号主体
+     * @return 公众号上下文
+     */
+    public Context context(String id) {
+        return weixin(id).ctx();
+    }
+
+    /**
+     * 其他节点刷新了access_token，使用该appId的客户端替换内存中的令牌
+     */
+    private void reloadAccessToken(String appId) {
+        tenants.values().stream()
+                .map(Client::weixin)
+                .filter(weixin -> weixin.ctx().appId().equals(appId))
+                .findAny()
+                .ifPresent(Weixin::reloadAccessToken);
+    }
+
+    private Client create(String key, ManagementProperties.Config cfg) {
+        log.info("build client for account '{}'", key);
+        Context ctx = new Context(cfg.accountId(), cfg.appId(), cfg.appSecret(), cfg.token(), cfg.key(), cfg.verify());
+        return new Client(cfg, new Weixin(ctx, cache, locks, limiter, media, httpClient, replica));
+    }
+}
@@ -35,5 +35,7 @@ public final class ExposedPath {
 
     // 代理模板消息/群发接口
     static final String CHAT = "/{id}/message";
+    static final String BATCH_CHAT = "/{id}/message/batch";
+    static final String CHAT_DELIVERY = "/{id}/message/delivery";
     static final String BROADCAST = "/{id}/broadcast";
 }
@@ -6,22 +6,28 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
-import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.server.ResponseStatusException;
 import reactor.core.publisher.Mono;
 import weixin.mp.application.MessageHandler;
 import weixin.mp.domain.Context;
+import weixin.mp.domain.MessageCorruptException;
 import weixin.mp.domain.ReplyMessage;
 import weixin.mp.facade.MessageFacade;
 import weixin.mp.facade.MessageFacadeImpl;
 import weixin.mp.infrastructure.config.ManagementProperties;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.concurrent.CompletableFuture;
 
 /**
@@ -35,13 +41,13 @@ public class MessageController extends Tenant {
 
     private static final Logger log = LoggerFactory.getLogger(MessageController.class);
 
-    @Autowired
-    private ManagementProperties managementProperties;
-
     @Autowired
     @Qualifier("messageHandler")
     private MessageHandler messageHandler;
 
+    @Autowired
+    private ManagementProperties managementProperties;
+
     /**
      * 验证消息的确来自微信服务器，同时给微信证明自身有接口服务能力
      *
@@ -60,7 +66,7 @@ public class MessageController extends Tenant {
                                   @RequestParam("nonce") String nonce,
                                   @RequestParam("echostr") String echostr) {
         log.debug("/{}?signature={}&timestamp={}&nonce={}&echostr={}", id, signature, timestamp, nonce, echostr);
-        Context ctx = discriminate(id, managementProperties.accounts());
+        Context ctx = discriminate(id);
         MessageFacade facade = new MessageFacadeImpl(ctx, messageHandler);
         return Mono.fromFuture(facade.challenge(signature, timestamp, nonce, echostr));
     }
@@ -81,8 +87,9 @@ public class MessageController extends Tenant {
      * @param openid 发消息给公众号的用户
      * @param encryptAlgorithm 加密算法（密文模式或混合模式才有）
      * @param messageSignature 消息签名（密文模式或混合模式才有）
-     * @param xml
-     * @return 确认接收消息或回复xml数据
+     * @param xml 请求体，读取为字节后直接解析，不转换为字符串；公开的回调地址，读取的字节数受限
+     * @return 确认接收消息或回复xml数据，请求体为空、消息校验失败或格式错误时返回400，请求体超出上限时返回413
+     * @throws IOException 读取请求体失败
      */
     @PostMapping(value = ExposedPath.MESSAGE)
     @ResponseBody
@@ -93,10 +100,10 @@ public class MessageController extends Tenant {
                                       @RequestParam(value = "openid", required = false) String openid,
                                       @RequestParam(value = "encrypt_type", required = false) String encryptAlgorithm,
                                       @RequestParam(value = "msg_signature", required = false) String messageSignature,
-                                      @RequestBody String xml) {
-        log.debug("'/{}?signature={}&timestamp={}&nonce={}&openid={}&encrypt_type={}&msg_signature={}' receive msg: {}",
-                id, signature, timestamp, nonce, openid, encryptAlgorithm, messageSignature, xml);
-        Context ctx = discriminate(id, managementProperties.accounts());
+                                      InputStream xml) throws IOException {
+        log.debug("'/{}?signature={}&timestamp={}&nonce={}&openid={}&encrypt_type={}&msg_signature={}' receive msg",
+                id, signature, timestamp, nonce, openid, encryptAlgorithm, messageSignature);
+        Context ctx = discriminate(id);
         final HttpHeaders headers = new HttpHeaders();
         Boolean strict = null;
         if (ctx.strict() != null) {
@@ -108,20 +115,41 @@ public class MessageController extends Tenant {
             }
             assert ctx.key().length() == 43;
         }
-        MessageFacade facade = new MessageFacadeImpl(ctx, messageHandler);
+        MessageFacade facade = new MessageFacadeImpl(ctx, messageHandler, weixin(id));
 
-        CompletableFuture<MessageFacade.Response> response = facade.onMessage(signature, timestamp, nonce, openid,
-                encryptAlgorithm, messageSignature, xml);
+        byte[] body = read(xml, (int) managementProperties.callback().maxBodySize().toBytes());
+        if (log.isDebugEnabled()) {
+            log.debug("'/{}' message body: {}", id, new String(body, StandardCharsets.UTF_8));
+        }
+        return Mono.defer(() -> Mono.fromFuture(facade.onMessage(signature, timestamp, nonce, openid, encryptAlgorithm,
+                messageSignature, new ByteArrayInputStream(body))))
+                .<HttpEntity>map(r -> {
+                    if (r.text() != null) {
+                        headers.setContentType(MediaType.TEXT_PLAIN);
+                        return new HttpEntity<>(r.text(), headers);
+                    } else {
+                        headers.setContentType(MediaType.TEXT_XML);
+                        return new HttpEntity<>(r.xml(), headers);
+                    }
+                }).onErrorMap(MessageCorruptException.class, e -> new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage(), e));
+    }
 
-        return Mono.fromFuture(response).map(r -> {
-            if (r.text() != null) {
-                headers.setContentType(MediaType.TEXT_PLAIN);
-                return new HttpEntity<>(r.text(), headers);
-            } else {
-                headers.setContentType(MediaType.TEXT_XML);
-                return new HttpEntity<>(r.xml(), headers);
-            }
-        });
+    /**
+     * 最多读取上限+1个字节，超出上限的部分不读取
+     * @param is 请求体
+     * @param maxBodySize 请求体大小上限
+     * @return 请求体
+     * @throws ResponseStatusException 请求体为空时400，超出上限时413
+     */
+    private static byte[] read(InputStream is, int maxBodySize) throws IOException {
+        byte[] body = is.readNBytes(maxBodySize + 1);
+        if (body.length == 0) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "empty message body");
+        }
+        if (body.length > maxBodySize) {
+            throw new ResponseStatusException(HttpStatus.PAYLOAD_TOO_LARGE, "message body exceeds " + maxBodySize + " bytes");
+        }
+        return body;
     }
 
 }
@@ -2,17 +2,20 @@ package weixin.mp.infrastructure.endpoint;
 
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import jakarta.validation.constraints.Max;
 import jakarta.validation.constraints.Min;
 import jakarta.validation.groups.Default;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.beans.factory.annotation.Qualifier;
-import org.springframework.cache.CacheManager;
-import org.springframework.core.io.InputStreamResource;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
 import org.springframework.http.ContentDisposition;
-import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.http.codec.multipart.FilePart;
 import org.springframework.stereotype.Controller;
 import org.springframework.validation.annotation.Validated;
@@ -24,8 +27,9 @@ import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RequestPart;
 import org.springframework.web.bind.annotation.ResponseBody;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
-import weixin.mp.domain.Context;
+import reactor.core.scheduler.Schedulers;
 import weixin.mp.domain.MaterialType;
 import weixin.mp.facade.WeixinMaterialApiFacade;
 import weixin.mp.facade.dto.ManualScript;
@@ -33,33 +37,33 @@ import weixin.mp.facade.dto.Material;
 import weixin.mp.facade.dto.MultiMedia;
 import weixin.mp.facade.dto.Paper;
 import weixin.mp.facade.dto.Publication;
-import weixin.mp.infrastructure.cache.CacheName;
-import weixin.mp.infrastructure.config.ManagementProperties;
 import weixin.mp.infrastructure.endpoint.vo.DraftCollection;
 import weixin.mp.infrastructure.endpoint.vo.Pagination;
 import weixin.mp.infrastructure.endpoint.vo.Press;
 import weixin.mp.infrastructure.endpoint.vo.RevisedDraft;
+import weixin.mp.infrastructure.rpc.MediaStream;
 import weixin.mp.infrastructure.rpc.Weixin;
 
+import java.io.FileInputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Files;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.locks.Lock;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 @Controller
 public class WeixinMaterialController extends Tenant {
 
-    @Autowired
-    private ManagementProperties managementProperties;
+    private static final Logger log = LoggerFactory.getLogger(WeixinMaterialController.class);
 
-    @Autowired
-    private CacheManager cacheManager;
+    private static final String UPLOAD_PREFIX = "weixin-asset-";
 
     @Autowired
-    @Qualifier("xlock")
-    private Lock xlock;
+    private ObjectMapper objectMapper;
 
     @PostMapping(value = ExposedPath.ASSETS, params = {"permanent"})
     @ResponseBody
@@ -68,21 +72,41 @@ public class WeixinMaterialController extends Tenant {
                                                @RequestParam(value = "broadcast", defaultValue = "false") boolean broadcast,
                                                @RequestPart("file") FilePart part,
                                                @RequestPart(value = "description", required = false) Description description) {
-        Context ctx = discriminate(id, managementProperties.accounts());
-        WeixinMaterialApiFacade facade = new Weixin(ctx, cacheManager.getCache(CacheName.ACCESS_TOKEN), xlock);
+        WeixinMaterialApiFacade facade = weixin(id);
         if (broadcast) {
-            return part.content()
-                    .flatMap(buffer -> Mono.fromFuture(facade.uploadImage(buffer.asInputStream(true), part.filename())))
-                    .map(x -> new MaterialResultVO(null, MaterialType.IMAGE, null, x))
-                    .next();
+            return transfer(part, is -> facade.uploadImage(is, part.filename()))
+                    .map(x -> new MaterialResultVO(null, MaterialType.IMAGE, null, x));
         } else {
             final WeixinMaterialApiFacade.VideoDescription videoDescription = description != null ?
                     new WeixinMaterialApiFacade.VideoDescription(description.title(), description.introduction()) : null;
-            return part.content()
-                    .flatMap(buffer ->
-                            Mono.fromFuture(facade.upload(buffer.asInputStream(true), part.filename(), permanent, videoDescription)))
-                    .map(MaterialResultVO::from)
-                    .next();
+            return transfer(part, is -> facade.upload(is, part.filename(), permanent, videoDescription))
+                    .map(MaterialResultVO::from);
+        }
+    }
+
+    /**
+     * 上传的文件先转存为临时文件，再以文件流交给微信接口，不按块多次上传，也不整体读入内存。
+     * 创建、打开、删除临时文件是阻塞的文件操作，不占用事件循环线程
+     */
+    private <T> Mono<T> transfer(FilePart part, Function<InputStream, CompletableFuture<? extends T>> upload) {
+        return Mono.usingWhen(Mono.fromCallable(() -> Files.createTempFile(UPLOAD_PREFIX, null)).subscribeOn(Schedulers.boundedElastic()),
+                path -> part.transferTo(path).then(Mono.usingWhen(Mono.fromCallable(() -> new FileInputStream(path.toFile())).subscribeOn(Schedulers.boundedElastic()),
+                        is -> Mono.fromFuture(() -> upload.apply(is)),
+                        is -> Mono.fromRunnable(() -> closeQuietly(is)))),
+                path -> Mono.fromRunnable(() -> {
+                    try {
+                        Files.deleteIfExists(path);
+                    } catch (IOException e) {
+                        log.warn("delete {} fail: {}", path, e.getMessage());
+                    }
+                }).subscribeOn(Schedulers.boundedElastic()));
+    }
+
+    private static void closeQuietly(InputStream is) {
+        try {
+            is.close();
+        } catch (IOException e) {
+            log.warn(e.getMessage());
         }
     }
 
@@ -91,8 +115,7 @@ public class WeixinMaterialController extends Tenant {
     public Mono<MaterialResultVO> addNews(@PathVariable("id") String id,
                                           @RequestParam(value = "broadcast", defaultValue = "true") boolean broadcast,
                                        @Validated(value = {ManualScript.class, Default.class}) @RequestBody DraftCollection drafts) {
-        Context ctx = discriminate(id, managementProperties.accounts());
-        WeixinMaterialApiFacade facade = new Weixin(ctx, cacheManager.getCache(CacheName.ACCESS_TOKEN), xlock);
+        WeixinMaterialApiFacade facade = weixin(id);
         return Mono.fromFuture(facade.addNews(drafts.articles(), broadcast))
                     .map(MaterialResultVO::from);
     }
@@ -117,24 +140,31 @@ public class WeixinMaterialController extends Tenant {
 
     @GetMapping(ExposedPath.MEDIA_ASSET)
     @ResponseBody
-    public Mono<HttpEntity> downloadAsset(@PathVariable("id") String id, @PathVariable("mediaId") String mediaId,
+    public Mono<ResponseEntity<Flux<DataBuffer>>> downloadAsset(@PathVariable("id") String id, @PathVariable("mediaId") String mediaId,
                               @RequestParam(value = "permanent", defaultValue = "false") boolean permanent) {
-        Context ctx = discriminate(id, managementProperties.accounts());
-        WeixinMaterialApiFacade facade = new Weixin(ctx, cacheManager.getCache(CacheName.ACCESS_TOKEN), xlock);
-        return Mono.fromFuture(facade.download(mediaId, permanent))
-                .map(d -> d instanceof WeixinMaterialApiFacade.Stream ?
-                        outputStream(((WeixinMaterialApiFacade.Stream) d).body(), ((WeixinMaterialApiFacade.Stream) d).filename()) :
-                        jsonContent(d));
+        Weixin weixin = weixin(id);
+        return Mono.fromFuture(weixin.stream(mediaId, permanent))
+                .map(d -> d instanceof MediaStream stream ? outputStream(stream) : jsonContent(d));
     }
 
-    private HttpEntity outputStream(InputStream body, String filename) {
+    /**
+     * 响应体直接透传，不在内存中聚合
+     */
+    private ResponseEntity<Flux<DataBuffer>> outputStream(MediaStream stream) {
         HttpHeaders httpHeaders = new HttpHeaders();
-        httpHeaders.setContentType(MediaType.APPLICATION_OCTET_STREAM);
-        httpHeaders.setContentDisposition(ContentDisposition.attachment().filename(filename).build());
-        return new HttpEntity(new InputStreamResource(body), httpHeaders); // org.springframework.http.converter.HttpMessageNotWritableException: No Encoder for [java.io.ByteArrayInputStream] with preset Content-Type 'application/octet-stream'
+        httpHeaders.setContentType(stream.contentType() != null ?
+                MediaType.parseMediaType(stream.contentType()) :
+                MediaType.APPLICATION_OCTET_STREAM);
+        httpHeaders.setContentDisposition(stream.filename() != null ?
+                ContentDisposition.attachment().filename(stream.filename()).build() :
+                ContentDisposition.attachment().build());
+        if (stream.contentLength() >= 0) {
+            httpHeaders.setContentLength(stream.contentLength());
+        }
+        return new ResponseEntity<>(stream.body(), httpHeaders, HttpStatus.OK);
     }
 
-    private HttpEntity jsonContent(Object body) {
+    private ResponseEntity<Flux<DataBuffer>> jsonContent(Object body) {
         String title = null;
         String description = null;
         String url = null;
@@ -153,7 +183,10 @@ public class WeixinMaterialController extends Tenant {
         }
         HttpHeaders httpHeaders = new HttpHeaders();
         httpHeaders.setContentType(MediaType.APPLICATION_JSON);
-        return new HttpEntity(new HyperMedia(title, description, url, items), httpHeaders);
+        HyperMedia hyperMedia = new HyperMedia(title, description, url, items);
+        Flux<DataBuffer> content = Mono.<DataBuffer>fromCallable(() -> DefaultDataBufferFactory.sharedInstance.wrap(objectMapper.writeValueAsBytes(hyperMedia)))
+                .flux();
+        return new ResponseEntity<>(content, httpHeaders, HttpStatus.OK);
     }
 
     @JsonInclude(value = JsonInclude.Include.NON_NULL)
@@ -163,16 +196,14 @@ public class WeixinMaterialController extends Tenant {
     @DeleteMapping(ExposedPath.MEDIA_ASSET)
     @ResponseBody
     public Mono<Void> deletePermanentAsset(@PathVariable("id") String id, @PathVariable("mediaId") String mediaId) {
-        Context ctx = discriminate(id, managementProperties.accounts());
-        WeixinMaterialApiFacade facade = new Weixin(ctx, cacheManager.getCache(CacheName.ACCESS_TOKEN), xlock);
+        WeixinMaterialApiFacade facade = weixin(id);
         return Mono.fromFuture(facade.recycle(mediaId));
     }
 
     @GetMapping(value =ExposedPath.ASSETS, params = {})
     @ResponseBody
     public Mono<MaterialSummary> groupCountPermanentMaterial(@PathVariable("id") String id) {
-        Context ctx = discriminate(id, managementProperties.accounts());
-        WeixinMaterialApiFacade facade = new Weixin(ctx, cacheManager.getCache(CacheName.ACCESS_TOKEN), xlock);
+        WeixinMaterialApiFacade facade = weixin(id);
         return Mono.fromFuture(facade.countMaterialByType())
                 .map(x -> new MaterialSummary(x.image(), x.news(), x.voice(), x.video()));
     }
@@ -185,8 +216,7 @@ public class WeixinMaterialController extends Tenant {
                                @RequestParam("type") MaterialType materialType,
                                @RequestParam(value = "offset", defaultValue = "0", required = false) int offset,
                                @RequestParam(value = "limit", defaultValue = "10", required = false)  @Max(20) @Min(1) int limit) {
-        Context ctx = discriminate(id, managementProperties.accounts());
-        WeixinMaterialApiFacade facade = new Weixin(ctx, cacheManager.getCache(CacheName.ACCESS_TOKEN), xlock);
+        WeixinMaterialApiFacade facade = weixin(id);
         return Mono.fromFuture(facade.list(materialType, offset, limit))
                 .map(r -> new Pagination(r.total(), offset, limit, r.items().stream().map(WeixinMaterialController::fromContract).collect(Collectors.toList())));
     }
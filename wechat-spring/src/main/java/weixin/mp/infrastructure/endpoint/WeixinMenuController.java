@@ -11,8 +11,6 @@ import jakarta.validation.constraints.Size;
 import jakarta.validation.groups.Default;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.cache.CacheManager;
 import org.springframework.stereotype.Controller;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.DeleteMapping;
@@ -23,19 +21,14 @@ import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
 import reactor.core.publisher.Mono;
-import weixin.mp.domain.Context;
 import weixin.mp.domain.MenuItem;
 import weixin.mp.domain.MenuType;
 import weixin.mp.facade.WeixinMenuApiFacade;
 import weixin.mp.facade.dto.Paper;
-import weixin.mp.infrastructure.cache.CacheName;
-import weixin.mp.infrastructure.config.ManagementProperties;
-import weixin.mp.infrastructure.rpc.Weixin;
 
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
-import java.util.concurrent.locks.Lock;
 import java.util.stream.Collectors;
 
 @Controller
@@ -43,21 +36,11 @@ public class WeixinMenuController extends Tenant {
 
     private static final Logger log = LoggerFactory.getLogger(WeixinMenuController.class);
 
-    @Autowired
-    private ManagementProperties managementProperties;
-
-    @Autowired
-    private CacheManager cacheManager;
-
-    @Autowired
-    private Lock lock;
-
     @PostMapping(ExposedPath.MENU)
     @ResponseBody
     public Mono<String> createMenu(@PathVariable("id") String id,
                                    @Validated(value = {Button.class, Default.class}) @RequestBody Menu menu) {
-        Context ctx = discriminate(id, managementProperties.accounts());
-        WeixinMenuApiFacade weixinMenuApiFacade = new Weixin(ctx, cacheManager.getCache(CacheName.ACCESS_TOKEN), lock);
+        WeixinMenuApiFacade weixinMenuApiFacade = weixin(id);
         List<MenuItem> items = new ArrayList<>(menu.buttons());
         return Mono.fromFuture(weixinMenuApiFacade.create(items, menu.rule));
     }
@@ -66,8 +49,7 @@ public class WeixinMenuController extends Tenant {
     @ResponseBody
     public Mono<WeixinMenuController.MenuBar> find(@PathVariable("id") String id,
                                                   @RequestParam(value = "custom", defaultValue = "false") boolean custom) {
-        Context ctx = discriminate(id, managementProperties.accounts());
-        WeixinMenuApiFacade weixinMenuApiFacade = new Weixin(ctx, cacheManager.getCache(CacheName.ACCESS_TOKEN), lock);
+        WeixinMenuApiFacade weixinMenuApiFacade = weixin(id);
         return Mono.fromFuture(weixinMenuApiFacade.get(custom))
                 .map(m -> new MenuBar(Optional.ofNullable(m.fixedMenu()).map(intf -> new FixedMenu(intf.items(), intf.menuId(), intf.isEnabled())).orElse(null),
                         Optional.ofNullable(m.conditionalMenus()).map(list -> list.stream().map(intf -> new CustomMenu(intf.items(), intf.rule(), intf.menuId())).collect(Collectors.toList())).orElse(null)));
@@ -76,8 +58,7 @@ public class WeixinMenuController extends Tenant {
     @PostMapping(value = ExposedPath.MENU, params = {"userId"})
     @ResponseBody
     public Mono<List<? extends MenuItem>> test(@PathVariable("id") String id, @RequestParam("userId") String userId) {
-        Context ctx = discriminate(id, managementProperties.accounts());
-        WeixinMenuApiFacade weixinMenuApiFacade = new Weixin(ctx, cacheManager.getCache(CacheName.ACCESS_TOKEN), lock);
+        WeixinMenuApiFacade weixinMenuApiFacade = weixin(id);
         return Mono.fromFuture(weixinMenuApiFacade.test(userId))
                 .map(list -> list.stream().map(this::fromDto2Vo).collect(Collectors.toList()));
     }
@@ -146,8 +127,7 @@ public class WeixinMenuController extends Tenant {
     @ResponseBody
     public Mono<Void> resetMenu(@PathVariable("id") String id,
                                 @RequestParam(value = "menuId", required = false) Long menuId) {
-        Context ctx = discriminate(id, managementProperties.accounts());
-        WeixinMenuApiFacade weixinMenuApiFacade = new Weixin(ctx, cacheManager.getCache(CacheName.ACCESS_TOKEN), lock);
+        WeixinMenuApiFacade weixinMenuApiFacade = weixin(id);
         return Mono.fromFuture(weixinMenuApiFacade.delete(menuId));
     }
 
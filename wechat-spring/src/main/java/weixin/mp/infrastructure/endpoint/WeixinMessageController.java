@@ -6,7 +6,7 @@ import jakarta.validation.constraints.NotEmpty;
 import jakarta.validation.constraints.NotNull;
 import jakarta.validation.constraints.Size;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.cache.CacheManager;
+import org.springframework.http.MediaType;
 import org.springframework.stereotype.Controller;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.DeleteMapping;
@@ -16,43 +16,37 @@ import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
-import weixin.mp.domain.Context;
 import weixin.mp.domain.MessageType;
 import weixin.mp.facade.WeixinMessageApiFacade;
-import weixin.mp.infrastructure.cache.CacheName;
-import weixin.mp.infrastructure.config.ManagementProperties;
-import weixin.mp.infrastructure.rpc.Weixin;
+import weixin.mp.infrastructure.bulk.DeliveryTracker;
+import weixin.mp.infrastructure.bulk.TemplateSender;
+import weixin.mp.infrastructure.exceptions.WeixinExceptionUtil;
 
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.locks.Lock;
 
 @Controller
 public class WeixinMessageController extends Tenant {
 
     @Autowired
-    private ManagementProperties managementProperties;
+    private TemplateSender templateSender;
 
     @Autowired
-    private CacheManager cacheManager;
-
-    @Autowired
-    private Lock lock;
+    private DeliveryTracker deliveryTracker;
 
     @GetMapping(ExposedPath.CHAT)
     @ResponseBody
     public Mono<List<? extends WeixinMessageApiFacade.MessageTemplate>> listMessageTemplates(@PathVariable("id") String id) {
-        Context ctx = discriminate(id, managementProperties.accounts());
-        WeixinMessageApiFacade weixinMessageApiFacade = new Weixin(ctx, cacheManager.getCache(CacheName.ACCESS_TOKEN), lock);
+        WeixinMessageApiFacade weixinMessageApiFacade = weixin(id);
         return Mono.fromFuture(weixinMessageApiFacade.retrieveTemplates());
     }
 
     @PostMapping(ExposedPath.CHAT)
     @ResponseBody
     public Mono<Long> sendTplMsg(@PathVariable("id") String id, @RequestBody TplMsg msg) {
-        Context ctx = discriminate(id, managementProperties.accounts());
-        WeixinMessageApiFacade weixinMessageApiFacade = new Weixin(ctx, cacheManager.getCache(CacheName.ACCESS_TOKEN), lock);
+        WeixinMessageApiFacade weixinMessageApiFacade = weixin(id);
         return Mono.fromFuture(weixinMessageApiFacade.send(msg));
     }
 
@@ -64,22 +58,61 @@ public class WeixinMessageController extends Tenant {
                   String appId, String pagePath,
                   @NotNull Map<String, Replacer> data) implements WeixinMessageApiFacade.TemplateMessage {}
 
+    /**
+     * 批量发送模板消息，请求体为JSON数组或按行分隔的JSON，每条消息完成后按行返回回执
+     */
+    @PostMapping(value = ExposedPath.BATCH_CHAT, produces = MediaType.APPLICATION_NDJSON_VALUE)
+    @ResponseBody
+    public Flux<SendEcho> sendTplMsgs(@PathVariable("id") String id, @RequestBody Flux<TplMsg> messages) {
+        return templateSender.send(weixin(id), messages).map(SendEcho::from);
+    }
+
+    @GetMapping(ExposedPath.BATCH_CHAT)
+    @ResponseBody
+    public Mono<TemplateSender.Metrics> batchMetrics(@PathVariable("id") String id) {
+        return Mono.justOrEmpty(templateSender.metrics(discriminate(id).appId()));
+    }
+
+    /**
+     * 模板消息的送达率、送达时延
+     */
+    @GetMapping(ExposedPath.CHAT_DELIVERY)
+    @ResponseBody
+    public Mono<DeliveryTracker.Stats> deliveryStats(@PathVariable("id") String id) {
+        return Mono.justOrEmpty(deliveryTracker.stats(discriminate(id).appId()));
+    }
+
+    /**
+     * @param receiver 接收消息的用户openid
+     * @param clientMsgId 开发者侧消息id
+     * @param msgId 发送成功时的消息id
+     * @param errorCode 发送失败时的错误码
+     * @param errorMessage 发送失败的原因
+     */
+    record SendEcho(String receiver, String clientMsgId, Long msgId, Integer errorCode, String errorMessage) {
+        static SendEcho from(TemplateSender.Receipt receipt) {
+            if (receipt.isSuccess()) {
+                return new SendEcho(receipt.message().receiver(), receipt.message().msgId(), receipt.msgId(), null, null);
+            }
+            return new SendEcho(receipt.message().receiver(), receipt.message().msgId(), null,
+                    WeixinExceptionUtil.errorCode(receipt.error()), receipt.error().getMessage());
+        }
+    }
+
     @JsonIgnoreProperties(ignoreUnknown = true)
     record Replacer(@NotEmpty String value, String color) implements WeixinMessageApiFacade.PlaceHolder {}
 
     @DeleteMapping(ExposedPath.CHAT)
     @ResponseBody
     public Mono<Void> removeMessageTemplate(@PathVariable("id") String id, @RequestParam("templateId") String templateId) {
-        Context ctx = discriminate(id, managementProperties.accounts());
-        WeixinMessageApiFacade weixinMessageApiFacade = new Weixin(ctx, cacheManager.getCache(CacheName.ACCESS_TOKEN), lock);
+        WeixinMessageApiFacade weixinMessageApiFacade = weixin(id);
         return Mono.fromFuture(weixinMessageApiFacade.removeMessageTemplate(templateId));
     }
 
     @PostMapping(ExposedPath.BROADCAST)
     @ResponseBody
     public Mono<BroadcastEcho> broadcast(@PathVariable("id") String id, @RequestBody @Validated BroadcastMessage message) {
-        Context ctx = discriminate(id, managementProperties.accounts());
-        WeixinMessageApiFacade weixinMessageApiFacade = new Weixin(ctx, cacheManager.getCache(CacheName.ACCESS_TOKEN), lock);
+        WeixinMessageApiFacade weixinMessageApiFacade = weixin(id);
         return Mono.fromFuture(weixinMessageApiFacade.broadcast(message.groupId(), message.users(),
                         MessageType.getInstance(message.messageType()), message.material(), message.forcePublish()))
                 .map(x -> new BroadcastEcho(x.msgId(), x.msgDataId()));
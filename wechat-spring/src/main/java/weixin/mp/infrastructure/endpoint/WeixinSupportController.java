@@ -2,16 +2,12 @@ package weixin.mp.infrastructure.endpoint;
 
 import jakarta.validation.constraints.Max;
 import jakarta.validation.constraints.Size;
-import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.beans.factory.annotation.Qualifier;
-import org.springframework.core.io.InputStreamResource;
-import org.springframework.http.HttpEntity;
+import org.springframework.core.io.buffer.DataBuffer;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
-import org.springframework.util.LinkedMultiValueMap;
-import org.springframework.util.MultiValueMap;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
@@ -19,35 +15,24 @@ import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
 import org.springframework.web.client.HttpClientErrorException;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
-import weixin.mp.domain.Context;
 import weixin.mp.facade.WeixinApiFacade;
-import weixin.mp.infrastructure.cache.CacheName;
-import weixin.mp.infrastructure.config.ManagementProperties;
 import weixin.mp.infrastructure.rpc.Weixin;
 
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
-import java.util.concurrent.locks.Lock;
 
 @Controller
 public class WeixinSupportController extends Tenant {
 
-    @Autowired
-    private ManagementProperties managementProperties;
-
-    @Autowired
-    @Qualifier("xlock")
-    private Lock xlock;
-
     @GetMapping(value = ExposedPath.QUICK_RESPONSE_CODE, params = {"scene"})
     @ResponseBody
     public Mono<QRCodeResult> generateQRCode(@PathVariable("id") String id,
                                                                   @Max(2592000) @RequestParam(value = "ttl", required = false) Integer ttl,
                                                                   /* @Size(min = 1, max = 64) */ @RequestParam(value = "scene", required = false) String scene) {
-        Context ctx = discriminate(id, managementProperties.accounts());
-        WeixinApiFacade facade = new Weixin(ctx, cacheManager.getCache(CacheName.ACCESS_TOKEN), xlock);
+        WeixinApiFacade facade = weixin(id);
         Integer sceneId = null;
         String sceneStr = null;
         try {
@@ -68,20 +53,23 @@ public class WeixinSupportController extends Tenant {
 
     @GetMapping(value = ExposedPath.QUICK_RESPONSE_CODE, params = {"ticket"})
     @ResponseBody
-    public Mono<HttpEntity<InputStreamResource>> downloadQRImage(@PathVariable("id") String id, @RequestParam("ticket") String ticket) {
-        Context ctx = discriminate(id, managementProperties.accounts());
-        WeixinApiFacade facade = new Weixin(ctx, cacheManager.getCache(CacheName.ACCESS_TOKEN), xlock);
-        MultiValueMap<String, String> mvm = new LinkedMultiValueMap<>();
-        mvm.add(HttpHeaders.CONTENT_TYPE, MediaType.IMAGE_JPEG_VALUE);
-        return Mono.fromFuture(facade.downloadQuickResponseCode(URLEncoder.encode(ticket, StandardCharsets.UTF_8)))
-                .map(x -> new HttpEntity(new InputStreamResource(x), HttpHeaders.readOnlyHttpHeaders(mvm)));
+    public Mono<ResponseEntity<Flux<DataBuffer>>> downloadQRImage(@PathVariable("id") String id, @RequestParam("ticket") String ticket) {
+        Weixin weixin = weixin(id);
+        return Mono.fromFuture(weixin.streamQuickResponseCode(URLEncoder.encode(ticket, StandardCharsets.UTF_8)))
+                .map(x -> {
+                    HttpHeaders httpHeaders = new HttpHeaders();
+                    httpHeaders.setContentType(MediaType.IMAGE_JPEG);
+                    if (x.contentLength() >= 0) {
+                        httpHeaders.setContentLength(x.contentLength());
+                    }
+                    return new ResponseEntity<>(x.body(), httpHeaders, HttpStatus.OK);
+                });
     }
 
     @PostMapping(ExposedPath.SHORTEN)
     @ResponseBody
     public Mono<String> shorten(@PathVariable("id") String id, @RequestBody RawData raw) {
-        Context ctx = discriminate(id, managementProperties.accounts());
-        WeixinApiFacade facade = new Weixin(ctx, cacheManager.getCache(CacheName.ACCESS_TOKEN), xlock);
+        WeixinApiFacade facade = weixin(id);
         return Mono.fromFuture(facade.shorten(raw.data(), raw.ttl()));
     }
 
@@ -90,8 +78,7 @@ public class WeixinSupportController extends Tenant {
     @GetMapping(ExposedPath.SHORTEN)
     @ResponseBody
     public Mono<RecoveredData> restore(@PathVariable("id") String id, @RequestParam("key") String key) {
-        Context ctx = discriminate(id, managementProperties.accounts());
-        WeixinApiFacade facade = new Weixin(ctx, cacheManager.getCache(CacheName.ACCESS_TOKEN), xlock);
+        WeixinApiFacade facade = weixin(id);
         return Mono.fromFuture(facade.restore(key))
                 .map(r -> new RecoveredData(r.originalData(), r.createdAt(), r.ttl()));
     }
@@ -7,8 +7,6 @@ import jakarta.validation.constraints.NotEmpty;
 import jakarta.validation.constraints.NotNull;
 import jakarta.validation.constraints.Size;
 import jakarta.validation.groups.Default;
-import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.cache.CacheManager;
 import org.springframework.stereotype.Controller;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.DeleteMapping;
@@ -20,37 +18,22 @@ import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
 import reactor.core.publisher.Mono;
-import weixin.mp.domain.Context;
 import weixin.mp.domain.RequestMessage;
 import weixin.mp.facade.WeixinUserApiFacade;
-import weixin.mp.infrastructure.cache.CacheName;
-import weixin.mp.infrastructure.config.ManagementProperties;
 import weixin.mp.infrastructure.endpoint.vo.Pagination;
-import weixin.mp.infrastructure.rpc.Weixin;
 
 import java.time.LocalDateTime;
 import java.util.Arrays;
 import java.util.List;
-import java.util.concurrent.locks.Lock;
 import java.util.stream.Collectors;
 
 @Controller
 public class WeixinUserController extends Tenant {
 
-    @Autowired
-    private ManagementProperties managementProperties;
-
-    @Autowired
-    private CacheManager cacheManager;
-
-    @Autowired
-    private Lock lock;
-
     @PostMapping(ExposedPath.LABEL)
     @ResponseBody
     public Mono<UserTag> createLabel(@PathVariable("id") String id, @RequestBody @Validated(value = {Default.class}) UserTag body) {
-        Context ctx = discriminate(id, managementProperties.accounts());
-        WeixinUserApiFacade facade = new Weixin(ctx, cacheManager.getCache(CacheName.ACCESS_TOKEN), lock);
+        WeixinUserApiFacade facade = weixin(id);
         return Mono.fromFuture(facade.labeling(body.name)).map(x -> new UserTag(x.id(), x.name(), x.count()));
     }
 
@@ -62,8 +45,7 @@ public class WeixinUserController extends Tenant {
     @GetMapping(ExposedPath.LABEL)
     @ResponseBody
     public Mono<List<UserTag>> listLabel(@PathVariable("id") String id) {
-        Context ctx = discriminate(id, managementProperties.accounts());
-        WeixinUserApiFacade facade = new Weixin(ctx, cacheManager.getCache(CacheName.ACCESS_TOKEN), lock);
+        WeixinUserApiFacade facade = weixin(id);
         return Mono.fromFuture(facade.labeled())
                 .map(x -> x.stream().map(i -> new UserTag(i.id(), i.name(), i.count())).collect(Collectors.toList()));
     }
@@ -72,8 +54,7 @@ public class WeixinUserController extends Tenant {
     @ResponseBody
     public Mono<Void> reviseLabel(@PathVariable("id") String id,
                                   @RequestBody @Validated(value = {RequestMessage.class, Default.class}) UserTag body) {
-        Context ctx = discriminate(id, managementProperties.accounts());
-        WeixinUserApiFacade facade = new Weixin(ctx, cacheManager.getCache(CacheName.ACCESS_TOKEN), lock);
+        WeixinUserApiFacade facade = weixin(id);
         return Mono.fromFuture(facade.relabel(body.id(), body.name()));
     }
 
@@ -81,8 +62,7 @@ public class WeixinUserController extends Tenant {
     @ResponseBody
     public Mono<Void> removeLabel(@PathVariable("id") String id,
                                   @PathVariable("labelId") int labelId) {
-        Context ctx = discriminate(id, managementProperties.accounts());
-        WeixinUserApiFacade facade = new Weixin(ctx, cacheManager.getCache(CacheName.ACCESS_TOKEN), lock);
+        WeixinUserApiFacade facade = weixin(id);
         return Mono.fromFuture(facade.unlabeling(labelId));
     }
 
@@ -91,8 +71,7 @@ public class WeixinUserController extends Tenant {
     public Mono<Void> mark(@PathVariable("id") String id,
                            @PathVariable("labelId") int labelId,
                            @RequestBody @Size(max = 50) List<String> users) {
-        Context ctx = discriminate(id, managementProperties.accounts());
-        WeixinUserApiFacade facade = new Weixin(ctx, cacheManager.getCache(CacheName.ACCESS_TOKEN), lock);
+        WeixinUserApiFacade facade = weixin(id);
         return Mono.fromFuture(facade.mark(users, labelId));
     }
 
@@ -101,8 +80,7 @@ public class WeixinUserController extends Tenant {
     public Mono<Void> unmark(@PathVariable("id") String id,
                              @PathVariable("labelId") int labelId,
                              @RequestBody @Size(max = 50) List<String> users) {
-        Context ctx = discriminate(id, managementProperties.accounts());
-        WeixinUserApiFacade facade = new Weixin(ctx, cacheManager.getCache(CacheName.ACCESS_TOKEN), lock);
+        WeixinUserApiFacade facade = weixin(id);
         return Mono.fromFuture(facade.unmark(users, labelId));
     }
 
@@ -111,8 +89,7 @@ public class WeixinUserController extends Tenant {
     public Mono<GetUserResponse> retrieveFansInformation(@PathVariable("id") String id,
                                                  @PathVariable("userId") String userId,
                                                  @RequestParam(value = "labelOnly", required = false, defaultValue = "false") boolean labelOnly) {
-        Context ctx = discriminate(id, managementProperties.accounts());
-        WeixinUserApiFacade facade = new Weixin(ctx, cacheManager.getCache(CacheName.ACCESS_TOKEN), lock);
+        WeixinUserApiFacade facade = weixin(id);
         return Mono.fromFuture(facade.getCustomerInfo(new GetUserRequest(userId, null, labelOnly)))
                 .map(GetUserResponse::from);
     }
@@ -122,8 +99,7 @@ public class WeixinUserController extends Tenant {
     public Mono<List<GetUserResponse>> retrieveManyFansInformation(@PathVariable("id") String id,
                                                          @RequestParam("user") @Size(max = 100) String[] users,
                                                          @RequestParam(value = "language", required = false, defaultValue = "zh_CN") String language) {
-        Context ctx = discriminate(id, managementProperties.accounts());
-        WeixinUserApiFacade facade = new Weixin(ctx, cacheManager.getCache(CacheName.ACCESS_TOKEN), lock);
+        WeixinUserApiFacade facade = weixin(id);
         return Mono.fromFuture(facade.listCustomers(Arrays.stream(users)
                         .map(s -> new GetUserRequest(s, language, false)).toArray(GetUserRequest[]::new))
                 )
@@ -135,8 +111,7 @@ public class WeixinUserController extends Tenant {
     public Mono<Pagination<String>> retrieveManyFansId(@PathVariable("id") String id,
                                                        @RequestParam("blocked") boolean blocked,
                                                        @RequestParam(value = "cursor", required = false, defaultValue = "") String cursor) {
-        Context ctx = discriminate(id, managementProperties.accounts());
-        WeixinUserApiFacade facade = new Weixin(ctx, cacheManager.getCache(CacheName.ACCESS_TOKEN), lock);
+        WeixinUserApiFacade facade = weixin(id);
         return blocked ?
                 Mono.fromFuture(facade.retrieveBlocked(cursor))
                         .map(x -> new Pagination(x.total(), -1, 1000, x.items())) :
@@ -164,24 +139,21 @@ public class WeixinUserController extends Tenant {
     public Mono<Void> updateFansInformation(@PathVariable("id") String id,
                                                          @PathVariable("userId") String userId,
                                                          @RequestParam(value = "remark") @Size(max = 30) String remark) {
-        Context ctx = discriminate(id, managementProperties.accounts());
-        WeixinUserApiFacade facade = new Weixin(ctx, cacheManager.getCache(CacheName.ACCESS_TOKEN), lock);
+        WeixinUserApiFacade facade = weixin(id);
         return Mono.fromFuture(facade.remark(userId, remark));
     }
 
     @PutMapping(value = ExposedPath.USER, params = {"block"})
     @ResponseBody
     public Mono<Void> blockUser(@PathVariable("id") String id, @RequestParam("block") String[] users) {
-        Context ctx = discriminate(id, managementProperties.accounts());
-        WeixinUserApiFacade facade = new Weixin(ctx, cacheManager.getCache(CacheName.ACCESS_TOKEN), lock);
+        WeixinUserApiFacade facade = weixin(id);
         return Mono.fromFuture(facade.block(Arrays.asList(users)));
     }
 
     @PutMapping(value = ExposedPath.USER, params = {"unblock"})
     @ResponseBody
     public Mono<Void> unblockUser(@PathVariable("id") String id, @RequestParam("unblock") String[] users) {
-        Context ctx = discriminate(id, managementProperties.accounts());
-        WeixinUserApiFacade facade = new Weixin(ctx, cacheManager.getCache(CacheName.ACCESS_TOKEN), lock);
+        WeixinUserApiFacade facade = weixin(id);
         return Mono.fromFuture(facade.unblock(Arrays.asList(users)));
     }
 }
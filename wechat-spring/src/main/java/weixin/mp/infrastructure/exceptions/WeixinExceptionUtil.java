@@ -2,13 +2,72 @@ package weixin.mp.infrastructure.exceptions;
 
 import org.springframework.http.HttpStatus;
 
+import java.util.concurrent.CompletionException;
+
 public abstract class WeixinExceptionUtil {
 
+    /**
+     * 本地限流拒绝，请求未发往微信；与微信返回的45011区分，按调用太频繁处理
+     */
+    public static final int RATE_LIMITED = -45011;
+
+    /**
+     * @return 系统繁忙，稍候可重试
+     */
+    public static boolean isRetryable(Throwable e) {
+        return unwrap(e) instanceof RetryableException;
+    }
+
+    /**
+     * @return access_token无效或已过期，刷新后可重放
+     */
+    public static boolean isAccessTokenInvalid(Throwable e) {
+        if (unwrap(e) instanceof ClientError ce) {
+            return switch (ce.getCode()) {
+                case 40001, // 获取 access_token 时 AppSecret 错误，或者 access_token 无效
+                     40014, // 不合法的 access_token
+                     42001 -> true; // access_token 超时
+                default -> false;
+            };
+        }
+        return false;
+    }
+
+    /**
+     * @return 调用太频繁，降低速率后可重试
+     */
+    public static boolean isThrottled(Throwable e) {
+        return unwrap(e) instanceof ClientError ce && ce.getStatusCode().value() == HttpStatus.TOO_MANY_REQUESTS.value();
+    }
+
+    /**
+     * @return 超出每日调用额度，次日零点前不可重试
+     */
+    public static boolean isQuotaExceeded(Throwable e) {
+        return unwrap(e) instanceof ClientError ce && ce.getCode() == 45009;
+    }
+
+    /**
+     * @return 微信返回的错误码，非微信接口错误时为-1
+     */
+    public static int errorCode(Throwable e) {
+        Throwable cause = unwrap(e);
+        if (cause instanceof ClientError ce) {
+            return ce.getCode();
+        }
+        return cause instanceof ServerError se ? se.getCode() : -1;
+    }
+
+    private static Throwable unwrap(Throwable e) {
+        return e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+    }
+
     // TODO
     public static RuntimeException create(int code, String message) {
         switch (code) {
             case -1: // 系统繁忙，此时请开发者稍候再试
                 return new RetryableException();
+            case RATE_LIMITED:
             case 45011: // API 调用太频繁，请稍候再试
             case 45066: // 相同 clientmsgid 重试速度过快，请间隔1分钟重试
             case 53501: // 频繁请求发布
@@ -18,6 +77,7 @@ public abstract class WeixinExceptionUtil {
                 return new ServerError(code, message, HttpStatus.INTERNAL_SERVER_ERROR);
             case 9001002: // 远端服务不可用
                 return new ServerError(code, message, HttpStatus.SERVICE_UNAVAILABLE);
+            case 45009: // 接口调用超过每日限制
             case 48001: // api 功能未授权
             case 48004: // api 接口被封禁
             case 48005: // api 禁止删除被自动回复和自定义菜单引用的素材
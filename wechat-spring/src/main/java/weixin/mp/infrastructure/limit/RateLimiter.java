@@ -0,0 +1,74 @@
+package weixin.mp.infrastructure.limit;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 按公众号、按公众号 + 接口两级限流：超出配额的调用排队等待，等待时间超过期限才拒绝
+ */
+public class RateLimiter {
+
+    private static final String ENDPOINT_KEY_FMT = "%1$s.%2$s";
+
+    private final double permitsPerSecond;
+
+    private final Map<String, Double> endpointPermitsPerSecond;
+
+    private final long maxWait;
+
+    private final Map<String, TokenBucket> accounts = new ConcurrentHashMap<>();
+
+    private final Map<String, TokenBucket> endpoints = new ConcurrentHashMap<>();
+
+    /**
+     * @param permitsPerSecond 每个公众号每秒调用次数，不大于0时不限制
+     * @param endpointPermitsPerSecond 接口 -> 每个公众号调用该接口的每秒次数
+     * @param maxWait 最长排队时间
+     */
+    public RateLimiter(double permitsPerSecond, Map<String, Double> endpointPermitsPerSecond, Duration maxWait) {
+        this.permitsPerSecond = permitsPerSecond;
+        this.endpointPermitsPerSecond = endpointPermitsPerSecond == null ? Map.of() : Map.copyOf(endpointPermitsPerSecond);
+        this.maxWait = maxWait.toNanos();
+    }
+
+    /**
+     * @param appId 公众号appId
+     * @param endpoint 接口
+     * @return 获得许可后完成，排队超过期限时为false
+     */
+    public CompletableFuture<Boolean> acquire(String appId, String endpoint) {
+        TokenBucket account = permitsPerSecond > 0 ?
+                accounts.computeIfAbsent(appId, k -> new TokenBucket(permitsPerSecond, (int) Math.ceil(permitsPerSecond))) :
+                null;
+        Double endpointLimit = endpointPermitsPerSecond.get(endpoint);
+        TokenBucket api = endpointLimit != null && endpointLimit > 0 ?
+                endpoints.computeIfAbsent(ENDPOINT_KEY_FMT.formatted(appId, endpoint),
+                        k -> new TokenBucket(endpointLimit, (int) Math.ceil(endpointLimit))) :
+                null;
+        long now = System.nanoTime(); // after the buckets are created, or a new bucket sees the call as early
+        long wait = 0;
+        if (account != null) {
+            wait = account.reserve(now, maxWait);
+            if (wait < 0) {
+                return CompletableFuture.completedFuture(Boolean.FALSE);
+            }
+        }
+        if (api != null) {
+            long apiWait = api.reserve(now, maxWait);
+            if (apiWait < 0) {
+                if (account != null) {
+                    account.cancel();
+                }
+                return CompletableFuture.completedFuture(Boolean.FALSE);
+            }
+            wait = Math.max(wait, apiWait);
+        }
+        if (wait == 0) {
+            return CompletableFuture.completedFuture(Boolean.TRUE);
+        }
+        return CompletableFuture.supplyAsync(() -> Boolean.TRUE, CompletableFuture.delayedExecutor(wait, TimeUnit.NANOSECONDS));
+    }
+}
@@ -0,0 +1,53 @@
+package weixin.mp.infrastructure.limit;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 令牌桶：以"理论到达时间"表示桶内余量（GCRA），预约令牌时只推进该时间，不需要定时补充
+ */
+final class TokenBucket {
+
+    /**
+     * 生成一个令牌的间隔，单位：纳秒
+     */
+    private final long interval;
+
+    /**
+     * 桶满时可连续取出的令牌所对应的时间，单位：纳秒
+     */
+    private final long tolerance;
+
+    private long theoreticalArrivalAt;
+
+    /**
+     * @param permitsPerSecond 每秒生成的令牌数
+     * @param capacity 桶容量
+     */
+    TokenBucket(double permitsPerSecond, int capacity) {
+        this.interval = (long) (TimeUnit.SECONDS.toNanos(1) / permitsPerSecond);
+        this.tolerance = interval * (Math.max(1, capacity) - 1);
+        this.theoreticalArrivalAt = System.nanoTime();
+    }
+
+    /**
+     * @param now 当前时间，单位：纳秒
+     * @param maxWait 最长等待时间，单位：纳秒
+     * @return 获得令牌需等待的时间，超过最长等待时间则不预约并返回-1
+     */
+    synchronized long reserve(long now, long maxWait) {
+        long arrival = theoreticalArrivalAt - now > 0 ? theoreticalArrivalAt : now;
+        long wait = arrival - now - tolerance;
+        if (wait > maxWait) {
+            return -1;
+        }
+        theoreticalArrivalAt = arrival + interval;
+        return Math.max(0, wait);
+    }
+
+    /**
+     * 归还未使用的预约
+     */
+    synchronized void cancel() {
+        theoreticalArrivalAt -= interval;
+    }
+}
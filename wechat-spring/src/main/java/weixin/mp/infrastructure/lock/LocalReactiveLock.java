@@ -0,0 +1,58 @@
+package weixin.mp.infrastructure.lock;
+
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 单节点锁，语义与{@link RedisBasedDistributableLock}一致：租期到期后可被他人获得
+ */
+public class LocalReactiveLock implements ReactiveLock {
+
+    private final String key;
+
+    private final AtomicReference<Handle> holder = new AtomicReference<>();
+
+    private final AtomicLong fence = new AtomicLong();
+
+    /**
+     * @param fencingToken 防护令牌
+     * @param expireAt 租期到期时间
+     */
+    private record Handle(LocalReactiveLock lock, long fencingToken, long expireAt) implements LockHandle {
+
+        @Override
+        public String key() {
+            return lock.key;
+        }
+
+        @Override
+        public Mono<Boolean> release() {
+            return Mono.fromSupplier(() -> lock.holder.compareAndSet(this, null));
+        }
+    }
+
+    public LocalReactiveLock(String key) {
+        this.key = key;
+    }
+
+    @Override
+    public String key() {
+        return key;
+    }
+
+    @Override
+    public Mono<LockHandle> tryAcquire(Duration lease) {
+        return Mono.fromSupplier(() -> {
+            Handle current = holder.get();
+            long now = System.currentTimeMillis();
+            if (current != null && current.expireAt() > now) {
+                return null;
+            }
+            Handle acquired = new Handle(this, fence.incrementAndGet(), now + lease.toMillis());
+            return holder.compareAndSet(current, acquired) ? acquired : null;
+        });
+    }
+}
@@ -0,0 +1,25 @@
+package weixin.mp.infrastructure.lock;
+
+import reactor.core.publisher.Mono;
+
+/**
+ * 已获得的锁
+ */
+public interface LockHandle {
+
+    /**
+     * @return 锁名称
+     */
+    String key();
+
+    /**
+     * 每次获得锁时单调递增，下游可据此拒绝过期持有者的写入
+     * @return 防护令牌
+     */
+    long fencingToken();
+
+    /**
+     * @return 仍由本持有者占有并成功释放时为true，已过期或被他人占有时为false
+     */
+    Mono<Boolean> release();
+}
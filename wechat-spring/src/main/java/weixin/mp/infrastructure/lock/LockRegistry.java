@@ -0,0 +1,15 @@
+package weixin.mp.infrastructure.lock;
+
+/**
+ * 按公众号和操作划分的锁，不同公众号、不同操作互不阻塞
+ */
+@FunctionalInterface
+public interface LockRegistry {
+
+    /**
+     * @param appId 公众号appId
+     * @param operation 操作，见{@link weixin.mp.infrastructure.cache.LockKey}
+     * @return 锁
+     */
+    ReactiveLock obtain(String appId, String operation);
+}
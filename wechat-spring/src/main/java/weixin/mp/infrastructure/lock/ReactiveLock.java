@@ -0,0 +1,58 @@
+package weixin.mp.infrastructure.lock;
+
+import reactor.core.publisher.Mono;
+import reactor.util.retry.Retry;
+
+import java.time.Duration;
+
+/**
+ * 非阻塞锁：获取失败时按指数退避重试，不占用线程
+ */
+public interface ReactiveLock {
+
+    Duration MIN_BACKOFF = Duration.ofMillis(20);
+
+    Duration MAX_BACKOFF = Duration.ofMillis(500);
+
+    /**
+     * @return 锁名称
+     */
+    String key();
+
+    /**
+     * 尝试一次
+     * @param lease 租期，持有者未释放时到期自动释放
+     * @return 获得的锁，已被占有时为空
+     */
+    Mono<LockHandle> tryAcquire(Duration lease);
+
+    /**
+     * 在等待时间内退避重试，已发出的尝试不会被取消，避免获得锁后无人释放
+     * @param lease 租期
+     * @param wait 最长等待时间
+     * @return 获得的锁，超时为空
+     */
+    default Mono<LockHandle> acquire(Duration lease, Duration wait) {
+        return Mono.defer(() -> {
+            long deadline = System.currentTimeMillis() + wait.toMillis();
+            return tryAcquire(lease)
+                    .switchIfEmpty(Mono.error(Busy.INSTANCE))
+                    .retryWhen(Retry.backoff(Long.MAX_VALUE, MIN_BACKOFF)
+                            .maxBackoff(MAX_BACKOFF)
+                            .filter(e -> e == Busy.INSTANCE && System.currentTimeMillis() < deadline))
+                    .onErrorResume(e -> e == Busy.INSTANCE, e -> Mono.empty());
+        });
+    }
+
+    /**
+     * 锁已被占有，仅用于触发重试
+     */
+    final class Busy extends RuntimeException {
+
+        private static final Busy INSTANCE = new Busy();
+
+        private Busy() {
+            super("lock busy", null, false, false);
+        }
+    }
+}
@@ -3,88 +3,106 @@ package weixin.mp.infrastructure.lock;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import reactor.core.publisher.Mono;
 
 import java.time.Duration;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.Condition;
-import java.util.concurrent.locks.Lock;
+import java.util.List;
+import java.util.UUID;
 
 /**
- * 单redis分布式锁
+ * 单redis分布式锁：
+ * <ul>
+ *     <li>获取：SET NX PX与递增防护令牌在同一脚本内完成</li>
+ *     <li>释放：比较持有者后删除在同一脚本内完成，不会误删他人在租期到期后获得的锁</li>
+ *     <li>锁与防护令牌的key使用相同的hash tag（{key}、{key}.fence），集群模式下落在同一slot，脚本不会报CROSSSLOT</li>
+ * </ul>
  */
-public class RedisBasedDistributableLock implements Lock {
+public class RedisBasedDistributableLock implements ReactiveLock {
 
     private static final Logger log = LoggerFactory.getLogger(RedisBasedDistributableLock.class);
 
+    private static final RedisScript<Long> ACQUIRE = RedisScript.of("""
+            if redis.call('set', KEYS[1], ARGV[1], 'NX', 'PX', ARGV[2]) then
+                return redis.call('incr', KEYS[2])
+            end
+            return 0
+            """, Long.class);
+
+    private static final RedisScript<Long> RELEASE = RedisScript.of("""
+            if redis.call('get', KEYS[1]) == ARGV[1] then
+                return redis.call('del', KEYS[1])
+            end
+            return 0
+            """, Long.class);
+
+    private static final String FENCE_SUFFIX = ".fence";
+
+    private static final String HASH_TAG_FMT = "{%1$s}";
+
     private final ReactiveStringRedisTemplate stringRedisTemplate;
 
     private final String key;
 
+    private final List<String> keys;
+
     /**
-     * key超时时间
+     * 持有者标识的节点部分，仅用于排查是哪个节点持有锁（唯一性由UUID保证）：优先使用容器名，否则为主机名:进程号
      */
-    private final Duration expiration;
+    private static final String NODE_ID = nodeId();
 
-    private static final String machineId = System.getProperty("container.name", System.getenv("CONTAINER_NAME")); // TODO
+    /**
+     * @param owner 持有者标识
+     * @param fencingToken 防护令牌
+     */
+    private record Handle(RedisBasedDistributableLock lock, String owner, long fencingToken) implements LockHandle {
 
-    public RedisBasedDistributableLock(ReactiveStringRedisTemplate stringRedisTemplate, String key, Duration expiration) {
-        this.stringRedisTemplate = stringRedisTemplate;
-        this.key = key;
-        this.expiration = expiration;
-    }
+        @Override
+        public String key() {
+            return lock.key;
+        }
 
-    @Override
-    public void lock() {
-        boolean locked = false;
-        while (!locked) {
-            locked = tryLock();
+        @Override
+        public Mono<Boolean> release() {
+            return lock.release(this);
         }
     }
 
-    @Override
-    public void lockInterruptibly() throws InterruptedException {
-        if (Thread.interrupted())
-            throw new InterruptedException();
-        lock();
+    public RedisBasedDistributableLock(ReactiveStringRedisTemplate stringRedisTemplate, String key) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.key = key;
+        String hashTagged = HASH_TAG_FMT.formatted(key);
+        this.keys = List.of(hashTagged, hashTagged + FENCE_SUFFIX);
     }
 
-    @Override
-    public boolean tryLock() {
-        return stringRedisTemplate.opsForValue()
-                .setIfAbsent(key, Thread.currentThread().getName() + "@" + machineId, expiration).block();
+    private static String nodeId() {
+        String container = System.getProperty("container.name", System.getenv("CONTAINER_NAME"));
+        return container != null ? container : System.getenv().getOrDefault("HOSTNAME", "localhost") + ":" + ProcessHandle.current().pid();
     }
 
     @Override
-    public boolean tryLock(long time, TimeUnit unit) throws InterruptedException {
-        if (Thread.interrupted()) {
-            throw new InterruptedException();
-        }
-        long start = System.currentTimeMillis();
-        boolean locked = false;
-        while (!locked && System.currentTimeMillis() - start < unit.toMillis(time)) {
-            locked = tryLock();
-        }
-        return locked;
+    public String key() {
+        return key;
     }
 
     @Override
-    public void unlock() {
-        String lockOwner = stringRedisTemplate.opsForValue().get(key).block();
-        if (lockOwner == null) {
-            log.info("key[{}] already expired!", key);
-            return;
-        }
-        String releaser = Thread.currentThread().getName() + "@" + machineId;
-        if (!lockOwner.equals(releaser)) {
-            log.error("unlock action must be lock owner execute: owner={}, releaser={}", lockOwner, releaser);
-            return;
-        }
-        stringRedisTemplate.delete(key);
+    public Mono<LockHandle> tryAcquire(Duration lease) {
+        String owner = UUID.randomUUID() + "@" + NODE_ID;
+        return stringRedisTemplate.execute(ACQUIRE, keys, List.of(owner, String.valueOf(lease.toMillis())))
+                .next()
+                .filter(fencingToken -> fencingToken > 0)
+                .map(fencingToken -> new Handle(this, owner, fencingToken));
     }
 
-    @Override
-    public Condition newCondition() {
-        return null; // TODO, may be publish event, so waiter can get cache
+    private Mono<Boolean> release(Handle handle) {
+        return stringRedisTemplate.execute(RELEASE, keys.subList(0, 1), List.of(handle.owner()))
+                .next()
+                .map(deleted -> {
+                    if (deleted == 0) {
+                        log.info("key[{}] already expired or taken by others, fencing token: {}", key, handle.fencingToken());
+                    }
+                    return deleted > 0;
+                })
+                .defaultIfEmpty(Boolean.FALSE);
     }
-
 }
@@ -0,0 +1,27 @@
+package weixin.mp.infrastructure.lock;
+
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import weixin.mp.infrastructure.cache.LockKey;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 每个appId + 操作对应一个redis key
+ */
+public class RedisLockRegistry implements LockRegistry {
+
+    private final ReactiveStringRedisTemplate stringRedisTemplate;
+
+    private final Map<String, ReactiveLock> locks = new ConcurrentHashMap<>();
+
+    public RedisLockRegistry(ReactiveStringRedisTemplate stringRedisTemplate) {
+        this.stringRedisTemplate = stringRedisTemplate;
+    }
+
+    @Override
+    public ReactiveLock obtain(String appId, String operation) {
+        return locks.computeIfAbsent(LockKey.LOCK_FMT.formatted(appId, operation),
+                key -> new RedisBasedDistributableLock(stringRedisTemplate, key));
+    }
+}
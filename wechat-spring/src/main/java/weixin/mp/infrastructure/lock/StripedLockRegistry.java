@@ -0,0 +1,30 @@
+package weixin.mp.infrastructure.lock;
+
+import weixin.mp.infrastructure.cache.LockKey;
+
+/**
+ * 单节点锁分段：appId + 操作散列到固定数量的锁上，内存占用与公众号数量无关，偶有不同key共用同一段
+ */
+public class StripedLockRegistry implements LockRegistry {
+
+    private static final String STRIPE_FMT = "stripe-%1$d";
+
+    private final ReactiveLock[] stripes;
+
+    /**
+     * @param concurrency 期望的并发度，向上取整为2的幂
+     */
+    public StripedLockRegistry(int concurrency) {
+        int size = concurrency <= 1 ? 1 : Integer.highestOneBit(concurrency - 1) << 1;
+        stripes = new ReactiveLock[size];
+        for (int i = 0; i < size; i++) {
+            stripes[i] = new LocalReactiveLock(STRIPE_FMT.formatted(i));
+        }
+    }
+
+    @Override
+    public ReactiveLock obtain(String appId, String operation) {
+        int h = LockKey.LOCK_FMT.formatted(appId, operation).hashCode();
+        return stripes[(h ^ (h >>> 16)) & (stripes.length - 1)];
+    }
+}
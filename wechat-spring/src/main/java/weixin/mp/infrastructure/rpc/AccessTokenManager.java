@@ -0,0 +1,288 @@
+package weixin.mp.infrastructure.rpc;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.cache.Cache;
+import weixin.mp.infrastructure.cache.TokenReplica;
+import weixin.mp.infrastructure.lock.LockHandle;
+import weixin.mp.infrastructure.lock.ReactiveLock;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * 按appId管理access_token：
+ * <ul>
+ *     <li>本地持有令牌时直接返回，不等待刷新</li>
+ *     <li>同一时刻只有一个刷新请求，所有等待者共享同一个CompletableFuture</li>
+ *     <li>微信服务器支持刷新后5分钟内新旧2个token同时可用，因此在过期前5分钟进入提前刷新：访问时触发后台刷新，空闲时由定时任务刷新</li>
+ *     <li>配置了{@link TokenReplica}时，刷新前先取远端副本，刷新后写回并通知其他节点直接替换内存中的令牌</li>
+ *     <li>本地缓存、远端副本都保存绝对过期时间（按发起获取的时间计算），从中取出的令牌剩余有效期据此计算，而非重新按expires_in计</li>
+ *     <li>向微信服务器获取令牌前须获得锁，获得锁后再取一次远端副本，避免多节点重复刷新</li>
+ * </ul>
+ */
+final class AccessTokenManager {
+
+    private static final Logger log = LoggerFactory.getLogger(AccessTokenManager.class);
+
+    /**
+     * 新旧token同时可用的时间
+     */
+    private static final long DUAL_VALID_WINDOW = TimeUnit.MINUTES.toMillis(5);
+
+    /**
+     * 定时刷新的随机延迟，避免多节点同时刷新
+     */
+    private static final long RENEW_JITTER = TimeUnit.MINUTES.toMillis(1);
+
+    private static final Duration REFRESH_LEASE = Duration.ofSeconds(10);
+
+    private static final Duration REFRESH_WAIT = Duration.ofSeconds(3);
+
+    private static final Map<String, AccessTokenManager> MANAGERS = new ConcurrentHashMap<>();
+
+    private final String appId;
+
+    private volatile Token current;
+
+    private volatile Source source;
+
+    private final AtomicReference<CompletableFuture<Token>> inflight = new AtomicReference<>();
+
+    private final AtomicLong scheduledAt = new AtomicLong();
+
+    /**
+     * @param value access_token
+     * @param expireAt 过期时间
+     */
+    record Token(String value, long expireAt) {
+        long refreshAt() {
+            return expireAt - DUAL_VALID_WINDOW;
+        }
+    }
+
+    /**
+     * @param cache 本地缓存
+     * @param key 缓存key
+     * @param lock 刷新锁，可为null
+     * @param replica 远端副本，可为null
+     * @param fetcher 向微信服务器获取令牌
+     */
+    private record Source(Cache cache, String key, ReactiveLock lock, TokenReplica replica,
+                          Supplier<CompletableFuture<Weixin.AuthenticationResponse>> fetcher) {}
+
+    private AccessTokenManager(String appId) {
+        this.appId = appId;
+    }
+
+    static AccessTokenManager of(String appId) {
+        return MANAGERS.computeIfAbsent(appId, AccessTokenManager::new);
+    }
+
+    /**
+     * 收到其他节点的刷新通知后，以远端副本替换内存中的令牌
+     * @param replica 远端副本
+     */
+    void reload(TokenReplica replica) {
+        replica.load(appId).whenComplete((t, e) -> {
+            if (e != null) {
+                log.warn("'{}' reload access_token fail: {}", appId, e.getMessage());
+            } else if (t != null) {
+                swap(t);
+            }
+        });
+    }
+
+    /**
+     * @param cache 本地缓存
+     * @param key 缓存key
+     * @param lock 刷新锁，可为null
+     * @param replica 远端副本，可为null
+     * @param fetcher 向微信服务器获取令牌
+     * @return access_token
+     */
+    CompletableFuture<String> get(Cache cache, String key, ReactiveLock lock, TokenReplica replica,
+                                  Supplier<CompletableFuture<Weixin.AuthenticationResponse>> fetcher) {
+        source = new Source(cache, key, lock, replica, fetcher);
+        long now = System.currentTimeMillis();
+        Token token = current;
+        if (token == null || token.expireAt() <= now) {
+            token = adopt(cache.get(key, TokenReplica.Token.class), now);
+        }
+        if (token != null) {
+            if (now >= token.refreshAt()) {
+                refresh();
+            }
+            return CompletableFuture.completedFuture(token.value());
+        }
+        return refresh().thenApply(Token::value);
+    }
+
+    /**
+     * 微信服务器拒绝令牌（如在其他地方被刷新）时作废，下次获取时重新刷新
+     * @param stale 被拒绝的令牌
+     */
+    void invalidate(String stale) {
+        Token token = current;
+        if (token == null || !token.value().equals(stale)) {
+            return;
+        }
+        current = new Token(stale, 0);
+        Source src = source;
+        if (src != null) {
+            TokenReplica.Token cached = src.cache().get(src.key(), TokenReplica.Token.class);
+            if (cached != null && stale.equals(cached.value())) {
+                src.cache().evict(src.key());
+            }
+        }
+    }
+
+    /**
+     * @param cached 本地缓存的令牌，过期时间为绝对时间
+     * @param now 当前时间
+     * @return 未过期时采用为当前令牌，否则为null
+     */
+    private Token adopt(TokenReplica.Token cached, long now) {
+        if (cached == null || cached.value() == null || cached.expireAt() <= now) {
+            return null;
+        }
+        Token token = new Token(cached.value(), cached.expireAt());
+        current = token;
+        return token;
+    }
+
+    private void swap(TokenReplica.Token shared) {
+        Token token = current;
+        if (token == null || (!token.value().equals(shared.value()) && shared.expireAt() > token.expireAt())) {
+            log.debug("'{}' access_token refreshed by other node", appId);
+            Token swapped = new Token(shared.value(), shared.expireAt());
+            current = swapped;
+            schedule(swapped);
+        }
+    }
+
+    private CompletableFuture<Token> refresh() {
+        CompletableFuture<Token> created = new CompletableFuture<>();
+        while (!inflight.compareAndSet(null, created)) {
+            CompletableFuture<Token> running = inflight.get();
+            if (running != null) {
+                return running;
+            }
+        }
+        Source src = source;
+        Token stale = current;
+        TokenReplica.Token cached = src.cache().get(src.key(), TokenReplica.Token.class);
+        Token adopted = stale != null && cached != null && !stale.value().equals(cached.value()) ?
+                adopt(cached, System.currentTimeMillis()) : null;
+        if (adopted != null) {
+            log.debug("'{}' access_token already refreshed by other node", appId);
+            complete(created, adopted);
+            return created;
+        }
+        TokenReplica tokenReplica = src.replica();
+        loadShared(tokenReplica, stale).thenCompose(t -> t != null ?
+                CompletableFuture.completedFuture(t) :
+                fetch(src, tokenReplica, stale)
+        ).whenComplete((t, e) -> {
+            if (e != null) {
+                log.warn("'{}' refresh access_token fail: {}", appId, e.getMessage());
+                inflight.compareAndSet(created, null);
+                created.completeExceptionally(e);
+            } else {
+                complete(created, t);
+            }
+        });
+        return created;
+    }
+
+    /**
+     * @return 其他节点刷新过且未进入提前刷新期的令牌，否则为null
+     */
+    private CompletableFuture<Token> loadShared(TokenReplica tokenReplica, Token stale) {
+        if (tokenReplica == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return tokenReplica.load(appId).handle((t, e) -> {
+            if (e != null) {
+                log.warn("'{}' load shared access_token fail: {}", appId, e.getMessage());
+                return null;
+            }
+            if (t == null || System.currentTimeMillis() >= t.expireAt() - DUAL_VALID_WINDOW ||
+                    (stale != null && stale.value().equals(t.value()))) {
+                return null;
+            }
+            Token token = new Token(t.value(), t.expireAt());
+            current = token;
+            return token;
+        });
+    }
+
+    private CompletableFuture<Token> fetch(Source src, TokenReplica tokenReplica, Token stale) {
+        if (src.lock() == null) {
+            return fetch(src, tokenReplica);
+        }
+        return src.lock().acquire(REFRESH_LEASE, REFRESH_WAIT).toFuture().thenCompose(handle -> {
+            if (handle == null) {
+                log.warn("'{}' wait lock[{}] timeout, refresh access_token anyway", appId, src.lock().key());
+                return fetch(src, tokenReplica);
+            }
+            CompletableFuture<Token> refreshed = loadShared(tokenReplica, stale).thenCompose(t -> t != null ?
+                    CompletableFuture.completedFuture(t) :
+                    fetch(src, tokenReplica));
+            refreshed.whenComplete((t, e) -> release(handle));
+            return refreshed;
+        });
+    }
+
+    private void release(LockHandle handle) {
+        handle.release().subscribe(null, e -> log.warn("'{}' release lock[{}] fail: {}", appId, handle.key(), e.getMessage()));
+    }
+
+    private CompletableFuture<Token> fetch(Source src, TokenReplica tokenReplica) {
+        long requestedAt = System.currentTimeMillis();
+        CompletableFuture<Weixin.AuthenticationResponse> fetched;
+        try {
+            fetched = src.fetcher().get();
+        } catch (RuntimeException e) {
+            fetched = CompletableFuture.failedFuture(e);
+        }
+        return fetched.thenApply(r -> {
+            TokenReplica.Token shared = new TokenReplica.Token(r.accessToken(), requestedAt + TimeUnit.SECONDS.toMillis(r.timeToLive()));
+            src.cache().put(src.key(), shared);
+            Token token = new Token(shared.value(), shared.expireAt());
+            current = token;
+            if (tokenReplica != null) {
+                tokenReplica.publish(appId, shared)
+                        .exceptionally(e -> {
+                            log.warn("'{}' publish access_token fail: {}", appId, e.getMessage());
+                            return null;
+                        });
+            }
+            return token;
+        });
+    }
+
+    private void complete(CompletableFuture<Token> created, Token token) {
+        inflight.compareAndSet(created, null);
+        created.complete(token);
+        schedule(token);
+    }
+
+    private void schedule(Token token) {
+        long delay = token.refreshAt() - System.currentTimeMillis() + ThreadLocalRandom.current().nextLong(RENEW_JITTER);
+        if (delay > 0 && scheduledAt.getAndSet(token.refreshAt()) != token.refreshAt()) {
+            CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS).execute(() -> {
+                if (current == token && source != null) {
+                    refresh();
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package weixin.mp.infrastructure.rpc;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.web.reactive.function.client.WebClientRequestException;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import weixin.mp.infrastructure.exceptions.RetryableException;
+import weixin.mp.infrastructure.exceptions.ServerError;
+
+import java.util.Map;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 按公众号 + 接口熔断：连续失败达到阈值后断开，断开期间直接失败；冷却后放行一次试探，成功则恢复。
+ * 仅服务端故障（系统繁忙、5xx、网络异常、超时）计为失败，参数错误等客户端错误说明服务端正常。
+ * 只记录接口调用本身的结果，获取access_token失败不计入
+ */
+final class CircuitBreaker {
+
+    private static final Logger log = LoggerFactory.getLogger(CircuitBreaker.class);
+
+    private static final int FAILURE_THRESHOLD = 5;
+
+    private static final long OPEN_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+    private static final String KEY_FMT = "%1$s.%2$s";
+
+    private static final Map<String, CircuitBreaker> BREAKERS = new ConcurrentHashMap<>();
+
+    enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN,
+        ;
+    }
+
+    private final String appId;
+
+    private final WeixinUrl url;
+
+    private final AtomicReference<State> state = new AtomicReference<>(State.CLOSED);
+
+    private final AtomicInteger failures = new AtomicInteger();
+
+    private volatile long openedAt;
+
+    private CircuitBreaker(String appId, WeixinUrl url) {
+        this.appId = appId;
+        this.url = url;
+    }
+
+    /**
+     * @param appId 公众号appId，各公众号的配置、配额互不影响，分别熔断
+     * @param url 接口
+     */
+    static CircuitBreaker of(String appId, WeixinUrl url) {
+        return BREAKERS.computeIfAbsent(KEY_FMT.formatted(appId, url.name()), k -> new CircuitBreaker(appId, url));
+    }
+
+    /**
+     * @return 是否放行
+     */
+    boolean tryAcquire() {
+        return switch (state.get()) {
+            case CLOSED -> true;
+            case OPEN -> System.currentTimeMillis() - openedAt >= OPEN_MILLIS && state.compareAndSet(State.OPEN, State.HALF_OPEN);
+            case HALF_OPEN -> false;
+        };
+    }
+
+    /**
+     * @param e 调用结果，成功为null
+     */
+    void record(Throwable e) {
+        if (!isServerFault(e)) {
+            failures.set(0);
+            if (state.getAndSet(State.CLOSED) != State.CLOSED) {
+                log.info("'{}' circuit of {} closed", appId, url);
+            }
+            return;
+        }
+        if (state.get() == State.HALF_OPEN || failures.incrementAndGet() >= FAILURE_THRESHOLD) {
+            openedAt = System.currentTimeMillis();
+            failures.set(0);
+            if (state.getAndSet(State.OPEN) != State.OPEN) {
+                log.warn("'{}' circuit of {} opened: {}", appId, url, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 放行后未发出调用（如获取access_token失败）时调用：试探作废，恢复断开，下次访问重新试探
+     */
+    void abandon() {
+        state.compareAndSet(State.HALF_OPEN, State.OPEN);
+    }
+
+    private static boolean isServerFault(Throwable e) {
+        Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+        return cause instanceof RetryableException || cause instanceof ServerError ||
+                cause instanceof WebClientRequestException || cause instanceof TimeoutException ||
+                (cause instanceof WebClientResponseException wcre && wcre.getStatusCode().is5xxServerError());
+    }
+}
@@ -4,13 +4,23 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import weixin.mp.domain.FileType;
 
+import java.io.FileInputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 
 public abstract class InputStreamUtil {
 
     private static final Logger log = LoggerFactory.getLogger(InputStreamUtil.class);
 
+    /**
+     * 识别文件格式最多读取的字节数，webm/mkv的DocType通常位于前40字节
+     */
+    public static final int MAGIC_NUMBER_LENGTH = 64;
+
     private static final byte[] JPG = {(byte) 0xFF, (byte)0xD8};
 
     private static final byte[] BMP = {(byte) 0x42, (byte) 0x4D};
@@ -24,62 +34,158 @@ public abstract class InputStreamUtil {
     private static final byte[] WMA = {(byte) 0x30, (byte) 0x26, (byte) 0xB2, (byte) 0x75, (byte) 0x8E, (byte) 0x66, (byte) 0xCF, (byte) 0x11,
             (byte) 0xA6, (byte) 0xD9, (byte) 0x00, (byte) 0xAA, (byte) 0x00, (byte) 0x62, (byte) 0xCE, (byte) 0x6C};
 
-    private static final byte[] WAV = WMA;
-
     private static final byte[] AMR = {(byte) 0x23, (byte) 0x21, (byte) 0x41, (byte) 0x4D, (byte) 0x52};
 
     private static final byte[] MP3 = {(byte) 0x49, (byte) 0x44, (byte) 0x33};
 
-    private static final byte[] MP4 = {(byte) 0x66, (byte) 0x74, (byte) 0x79, (byte) 0x70, (byte) 0x4D, (byte) 0x53, (byte) 0x4E, (byte) 0x56};
+    /**
+     * RIFF容器，偏移8字节处为格式：WEBP、WAVE、AVI
+     */
+    private static final byte[] RIFF = {(byte) 0x52, (byte) 0x49, (byte) 0x46, (byte) 0x46};
+
+    private static final byte[] RIFF_WEBP = "WEBP".getBytes(StandardCharsets.US_ASCII);
+
+    private static final byte[] RIFF_WAVE = "WAVE".getBytes(StandardCharsets.US_ASCII);
+
+    private static final byte[] RIFF_AVI = "AVI ".getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * ISO基础媒体文件，偏移4字节处为"ftyp"，其后4字节为主品牌：M4A、HEIC或其他视频
+     */
+    private static final byte[] FTYP = "ftyp".getBytes(StandardCharsets.US_ASCII);
+
+    private static final byte[][] FTYP_M4A = {"M4A ".getBytes(StandardCharsets.US_ASCII), "M4B ".getBytes(StandardCharsets.US_ASCII)};
+
+    private static final byte[][] FTYP_HEIC = {"heic".getBytes(StandardCharsets.US_ASCII), "heix".getBytes(StandardCharsets.US_ASCII),
+            "hevc".getBytes(StandardCharsets.US_ASCII), "heim".getBytes(StandardCharsets.US_ASCII),
+            "mif1".getBytes(StandardCharsets.US_ASCII), "msf1".getBytes(StandardCharsets.US_ASCII)};
+
+    private static final byte[] FTYP_QUICK_TIME = "qt  ".getBytes(StandardCharsets.US_ASCII);
 
-    private static final byte[] MP4_V1 = {(byte) 0x66, (byte) 0x74, (byte) 0x79, (byte) 0x70, (byte) 0x69, (byte) 0x73, (byte) 0x6F, (byte) 0x6D};
+    /**
+     * EBML容器，文件头中的DocType区分webm与mkv
+     */
+    private static final byte[] EBML = {(byte) 0x1A, (byte) 0x45, (byte) 0xDF, (byte) 0xA3};
+
+    private static final byte[] EBML_WEBM = "webm".getBytes(StandardCharsets.US_ASCII);
+
+    private static final byte[] EBML_MATROSKA = "matroska".getBytes(StandardCharsets.US_ASCII);
 
     /**
-     * <a href="https://www.garykessler.net/library/file_sigs.html">根据文件头判断文件格式</a>
+     * <a href="https://www.garykessler.net/library/file_sigs.html">根据文件头判断文件格式</a>，不消耗流：
+     * 文件流按位置读取，支持mark/reset的流标记后读取再重置，其他流无法识别
      * @link https://www.garykessler.net/library/file_sigs.html
      * @param is 流
      * @return 文件格式
      */
     public static FileType lookup(InputStream is) {
+        if (is instanceof FileInputStream fis) {
+            return lookup(fis.getChannel());
+        }
         if (!is.markSupported()) {
             log.warn("InputStream[{}] not support mark/reset, skip read it.", is.getClass());
             return null;
         }
-        byte[] magicNumber = new byte[WMA.length]; // longest magic number count
         try {
-            is.reset();
-            int readBytes = is.read(magicNumber);
-            assert readBytes == magicNumber.length;
+            is.mark(MAGIC_NUMBER_LENGTH);
+            byte[] magicNumber;
+            try {
+                magicNumber = is.readNBytes(MAGIC_NUMBER_LENGTH);
+            } finally {
+                is.reset();
+            }
             return lookup(magicNumber);
-        } catch (Exception e) {
+        } catch (IOException e) {
             log.error(e.getMessage(), e);
         }
         log.warn("file type unknown as not implemented or error occur");
         return null;
     }
 
+    /**
+     * 从通道当前位置读取文件头，不改变通道位置
+     * @param channel 文件通道
+     * @return 文件格式
+     */
+    public static FileType lookup(FileChannel channel) {
+        try {
+            ByteBuffer magicNumber = ByteBuffer.allocate(MAGIC_NUMBER_LENGTH);
+            long position = channel.position();
+            while (magicNumber.hasRemaining()) {
+                int read = channel.read(magicNumber, position + magicNumber.position());
+                if (read < 0) {
+                    break;
+                }
+            }
+            return lookup(Arrays.copyOf(magicNumber.array(), magicNumber.position()));
+        } catch (IOException e) {
+            log.error(e.getMessage(), e);
+        }
+        log.warn("file type unknown as not implemented or error occur");
+        return null;
+    }
+
+    /**
+     * @param data 文件头，不足{@link #MAGIC_NUMBER_LENGTH}字节时只匹配已有部分
+     * @return 文件格式
+     */
     public static FileType lookup(byte[] data) {
-        assert data.length >= WMA.length;
-        if (Arrays.equals(data, 0, PNG.length, PNG, 0, PNG.length)) {
+        if (startsWith(data, 0, PNG)) {
             return FileType.PNG;
-        } else if (Arrays.equals(data, 0, JPG.length, JPG, 0, JPG.length)) {
+        } else if (startsWith(data, 0, JPG)) {
             return FileType.JPG;
-        } else if (Arrays.equals(data, 0, BMP.length, BMP, 0, BMP.length)) {
-            return FileType.BMP;
-        } else if (Arrays.equals(data, 0, GIF_87A.length, GIF_87A, 0, GIF_87A.length)
-                || Arrays.equals(data, 0, GIF_89A.length, GIF_89A, 0, GIF_89A.length)) {
+        } else if (startsWith(data, 0, GIF_87A) || startsWith(data, 0, GIF_89A)) {
             return FileType.GIF;
-        } else if (Arrays.equals(data, 0, WMA.length, WMA, 0, WMA.length)) {
+        } else if (startsWith(data, 0, RIFF)) {
+            if (startsWith(data, 8, RIFF_WEBP)) {
+                return FileType.WEBP;
+            } else if (startsWith(data, 8, RIFF_WAVE)) {
+                return FileType.WAV;
+            } else if (startsWith(data, 8, RIFF_AVI)) {
+                return FileType.AVI;
+            }
+        } else if (startsWith(data, 0, BMP)) {
+            return FileType.BMP;
+        } else if (startsWith(data, 0, WMA)) {
             return FileType.WMA;
-        } else if (Arrays.equals(data, 0, AMR.length, AMR, 0, AMR.length)) {
+        } else if (startsWith(data, 0, AMR)) {
             return FileType.AMR;
-        } else if (Arrays.equals(data, 0, MP3.length, MP3, 0, MP3.length)) {
+        } else if (startsWith(data, 0, MP3)) {
             return FileType.MP3;
-        } else if (Arrays.equals(data, 4, MP4.length + 4, MP4, 0, MP4.length)
-                || Arrays.equals(data, 4, MP4_V1.length + 4, MP4_V1, 0, MP4_V1.length)) {
-            return FileType.MP4;
+        } else if (startsWith(data, 4, FTYP)) {
+            for (byte[] brand : FTYP_M4A) {
+                if (startsWith(data, 8, brand)) {
+                    return FileType.M4A;
+                }
+            }
+            for (byte[] brand : FTYP_HEIC) {
+                if (startsWith(data, 8, brand)) {
+                    return FileType.HEIC;
+                }
+            }
+            return startsWith(data, 8, FTYP_QUICK_TIME) ? FileType.MOV : FileType.MP4;
+        } else if (startsWith(data, 0, EBML)) {
+            if (indexOf(data, EBML_WEBM) > 0) {
+                return FileType.WEBM;
+            } else if (indexOf(data, EBML_MATROSKA) > 0) {
+                return FileType.MKV;
+            }
         }
         return null;
     }
 
+    private static boolean startsWith(byte[] data, int offset, byte[] signature) {
+        return data.length >= offset + signature.length &&
+                Arrays.equals(data, offset, offset + signature.length, signature, 0, signature.length);
+    }
+
+    private static int indexOf(byte[] data, byte[] target) {
+        for (int i = 0; i + target.length <= data.length; i++) {
+            if (startsWith(data, i, target)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
 }
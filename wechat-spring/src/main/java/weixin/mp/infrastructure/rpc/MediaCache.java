@@ -0,0 +1,501 @@
+package weixin.mp.infrastructure.rpc;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.SignalType;
+import weixin.mp.facade.WeixinMaterialApiFacade;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+/**
+ * 素材、二维码的本地缓存：
+ * <ul>
+ *     <li>同一key同一时刻只下载一次，首个请求边透传边写入临时文件，完成后按内容摘要改名生效，内容相同的文件只存一份</li>
+ *     <li>下载期间的其他请求等待写入完成后读取；首个请求失败或中断时各自下载</li>
+ *     <li>多次命中的热点文件映射到内存，按块切分直接发送；映射总量超限时按最近最少使用释放</li>
+ *     <li>磁盘占用超限时按最近最少使用淘汰，不再被引用的文件随之删除</li>
+ *     <li>元数据索引按最近使用顺序写入缓存目录，重启后恢复</li>
+ *     <li>视频、图文等json结构不缓存</li>
+ * </ul>
+ */
+public class MediaCache implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(MediaCache.class);
+
+    private static final String BLOB_SUFFIX = ".media";
+
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private static final String INDEX = "index";
+
+    private static final String DIGEST_ALGORITHM = "SHA-256";
+
+    private static final String FIELD_SEPARATOR = "\t";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * 等待其他请求写入的最长时间，单位：秒
+     */
+    private static final long LOAD_WAIT = 30;
+
+    /**
+     * 索引变更后延迟写入，合并短时间内的多次变更，单位：毫秒
+     */
+    private static final long FLUSH_DELAY = 1000;
+
+    /**
+     * 命中次数达到该值后映射到内存
+     */
+    private static final int HOT_HITS = 2;
+
+    private final Path directory;
+
+    private final long ttl;
+
+    private final long maxSize;
+
+    private final long maxMapped;
+
+    /**
+     * key -> 元数据，访问顺序即淘汰顺序，头部最先淘汰。与{@link #blobs}、{@link #mapped}共用此锁
+     */
+    private final LinkedHashMap<String, Entry> index = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * 内容摘要 -> 文件
+     */
+    private final Map<String, Blob> blobs = new HashMap<>();
+
+    /**
+     * 内容摘要 -> 映射到内存的热点文件，访问顺序
+     */
+    private final LinkedHashMap<String, ByteBuffer> mapped = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final Map<String, CompletableFuture<Entry>> loading = new ConcurrentHashMap<>();
+
+    private final AtomicBoolean flushing = new AtomicBoolean();
+
+    private long size;
+
+    private long mappedSize;
+
+    /**
+     * @param digest 内容摘要
+     * @param filename 文件名称
+     * @param contentType 内容类型
+     * @param length 文件大小
+     * @param expireAt 过期时间，不过期时为{@link Long#MAX_VALUE}
+     * @param hits 命中次数
+     */
+    private record Entry(String digest, String filename, String contentType, long length, long expireAt, int hits) {
+        Entry hit() {
+            return new Entry(digest, filename, contentType, length, expireAt, hits + 1);
+        }
+    }
+
+    /**
+     * @param length 文件大小
+     * @param references 引用该文件的key数量
+     */
+    private record Blob(long length, int references) {}
+
+    /**
+     * @param directory 缓存目录
+     * @param ttl 会过期的内容（如临时素材）的缓存有效期，不应超过其本身的有效期
+     * @param maxSize 磁盘占用上限，单位：字节
+     * @param maxMapped 映射到内存的上限，单位：字节
+     */
+    public MediaCache(Path directory, Duration ttl, long maxSize, long maxMapped) throws IOException {
+        this.directory = Files.createDirectories(directory);
+        this.ttl = ttl.toMillis();
+        this.maxSize = maxSize;
+        this.maxMapped = maxMapped;
+        recover();
+    }
+
+    /**
+     * @param key 缓存key
+     * @param expiring 内容是否会过期，永久素材、二维码图片对同一key不会变化
+     * @param loader 未命中时下载
+     * @return 命中时读取的{@link MediaStream}，否则为下载结果
+     */
+    CompletableFuture<WeixinMaterialApiFacade.Downloadable> get(String key, boolean expiring,
+                                                                Supplier<? extends CompletableFuture<? extends WeixinMaterialApiFacade.Downloadable>> loader) {
+        Entry entry = lookup(key);
+        if (entry != null) {
+            return CompletableFuture.completedFuture(read(entry));
+        }
+        CompletableFuture<Entry> created = new CompletableFuture<>();
+        CompletableFuture<Entry> running = loading.putIfAbsent(key, created);
+        if (running != null) {
+            return running.handle((e, ex) -> e)
+                    .completeOnTimeout(null, LOAD_WAIT, TimeUnit.SECONDS)
+                    .thenCompose(e -> {
+                        if (e != null) {
+                            return CompletableFuture.completedFuture(read(e));
+                        }
+                        loading.remove(key, running); // body never consumed
+                        return load(loader);
+                    });
+        }
+        return load(loader).handle((d, ex) -> {
+            if (ex == null && d instanceof MediaStream media) {
+                return tee(key, expiring, media, created);
+            }
+            release(key, created, null);
+            if (ex != null) {
+                throw ex instanceof RuntimeException re ? re : new IllegalStateException(ex);
+            }
+            return d;
+        });
+    }
+
+    /**
+     * 内容已变化或被删除时调用
+     * @param key 缓存key
+     */
+    void invalidate(String key) {
+        synchronized (index) {
+            Entry entry = index.remove(key);
+            if (entry != null) {
+                dereference(entry.digest());
+            }
+        }
+        scheduleFlush();
+    }
+
+    /**
+     * 写入索引
+     */
+    @Override
+    public void close() throws IOException {
+        flush();
+    }
+
+    private Entry lookup(String key) {
+        Entry entry;
+        synchronized (index) {
+            entry = index.get(key);
+            if (entry == null) {
+                return null;
+            }
+            if (entry.expireAt() > System.currentTimeMillis() && Files.isReadable(blob(entry.digest()))) {
+                Entry hit = entry.hit();
+                index.put(key, hit);
+                return hit;
+            }
+            index.remove(key);
+            dereference(entry.digest());
+        }
+        scheduleFlush();
+        return null;
+    }
+
+    private CompletableFuture<WeixinMaterialApiFacade.Downloadable> load(
+            Supplier<? extends CompletableFuture<? extends WeixinMaterialApiFacade.Downloadable>> loader) {
+        try {
+            return loader.get().thenApply(d -> d);
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * @return 订阅时同时写入临时文件并计算摘要的响应体
+     */
+    private MediaStream tee(String key, boolean expiring, MediaStream media, CompletableFuture<Entry> created) {
+        Flux<DataBuffer> body = Flux.defer(() -> {
+            Path temp;
+            MessageDigest digest;
+            try {
+                temp = Files.createTempFile(directory, null, TEMP_SUFFIX);
+                digest = MessageDigest.getInstance(DIGEST_ALGORITHM);
+            } catch (IOException | NoSuchAlgorithmException e) {
+                log.warn("cache media '{}' fail: {}", key, e.getMessage());
+                release(key, created, null);
+                return media.body();
+            }
+            return Flux.using(() -> AsynchronousFileChannel.open(temp, StandardOpenOption.WRITE),
+                            channel -> DataBufferUtils.write(media.body(), channel),
+                            this::close)
+                    .doOnNext(buffer -> update(digest, buffer))
+                    .doFinally(signal -> release(key, created, signal == SignalType.ON_COMPLETE ?
+                            commit(key, expiring, temp, HexFormat.of().formatHex(digest.digest()), media) :
+                            discard(temp)));
+        });
+        return new MediaStream(media.filename(), media.contentType(), media.contentLength(), body);
+    }
+
+    private void update(MessageDigest digest, DataBuffer buffer) {
+        int position = buffer.readPosition();
+        byte[] bytes = new byte[buffer.readableByteCount()];
+        buffer.read(bytes);
+        buffer.readPosition(position);
+        digest.update(bytes);
+    }
+
+    private Entry commit(String key, boolean expiring, Path temp, String digest, MediaStream media) {
+        Path target = blob(digest);
+        Entry entry;
+        try {
+            synchronized (index) {
+                if (blobs.containsKey(digest)) {
+                    discard(temp); // same content
+                } else {
+                    Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                }
+                entry = new Entry(digest, media.filename(), media.contentType(), Files.size(target),
+                        expiring ? System.currentTimeMillis() + ttl : Long.MAX_VALUE, 0);
+                reference(key, entry);
+                trim();
+                if (!index.containsKey(key)) {
+                    entry = null; // larger than the whole cache
+                }
+            }
+        } catch (IOException e) {
+            log.warn("cache media '{}' fail: {}", key, e.getMessage());
+            return discard(temp);
+        }
+        scheduleFlush();
+        return entry;
+    }
+
+    private void release(String key, CompletableFuture<Entry> created, Entry entry) {
+        loading.remove(key, created);
+        created.complete(entry);
+    }
+
+    /**
+     * 须持有{@link #index}锁
+     */
+    private void reference(String key, Entry entry) {
+        Entry previous = index.put(key, entry);
+        Blob blob = blobs.get(entry.digest());
+        if (blob == null) {
+            blobs.put(entry.digest(), new Blob(entry.length(), 1));
+            size += entry.length();
+        } else {
+            blobs.put(entry.digest(), new Blob(blob.length(), blob.references() + 1));
+        }
+        if (previous != null) {
+            dereference(previous.digest());
+        }
+    }
+
+    /**
+     * 须持有{@link #index}锁
+     */
+    private void dereference(String digest) {
+        Blob blob = blobs.get(digest);
+        if (blob == null) {
+            return;
+        }
+        if (blob.references() > 1) {
+            blobs.put(digest, new Blob(blob.length(), blob.references() - 1));
+            return;
+        }
+        blobs.remove(digest);
+        size -= blob.length();
+        ByteBuffer buffer = mapped.remove(digest);
+        if (buffer != null) {
+            mappedSize -= buffer.capacity();
+        }
+        discard(blob(digest));
+    }
+
+    /**
+     * 须持有{@link #index}锁
+     */
+    private void trim() {
+        Iterator<Map.Entry<String, Entry>> it = index.entrySet().iterator();
+        while (size > maxSize && it.hasNext()) {
+            Map.Entry<String, Entry> eldest = it.next();
+            it.remove();
+            dereference(eldest.getValue().digest());
+        }
+    }
+
+    private MediaStream read(Entry entry) {
+        ByteBuffer buffer = entry.hits() >= HOT_HITS ? map(entry) : null;
+        Flux<DataBuffer> body;
+        if (buffer != null) {
+            int length = buffer.capacity();
+            body = Flux.range(0, (length + BUFFER_SIZE - 1) / BUFFER_SIZE)
+                    .map(i -> DefaultDataBufferFactory.sharedInstance.wrap(
+                            buffer.slice(i * BUFFER_SIZE, Math.min(BUFFER_SIZE, length - i * BUFFER_SIZE))));
+        } else {
+            body = DataBufferUtils.read(blob(entry.digest()), DefaultDataBufferFactory.sharedInstance, BUFFER_SIZE);
+        }
+        return new MediaStream(entry.filename(), entry.contentType(), entry.length(), body);
+    }
+
+    /**
+     * @return 映射到内存的文件，超过映射上限时为null
+     */
+    private ByteBuffer map(Entry entry) {
+        if (entry.length() > maxMapped || entry.length() > Integer.MAX_VALUE) {
+            return null;
+        }
+        synchronized (index) {
+            ByteBuffer buffer = mapped.get(entry.digest());
+            if (buffer != null || !blobs.containsKey(entry.digest())) {
+                return buffer;
+            }
+            try (FileChannel channel = FileChannel.open(blob(entry.digest()), StandardOpenOption.READ)) {
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            } catch (IOException e) {
+                log.warn("map {} fail: {}", entry.digest(), e.getMessage());
+                return null;
+            }
+            mapped.put(entry.digest(), buffer);
+            mappedSize += buffer.capacity();
+            Iterator<ByteBuffer> it = mapped.values().iterator();
+            while (mappedSize > maxMapped && it.hasNext()) {
+                ByteBuffer eldest = it.next();
+                if (eldest == buffer) {
+                    break;
+                }
+                it.remove(); // unmapped once unreachable
+                mappedSize -= eldest.capacity();
+            }
+            return buffer;
+        }
+    }
+
+    private void scheduleFlush() {
+        if (flushing.compareAndSet(false, true)) {
+            CompletableFuture.delayedExecutor(FLUSH_DELAY, TimeUnit.MILLISECONDS).execute(() -> {
+                flushing.set(false);
+                try {
+                    flush();
+                } catch (IOException e) {
+                    log.warn("write media index fail: {}", e.getMessage());
+                }
+            });
+        }
+    }
+
+    /**
+     * 每行一条：摘要、大小、过期时间、key、内容类型、文件名称，最近最少使用的在前
+     */
+    private void flush() throws IOException {
+        List<String> lines;
+        synchronized (index) {
+            lines = index.entrySet().stream()
+                    .map(e -> String.join(FIELD_SEPARATOR, e.getValue().digest(), String.valueOf(e.getValue().length()),
+                            String.valueOf(e.getValue().expireAt()), encode(e.getKey()),
+                            encode(e.getValue().contentType()), encode(e.getValue().filename())))
+                    .toList();
+        }
+        Path temp = Files.createTempFile(directory, INDEX, TEMP_SUFFIX);
+        try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            for (String line : lines) {
+                writer.write(line);
+                writer.newLine();
+            }
+        } catch (IOException e) {
+            discard(temp);
+            throw e;
+        }
+        Files.move(temp, directory.resolve(INDEX), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * 读取索引，丢弃文件缺失或已过期的条目，删除临时文件及未被引用的文件
+     */
+    private void recover() throws IOException {
+        Path indexFile = directory.resolve(INDEX);
+        long now = System.currentTimeMillis();
+        synchronized (index) {
+            if (Files.isReadable(indexFile)) {
+                for (String line : Files.readAllLines(indexFile, StandardCharsets.UTF_8)) {
+                    String[] fields = line.split(FIELD_SEPARATOR, -1);
+                    if (fields.length != 6) {
+                        continue;
+                    }
+                    try {
+                        Entry entry = new Entry(fields[0], decode(fields[5]), decode(fields[4]),
+                                Long.parseLong(fields[1]), Long.parseLong(fields[2]), 0);
+                        Path blob = blob(entry.digest());
+                        if (entry.expireAt() > now && Files.isReadable(blob) && Files.size(blob) == entry.length()) {
+                            reference(decode(fields[3]), entry);
+                        }
+                    } catch (NumberFormatException e) {
+                        log.warn("skip corrupted media index: {}", line);
+                    }
+                }
+            }
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*{" + BLOB_SUFFIX + "," + TEMP_SUFFIX + "}")) {
+                for (Path file : files) {
+                    String name = file.getFileName().toString();
+                    if (name.endsWith(TEMP_SUFFIX) || !blobs.containsKey(name.substring(0, name.length() - BLOB_SUFFIX.length()))) {
+                        discard(file);
+                    }
+                }
+            }
+            trim();
+            log.info("media cache recovered {} entries, {} bytes", index.size(), size);
+        }
+    }
+
+    private Path blob(String digest) {
+        return directory.resolve(digest + BLOB_SUFFIX);
+    }
+
+    private Entry discard(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            log.warn("delete {} fail: {}", path, e.getMessage());
+        }
+        return null;
+    }
+
+    private void close(AsynchronousFileChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            log.warn(e.getMessage());
+        }
+    }
+
+    private static String encode(String value) {
+        return value == null ? "" : URLEncoder.encode(value, StandardCharsets.UTF_8);
+    }
+
+    private static String decode(String value) {
+        return value.isEmpty() ? null : URLDecoder.decode(value, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,15 @@
+package weixin.mp.infrastructure.rpc;
+
+import org.springframework.core.io.buffer.DataBuffer;
+import reactor.core.publisher.Flux;
+import weixin.mp.facade.WeixinMaterialApiFacade;
+
+/**
+ * 未在内存中聚合的文件内容，响应体只能订阅一次
+ * @param filename 文件名称，可为null
+ * @param contentType 内容类型，可为null
+ * @param contentLength 文件大小，未知时为-1
+ * @param body 响应体
+ */
+public record MediaStream(String filename, String contentType, long contentLength,
+                          Flux<DataBuffer> body) implements WeixinMaterialApiFacade.Downloadable {}
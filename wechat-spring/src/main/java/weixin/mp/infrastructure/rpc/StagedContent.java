@@ -0,0 +1,126 @@
+package weixin.mp.infrastructure.rpc;
+
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import reactor.core.publisher.Flux;
+import weixin.mp.infrastructure.exceptions.WeixinExceptionUtil;
+
+import java.io.Closeable;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * 待上传的文件内容，长度确定且可重复读取（重试、刷新access_token后重放）：
+ * <ul>
+ *     <li>文件流：直接映射文件，长度取自文件元数据</li>
+ *     <li>小于阈值的其他流：保留在内存</li>
+ *     <li>超过阈值的其他流：转存临时文件后映射，关闭时删除</li>
+ * </ul>
+ * 发送时按块切分映射区域，不复制到堆内存
+ */
+final class StagedContent implements Closeable {
+
+    private static final int MEMORY_THRESHOLD = 256 * 1024;
+
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    private static final String SPILL_PREFIX = "weixin-upload-";
+
+    /**
+     * 不合法的文件大小
+     */
+    private static final int INVALID_MEDIA_SIZE = 40006;
+
+    private final ByteBuffer content;
+
+    private final FileChannel spilled;
+
+    private StagedContent(ByteBuffer content, FileChannel spilled) {
+        this.content = content;
+        this.spilled = spilled;
+    }
+
+    /**
+     * @param is 流
+     * @param maxSize 最大长度，超出时不再读取，以客户端错误失败
+     */
+    static StagedContent of(InputStream is, long maxSize) throws IOException {
+        if (is instanceof FileInputStream fis) {
+            FileChannel channel = fis.getChannel();
+            long position = channel.position();
+            checkSize(channel.size() - position, maxSize);
+            return new StagedContent(channel.map(FileChannel.MapMode.READ_ONLY, position, channel.size() - position), null);
+        }
+        byte[] buffer = is.readNBytes(MEMORY_THRESHOLD);
+        if (buffer.length < MEMORY_THRESHOLD) {
+            checkSize(buffer.length, maxSize);
+            return new StagedContent(ByteBuffer.wrap(buffer), null);
+        }
+        Path file = Files.createTempFile(SPILL_PREFIX, null);
+        FileChannel channel = null;
+        try {
+            try (OutputStream os = Files.newOutputStream(file)) {
+                long size = buffer.length;
+                checkSize(size, maxSize);
+                os.write(buffer);
+                for (int n = is.read(buffer); n >= 0; n = is.read(buffer)) {
+                    checkSize(size += n, maxSize);
+                    os.write(buffer, 0, n);
+                }
+            }
+            channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.DELETE_ON_CLOSE);
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new StagedContent(mapped, channel);
+        } catch (IOException | RuntimeException e) {
+            if (channel != null) {
+                channel.close();
+            }
+            Files.deleteIfExists(file);
+            throw e;
+        }
+    }
+
+    private static void checkSize(long size, long maxSize) {
+        if (size > maxSize) {
+            throw WeixinExceptionUtil.create(INVALID_MEDIA_SIZE, "media size exceeds %1$d bytes".formatted(maxSize));
+        }
+    }
+
+    long length() {
+        return content.remaining();
+    }
+
+    /**
+     * @return 识别文件格式用的文件头，不移动读取位置
+     */
+    byte[] head() {
+        byte[] head = new byte[(int) Math.min(InputStreamUtil.MAGIC_NUMBER_LENGTH, length())];
+        content.get(content.position(), head);
+        return head;
+    }
+
+    /**
+     * @return 每次订阅都从头读取
+     */
+    Flux<DataBuffer> content(DataBufferFactory bufferFactory) {
+        int length = content.remaining();
+        int base = content.position();
+        return Flux.range(0, (length + CHUNK_SIZE - 1) / CHUNK_SIZE)
+                .map(i -> bufferFactory.wrap(content.slice(base + i * CHUNK_SIZE, Math.min(CHUNK_SIZE, length - i * CHUNK_SIZE))));
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (spilled != null) {
+            spilled.close();
+        }
+    }
+}
@@ -6,6 +6,7 @@ import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.annotation.JsonSubTypes;
 import com.fasterxml.jackson.annotation.JsonTypeInfo;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import jakarta.validation.constraints.NotEmpty;
 import jakarta.validation.constraints.NotNull;
 import jakarta.validation.constraints.Size;
@@ -13,12 +14,18 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.cache.Cache;
 import org.springframework.core.io.Resource;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
 import org.springframework.http.ContentDisposition;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
+import org.springframework.http.client.reactive.ClientHttpConnector;
 import org.springframework.http.codec.json.Jackson2JsonDecoder;
 import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
 import org.springframework.util.MimeTypeUtils;
+import org.springframework.web.reactive.function.BodyInserters;
 import org.springframework.web.reactive.function.client.ClientResponse;
 import org.springframework.web.reactive.function.client.WebClient;
 import reactor.core.publisher.Flux;
@@ -45,28 +52,48 @@ import weixin.mp.facade.dto.Pageable;
 import weixin.mp.facade.dto.Paper;
 import weixin.mp.facade.dto.Publication;
 import weixin.mp.infrastructure.cache.CacheKey;
-import weixin.mp.infrastructure.exceptions.RetryableException;
+import weixin.mp.infrastructure.cache.LockKey;
+import weixin.mp.infrastructure.cache.TokenReplica;
+import weixin.mp.infrastructure.exceptions.ClientError;
 import weixin.mp.infrastructure.exceptions.ServerError;
 import weixin.mp.infrastructure.exceptions.WeixinExceptionUtil;
+import weixin.mp.infrastructure.limit.RateLimiter;
+import weixin.mp.infrastructure.lock.LockRegistry;
 
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.Lock;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
-public record Weixin(Context ctx, Cache cache, Lock lock) implements WeixinApiFacade, WeixinMaterialApiFacade,
+/**
+ * @param ctx 公众号上下文
+ * @param cache access_token本地缓存
+ * @param locks 刷新access_token的锁
+ * @param limiter 限流，可为null
+ * @param media 素材缓存，可为null
+ * @param httpClient 访问微信服务器的客户端，为null时使用默认客户端
+ * @param replica access_token远端副本，可为null
+ */
+public record Weixin(Context ctx, Cache cache, LockRegistry locks, RateLimiter limiter, MediaCache media,
+                     WebClient httpClient, TokenReplica replica) implements WeixinApiFacade, WeixinMaterialApiFacade,
         WeixinMenuApiFacade, WeixinArticleApiFacade, WeixinCustomServiceApiFacade, WeixinUserApiFacade,
         WeixinMessageApiFacade {
 
@@ -74,11 +101,48 @@ public record Weixin(Context ctx, Cache cache, Lock lock) implements WeixinApiFa
 
     private static final int MATERIAL_MAX_SIZE = 10 * 1024 * 1024;
 
-    private static /* final */ WebClient httpClient;
+    private static final int SERVICE_UNAVAILABLE = 9001002;
 
-    static {
-        customizerWebClient(WebClient.builder());
-    }
+    /**
+     * 不合法的媒体文件类型
+     */
+    private static final int INVALID_MEDIA_TYPE = 40004;
+
+    /**
+     * clientmsgid对应的群发已存在
+     */
+    private static final int BROADCAST_DUPLICATED = 45065;
+
+    private static final int MAX_RETRIES = 2;
+
+    /**
+     * 非幂等接口：重放可能重复创建素材、草稿，重复发送消息，系统繁忙时不重试
+     */
+    private static final Set<WeixinUrl> NOT_IDEMPOTENT = Collections.unmodifiableSet(EnumSet.of(
+            WeixinUrl.UPLOAD_IMG, WeixinUrl.UPLOAD_ARTICLE, WeixinUrl.UPLOAD_MATERIAL,
+            WeixinUrl.UPLOAD_PERMANENT_MATERIAL, WeixinUrl.ADD_PERMANENT_NEWS,
+            WeixinUrl.CREATE_CUSTOM_MENU, WeixinUrl.CREATE_DRAFT, WeixinUrl.PUBLISH,
+            WeixinUrl.ADD_CUSTOM_SERVICE_ACCOUNT, WeixinUrl.INVITE_CUSTOM_SERVICE_BIND_ACCOUNT,
+            WeixinUrl.SEND_CUSTOM_SERVICE_MESSAGE, WeixinUrl.SEND_TEMPLATE_MESSAGE,
+            WeixinUrl.PUSH_TEMPLATE_MESSAGE_TO_SUBSCRIBERS, WeixinUrl.SEND_SUBSCRIBE_NOTIFICATION,
+            WeixinUrl.PUBLISH_TO_GROUP, WeixinUrl.PUBLISH_TO_PEERS, WeixinUrl.PREVIEW_PUBLISH,
+            WeixinUrl.CREATE_LABEL));
+
+    /**
+     * 首次重试的退避上限，单位：毫秒
+     */
+    private static final long RETRY_BACKOFF = 200;
+
+    private static final long RETRY_MAX_BACKOFF = 2000;
+
+    private static final ObjectMapper JSON = Jackson2ObjectMapperBuilder.json().build();
+
+    private static final WebClient DEFAULT_CLIENT = webClient(WebClient.builder());
+
+    /**
+     * 测试时替换各实例的客户端
+     */
+    private static volatile WebClient customized;
 
     private static final String ACCOUNT_FMT = "%1$s@%2$s";
 
@@ -102,17 +166,51 @@ public record Weixin(Context ctx, Cache cache, Lock lock) implements WeixinApiFa
 
     private static final String DESCRIPTION_FMT = "{\"title\":\"%1$s\",\"introduction\":\"%2$s\"}";
 
+    public Weixin {
+        httpClient = httpClient != null ? httpClient : DEFAULT_CLIENT;
+    }
+
+    public Weixin(Context ctx, Cache cache, LockRegistry locks, RateLimiter limiter, MediaCache media) {
+        this(ctx, cache, locks, limiter, media, null, null);
+    }
+
     /* Test use only */ static void customizerWebClient(WebClient.Builder builder) {
-        httpClient = builder
+        customized = webClient(builder);
+    }
+
+    /**
+     * @param connector 访问微信服务器的专用连接池
+     * @return 以该连接池访问微信服务器的客户端，供多个公众号共用
+     */
+    public static WebClient webClient(ClientHttpConnector connector) {
+        return webClient(WebClient.builder().clientConnector(connector));
+    }
+
+    private static WebClient webClient(WebClient.Builder builder) {
+        return builder
                 .codecs(clientCodecConfigurer -> {
                     clientCodecConfigurer.customCodecs()
-                            .register(new Jackson2JsonDecoder(Jackson2ObjectMapperBuilder.json().build(),
+                            .register(new Jackson2JsonDecoder(JSON,
                                     MediaType.APPLICATION_JSON, MediaType.TEXT_PLAIN));
                     clientCodecConfigurer.defaultCodecs().maxInMemorySize(MATERIAL_MAX_SIZE);
                 })
                 .build();
     }
 
+    /**
+     * 其他节点刷新access_token后调用，以远端副本替换内存中的令牌
+     */
+    public void reloadAccessToken() {
+        if (replica != null) {
+            AccessTokenManager.of(ctx.appId()).reload(replica);
+        }
+    }
+
+    private WebClient client() {
+        WebClient c = customized;
+        return c != null ? c : httpClient;
+    }
+
     interface ServerResponse {
         int errorCode();
         String errorMessage();
@@ -138,49 +236,110 @@ public record Weixin(Context ctx, Cache cache, Lock lock) implements WeixinApiFa
                            @JsonAlias("errmsg") String errorMessage) implements ServerResponse {}
 
     private CompletableFuture<String> getOrRefreshAccessToken() {
-        return getOrRefreshAccessToken(3);
+        return AccessTokenManager.of(ctx.appId())
+                .get(cache, CacheKey.TOKEN_FMT.formatted(ctx.appId()), locks.obtain(ctx.appId(), LockKey.ACCESS_TOKEN),
+                        replica, this::fetchAccessToken);
     }
 
-    private CompletableFuture<String> getOrRefreshAccessToken(final int times) {
-        if (times == 0) {
-            throw new RuntimeException("get access_token failure after tried %1$d times".formatted(times));
-        }
-        // 可以分层缓存，微信服务器支持刷新后5分钟内2个token同时可用
-        AuthenticationResponse cached = cache.get(CacheKey.TOKEN_FMT.formatted(ctx.appId()), AuthenticationResponse.class);
-        if (cached != null) {
-            return CompletableFuture.completedFuture(cached.accessToken());
-        }
-        boolean locked = false;
-        try {
-            locked = lock.tryLock(300, TimeUnit.MILLISECONDS);
-            if (!locked) {
-                return getOrRefreshAccessToken(times - 1);
+    /**
+     * 携带access_token调用接口：
+     * <ul>
+     *     <li>限流，排队超时视为调用太频繁</li>
+     *     <li>按公众号 + 接口熔断，熔断期间直接失败；只记录接口调用本身的结果</li>
+     *     <li>access_token失效时刷新后重放一次</li>
+     *     <li>系统繁忙时按指数退避（随机抖动）重试，非幂等接口不重试</li>
+     * </ul>
+     * @param url 接口
+     * @param curl 调用
+     */
+    private <T> CompletableFuture<T> invoke(WeixinUrl url, Function<String, CompletableFuture<T>> curl) {
+        return invoke(url, curl, !NOT_IDEMPOTENT.contains(url));
+    }
+
+    /**
+     * @param retryable 系统繁忙时是否重试：幂等接口，或携带排重标识（如clientmsgid）的调用
+     */
+    private <T> CompletableFuture<T> invoke(WeixinUrl url, Function<String, CompletableFuture<T>> curl, boolean retryable) {
+        return invoke(url, curl, retryable, 0);
+    }
+
+    private <T> CompletableFuture<T> invoke(WeixinUrl url, Function<String, CompletableFuture<T>> curl, boolean retryable, int retried) {
+        CompletableFuture<Boolean> permit = limiter == null ?
+                CompletableFuture.completedFuture(Boolean.TRUE) :
+                limiter.acquire(ctx.appId(), url.name());
+        return permit.thenCompose(permitted -> {
+            if (!permitted) {
+                return CompletableFuture.<T>failedFuture(WeixinExceptionUtil.create(WeixinExceptionUtil.RATE_LIMITED, "rate limited: " + url.name()));
             }
-            return httpClient.get().uri(WeixinUrl.GET_ACCESS_TOKEN.getUrl(), ctx.appId(), ctx.appSecret())
-                    .retrieve()
-                    .bodyToMono(AuthenticationResponse.class)
-                    .flatMap(r -> {
-                        if (r.isSuccess()) {
-                            cache.put(CacheKey.TOKEN_FMT.formatted(ctx.appId()), r);
-                            return Mono.just(r.accessToken());
-                        } else {
-                            return Mono.error(new ServerError(r.errorCode(), "get access_token fail: errcode=%1$d, errmsg=%2$s".formatted(r.errorCode, r.errorMessage), HttpStatus.INTERNAL_SERVER_ERROR));
+            CircuitBreaker breaker = CircuitBreaker.of(ctx.appId(), url);
+            if (!breaker.tryAcquire()) {
+                return CompletableFuture.<T>failedFuture(WeixinExceptionUtil.create(SERVICE_UNAVAILABLE, "circuit open: " + url.name()));
+            }
+            AtomicBoolean called = new AtomicBoolean();
+            Function<String, CompletableFuture<T>> recorded = accessToken -> {
+                called.set(true);
+                CompletableFuture<T> response;
+                try {
+                    response = curl.apply(accessToken);
+                } catch (RuntimeException e) {
+                    response = CompletableFuture.failedFuture(e);
+                }
+                return response.whenComplete((r, e) -> breaker.record(e));
+            };
+            return getOrRefreshAccessToken()
+                    .thenCompose(accessToken -> recorded.apply(accessToken).exceptionallyCompose(e -> {
+                        if (!WeixinExceptionUtil.isAccessTokenInvalid(e)) {
+                            return CompletableFuture.failedFuture(e);
+                        }
+                        log.info("'{}' access_token rejected by {}, refresh and replay", ctx.appId(), url.name());
+                        AccessTokenManager.of(ctx.appId()).invalidate(accessToken);
+                        return getOrRefreshAccessToken().thenCompose(recorded);
+                    }))
+                    .whenComplete((r, e) -> {
+                        if (!called.get()) {
+                            breaker.abandon();
                         }
-                    }).toFuture();
-        } catch (Exception e) {
-            log.warn(e.getMessage(), e);
-        } finally {
-            if (locked) {
-                lock.unlock();
+                    });
+        }).exceptionallyCompose(e -> {
+            if (!retryable || retried >= MAX_RETRIES || !WeixinExceptionUtil.isRetryable(e)) {
+                return CompletableFuture.failedFuture(e);
             }
-        }
-        return getOrRefreshAccessToken(times - 1);
+            long backoff = ThreadLocalRandom.current().nextLong(Math.min(RETRY_MAX_BACKOFF, RETRY_BACKOFF << retried) + 1);
+            log.info("'{}' {} busy, retry after {}ms", ctx.appId(), url.name(), backoff);
+            return CompletableFuture.runAsync(() -> {}, CompletableFuture.delayedExecutor(backoff, TimeUnit.MILLISECONDS))
+                    .thenCompose(x -> invoke(url, curl, true, retried + 1));
+        });
+    }
+
+    private CompletableFuture<AuthenticationResponse> fetchAccessToken() {
+        return client().get().uri(WeixinUrl.GET_ACCESS_TOKEN.getUrl(), ctx.appId(), ctx.appSecret())
+                .retrieve()
+                .bodyToMono(AuthenticationResponse.class)
+                .flatMap(r -> r.isSuccess() ? Mono.just(r) : Mono.error(accessTokenError(r)))
+                .toFuture();
+    }
+
+    /**
+     * AppSecret错误、IP不在白名单等配置错误为客户端错误，改正配置前重试无用；系统繁忙可重试；其余为服务端错误
+     */
+    private static RuntimeException accessTokenError(AuthenticationResponse r) {
+        String message = "get access_token fail: errcode=%1$d, errmsg=%2$s".formatted(r.errorCode(), r.errorMessage());
+        return switch (r.errorCode()) {
+            case -1 -> WeixinExceptionUtil.create(r.errorCode(), message);
+            case 40001, // AppSecret错误
+                 40002, // 不合法的凭证类型
+                 40013, // 不合法的AppID
+                 40125, // 不合法的AppSecret
+                 40164, // 调用接口的IP地址不在白名单中
+                 41004 -> new ClientError(r.errorCode(), message, HttpStatus.BAD_REQUEST); // 缺少secret参数
+            default -> new ServerError(r.errorCode(), message, HttpStatus.INTERNAL_SERVER_ERROR);
+        };
     }
 
     @Override
     public CompletableFuture<? extends GeneratedQuickResponseResult> generateQuickResponseCode(Integer ttl, Integer sceneId, String sceneMark) {
         QuickResponseAction actionName = QuickResponseAction.getInstance(ttl != null, sceneId != null);
-        Function<String, CompletableFuture<GenerateQRResponse>> curl = (accessToken) -> httpClient.post()
+        Function<String, CompletableFuture<GenerateQRResponse>> curl = (accessToken) -> client().post()
                 .uri(WeixinUrl.RETRIEVE_QUICK_RESPONSE_CODE_TICKET.getUrl(), accessToken)
                 .contentType(MediaType.APPLICATION_JSON)
                 .bodyValue(new GenQRCodeRequest(ttl, actionName.name(), new SceneWrapper(new Scene(sceneId, sceneMark))))
@@ -190,7 +349,7 @@ public record Weixin(Context ctx, Cache cache, Lock lock) implements WeixinApiFa
                         Mono.just(r) :
                         Mono.error(WeixinExceptionUtil.create(r.errorCode(), r.errorMessage())))
                 .toFuture();
-        return getOrRefreshAccessToken().thenCompose(curl);
+        return invoke(WeixinUrl.RETRIEVE_QUICK_RESPONSE_CODE_TICKET, curl);
     }
 
     /**
@@ -246,7 +405,11 @@ public record Weixin(Context ctx, Cache cache, Lock lock) implements WeixinApiFa
 
     @Override
     public CompletableFuture<InputStream> downloadQuickResponseCode(String ticket) {
-        return httpClient.get()
+        if (media != null) {
+            return streamQuickResponseCode(ticket)
+                    .thenCompose(r -> DataBufferUtils.join(r.body(), MATERIAL_MAX_SIZE).map(b -> b.asInputStream(true)).toFuture());
+        }
+        return client().get()
                 .uri(WeixinUrl.RETRIEVE_QUICK_RESPONSE_CODE.getUrl(), ticket)
                 .retrieve()
                 .bodyToMono(Resource.class)
@@ -261,9 +424,26 @@ public record Weixin(Context ctx, Cache cache, Lock lock) implements WeixinApiFa
                 .toFuture();
     }
 
+    /**
+     * 以流的形式获取二维码图片，配置了{@link MediaCache}时按ticket缓存
+     * @param ticket 已编码的ticket
+     */
+    public CompletableFuture<MediaStream> streamQuickResponseCode(String ticket) {
+        Supplier<CompletableFuture<MediaStream>> loader = () -> client().get()
+                .uri(WeixinUrl.RETRIEVE_QUICK_RESPONSE_CODE.getUrl(), ticket)
+                .retrieve()
+                .toEntityFlux(DataBuffer.class)
+                .map(r -> new MediaStream(null, Optional.ofNullable(r.getHeaders().getContentType()).map(MediaType::toString).orElse(null),
+                        -1, r.getBody()))
+                .toFuture();
+        return media == null ?
+                loader.get() :
+                media.get(CacheKey.QUICK_RESPONSE_CODE_FMT.formatted(ticket), false, loader).thenApply(MediaStream.class::cast);
+    }
+
     @Override
     public CompletableFuture<String> shorten(String original, int ttl) {
-        Function<String, CompletableFuture<String>> curl = (accessToken) -> httpClient.post()
+        Function<String, CompletableFuture<String>> curl = (accessToken) -> client().post()
                 .uri(WeixinUrl.GEN_SHORT_URL.getUrl(), accessToken)
                 .contentType(MediaType.APPLICATION_JSON)
                 .bodyValue(new ShortenRequest(original, ttl))
@@ -273,7 +453,7 @@ public record Weixin(Context ctx, Cache cache, Lock lock) implements WeixinApiFa
                         Mono.just(r.shortUrl()) :
                         Mono.error(WeixinExceptionUtil.create(r.errorCode(), r.errorMessage())))
                 .toFuture();
-        return getOrRefreshAccessToken().thenCompose(curl);
+        return invoke(WeixinUrl.GEN_SHORT_URL, curl);
     }
 
     /**
@@ -290,7 +470,7 @@ public record Weixin(Context ctx, Cache cache, Lock lock) implements WeixinApiFa
 
     @Override
     public CompletableFuture<? extends OriginalResult> restore(String shortUtl) {
-        Function<String, CompletableFuture<RestoreShortKeyResponse>> curl = (accessToken) -> httpClient.post()
+        Function<String, CompletableFuture<RestoreShortKeyResponse>> curl = (accessToken) -> client().post()
                 .uri(WeixinUrl.RESTORE_SHORT_URL.getUrl(), accessToken)
                 .contentType(MediaType.APPLICATION_JSON)
                 .bodyValue(new RestoreShortKeyRequest(shortUtl))
@@ -300,7 +480,7 @@ public record Weixin(Context ctx, Cache cache, Lock lock) implements WeixinApiFa
                         Mono.just(r) :
                         Mono.error(WeixinExceptionUtil.create(r.errorCode(), r.errorMessage())))
                 .toFuture();
-        return getOrRefreshAccessToken().thenCompose(curl);
+        return invoke(WeixinUrl.RESTORE_SHORT_URL, curl);
     }
 
     /**
@@ -326,7 +506,7 @@ public record Weixin(Context ctx, Cache cache, Lock lock) implements WeixinApiFa
 
     @Override
     public CompletableFuture<Void> changeIndustry(String primaryIndustry, String secondaryIndustry) {
-        Function<String, CompletableFuture<Void>> curl = (accessToken) -> httpClient.post()
+        Function<String, CompletableFuture<Void>> curl = (accessToken) -> client().post()
                 .uri(WeixinUrl.SET_INDUSTRY.getUrl(), accessToken)
                 .contentType(MediaType.APPLICATION_JSON)
                 .bodyValue(new IndustryRequest(primaryIndustry, secondaryIndustry))
@@ -336,7 +516,7 @@ public record Weixin(Context ctx, Cache cache, Lock lock) implements WeixinApiFa
                         Mono.<Void>empty() :
                         Mono.error(WeixinExceptionUtil.create(r.errorCode(), r.errorMessage())))
                 .toFuture();
-        return getOrRefreshAccessToken().thenCompose(curl);
+        return invoke(WeixinUrl.SET_INDUSTRY, curl);
     }
 
     /**
@@ -347,7 +527,7 @@ public record Weixin(Context ctx, Cache cache, Lock lock) implements WeixinApiFa
 
     @Override
     public CompletableFuture<? extends CorpOperation> viewIndustry() {
-        Function<String, CompletableFuture<GetIndustryResponse>> curl = (accessToken) -> httpClient.get()
+        Function<String, CompletableFuture<GetIndustryResponse>> curl = (accessToken) -> client().get()
                 .uri(WeixinUrl.GET_INDUSTRY.getUrl(), accessToken)
                 .retrieve()
                 .bodyToMono(GetIndustryResponse.class)
@@ -355,7 +535,7 @@ public record Weixin(Context ctx, Cache cache, Lock lock) implements WeixinApiFa
                         Mono.just(r) :
                         Mono.error(WeixinExceptionUtil.create(r.errorCode(), r.errorMessage())))
                 .toFuture();
-        return getOrRefreshAccessToken().thenCompose(curl);
+        return invoke(WeixinUrl.GET_INDUSTRY, curl);
     }
 
     /**
@@ -378,65 +558,99 @@ public record Weixin(Context ctx, Cache cache, Lock lock) implements WeixinApiFa
 
 
 
-    WebClient.RequestHeadersSpec multipart(WebClient.RequestBodySpec spec, InputStream is, String name, String filename) {
-        return multipart(spec, is, name, filename, null);
+    WebClient.RequestHeadersSpec multipart(WebClient.RequestBodySpec spec, StagedContent content, String name, String filename) {
+        return multipart(spec, content, name, filename, null);
     }
 
     /**
      * 微信服务端在"Content-Type"为"multipart/form-data"格式进行传输时要求"Content-Length"必须正确。
      * Disables 'Transfer-Encoding: chunked' avoid server response with status 412
+     * 文件内容按块发送不整体读入内存，每次订阅都从头读取，可用于重试
      * @see reactor.netty.http.client.HttpClientConnect.HttpClientHandler#requestWithBody 803-->991
      * @param spec 已填充url的请求
-     * @param is 流
+     * @param content 暂存的文件内容
      * @param name 参数名称
      * @param filename 文件名称
      * @param description 视频描述
      * @return 已处理"multipart-form-data"的请求
      */
-    WebClient.RequestHeadersSpec multipart(WebClient.RequestBodySpec spec, InputStream is, String name, String filename, VideoDescription description) {
-        int streamAvailable = 0;
-        try {
-            streamAvailable = is.available();
-        } catch (Exception e) {
-            throw new RuntimeException(e);
-        }
+    WebClient.RequestHeadersSpec multipart(WebClient.RequestBodySpec spec, StagedContent content, String name, String filename, VideoDescription description) {
         byte[] boundary = MimeTypeUtils.generateMultipartBoundary();
         String fileContentDisposition = ContentDisposition.formData().name(name).filename(filename).build().toString();
         byte[] contentDisposition = CONTENT_DISPOSITION_WITHOUT_CARRIAGE_RETURN_FMT.formatted(fileContentDisposition).getBytes(StandardCharsets.UTF_8);
-        byte[] file = new byte[0];
-        try {
-            file = is.readAllBytes();
-        } catch (Exception e) {
-            log.error(e.getMessage(), e);
-            throw new RetryableException(e.getMessage(), e);
-        }
-        String mediaType = fileType2mediaType(is.markSupported() ? InputStreamUtil.lookup(is) : InputStreamUtil.lookup(file)) ;
+        String mediaType = fileType2mediaType(InputStreamUtil.lookup(content.head()));
         byte[] contentType = CONTENT_TYPE_WITHOUT_CARRIAGE_RETURN_FMT.formatted(mediaType).getBytes(StandardCharsets.US_ASCII);
-        Flux<byte[]> body = Flux.concat(Flux.just(BOUNDARY_MARK), Flux.just(boundary), Flux.just(CARRIAGE_RETURN), // first boundary
-                Flux.just(contentDisposition), Flux.just(CARRIAGE_RETURN), // Content-Disposition
-                Flux.just(contentType), Flux.just(CARRIAGE_RETURN), // Content-Type
-                Flux.just(CARRIAGE_RETURN),
-                Flux.just(file), Flux.just(CARRIAGE_RETURN),// data
-                Flux.just(BOUNDARY_MARK), Flux.just(boundary)); // part of boundary, missing '\r\n' as middle boundary or '--\r\n' as last boundary
-        int contentLength = CARRIAGE_RETURN.length * 5 + BOUNDARY_MARK.length * 2 + boundary.length * 2
-                + contentDisposition.length + contentType.length + streamAvailable;
+        List<byte[]> head = List.of(BOUNDARY_MARK, boundary, CARRIAGE_RETURN, // first boundary
+                contentDisposition, CARRIAGE_RETURN, // Content-Disposition
+                contentType, CARRIAGE_RETURN, // Content-Type
+                CARRIAGE_RETURN);
+        List<byte[]> tail = new ArrayList<>(List.of(CARRIAGE_RETURN, // end of data
+                BOUNDARY_MARK, boundary)); // part of boundary, missing '\r\n' as middle boundary or '--\r\n' as last boundary
         if (description != null) {
             String nextContentDisposition = ContentDisposition.formData().name(DESCRIPTION_NAME).build().toString();
             byte[] descriptionContentDisposition = CONTENT_DISPOSITION_WITHOUT_CARRIAGE_RETURN_FMT.formatted(nextContentDisposition).getBytes(StandardCharsets.US_ASCII);
             // Content-Type ignore
             byte[] descriptionData = DESCRIPTION_FMT.formatted(description.title(), description.introduction()).getBytes(StandardCharsets.UTF_8);
-            Flux<byte[]> lastBoundary = Flux.concat(Flux.just(BOUNDARY_MARK), Flux.just(boundary), Flux.just(BOUNDARY_MARK), Flux.just(CARRIAGE_RETURN));
-            body = body.concatWithValues(CARRIAGE_RETURN, descriptionContentDisposition, CARRIAGE_RETURN, CARRIAGE_RETURN, descriptionData, CARRIAGE_RETURN).concatWith(lastBoundary);
-            contentLength += descriptionContentDisposition.length + descriptionData.length + CARRIAGE_RETURN.length * 5 + BOUNDARY_MARK.length * 2 + boundary.length;
+            tail.addAll(List.of(CARRIAGE_RETURN, descriptionContentDisposition, CARRIAGE_RETURN, CARRIAGE_RETURN, descriptionData, CARRIAGE_RETURN,
+                    BOUNDARY_MARK, boundary, BOUNDARY_MARK, CARRIAGE_RETURN)); // last boundary
         } else {
-            body = body.concatWithValues(BOUNDARY_MARK, CARRIAGE_RETURN); // concat as last boundary
-            contentLength += BOUNDARY_MARK.length + CARRIAGE_RETURN.length;
+            tail.addAll(List.of(BOUNDARY_MARK, CARRIAGE_RETURN)); // concat as last boundary
+        }
+        long contentLength = content.length();
+        for (byte[] bytes : head) {
+            contentLength += bytes.length;
+        }
+        for (byte[] bytes : tail) {
+            contentLength += bytes.length;
         }
+        DataBufferFactory bufferFactory = DefaultDataBufferFactory.sharedInstance;
+        Flux<DataBuffer> body = Flux.concat(Flux.fromIterable(head).map(bufferFactory::wrap),
+                content.content(bufferFactory),
+                Flux.fromIterable(tail).map(bufferFactory::wrap));
         Map<String, String> params = new HashMap<>();
         params.put(BOUNDARY_PARAM_NAME, new String(boundary, StandardCharsets.US_ASCII));
         return spec.contentLength(contentLength)
                 .contentType(new MediaType(MediaType.MULTIPART_FORM_DATA, params))
-                .body(body, byte[].class);
+                .body(BodyInserters.fromDataBuffers(body));
+    }
+
+    /**
+     * 先暂存上传内容再调用，重试及刷新access_token后重放都从暂存内容重新读取，调用结束后释放
+     * @param url 接口
+     * @param is 流
+     * @param curl 以暂存内容构造请求
+     */
+    private <T> CompletableFuture<T> invoke(WeixinUrl url, InputStream is, Function<StagedContent, Function<String, CompletableFuture<T>>> curl) {
+        StagedContent content;
+        try {
+            content = StagedContent.of(is, MATERIAL_MAX_SIZE);
+        } catch (IOException e) { // 读取调用方的流失败，流已消耗，重试无用
+            log.error(e.getMessage(), e);
+            return CompletableFuture.failedFuture(new UncheckedIOException(e));
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        CompletableFuture<T> result;
+        try {
+            result = invoke(url, curl.apply(content));
+        } catch (RuntimeException e) {
+            result = CompletableFuture.failedFuture(e);
+        }
+        return result.whenComplete((r, e) -> {
+            try {
+                content.close();
+            } catch (IOException ex) {
+                log.warn("release staged content fail: {}", ex.getMessage());
+            }
+        });
+    }
+
+    /**
+     * @return 优先按文件头判断，无法识别时按扩展名
+     */
+    private FileType fileType(StagedContent content, String filename) {
+        return Optional.ofNullable(InputStreamUtil.lookup(content.head()))
+                .orElseGet(() -> FileType.getInstance(filename.substring(filename.lastIndexOf(".") + 1)));
     }
 
     private String fileType2mediaType(FileType fileType) {
@@ -453,17 +667,20 @@ public record Weixin(Context ctx, Cache cache, Lock lock) implements WeixinApiFa
         return MediaType.APPLICATION_OCTET_STREAM_VALUE;
     }
 
-    private MaterialType fileType2materialType(FileType fileType, InputStream is) {
-        if (fileType != FileType.JPG) {
-            return MaterialType.getInstance(fileType);
+    /**
+     * @throws ClientError 无法识别或微信不支持的格式（如webp、heic、webm），不发出请求
+     */
+    private MaterialType fileType2materialType(FileType fileType, long size) {
+        MaterialType materialType;
+        if (fileType == FileType.JPG) {
+            materialType = size <= MaterialType.THUMB.getMaxSize() * 1024L ? MaterialType.THUMB : MaterialType.IMAGE;
+        } else {
+            materialType = fileType != null ? MaterialType.getInstance(fileType) : null;
         }
-        try {
-            int size = is.available();
-            return size <= MaterialType.THUMB.getMaxSize() * 1024 ? MaterialType.THUMB : MaterialType.IMAGE;
-        } catch (Exception e) {
-            log.error(e.getMessage(), e);
+        if (materialType == null) {
+            throw WeixinExceptionUtil.create(INVALID_MEDIA_TYPE, "unsupported media type: " + fileType);
         }
-        return null;
+        return materialType;
     }
 
     @Override
@@ -471,25 +688,26 @@ public record Weixin(Context ctx, Cache cache, Lock lock) implements WeixinApiFa
         // TODO 检查历史是否上传过，即给文件生成指纹进行判断
         String uriTemplate = forever ? WeixinUrl.UPLOAD_PERMANENT_MATERIAL.getUrl() : WeixinUrl.UPLOAD_MATERIAL.getUrl();
         Class responseClass = forever ? PermanentMaterialResponse.class : TemporalMaterialResponse.class;
-        FileType fileType = is.markSupported() ? InputStreamUtil.lookup(is) : FileType.getInstance(filename.substring(filename.lastIndexOf(".") + 1));
-        assert fileType != null;
-        MaterialType materialType = fileType2materialType(fileType, is);
-        Function<String, CompletableFuture<Material>> curl = (accessToken) ->
-                multipart(httpClient.post().uri(uriTemplate, accessToken, materialType.getValue()), is, MEDIA_PARAM_NAME, filename, description)
-                .retrieve()
-                .bodyToMono(responseClass)
-                .flatMap(r -> ((ServerResponse) r).isSuccess() ?
-                        Mono.just(r) :
-                        Mono.error(WeixinExceptionUtil.create(((ServerResponse) r).errorCode(), ((ServerResponse) r).errorMessage())))
-                .toFuture();
-        return getOrRefreshAccessToken().thenCompose(curl);
+        Function<StagedContent, Function<String, CompletableFuture<Material>>> curl = content -> {
+            FileType fileType = fileType(content, filename);
+            MaterialType materialType = fileType2materialType(fileType, content.length());
+            return (accessToken) ->
+                    multipart(client().post().uri(uriTemplate, accessToken, materialType.getValue()), content, MEDIA_PARAM_NAME, filename, description)
+                    .retrieve()
+                    .bodyToMono(responseClass)
+                    .flatMap(r -> ((ServerResponse) r).isSuccess() ?
+                            Mono.just(r) :
+                            Mono.error(WeixinExceptionUtil.create(((ServerResponse) r).errorCode(), ((ServerResponse) r).errorMessage())))
+                    .toFuture();
+        };
+        return invoke(forever ? WeixinUrl.UPLOAD_PERMANENT_MATERIAL : WeixinUrl.UPLOAD_MATERIAL, is, curl);
     }
 
     @Override
     public CompletableFuture<? extends NewsResult> addNews(List<? extends ManualScript> news, boolean broadcastPurpose) {
         // TODO 群发则检查公众号是否认证通过；缩略图如果群发则为临时mediaId，否则为永久mediaId
         final String urlTemplate = broadcastPurpose ? WeixinUrl.UPLOAD_ARTICLE.getUrl() : WeixinUrl.ADD_PERMANENT_NEWS.getUrl();
-        Function<String, CompletableFuture<UploadNewsResponse>> curl = (accessToken) -> httpClient.post()
+        Function<String, CompletableFuture<UploadNewsResponse>> curl = (accessToken) -> client().post()
                 .uri(urlTemplate, accessToken)
                 .contentType(MediaType.APPLICATION_JSON)
                 .bodyValue(new AddNewsRequest(news.stream().map(ArticleItem::from).collect(Collectors.toList())))
@@ -499,7 +717,7 @@ public record Weixin(Context ctx, Cache cache, Lock lock) implements WeixinApiFa
                         Mono.just(r) :
                         Mono.error(WeixinExceptionUtil.create(r.errorCode(), r.errorMessage())))
                 .toFuture();
-        return getOrRefreshAccessToken().thenCompose(curl);
+        return invoke(broadcastPurpose ? WeixinUrl.UPLOAD_ARTICLE : WeixinUrl.ADD_PERMANENT_NEWS, curl);
     }
 
     record AddNewsRequest(List<ArticleItem> articles) {}
@@ -561,32 +779,46 @@ public record Weixin(Context ctx, Cache cache, Lock lock) implements WeixinApiFa
     @Override
     public CompletableFuture<String> uploadImage(InputStream is, String filename) {
         // TODO 检查公众号是否认证通过
-        FileType fileType = is.markSupported() ? InputStreamUtil.lookup(is) : FileType.getInstance(filename.substring(filename.lastIndexOf(".") + 1));
-        assert fileType == FileType.JPG || fileType == FileType.PNG;
-        MaterialType materialType = fileType2materialType(fileType, is);
-        Function<String, CompletableFuture<String>> curl = (accessToken) ->
-                multipart(httpClient.post().uri(WeixinUrl.UPLOAD_IMG.getUrl(), accessToken, materialType.getValue()), is, MEDIA_PARAM_NAME, filename, null)
-                        .retrieve()
-                        .bodyToMono(UploadImageResponse.class)
-                        .flatMap(r -> r.isSuccess() ?
-                                Mono.just(r.url()) :
-                                Mono.error(WeixinExceptionUtil.create(((ServerResponse) r).errorCode(), ((ServerResponse) r).errorMessage())))
-                        .toFuture();
-        return getOrRefreshAccessToken().thenCompose(curl);
+        Function<StagedContent, Function<String, CompletableFuture<String>>> curl = content -> {
+            FileType fileType = fileType(content, filename);
+            if (fileType != FileType.JPG && fileType != FileType.JPEG && fileType != FileType.PNG) {
+                throw WeixinExceptionUtil.create(INVALID_MEDIA_TYPE, "only jpg/png supported: " + fileType);
+            }
+            MaterialType materialType = fileType2materialType(fileType, content.length());
+            return (accessToken) ->
+                    multipart(client().post().uri(WeixinUrl.UPLOAD_IMG.getUrl(), accessToken, materialType.getValue()), content, MEDIA_PARAM_NAME, filename, null)
+                            .retrieve()
+                            .bodyToMono(UploadImageResponse.class)
+                            .flatMap(r -> r.isSuccess() ?
+                                    Mono.just(r.url()) :
+                                    Mono.error(WeixinExceptionUtil.create(((ServerResponse) r).errorCode(), ((ServerResponse) r).errorMessage())))
+                            .toFuture();
+        };
+        return invoke(WeixinUrl.UPLOAD_IMG, is, curl);
     }
 
     @JsonIgnoreProperties(ignoreUnknown = true)
     record UploadImageResponse(@JsonProperty("errcode") int errorCode, @JsonProperty("errmsg")  String errorMessage,
                                String url) implements ServerResponse {}
 
+    private WebClient.RequestHeadersSpec<?> downloadSpec(String accessToken, String mediaId, boolean forever) {
+        return forever ?
+                client().post().uri(WeixinUrl.GET_PERMANENT_MATERIAL.getUrl(), accessToken)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .bodyValue(new MediaRequest(mediaId)) :
+                client().post().uri(WeixinUrl.DOWNLOAD_MEDIA.getUrl(), accessToken, mediaId);
+    }
+
     @Override
     public CompletableFuture<? extends Downloadable> download(String mediaId, boolean forever) {
         // TODO 检查永久素材是否上传成功，临时素材是否失效
-        Function<String, WebClient.RequestHeadersSpec> spec = (accessToken) -> forever ?
-                httpClient.post().uri(WeixinUrl.GET_PERMANENT_MATERIAL.getUrl(), accessToken)
-                        .contentType(MediaType.APPLICATION_JSON)
-                        .bodyValue(new MediaRequest(mediaId)) :
-                httpClient.post().uri(WeixinUrl.DOWNLOAD_MEDIA.getUrl(), accessToken, mediaId);
+        if (media != null) {
+            return stream(mediaId, forever).thenCompose(d -> d instanceof MediaStream r ?
+                    DataBufferUtils.join(r.body(), MATERIAL_MAX_SIZE)
+                            .map(b -> (Downloadable) new DownloadableStreamMaterialResponse(r.filename(), b.asInputStream(true)))
+                            .toFuture() :
+                    CompletableFuture.completedFuture(d));
+        }
         Function<ClientResponse, ? extends Mono<Downloadable>> clientResponseHandler = (clientResponse) ->
                 clientResponse.headers().asHttpHeaders().getContentDisposition().isAttachment() ?
                         clientResponse.bodyToMono(Resource.class) // 图片、缩略图、音频直接返回流
@@ -603,10 +835,49 @@ public record Weixin(Context ctx, Cache cache, Lock lock) implements WeixinApiFa
                                 .flatMap(r -> r.isSuccess() ?
                                         Mono.just((Downloadable) r) :
                                         Mono.error(WeixinExceptionUtil.create(r.errorCode(), r.errorMessage())));
-        Function<String, CompletableFuture<DownloadableStreamMaterialResponse>> curl =(accessToken) -> spec.apply(accessToken)
+        Function<String, CompletableFuture<Downloadable>> curl = (accessToken) -> downloadSpec(accessToken, mediaId, forever)
                 .exchangeToMono(clientResponseHandler)
                 .toFuture();
-        return getOrRefreshAccessToken().thenCompose(curl);
+        return invoke(forever ? WeixinUrl.GET_PERMANENT_MATERIAL : WeixinUrl.DOWNLOAD_MEDIA, curl);
+    }
+
+    /**
+     * 以流的形式获取临时/永久素材：图片、缩略图、音频的响应体直接透传，不在内存中聚合；配置了{@link MediaCache}时按mediaId缓存，
+     * 删除永久素材时失效
+     * @param mediaId 上传时返回的mediaId
+     * @param forever 是否永久素材
+     * @return {@link MediaStream}，或视频、图文信息（包含下载url）
+     */
+    public CompletableFuture<Downloadable> stream(String mediaId, boolean forever) {
+        Function<String, CompletableFuture<Downloadable>> curl = (accessToken) -> downloadSpec(accessToken, mediaId, forever)
+                .retrieve()
+                .toEntityFlux(DataBuffer.class)
+                .flatMap(r -> {
+                    Flux<DataBuffer> body = r.getBody() != null ? r.getBody() : Flux.empty();
+                    ContentDisposition contentDisposition = r.getHeaders().getContentDisposition();
+                    if (contentDisposition.isAttachment()) {
+                        return Mono.just((Downloadable) new MediaStream(contentDisposition.getFilename(),
+                                Optional.ofNullable(r.getHeaders().getContentType()).map(MediaType::toString).orElse(null),
+                                -1, body));
+                    }
+                    return DataBufferUtils.join(body, MATERIAL_MAX_SIZE) // 图文、视频返回json结构
+                            .map(buffer -> {
+                                try (InputStream is = buffer.asInputStream(true)) {
+                                    return JSON.readValue(is, DownloadableMaterialResponse.class);
+                                } catch (IOException e) {
+                                    throw new UncheckedIOException(e);
+                                }
+                            })
+                            .flatMap(m -> m.isSuccess() ?
+                                    Mono.just((Downloadable) m) :
+                                    Mono.error(WeixinExceptionUtil.create(m.errorCode(), m.errorMessage())));
+                })
+                .toFuture();
+        Supplier<CompletableFuture<Downloadable>> loader = () ->
+                invoke(forever ? WeixinUrl.GET_PERMANENT_MATERIAL : WeixinUrl.DOWNLOAD_MEDIA, curl);
+        return media == null ?
+                loader.get() :
+                media.get(CacheKey.MEDIA_FMT.formatted(ctx.appId(), mediaId), !forever, loader);
     }
 
     /**
@@ -676,7 +947,7 @@ public record Weixin(Context ctx, Cache cache, Lock lock) implements WeixinApiFa
     @Override
     public CompletableFuture<Void> recycle(String mediaId) {
         // TODO 检查永久素材是否存在
-        Function<String, CompletableFuture<Void>> curl = (accessToken) -> httpClient.post().
+        Function<String, CompletableFuture<Void>> curl = (accessToken) -> client().post().
                 uri(WeixinUrl.REMOVE_PERMANENT_MATERIAL.getUrl(), accessToken)
                 .contentType(MediaType.APPLICATION_JSON)
                 .bodyValue(new MediaRequest(mediaId))
@@ -684,18 +955,21 @@ public record Weixin(Context ctx, Cache cache, Lock lock) implements WeixinApiFa
                 .bodyToMono(DefaultResponse.class)
                 .flatMap(r ->  r.isSuccess() ? Mono.<Void>empty() : Mono.error(WeixinExceptionUtil.create(r.errorCode(), r.errorMessage())))
                 .toFuture();
-        return getOrRefreshAccessToken().thenCompose(curl);
+        CompletableFuture<Void> recycled = invoke(WeixinUrl.REMOVE_PERMANENT_MATERIAL, curl);
+        return media == null ?
+                recycled :
+                recycled.thenRun(() -> media.invalidate(CacheKey.MEDIA_FMT.formatted(ctx.appId(), mediaId)));
     }
 
     @Override
     public CompletableFuture<? extends MaterialDistribution> countMaterialByType() {
-        Function<String, CompletableFuture<MaterialDistributionResponse>> curl = (accessToken) -> httpClient.get().
+        Function<String, CompletableFuture<MaterialDistributionResponse>> curl = (accessToken) -> client().get().
                 uri(WeixinUrl.COUNT_PERMANENT_MATERAIL.getUrl(), accessToken)
                 .retrieve()
                 .bodyToMono(MaterialDistributionResponse.class)
                 .flatMap(r ->  r.isSuccess() ? Mono.just(r) : Mono.error(WeixinExceptionUtil.create(r.errorCode(), r.errorMessage())))
                 .toFuture();
-        return getOrRefreshAccessToken().thenCompose(curl);
+        return invoke(WeixinUrl.COUNT_PERMANENT_MATERAIL, curl);
     }
 
     /**
@@ -714,7 +988,7 @@ public record Weixin(Context ctx, Cache cache, Lock lock) implements WeixinApiFa
 
     @Override
     public CompletableFuture<? extends Pageable<? extends Material>> list(MaterialType type, int offset, int limit) {
-        Function<String, CompletableFuture<ListPermanentMaterialResponse>> curl = (accessToken) -> httpClient.post().
+        Function<String, CompletableFuture<ListPermanentMaterialResponse>> curl = (accessToken) -> client().post().
                 uri(WeixinUrl.LIST_PERMANENT_MATERIAL.getUrl(), accessToken)
                 .contentType(MediaType.APPLICATION_JSON)
                 .bodyValue(new ListPermanentMaterialRequest(type.getValue(), offset, limit))
@@ -724,7 +998,7 @@ public record Weixin(Context ctx, Cache cache, Lock lock) implements WeixinApiFa
                         Mono.just(new ListPermanentMaterialResponse(r.errorCode(), r.errorMessage(), r.total(), offset, limit, r.fetched(), r.items())) :
                         Mono.error(WeixinExceptionUtil.create(r.errorCode(), r.errorMessage())))
                 .toFuture();
-        return getOrRefreshAccessToken().thenCompose(curl);
+        return invoke(WeixinUrl.LIST_PERMANENT_MATERIAL, curl);
     }
 
     /**
@@ -797,7 +1071,7 @@ public record Weixin(Context ctx, Cache cache, Lock lock) implements WeixinApiFa
         Object body = rule == null ?
                 new Menu(buttons, null) :
                 new CustomMenu(buttons, new CustomMenuMatchRule(rule.tagId(), rule.clientPlatform()), null);
-        Function<String, CompletableFuture<String>> curl = (accessToken) -> httpClient.post().
+        Function<String, CompletableFuture<String>> curl = (accessToken) -> client().post().
                 uri(uriTemplate, accessToken)
                 .contentType(MediaType.APPLICATION_JSON)
                 .bodyValue(body)
@@ -807,7 +1081,7 @@ public record Weixin(Context ctx, Cache cache, Lock lock) implements WeixinApiFa
                         Mono.justOrEmpty(r.menuId()) :
                         Mono.error(WeixinExceptionUtil.create(r.errorCode(), r.errorMessage())))
                 .toFuture();
-        return getOrRefreshAccessToken().thenCompose(curl);
+        return invoke(rule == null ? WeixinUrl.CREATE_MENU : WeixinUrl.CREATE_CUSTOM_MENU, curl);
     }
 
     /**
@@ -931,7 +1205,7 @@ public record Weixin(Context ctx, Cache cache, Lock lock) implements WeixinApiFa
 
     @Override
     public CompletableFuture<? extends List<? extends MenuItem>> test(String userId) {
-        Function<String, CompletableFuture<List<MenuButton>>> curl = (accessToken) -> httpClient.post().
+        Function<String, CompletableFuture<List<MenuButton>>> curl = (accessToken) -> client().post().
                 uri(WeixinUrl.TEST_CUSTOM_MENU.getUrl(), accessToken)
                 .bodyValue(new TestCustomMenuRequest(userId))
                 .retrieve()
@@ -940,7 +1214,7 @@ public record Weixin(Context ctx, Cache cache, Lock lock) implements WeixinApiFa
                         Mono.just(r.buttons()) :
                         Mono.error(WeixinExceptionUtil.create(r.errorCode(), r.errorMessage())))
                 .toFuture();
-        return getOrRefreshAccessToken().thenCompose(curl);
+        return invoke(WeixinUrl.TEST_CUSTOM_MENU, curl);
     }
 
     @JsonInclude(value = JsonInclude.Include.NON_NULL)
@@ -954,7 +1228,7 @@ public record Weixin(Context ctx, Cache cache, Lock lock) implements WeixinApiFa
     public CompletableFuture<MenuBar> get(boolean custom) {
         String uriTemplate = custom ? WeixinUrl.GET_CUSTOM_MENU.getUrl() : WeixinUrl.GET_MENU.getUrl();
         Class<? extends ServerResponse> responseType = custom ? CustomMenuResponse.class : MenuResponse.class;
-        Function<String, CompletableFuture<MenuBar>> curl = (accessToken) -> httpClient.get().
+        Function<String, CompletableFuture<MenuBar>> curl = (accessToken) -> client().get().
                 uri(uriTemplate, accessToken)
                 .retrieve()
                 .bodyToMono(responseType)
@@ -962,7 +1236,7 @@ public record Weixin(Context ctx, Cache cache, Lock lock) implements WeixinApiFa
                         Mono.just((MenuBar) r) :
                         Mono.error(WeixinExceptionUtil.create(r.errorCode(), r.errorMessage())))
                 .toFuture();
-        return getOrRefreshAccessToken().thenCompose(curl);
+        return invoke(custom ? WeixinUrl.GET_CUSTOM_MENU : WeixinUrl.GET_MENU, curl);
     }
 
     @JsonIgnoreProperties(ignoreUnknown = true)
@@ -1098,8 +1372,8 @@ public record Weixin(Context ctx, Cache cache, Lock lock) implements WeixinApiFa
     @Override
     public CompletableFuture<Void> delete(Long menuId) {
         Function<String, WebClient.RequestHeadersSpec> spec = (accessToken) -> menuId == null ?
-                httpClient.get().uri(WeixinUrl.DELETE_MENU.getUrl(), accessToken) :
-                httpClient.post().uri(WeixinUrl.DELETE_CUSTOM_MENU.getUrl(), accessToken)
+                client().get().uri(WeixinUrl.DELETE_MENU.getUrl(), accessToken) :
+                client().post().uri(WeixinUrl.DELETE_CUSTOM_MENU.getUrl(), accessToken)
                         .contentType(MediaType.APPLICATION_JSON)
                         .bodyValue(new Menu(null, menuId));
         Function<String, CompletableFuture<Void>> curl = (accessToken) -> spec.apply(accessToken)
@@ -1109,7 +1383,7 @@ public record Weixin(Context ctx, Cache cache, Lock lock) implements WeixinApiFa
                         Mono.<Void>empty() :
                         Mono.error(WeixinExceptionUtil.create(r.errorCode(), r.errorMessage())))
                 .toFuture();
-        return getOrRefreshAccessToken().thenCompose(curl);
+        return invoke(menuId == null ? WeixinUrl.DELETE_MENU : WeixinUrl.DELETE_CUSTOM_MENU, curl);
     }
 
 
@@ -1131,7 +1405,7 @@ public record Weixin(Context ctx, Cache cache, Lock lock) implements WeixinApiFa
                     article.onlyFansComment() ? TRUE : FALSE,
                     null, null));
         }
-        Function<String, CompletableFuture<String>> curl = (accessToken) -> httpClient.post().
+        Function<String, CompletableFuture<String>> curl = (accessToken) -> client().post().
                 uri(WeixinUrl.CREATE_DRAFT.getUrl(), accessToken)
                 .contentType(MediaType.APPLICATION_JSON)
                 .bodyValue(new DraftRequest(articles))
@@ -1141,7 +1415,7 @@ public record Weixin(Context ctx, Cache cache, Lock lock) implements WeixinApiFa
                         Mono.just(t.mediaId()) :
                         Mono.error(WeixinExceptionUtil.create(t.errorCode(), t.errorMessage())))
                 .toFuture();
-        return getOrRefreshAccessToken().thenCompose(curl);
+        return invoke(WeixinUrl.CREATE_DRAFT, curl);
     }
 
     @JsonInclude(value = JsonInclude.Include.NON_NULL)
@@ -1195,7 +1469,7 @@ public record Weixin(Context ctx, Cache cache, Lock lock) implements WeixinApiFa
 
     @Override
     public CompletableFuture<? extends List<? extends Paper>> retrieve(String mediaId) {
-        Function<String, CompletableFuture<List<DraftItem>>> curl = (accessToken) -> httpClient.post().
+        Function<String, CompletableFuture<List<DraftItem>>> curl = (accessToken) -> client().post().
                 uri(WeixinUrl.RETRIEVE_ONE_DRAFT.getUrl(), accessToken)
                 .contentType(MediaType.APPLICATION_JSON)
                 .bodyValue(new MediaRequest(mediaId))
@@ -1205,7 +1479,7 @@ public record Weixin(Context ctx, Cache cache, Lock lock) implements WeixinApiFa
                         Mono.just(t.articles()):
                         Mono.error(WeixinExceptionUtil.create(t.errorCode(), t.errorMessage())))
                 .toFuture();
-        return getOrRefreshAccessToken().thenCompose(curl);
+        return invoke(WeixinUrl.RETRIEVE_ONE_DRAFT, curl);
     }
 
     record GetDraftResponse(@JsonProperty("errcode") int errorCode,
@@ -1214,7 +1488,7 @@ public record Weixin(Context ctx, Cache cache, Lock lock) implements WeixinApiFa
 
     @Override
     public CompletableFuture<Void> tear(String mediaId) {
-        Function<String, CompletableFuture<Void>> curl = (accessToken) -> httpClient.post().
+        Function<String, CompletableFuture<Void>> curl = (accessToken) -> client().post().
                 uri(WeixinUrl.THROW_DRAFT_TO_TRASH.getUrl(), accessToken)
                 .contentType(MediaType.APPLICATION_JSON)
                 .bodyValue(new MediaRequest(mediaId))
@@ -1224,7 +1498,7 @@ public record Weixin(Context ctx, Cache cache, Lock lock) implements WeixinApiFa
                         Mono.<Void>empty():
                         Mono.error(WeixinExceptionUtil.create(t.errorCode(), t.errorMessage())))
                 .toFuture();
-        return getOrRefreshAccessToken().thenCompose(curl);
+        return invoke(WeixinUrl.THROW_DRAFT_TO_TRASH, curl);
     }
 
     @Override
@@ -1233,7 +1507,7 @@ public record Weixin(Context ctx, Cache cache, Lock lock) implements WeixinApiFa
                 new ArticleItem(draft.title(), draft.thumbMediaId(), draft.displayCover() ? TRUE : FALSE, null,
                         draft.author(), draft.digest(), draft.content(), null, draft.contentSourceUrl(),
                         draft.commentEnabled() ? TRUE : FALSE, draft.onlyFansComment() ? TRUE : FALSE, null));
-        Function<String, CompletableFuture<Void>> curl = (accessToken) -> httpClient.post().
+        Function<String, CompletableFuture<Void>> curl = (accessToken) -> client().post().
                 uri(WeixinUrl.REVISE_DRAFT.getUrl(), accessToken)
                 .contentType(MediaType.APPLICATION_JSON)
                 .bodyValue(body)
@@ -1243,7 +1517,7 @@ public record Weixin(Context ctx, Cache cache, Lock lock) implements WeixinApiFa
                         Mono.<Void>empty():
                         Mono.error(WeixinExceptionUtil.create(t.errorCode(), t.errorMessage())))
                 .toFuture();
-        return getOrRefreshAccessToken().thenCompose(curl);
+        return invoke(WeixinUrl.REVISE_DRAFT, curl);
     }
 
     record ReviseDraftRequest(@JsonProperty("media_id") String mediaId,
@@ -1252,7 +1526,7 @@ public record Weixin(Context ctx, Cache cache, Lock lock) implements WeixinApiFa
 
     @Override
     public CompletableFuture<Integer> count() {
-        Function<String, CompletableFuture<Integer>> curl = (accessToken) -> httpClient.get().
+        Function<String, CompletableFuture<Integer>> curl = (accessToken) -> client().get().
                 uri(WeixinUrl.COUNT_DRAFT.getUrl(), accessToken)
                 .retrieve()
                 .bodyToMono(CountDraftResponse.class)
@@ -1260,7 +1534,7 @@ public record Weixin(Context ctx, Cache cache, Lock lock) implements WeixinApiFa
                         Mono.just(t.count()):
                         Mono.error(WeixinExceptionUtil.create(t.errorCode(), t.errorMessage())))
                 .toFuture();
-        return getOrRefreshAccessToken().thenCompose(curl);
+        return invoke(WeixinUrl.COUNT_DRAFT, curl);
     }
 
     /**
@@ -1271,7 +1545,7 @@ public record Weixin(Context ctx, Cache cache, Lock lock) implements WeixinApiFa
 
     @Override
     public CompletableFuture<? extends Pageable<? extends Publication>> list(int offset, int count, boolean contentless) {
-        Function<String, CompletableFuture<ListPermanentMaterialResponse>> curl = (accessToken) -> httpClient.post().
+        Function<String, CompletableFuture<ListPermanentMaterialResponse>> curl = (accessToken) -> client().post().
                 uri(WeixinUrl.RETRIEVE_MANY_DRAFT.getUrl(), accessToken)
                 .contentType(MediaType.APPLICATION_JSON)
                 .bodyValue(new ListDraftRequest(offset, count, contentless ? TRUE : FALSE))
@@ -1281,7 +1555,7 @@ public record Weixin(Context ctx, Cache cache, Lock lock) implements WeixinApiFa
                         Mono.just(t):
                         Mono.error(WeixinExceptionUtil.create(t.errorCode(), t.errorMessage())))
                 .toFuture();
-        return getOrRefreshAccessToken().thenCompose(curl);
+        return invoke(WeixinUrl.RETRIEVE_MANY_DRAFT, curl);
     }
 
     /**
@@ -1296,7 +1570,7 @@ public record Weixin(Context ctx, Cache cache, Lock lock) implements WeixinApiFa
     @Override
     public CompletableFuture<? extends PublishResult> publish(String mediaId) {
         // TODO 检查mediaId为已保存草稿
-        Function<String, CompletableFuture<PublishResponse>> curl = (accessToken) -> httpClient.post().
+        Function<String, CompletableFuture<PublishResponse>> curl = (accessToken) -> client().post().
                 uri(WeixinUrl.PUBLISH.getUrl(), accessToken)
                 .contentType(MediaType.APPLICATION_JSON)
                 .bodyValue(new MediaRequest(mediaId))
@@ -1306,7 +1580,7 @@ public record Weixin(Context ctx, Cache cache, Lock lock) implements WeixinApiFa
                         Mono.just(t) :
                         Mono.error(WeixinExceptionUtil.create(t.errorCode(), t.errorMessage())))
                 .toFuture();
-        return getOrRefreshAccessToken().thenCompose(curl);
+        return invoke(WeixinUrl.PUBLISH, curl);
     }
 
     /**
@@ -1321,7 +1595,7 @@ public record Weixin(Context ctx, Cache cache, Lock lock) implements WeixinApiFa
     @Override
     public CompletableFuture<? extends PublishStatusResult> status(String publishId) {
         // TODO 检查publishId是否为已发布草稿
-        Function<String, CompletableFuture<PublishStatusResponse>> curl = (accessToken) -> httpClient.post().
+        Function<String, CompletableFuture<PublishStatusResponse>> curl = (accessToken) -> client().post().
                 uri(WeixinUrl.POLL_PUBLISH_STATUS.getUrl(), accessToken)
                 .contentType(MediaType.APPLICATION_JSON)
                 .bodyValue(new PublishStatusRequest(publishId))
@@ -1331,7 +1605,7 @@ public record Weixin(Context ctx, Cache cache, Lock lock) implements WeixinApiFa
                         Mono.just(t) :
                         Mono.error(WeixinExceptionUtil.create(t.errorCode(), t.errorMessage())))
                 .toFuture();
-        return getOrRefreshAccessToken().thenCompose(curl);
+        return invoke(WeixinUrl.POLL_PUBLISH_STATUS, curl);
     }
 
     record PublishStatusRequest(@JsonProperty("publish_id") String publishId) {}
@@ -1368,7 +1642,7 @@ public record Weixin(Context ctx, Cache cache, Lock lock) implements WeixinApiFa
     @Override
     public CompletableFuture<Void> cancel(String articleId, int index) {
         // TOOD 检查articleId是否为已发布成功
-        Function<String, CompletableFuture<Void>> curl = (accessToken) -> httpClient.post().
+        Function<String, CompletableFuture<Void>> curl = (accessToken) -> client().post().
                 uri(WeixinUrl.REMOVE_PUBLISHED.getUrl(), accessToken)
                 .contentType(MediaType.APPLICATION_JSON)
                 .bodyValue(new CancelPublishedRequest(articleId, index))
@@ -1378,7 +1652,7 @@ public record Weixin(Context ctx, Cache cache, Lock lock) implements WeixinApiFa
                         Mono.<Void>empty() :
                         Mono.error(WeixinExceptionUtil.create(t.errorCode(), t.errorMessage())))
                 .toFuture();
-        return getOrRefreshAccessToken().thenCompose(curl);
+        return invoke(WeixinUrl.REMOVE_PUBLISHED, curl);
     }
 
     /**
@@ -1391,7 +1665,7 @@ public record Weixin(Context ctx, Cache cache, Lock lock) implements WeixinApiFa
     @Override
     public CompletableFuture<? extends List<? extends Paper>> view(String articleId) {
         // TOOD 检查articleId是否为已发布成功
-        Function<String, CompletableFuture<List<ArticleItem>>> curl = (accessToken) -> httpClient.post().
+        Function<String, CompletableFuture<List<ArticleItem>>> curl = (accessToken) -> client().post().
                 uri(WeixinUrl.RETRIEVE_PUBLISHED.getUrl(), accessToken)
                 .contentType(MediaType.APPLICATION_JSON)
                 .bodyValue(new ViewPublishedPaperRequest(articleId))
@@ -1401,7 +1675,7 @@ public record Weixin(Context ctx, Cache cache, Lock lock) implements WeixinApiFa
                         Mono.just(t.items()) :
                         Mono.error(WeixinExceptionUtil.create(t.errorCode(), t.errorMessage())))
                 .toFuture();
-        return getOrRefreshAccessToken().thenCompose(curl);
+        return invoke(WeixinUrl.RETRIEVE_PUBLISHED, curl);
     }
 
     /**
@@ -1414,7 +1688,7 @@ public record Weixin(Context ctx, Cache cache, Lock lock) implements WeixinApiFa
 
     @Override
     public CompletableFuture<? extends Pageable<? extends Publication>> retrievePublished(int offset, int count, boolean contentless) {
-        Function<String, CompletableFuture<ListPermanentMaterialResponse>> curl = (accessToken) -> httpClient.post().
+        Function<String, CompletableFuture<ListPermanentMaterialResponse>> curl = (accessToken) -> client().post().
                 uri(WeixinUrl.GET_PUBLISHED_ARTICLES.getUrl(), accessToken)
                 .contentType(MediaType.APPLICATION_JSON)
                 .bodyValue(new ListDraftRequest(offset, count, contentless ? TRUE : FALSE))
@@ -1424,7 +1698,7 @@ public record Weixin(Context ctx, Cache cache, Lock lock) implements WeixinApiFa
                         Mono.just(t) :
                         Mono.error(WeixinExceptionUtil.create(t.errorCode(), t.errorMessage())))
                 .toFuture();
-        return getOrRefreshAccessToken().thenCompose(curl);
+        return invoke(WeixinUrl.GET_PUBLISHED_ARTICLES, curl);
     }
 
 
@@ -1432,7 +1706,7 @@ public record Weixin(Context ctx, Cache cache, Lock lock) implements WeixinApiFa
     @Override
     public CompletableFuture<Void> addAccount(@NotNull String account, @NotNull String nickname, String password) {
         // TODO ACCOUNT_FMT.formatted(account, ?)
-        Function<String, CompletableFuture<Void>> curl = (accessToken) -> httpClient.post()
+        Function<String, CompletableFuture<Void>> curl = (accessToken) -> client().post()
                 .uri(WeixinUrl.ADD_CUSTOM_SERVICE_ACCOUNT.getUrl(), accessToken)
                 .contentType(MediaType.APPLICATION_JSON)
                 .bodyValue(new CustomServiceAccountRequest(account, nickname, password))
@@ -1442,13 +1716,12 @@ public record Weixin(Context ctx, Cache cache, Lock lock) implements WeixinApiFa
                         Mono.<Void>empty() :
                         Mono.error(WeixinExceptionUtil.create(r.errorCode(), r.errorMessage())))
                 .toFuture();
-        return getOrRefreshAccessToken()
-                .thenCompose(curl);
+        return invoke(WeixinUrl.ADD_CUSTOM_SERVICE_ACCOUNT, curl);
     }
 
     @Override
     public CompletableFuture<Void> bindAccountInviting(@NotNull String account, @NotNull String openId) {
-        Function<String, CompletableFuture<Void>> curl = (accessToken) -> httpClient.post()
+        Function<String, CompletableFuture<Void>> curl = (accessToken) -> client().post()
                 .uri(WeixinUrl.INVITE_CUSTOM_SERVICE_BIND_ACCOUNT.getUrl(), accessToken)
                 .contentType(MediaType.APPLICATION_JSON)
                 .bodyValue(new BindInviting(account, openId))
@@ -1458,14 +1731,14 @@ public record Weixin(Context ctx, Cache cache, Lock lock) implements WeixinApiFa
                         Mono.<Void>empty() :
                         Mono.error(WeixinExceptionUtil.create(r.errorCode(), r.errorMessage())))
                 .toFuture();
-        return getOrRefreshAccessToken().thenCompose(curl);
+        return invoke(WeixinUrl.INVITE_CUSTOM_SERVICE_BIND_ACCOUNT, curl);
     }
 
     record BindInviting(@JsonProperty("kf_account") String account, @JsonProperty("invite_wx") String openId) {}
 
     @Override
     public CompletableFuture<Void> updateAccount(@NotNull String account, @NotNull String nickname, String password) {
-        Function<String, CompletableFuture<Void>> curl = (accessToken) -> httpClient.post()
+        Function<String, CompletableFuture<Void>> curl = (accessToken) -> client().post()
                 .uri(WeixinUrl.UPDATE_CUSTOM_SERVICE_ACCOUNT.getUrl(), accessToken)
                 .bodyValue(new CustomServiceAccountRequest(account, nickname, password))
                 .retrieve()
@@ -1474,12 +1747,12 @@ public record Weixin(Context ctx, Cache cache, Lock lock) implements WeixinApiFa
                         Mono.<Void>empty() :
                         Mono.error(WeixinExceptionUtil.create(r.errorCode(), r.errorMessage())))
                 .toFuture();
-        return getOrRefreshAccessToken().thenCompose(curl);
+        return invoke(WeixinUrl.UPDATE_CUSTOM_SERVICE_ACCOUNT, curl);
     }
 
     @Override
     public CompletableFuture<Void> removeAccount(@NotNull String account) {
-        Function<String, CompletableFuture<Void>> curl = (accessToken) -> httpClient.post().uri(WeixinUrl.DELETE_CUSTOM_SERVICE_ACCOUNT.getUrl(), accessToken)
+        Function<String, CompletableFuture<Void>> curl = (accessToken) -> client().post().uri(WeixinUrl.DELETE_CUSTOM_SERVICE_ACCOUNT.getUrl(), accessToken)
                 .bodyValue(new CustomServiceAccountRequest(account, null, null))
                 .retrieve()
                 .bodyToMono(DefaultResponse.class)
@@ -1487,7 +1760,7 @@ public record Weixin(Context ctx, Cache cache, Lock lock) implements WeixinApiFa
                         Mono.<Void>empty() :
                         Mono.error(WeixinExceptionUtil.create(r.errorCode(), r.errorMessage())))
                 .toFuture();
-        return getOrRefreshAccessToken().thenCompose(curl);
+        return invoke(WeixinUrl.DELETE_CUSTOM_SERVICE_ACCOUNT, curl);
     }
 
     /**
@@ -1500,20 +1773,20 @@ public record Weixin(Context ctx, Cache cache, Lock lock) implements WeixinApiFa
 
     @Override
     public CompletableFuture<Void> changeAvatar(@NotNull InputStream is, @NotNull String filename, String account) {
-        Function<String, CompletableFuture<Void>> curl = (accessToken) ->
-                multipart(httpClient.post().uri(WeixinUrl.SET_CUSTOM_SERVICE_AVATAR.getUrl(), accessToken, account), is, MEDIA_PARAM_NAME, filename)
+        Function<StagedContent, Function<String, CompletableFuture<Void>>> curl = content -> (accessToken) ->
+                multipart(client().post().uri(WeixinUrl.SET_CUSTOM_SERVICE_AVATAR.getUrl(), accessToken, account), content, MEDIA_PARAM_NAME, filename)
                 .retrieve()
                 .bodyToMono(DefaultResponse.class)
                 .flatMap(r -> r.isSuccess() ?
                         Mono.<Void>empty() :
                         Mono.error(WeixinExceptionUtil.create(r.errorCode(), r.errorMessage())))
                 .toFuture();
-        return getOrRefreshAccessToken().thenCompose(curl);
+        return invoke(WeixinUrl.SET_CUSTOM_SERVICE_AVATAR, is, curl);
     }
 
     @Override
     public CompletableFuture<List<Account>> listAccounts() {
-        Function<String, CompletableFuture<List<Account>>> curl = (accessToken) -> httpClient.get()
+        Function<String, CompletableFuture<List<Account>>> curl = (accessToken) -> client().get()
                 .uri(WeixinUrl.GET_CUSTOM_SERVICE_ACCOUNTS.getUrl(), accessToken)
                 .retrieve()
                 .bodyToMono(AccountListResponse.class)
@@ -1529,7 +1802,7 @@ public record Weixin(Context ctx, Cache cache, Lock lock) implements WeixinApiFa
                     return list;
                 })
                 .toFuture();
-        return getOrRefreshAccessToken().thenCompose(curl);
+        return invoke(WeixinUrl.GET_CUSTOM_SERVICE_ACCOUNTS, curl);
     }
 
     @JsonIgnoreProperties(ignoreUnknown = true)
@@ -1544,7 +1817,7 @@ public record Weixin(Context ctx, Cache cache, Lock lock) implements WeixinApiFa
 
     @Override
     public CompletableFuture<Void> echo(@NotNull ReplyMessage replyMessage) {
-        Function<String, CompletableFuture<Void>> curl = (accessToken) -> httpClient.post()
+        Function<String, CompletableFuture<Void>> curl = (accessToken) -> client().post()
                 .uri(WeixinUrl.SEND_CUSTOM_SERVICE_MESSAGE.getUrl(), accessToken)
                 .bodyValue(replyMessage.toJson())
                 .retrieve()
@@ -1553,12 +1826,12 @@ public record Weixin(Context ctx, Cache cache, Lock lock) implements WeixinApiFa
                         Mono.<Void>empty() :
                         Mono.error(WeixinExceptionUtil.create(r.errorCode(), r.errorMessage())))
                 .toFuture();
-        return getOrRefreshAccessToken().thenCompose(curl);
+        return invoke(WeixinUrl.SEND_CUSTOM_SERVICE_MESSAGE, curl);
     }
 
     @Override
     public CompletableFuture<Void> displayStatus(String toOpenId, Command command) {
-        Function<String, CompletableFuture<Void>> curl = (accessToken) -> httpClient.post()
+        Function<String, CompletableFuture<Void>> curl = (accessToken) -> client().post()
                 .uri(WeixinUrl.DISPLAY_CUSTOM_SERVICE_TYPING_STATUS.getUrl(), accessToken)
                 .bodyValue(new TypingStatus(toOpenId, command.getValue()))
                 .retrieve()
@@ -1567,7 +1840,7 @@ public record Weixin(Context ctx, Cache cache, Lock lock) implements WeixinApiFa
                         Mono.<Void>empty() :
                         Mono.error(WeixinExceptionUtil.create(r.errorCode(), r.errorMessage())))
                 .toFuture();
-        return getOrRefreshAccessToken().thenCompose(curl);
+        return invoke(WeixinUrl.DISPLAY_CUSTOM_SERVICE_TYPING_STATUS, curl);
     }
 
     @JsonInclude(value = JsonInclude.Include.NON_NULL)
@@ -1584,7 +1857,7 @@ public record Weixin(Context ctx, Cache cache, Lock lock) implements WeixinApiFa
     @Override
     public CompletableFuture<? extends UserLabel> labeling(String name) {
         // TODO 检查标签名是否存在，标签数量是否超过100
-        Function<String, CompletableFuture<LabelInfo>> curl = (accessToken) -> httpClient.post()
+        Function<String, CompletableFuture<LabelInfo>> curl = (accessToken) -> client().post()
                 .uri(WeixinUrl.CREATE_LABEL.getUrl(), accessToken)
                 .contentType(MediaType.APPLICATION_JSON)
                 .bodyValue(new LabelWrapper(new LabelInfo(name, null ,null)))
@@ -1594,7 +1867,7 @@ public record Weixin(Context ctx, Cache cache, Lock lock) implements WeixinApiFa
                         Mono.just(r.label()) :
                         Mono.error(WeixinExceptionUtil.create(r.errorCode(), r.errorMessage())))
                 .toFuture();
-        return getOrRefreshAccessToken().thenCompose(curl);
+        return invoke(WeixinUrl.CREATE_LABEL, curl);
     }
 
     @JsonInclude(value = JsonInclude.Include.NON_NULL)
@@ -1616,7 +1889,7 @@ public record Weixin(Context ctx, Cache cache, Lock lock) implements WeixinApiFa
 
     @Override
     public CompletableFuture<? extends List<? extends UserLabel>> labeled() {
-        Function<String, CompletableFuture<List<LabelInfo>>> curl = (accessToken) -> httpClient.get()
+        Function<String, CompletableFuture<List<LabelInfo>>> curl = (accessToken) -> client().get()
                 .uri(WeixinUrl.RETRIEVE_LABEL.getUrl(), accessToken)
                 .retrieve()
                 .bodyToMono(CreateLabelResponse.class)
@@ -1624,12 +1897,12 @@ public record Weixin(Context ctx, Cache cache, Lock lock) implements WeixinApiFa
                         Mono.just(r.tags()) :
                         Mono.error(WeixinExceptionUtil.create(r.errorCode(), r.errorMessage())))
                 .toFuture();
-        return getOrRefreshAccessToken().thenCompose(curl);
+        return invoke(WeixinUrl.RETRIEVE_LABEL, curl);
     }
 
     @Override
     public CompletableFuture<Void> relabel(int tagId, String name) {
-        Function<String, CompletableFuture<Void>> curl = (accessToken) -> httpClient.post()
+        Function<String, CompletableFuture<Void>> curl = (accessToken) -> client().post()
                 .uri(WeixinUrl.REVISE_LABEL.getUrl(), accessToken)
                 .contentType(MediaType.APPLICATION_JSON)
                 .bodyValue(new LabelWrapper(new LabelInfo(name, tagId, null)))
@@ -1639,12 +1912,12 @@ public record Weixin(Context ctx, Cache cache, Lock lock) implements WeixinApiFa
                         Mono.<Void>empty() :
                         Mono.error(WeixinExceptionUtil.create(r.errorCode(), r.errorMessage())))
                 .toFuture();
-        return getOrRefreshAccessToken().thenCompose(curl);
+        return invoke(WeixinUrl.REVISE_LABEL, curl);
     }
 
     @Override
     public CompletableFuture<Void> unlabeling(int tagId) {
-        Function<String, CompletableFuture<Void>> curl = (accessToken) -> httpClient.post()
+        Function<String, CompletableFuture<Void>> curl = (accessToken) -> client().post()
                 .uri(WeixinUrl.REMOVE_LABEL.getUrl(), accessToken)
                 .contentType(MediaType.APPLICATION_JSON)
                 .bodyValue(new LabelWrapper(new LabelInfo(null, tagId, null)))
@@ -1654,12 +1927,12 @@ public record Weixin(Context ctx, Cache cache, Lock lock) implements WeixinApiFa
                         Mono.<Void>empty() :
                         Mono.error(WeixinExceptionUtil.create(r.errorCode(), r.errorMessage())))
                 .toFuture();
-        return getOrRefreshAccessToken().thenCompose(curl);
+        return invoke(WeixinUrl.REMOVE_LABEL, curl);
     }
 
     @Override
     public CompletableFuture<? extends Pageable<String>> listLabeled(int tagId, String cursor) {
-        Function<String, CompletableFuture<ListTaggedUserResponse>> curl = (accessToken) -> httpClient.post()
+        Function<String, CompletableFuture<ListTaggedUserResponse>> curl = (accessToken) -> client().post()
                 .uri(WeixinUrl.LIST_LABELED_USERS.getUrl(), accessToken)
                 .contentType(MediaType.APPLICATION_JSON)
                 .bodyValue(new ListTaggedUserRequest(tagId, cursor))
@@ -1669,7 +1942,7 @@ public record Weixin(Context ctx, Cache cache, Lock lock) implements WeixinApiFa
                         Mono.just(r) :
                         Mono.error(WeixinExceptionUtil.create(r.errorCode(), r.errorMessage())))
                 .toFuture();
-        return getOrRefreshAccessToken().thenCompose(curl);
+        return invoke(WeixinUrl.LIST_LABELED_USERS, curl);
     }
 
     /**
@@ -1718,7 +1991,7 @@ public record Weixin(Context ctx, Cache cache, Lock lock) implements WeixinApiFa
     @Override
     public CompletableFuture<Void> mark(List<String> users, int tagId) {
         // TODO 检查粉丝是否属于该appId，检查粉丝标签用户数是否低于20
-        Function<String, CompletableFuture<Void>> curl = (accessToken) -> httpClient.post()
+        Function<String, CompletableFuture<Void>> curl = (accessToken) -> client().post()
                 .uri(WeixinUrl.LABELING.getUrl(), accessToken)
                 .contentType(MediaType.APPLICATION_JSON)
                 .bodyValue(new LabelingRequest(users, tagId))
@@ -1728,7 +2001,7 @@ public record Weixin(Context ctx, Cache cache, Lock lock) implements WeixinApiFa
                         Mono.<Void>empty() :
                         Mono.error(WeixinExceptionUtil.create(r.errorCode(), r.errorMessage())))
                 .toFuture();
-        return getOrRefreshAccessToken().thenCompose(curl);
+        return invoke(WeixinUrl.LABELING, curl);
     }
 
     /**
@@ -1740,7 +2013,7 @@ public record Weixin(Context ctx, Cache cache, Lock lock) implements WeixinApiFa
 
     @Override
     public CompletableFuture<Void> unmark(List<String> users, int tagId) {
-        Function<String, CompletableFuture<Void>> curl = (accessToken) -> httpClient.post()
+        Function<String, CompletableFuture<Void>> curl = (accessToken) -> client().post()
                 .uri(WeixinUrl.UNLABELING.getUrl(), accessToken)
                 .contentType(MediaType.APPLICATION_JSON)
                 .bodyValue(new LabelingRequest(users, tagId))
@@ -1750,16 +2023,16 @@ public record Weixin(Context ctx, Cache cache, Lock lock) implements WeixinApiFa
                         Mono.<Void>empty() :
                         Mono.error(WeixinExceptionUtil.create(r.errorCode(), r.errorMessage())))
                 .toFuture();
-        return getOrRefreshAccessToken().thenCompose(curl);
+        return invoke(WeixinUrl.UNLABELING, curl);
     }
 
     @Override
     public CompletableFuture<? extends Customer> getCustomerInfo(WeixinClientUser clientUser) {
         Function<String, WebClient.RequestHeadersSpec> spec = (accessToken) ->  clientUser.labelOnly() ?
-                httpClient.post().uri(WeixinUrl.LABELED.getUrl(), accessToken)
+                client().post().uri(WeixinUrl.LABELED.getUrl(), accessToken)
                         .contentType(MediaType.APPLICATION_JSON)
                         .bodyValue(new GetCustomerRequest(clientUser.openId(), null)) :
-                httpClient.get().uri(WeixinUrl.RETRIEVE_FANS_INFO.getUrl(), accessToken, clientUser.openId(), clientUser.language());
+                client().get().uri(WeixinUrl.RETRIEVE_FANS_INFO.getUrl(), accessToken, clientUser.openId(), clientUser.language());
         Function<String, CompletableFuture<GetCustomerResponse>> curl = (accessToken) -> spec.apply(accessToken)
                 .retrieve()
                 .bodyToMono(GetCustomerResponse.class)
@@ -1767,7 +2040,7 @@ public record Weixin(Context ctx, Cache cache, Lock lock) implements WeixinApiFa
                         Mono.just(r) :
                         Mono.error(WeixinExceptionUtil.create(r.errorCode(), r.errorMessage())))
                 .toFuture();
-        return getOrRefreshAccessToken().thenCompose(curl);
+        return invoke(clientUser.labelOnly() ? WeixinUrl.LABELED : WeixinUrl.RETRIEVE_FANS_INFO, curl);
     }
 
     /**
@@ -1819,7 +2092,7 @@ public record Weixin(Context ctx, Cache cache, Lock lock) implements WeixinApiFa
 
     @Override
     public CompletableFuture<Void> remark(String openId, String comment) {
-        Function<String, CompletableFuture<Void>> curl = (accessToken) -> httpClient.post()
+        Function<String, CompletableFuture<Void>> curl = (accessToken) -> client().post()
                 .uri(WeixinUrl.REMARK_FANS.getUrl(), accessToken)
                 .contentType(MediaType.APPLICATION_JSON)
                 .bodyValue(new RemarkRequest(openId, comment))
@@ -1829,7 +2102,7 @@ public record Weixin(Context ctx, Cache cache, Lock lock) implements WeixinApiFa
                         Mono.<Void>empty() :
                         Mono.error(WeixinExceptionUtil.create(r.errorCode(), r.errorMessage())))
                 .toFuture();
-        return getOrRefreshAccessToken().thenCompose(curl);
+        return invoke(WeixinUrl.REMARK_FANS, curl);
     }
 
     /**
@@ -1840,7 +2113,7 @@ public record Weixin(Context ctx, Cache cache, Lock lock) implements WeixinApiFa
 
     @Override
     public CompletableFuture<? extends List<? extends Customer>> listCustomers(WeixinClientUser[] clientUsers) {
-        Function<String, CompletableFuture<List<GetCustomerResponse>>> curl = (accessToken) -> httpClient.post()
+        Function<String, CompletableFuture<List<GetCustomerResponse>>> curl = (accessToken) -> client().post()
                 .uri(WeixinUrl.BATCH_RETRIEVE_FANS.getUrl(), accessToken)
                 .contentType(MediaType.APPLICATION_JSON)
                 .bodyValue(new BatchRetrieveFansRequest(Arrays.stream(clientUsers)
@@ -1853,7 +2126,7 @@ public record Weixin(Context ctx, Cache cache, Lock lock) implements WeixinApiFa
                         Mono.justOrEmpty(r.fans()) :
                         Mono.error(WeixinExceptionUtil.create(r.errorCode(), r.errorMessage())))
                 .toFuture();
-        return getOrRefreshAccessToken().thenCompose(curl);
+        return invoke(WeixinUrl.BATCH_RETRIEVE_FANS, curl);
     }
 
     /**
@@ -1866,7 +2139,7 @@ public record Weixin(Context ctx, Cache cache, Lock lock) implements WeixinApiFa
 
     @Override
     public CompletableFuture<? extends Pageable<String>> listUsers(String fromOpenId) {
-        Function<String, CompletableFuture<ListTaggedUserResponse>> curl = (accessToken) -> httpClient.get()
+        Function<String, CompletableFuture<ListTaggedUserResponse>> curl = (accessToken) -> client().get()
                 .uri(WeixinUrl.RETRIEVE_FANS_ID.getUrl(), accessToken, fromOpenId)
                 .retrieve()
                 .bodyToMono(ListTaggedUserResponse.class)
@@ -1874,12 +2147,12 @@ public record Weixin(Context ctx, Cache cache, Lock lock) implements WeixinApiFa
                         Mono.just(r) :
                         Mono.error(WeixinExceptionUtil.create(r.errorCode(), r.errorMessage())))
                 .toFuture();
-        return getOrRefreshAccessToken().thenCompose(curl);
+        return invoke(WeixinUrl.RETRIEVE_FANS_ID, curl);
     }
 
     @Override
     public CompletableFuture<Void> block(List<String> users) {
-        Function<String, CompletableFuture<Void>> curl = (accessToken) -> httpClient.post()
+        Function<String, CompletableFuture<Void>> curl = (accessToken) -> client().post()
                 .uri(WeixinUrl.BLOCK_FANS.getUrl(), accessToken)
                 .contentType(MediaType.APPLICATION_JSON)
                 .bodyValue(new LabelingRequest(users, null))
@@ -1889,12 +2162,12 @@ public record Weixin(Context ctx, Cache cache, Lock lock) implements WeixinApiFa
                         Mono.<Void>empty() :
                         Mono.error(WeixinExceptionUtil.create(r.errorCode(), r.errorMessage())))
                 .toFuture();
-        return getOrRefreshAccessToken().thenCompose(curl);
+        return invoke(WeixinUrl.BLOCK_FANS, curl);
     }
 
     @Override
     public CompletableFuture<Void> unblock(List<String> users) {
-        Function<String, CompletableFuture<Void>> curl = (accessToken) -> httpClient.post()
+        Function<String, CompletableFuture<Void>> curl = (accessToken) -> client().post()
                 .uri(WeixinUrl.UNBLOCK_FANS.getUrl(), accessToken)
                 .contentType(MediaType.APPLICATION_JSON)
                 .bodyValue(new LabelingRequest(users, null))
@@ -1904,12 +2177,12 @@ public record Weixin(Context ctx, Cache cache, Lock lock) implements WeixinApiFa
                         Mono.<Void>empty() :
                         Mono.error(WeixinExceptionUtil.create(r.errorCode(), r.errorMessage())))
                 .toFuture();
-        return getOrRefreshAccessToken().thenCompose(curl);
+        return invoke(WeixinUrl.UNBLOCK_FANS, curl);
     }
 
     @Override
     public CompletableFuture<? extends Pageable<String>> retrieveBlocked(String fromOpenId) {
-        Function<String, CompletableFuture<ListTaggedUserResponse>> curl = (accessToken) -> httpClient.post()
+        Function<String, CompletableFuture<ListTaggedUserResponse>> curl = (accessToken) -> client().post()
                 .uri(WeixinUrl.LIST_BLOCKED_FANS.getUrl(), accessToken)
                 .contentType(MediaType.APPLICATION_JSON)
                 .bodyValue(new GetBlockedRequest(fromOpenId))
@@ -1919,7 +2192,7 @@ public record Weixin(Context ctx, Cache cache, Lock lock) implements WeixinApiFa
                         Mono.just(r) :
                         Mono.error(WeixinExceptionUtil.create(r.errorCode(), r.errorMessage())))
                 .toFuture();
-        return getOrRefreshAccessToken().thenCompose(curl);
+        return invoke(WeixinUrl.LIST_BLOCKED_FANS, curl);
     }
 
     record GetBlockedRequest(@JsonProperty("begin_openid") String fromOpenId) {}
@@ -1934,7 +2207,7 @@ public record Weixin(Context ctx, Cache cache, Lock lock) implements WeixinApiFa
 
     @Override
     public CompletableFuture<? extends List<? extends MessageTemplate>> retrieveTemplates() {
-        Function<String, CompletableFuture<List<MsgTplResult>>> curl = (accessToken) -> httpClient.get()
+        Function<String, CompletableFuture<List<MsgTplResult>>> curl = (accessToken) -> client().get()
                 .uri(WeixinUrl.GET_ALL_TEMPLATES.getUrl(), accessToken)
                 .retrieve()
                 .bodyToMono(ListMessageTemplateResponse.class)
@@ -1942,7 +2215,7 @@ public record Weixin(Context ctx, Cache cache, Lock lock) implements WeixinApiFa
                         Mono.just(r.items()) :
                         Mono.error(WeixinExceptionUtil.create(r.errorCode(), r.errorMessage())))
                 .toFuture();
-        return getOrRefreshAccessToken().thenCompose(curl);
+        return invoke(WeixinUrl.GET_ALL_TEMPLATES, curl);
     }
 
     @JsonIgnoreProperties(ignoreUnknown = true)
@@ -1966,7 +2239,7 @@ public record Weixin(Context ctx, Cache cache, Lock lock) implements WeixinApiFa
     @Override
     public CompletableFuture<Void> removeMessageTemplate(String id) {
         // TODO 检查模板是否存在
-        Function<String, CompletableFuture<Void>> curl = (accessToken) -> httpClient.post()
+        Function<String, CompletableFuture<Void>> curl = (accessToken) -> client().post()
                 .uri(WeixinUrl.DELETE_TEMPLATE.getUrl(), accessToken)
                 .contentType(MediaType.APPLICATION_JSON)
                 .bodyValue(new SendTemplateMsgRequest(null, id, null, null, null, null, null, null))
@@ -1976,23 +2249,23 @@ public record Weixin(Context ctx, Cache cache, Lock lock) implements WeixinApiFa
                         Mono.<Void>empty() :
                         Mono.error(WeixinExceptionUtil.create(r.errorCode(), r.errorMessage())))
                 .toFuture();
-        return getOrRefreshAccessToken().thenCompose(curl);
+        return invoke(WeixinUrl.DELETE_TEMPLATE, curl);
     }
 
     @Override
     public CompletableFuture<Long> send(TemplateMessage msg) {
         // TODO 检查模板是否存在，消息是否重复
-        Function<String, CompletableFuture<Long>> curl = (accessToken) -> httpClient.post()
+        Function<String, CompletableFuture<Long>> curl = (accessToken) -> client().post()
                 .uri(WeixinUrl.SEND_TEMPLATE_MESSAGE.getUrl(), accessToken)
                 .contentType(MediaType.APPLICATION_JSON)
                 .bodyValue(SendTemplateMsgRequest.from(msg))
                 .retrieve()
                 .bodyToMono(SendTemplateMsgResponse.class)
                 .flatMap(r -> r.isSuccess() ?
-                        Mono.just(r.msgId()) :
+                        Mono.justOrEmpty(r.msgId()) :
                         Mono.error(WeixinExceptionUtil.create(r.errorCode(), r.errorMessage())))
                 .toFuture();
-        return getOrRefreshAccessToken().thenCompose(curl);
+        return invoke(WeixinUrl.SEND_TEMPLATE_MESSAGE, curl);
     }
 
     /**
@@ -2045,7 +2318,7 @@ public record Weixin(Context ctx, Cache cache, Lock lock) implements WeixinApiFa
 
     @Override
     public CompletableFuture<Void> pushMessage(TemplateMessage content) {
-        Function<String, CompletableFuture<Void>> curl = (accessToken) -> httpClient.post()
+        Function<String, CompletableFuture<Void>> curl = (accessToken) -> client().post()
                 .uri(WeixinUrl.PUSH_TEMPLATE_MESSAGE_TO_SUBSCRIBERS.getUrl(), accessToken)
                 .contentType(MediaType.APPLICATION_JSON)
                 .bodyValue(SendTemplateMsgRequest.from(content))
@@ -2055,11 +2328,20 @@ public record Weixin(Context ctx, Cache cache, Lock lock) implements WeixinApiFa
                         Mono.<Void>empty():
                         Mono.error(WeixinExceptionUtil.create(r.errorCode(), r.errorMessage())))
                 .toFuture();
-        return getOrRefreshAccessToken().thenCompose(curl);
+        return invoke(WeixinUrl.PUSH_TEMPLATE_MESSAGE_TO_SUBSCRIBERS, curl);
     }
 
     @Override
     public CompletableFuture<? extends MessageReceipt> broadcast(String groupId, List<String> users, MessageType type, Material material, boolean forcePublish) {
+        return broadcast(groupId, users, type, material, forcePublish, null);
+    }
+
+    /**
+     * 指定开发者侧群发msgid时，24小时内以同一clientMsgId重复群发不会再次发送，直接返回已存在的群发msgid
+     * @param clientMsgId 开发者侧群发msgid，可为null
+     */
+    public CompletableFuture<? extends MessageReceipt> broadcast(String groupId, List<String> users, MessageType type, Material material,
+                                                                 boolean forcePublish, String clientMsgId) {
         // TODO 按标签群发则检查标签是否存在，订阅号每天至多1次群发给所有人，服务号每月4次。图文消息的mediaId来源于草稿或上传图文
         MediaRequest news = null;
         TextToBroadcast text = null;
@@ -2083,21 +2365,21 @@ public record Weixin(Context ctx, Cache cache, Lock lock) implements WeixinApiFa
             default -> throw new IllegalArgumentException("不支持的群发类型：" + type);
         }
         BroadcastFilter filter = users != null && !users.isEmpty() ? null : new BroadcastFilter(groupId == null, groupId);
-        final BroadcastRequest body = new BroadcastRequest(filter, users, news, text, images, voice, video, card, type.getValue(), forcePublish ? TRUE : FALSE, null);
+        final BroadcastRequest body = new BroadcastRequest(filter, users, news, text, images, voice, video, card, type.getValue(), forcePublish ? TRUE : FALSE, clientMsgId);
 
         String urlTemplate = users == null || users.isEmpty() ? WeixinUrl.PUBLISH_TO_GROUP.getUrl() : WeixinUrl.PUBLISH_TO_PEERS.getUrl();
 
-        Function<String, CompletableFuture<BroadcastResponse>> curl = (accessToken) -> httpClient.post()
+        Function<String, CompletableFuture<BroadcastResponse>> curl = (accessToken) -> client().post()
                 .uri(urlTemplate, accessToken)
                 .contentType(MediaType.APPLICATION_JSON)
                 .bodyValue(body)
                 .retrieve()
                 .bodyToMono(BroadcastResponse.class)
-                .flatMap(r -> r.isSuccess() ?
+                .flatMap(r -> r.isSuccess() || (clientMsgId != null && r.errorCode() == BROADCAST_DUPLICATED && r.msgId() > 0) ?
                         Mono.just(r):
                         Mono.error(WeixinExceptionUtil.create(r.errorCode(), r.errorMessage())))
                 .toFuture();
-        return getOrRefreshAccessToken().thenCompose(curl);
+        return invoke(users == null || users.isEmpty() ? WeixinUrl.PUBLISH_TO_GROUP : WeixinUrl.PUBLISH_TO_PEERS, curl, clientMsgId != null);
     }
 
     /**
@@ -2161,7 +2443,7 @@ public record Weixin(Context ctx, Cache cache, Lock lock) implements WeixinApiFa
     @Override
     public CompletableFuture<Void> cancelBroadcast(String msgId, Integer newsIndex, String url) {
         // TODO 检查消息是否发送成功，见擦汗消息类型是否为图文消息或视频消息
-        Function<String, CompletableFuture<Void>> curl = (accessToken) -> httpClient.post()
+        Function<String, CompletableFuture<Void>> curl = (accessToken) -> client().post()
                 .uri(WeixinUrl.CANCEL_PUBLISH.getUrl(), accessToken)
                 .contentType(MediaType.APPLICATION_JSON)
                 .bodyValue(new CancelBroadcastRequest(msgId, newsIndex, url))
@@ -2171,7 +2453,7 @@ public record Weixin(Context ctx, Cache cache, Lock lock) implements WeixinApiFa
                         Mono.<Void>empty():
                         Mono.error(WeixinExceptionUtil.create(r.errorCode(), r.errorMessage())))
                 .toFuture();
-        return getOrRefreshAccessToken().thenCompose(curl);
+        return invoke(WeixinUrl.CANCEL_PUBLISH, curl);
     }
 
     /**
@@ -2208,7 +2490,7 @@ public record Weixin(Context ctx, Cache cache, Lock lock) implements WeixinApiFa
         }
         final BroadcastPreviewRequest body = new BroadcastPreviewRequest(openId, name, news, text, image, voice, video, card, type.getValue());
 
-        Function<String, CompletableFuture<Void>> curl = (accessToken) -> httpClient.post()
+        Function<String, CompletableFuture<Void>> curl = (accessToken) -> client().post()
                 .uri(WeixinUrl.PREVIEW_PUBLISH.getUrl(), accessToken)
                 .contentType(MediaType.APPLICATION_JSON)
                 .bodyValue(body)
@@ -2218,7 +2500,7 @@ public record Weixin(Context ctx, Cache cache, Lock lock) implements WeixinApiFa
                         Mono.<Void>empty():
                         Mono.error(WeixinExceptionUtil.create(r.errorCode(), r.errorMessage())))
                 .toFuture();
-        return getOrRefreshAccessToken().thenCompose(curl);
+        return invoke(WeixinUrl.PREVIEW_PUBLISH, curl);
     }
 
     @JsonInclude(value = JsonInclude.Include.NON_NULL)
@@ -2233,7 +2515,7 @@ public record Weixin(Context ctx, Cache cache, Lock lock) implements WeixinApiFa
 
     @Override
     public CompletableFuture<String> fetchBroadcastStatus(String msgId) {
-        Function<String, CompletableFuture<String>> curl = (accessToken) -> httpClient.post()
+        Function<String, CompletableFuture<String>> curl = (accessToken) -> client().post()
                 .uri(WeixinUrl.GET_PUBLISH_STATUS.getUrl(), accessToken)
                 .contentType(MediaType.APPLICATION_JSON)
                 .bodyValue(new CancelBroadcastRequest(msgId, null, null))
@@ -2243,7 +2525,7 @@ public record Weixin(Context ctx, Cache cache, Lock lock) implements WeixinApiFa
                         Mono.just(r.status()):
                         Mono.error(WeixinExceptionUtil.create(r.errorCode(), r.errorMessage())))
                 .toFuture();
-        return getOrRefreshAccessToken().thenCompose(curl);
+        return invoke(WeixinUrl.GET_PUBLISH_STATUS, curl);
     }
 
     /**
@@ -2255,7 +2537,7 @@ public record Weixin(Context ctx, Cache cache, Lock lock) implements WeixinApiFa
 
     @Override
     public CompletableFuture<Void> changeBroadcastSpeed(int level) {
-        Function<String, CompletableFuture<Void>> curl = (accessToken) -> httpClient.post()
+        Function<String, CompletableFuture<Void>> curl = (accessToken) -> client().post()
                 .uri(WeixinUrl.SET_PUBLISH_SPEED.getUrl(), accessToken)
                 .contentType(MediaType.APPLICATION_JSON)
                 .bodyValue(new ConfigureSendSpeedRequest(level))
@@ -2265,14 +2547,14 @@ public record Weixin(Context ctx, Cache cache, Lock lock) implements WeixinApiFa
                         Mono.<Void>empty():
                         Mono.error(WeixinExceptionUtil.create(r.errorCode(), r.errorMessage())))
                 .toFuture();
-        return getOrRefreshAccessToken().thenCompose(curl);
+        return invoke(WeixinUrl.SET_PUBLISH_SPEED, curl);
     }
 
     record ConfigureSendSpeedRequest(@JsonProperty("speed") int level) {}
 
     @Override
     public CompletableFuture<? extends Transmission> retrieveBroadcastSpeed() {
-        Function<String, CompletableFuture<RetrieveBroadcastSpeedResponse>> curl = (accessToken) -> httpClient.post()
+        Function<String, CompletableFuture<RetrieveBroadcastSpeedResponse>> curl = (accessToken) -> client().post()
                 .uri(WeixinUrl.GET_PUBLISH_SPEED.getUrl(), accessToken)
                 .retrieve()
                 .bodyToMono(RetrieveBroadcastSpeedResponse.class)
@@ -2280,7 +2562,7 @@ public record Weixin(Context ctx, Cache cache, Lock lock) implements WeixinApiFa
                         Mono.just(r):
                         Mono.error(WeixinExceptionUtil.create(r.errorCode(), r.errorMessage())))
                 .toFuture();
-        return getOrRefreshAccessToken().thenCompose(curl);
+        return invoke(WeixinUrl.GET_PUBLISH_SPEED, curl);
     }
 
     @JsonIgnoreProperties(ignoreUnknown = true)
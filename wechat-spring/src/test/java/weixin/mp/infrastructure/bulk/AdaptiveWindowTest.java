@@ -0,0 +1,113 @@
+package weixin.mp.infrastructure.bulk;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+
+public class AdaptiveWindowTest {
+
+    /**
+     * 获取名额后立即按结果归还
+     */
+    private static void call(AdaptiveWindow window, boolean success, boolean throttle) {
+        Assertions.assertTrue(window.acquire().isDone());
+        window.release(success, throttle);
+    }
+
+    @Test
+    @DisplayName("在途请求数达到窗口后排队，归还名额时按先后放行")
+    public void testAcquire() {
+        AdaptiveWindow window = new AdaptiveWindow(2);
+        Assertions.assertTrue(window.acquire().isDone());
+        Assertions.assertTrue(window.acquire().isDone());
+        CompletableFuture<Void> first = window.acquire();
+        CompletableFuture<Void> second = window.acquire();
+        Assertions.assertFalse(first.isDone());
+        Assertions.assertFalse(second.isDone());
+        Assertions.assertEquals(2, window.metrics().inFlight());
+
+        window.release(true, false);
+        Assertions.assertTrue(first.isDone());
+        Assertions.assertFalse(second.isDone());
+        Assertions.assertEquals(2, window.metrics().inFlight());
+    }
+
+    @Test
+    @DisplayName("已取消的排队请求被跳过，不占用名额")
+    public void testCancelled() {
+        AdaptiveWindow window = new AdaptiveWindow(1);
+        Assertions.assertTrue(window.acquire().isDone());
+        CompletableFuture<Void> cancelled = window.acquire();
+        CompletableFuture<Void> waiting = window.acquire();
+        cancelled.cancel(false);
+
+        window.release(true, false);
+        Assertions.assertTrue(waiting.isDone());
+        Assertions.assertFalse(waiting.isCompletedExceptionally());
+        Assertions.assertEquals(1, window.metrics().inFlight());
+        window.release(true, false);
+        Assertions.assertEquals(0, window.metrics().inFlight());
+    }
+
+    @Test
+    @DisplayName("被限流时窗口减半，冷却期内只减一次，冷却后可再减，不小于1")
+    public void testDecrease() throws Exception {
+        AdaptiveWindow window = new AdaptiveWindow(8);
+        call(window, false, true);
+        Assertions.assertEquals(4, window.metrics().limit());
+        call(window, false, true);
+        Assertions.assertEquals(4, window.metrics().limit());
+
+        Thread.sleep(1100);
+        call(window, false, true);
+        Assertions.assertEquals(2, window.metrics().limit());
+        Thread.sleep(1100);
+        call(window, false, true);
+        Thread.sleep(1100);
+        call(window, false, true);
+        Assertions.assertEquals(1, window.metrics().limit());
+
+        TemplateSender.Metrics metrics = window.metrics();
+        Assertions.assertEquals(5, metrics.throttled());
+        Assertions.assertEquals(0, metrics.failed());
+        Assertions.assertEquals(0, metrics.sent());
+    }
+
+    @Test
+    @DisplayName("每完成约一个窗口的成功请求，窗口加1，不超过上限；其他失败不调整窗口")
+    public void testIncrease() {
+        AdaptiveWindow window = new AdaptiveWindow(3);
+        call(window, false, true);
+        Assertions.assertEquals(1, window.metrics().limit());
+        call(window, true, false);
+        Assertions.assertEquals(2, window.metrics().limit());
+        call(window, true, false);
+        Assertions.assertEquals(2, window.metrics().limit());
+        call(window, false, false);
+        Assertions.assertEquals(2, window.metrics().limit());
+        call(window, true, false);
+        Assertions.assertEquals(3, window.metrics().limit());
+        for (int i = 0; i < 10; i++) {
+            call(window, true, false);
+        }
+        TemplateSender.Metrics metrics = window.metrics();
+        Assertions.assertEquals(3, metrics.limit());
+        Assertions.assertEquals(13, metrics.sent());
+        Assertions.assertEquals(1, metrics.failed());
+        Assertions.assertEquals(1, metrics.throttled());
+    }
+
+    @Test
+    @DisplayName("按最近一分钟的成功数统计每秒速率，不足一秒按一秒计")
+    public void testRate() {
+        AdaptiveWindow window = new AdaptiveWindow(4);
+        for (int i = 0; i < 5; i++) {
+            call(window, true, false);
+        }
+        call(window, false, false);
+        call(window, false, true);
+        Assertions.assertEquals(5.0, window.metrics().rate());
+    }
+}
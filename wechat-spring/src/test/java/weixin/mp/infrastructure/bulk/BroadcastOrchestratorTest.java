@@ -0,0 +1,169 @@
+package weixin.mp.infrastructure.bulk;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import reactor.test.StepVerifier;
+import weixin.mp.domain.MessageType;
+import weixin.mp.facade.dto.Material;
+import weixin.mp.infrastructure.cache.CacheKey;
+import weixin.mp.infrastructure.rpc.Weixin;
+import weixin.mp.infrastructure.rpc.WeixinUrl;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+public class BroadcastOrchestratorTest {
+
+    private static final String JOB_ID = "20230401";
+
+    private static final Material NEWS = () -> "Ix8X4dRk4fxZ9gDTVmEEqxdlGc7bTDJxrSURTKz7RxbodyHqM4vFGb9ml4nJvZTv";
+
+    private static final String SPEED = "{\"speed\":0,\"realspeed\":0}";
+
+    private static List<String> openIds(int count) {
+        return IntStream.range(0, count).mapToObj(i -> "o" + i).collect(Collectors.toList());
+    }
+
+    private static String key(String appId) {
+        return CacheKey.BROADCAST_CHECKPOINT_FMT.formatted(appId, JOB_ID);
+    }
+
+    /**
+     * 按clientmsgid（任务标识-分片序号-发送次数）生成群发msgid：分片序号 * 10 + 发送次数 + 1
+     */
+    private static String submit(WeixinStub.Request request) {
+        String[] parts = request.json().get("clientmsgid").asText().split("-");
+        return "{\"errcode\":0,\"errmsg\":\"send job submission success\",\"msg_id\":%1$d,\"msg_data_id\":2247483684}"
+                .formatted(Integer.parseInt(parts[1]) * 10 + Integer.parseInt(parts[2]) + 1);
+    }
+
+    private static String status(String status) {
+        return "{\"errcode\":0,\"errmsg\":\"ok\",\"msg_status\":\"%1$s\"}".formatted(status);
+    }
+
+    private static List<String> clientMsgIds(WeixinStub stub) {
+        return stub.requests(WeixinUrl.PUBLISH_TO_PEERS).stream().map(r -> r.json().get("clientmsgid").asText()).sorted().toList();
+    }
+
+    private static List<BroadcastOrchestrator.Progress> run(BroadcastOrchestrator orchestrator, Weixin weixin, List<String> users) {
+        AtomicReference<List<BroadcastOrchestrator.Progress>> result = new AtomicReference<>();
+        StepVerifier.withVirtualTime(() -> orchestrator.broadcast(weixin, JOB_ID, users, MessageType.MP_NEWS, NEWS, false, null).collectList())
+                .thenAwait(Duration.ofHours(1))
+                .consumeNextWith(result::set)
+                .verifyComplete();
+        return result.get();
+    }
+
+    @Test
+    @DisplayName("受众均分为不超过10000个的分片，全部发送成功后清除断点")
+    public void testBroadcast() {
+        WeixinStub stub = new WeixinStub()
+                .route(WeixinUrl.GET_PUBLISH_SPEED, request -> SPEED)
+                .route(WeixinUrl.PUBLISH_TO_PEERS, BroadcastOrchestratorTest::submit)
+                .route(WeixinUrl.GET_PUBLISH_STATUS, request -> status("SEND_SUCCESS"));
+        Weixin weixin = stub.weixin("wx-broadcast");
+        MemoryCheckpoint checkpoint = new MemoryCheckpoint();
+        List<BroadcastOrchestrator.Progress> progress = run(new BroadcastOrchestrator(checkpoint, 2), weixin, openIds(20001));
+
+        Assertions.assertEquals(List.of(JOB_ID + "-0-0", JOB_ID + "-1-0", JOB_ID + "-2-0"), clientMsgIds(stub));
+        Assertions.assertTrue(stub.requests(WeixinUrl.PUBLISH_TO_PEERS).stream().allMatch(r -> {
+            int size = r.json().get("touser").size();
+            return size >= BroadcastOrchestrator.MIN_SHARD_SIZE && size <= BroadcastOrchestrator.SHARD_SIZE;
+        }));
+        BroadcastOrchestrator.Progress last = progress.get(progress.size() - 1);
+        Assertions.assertEquals(3, last.shards());
+        Assertions.assertEquals(3, last.succeeded());
+        Assertions.assertEquals(20001, last.reached());
+        Assertions.assertFalse(checkpoint.saved.isEmpty());
+        Assertions.assertNull(checkpoint.get(key("wx-broadcast")));
+    }
+
+    @Test
+    @DisplayName("从断点继续：跳过已成功的分片，继续跟踪发送中的分片，未确认提交的分片沿用原clientmsgid")
+    public void testResume() {
+        Map<String, String> polled = new ConcurrentHashMap<>();
+        WeixinStub stub = new WeixinStub()
+                .route(WeixinUrl.GET_PUBLISH_SPEED, request -> SPEED)
+                .route(WeixinUrl.PUBLISH_TO_PEERS, BroadcastOrchestratorTest::submit)
+                .route(WeixinUrl.GET_PUBLISH_STATUS, request -> {
+                    polled.put(request.json().get("msg_id").asText(), "");
+                    return status("SEND_SUCCESS");
+                });
+        Weixin weixin = stub.weixin("wx-broadcast-resume");
+        MemoryCheckpoint checkpoint = new MemoryCheckpoint();
+        checkpoint.save(key("wx-broadcast-resume"), "0:1:SUCCEEDED,0:11:SENDING,1::FAILED");
+        List<BroadcastOrchestrator.Progress> progress = run(new BroadcastOrchestrator(checkpoint, 3), weixin, openIds(20001));
+
+        Assertions.assertEquals(List.of(JOB_ID + "-2-1"), clientMsgIds(stub));
+        Assertions.assertEquals(Map.of("11", "", "22", ""), polled);
+        Assertions.assertEquals(3, progress.get(progress.size() - 1).succeeded());
+        Assertions.assertNull(checkpoint.get(key("wx-broadcast-resume")));
+    }
+
+    @Test
+    @DisplayName("发送失败的分片以发送次数+1的clientmsgid重发")
+    public void testResend() {
+        WeixinStub stub = new WeixinStub()
+                .route(WeixinUrl.GET_PUBLISH_SPEED, request -> SPEED)
+                .route(WeixinUrl.PUBLISH_TO_PEERS, BroadcastOrchestratorTest::submit)
+                .route(WeixinUrl.GET_PUBLISH_STATUS, request -> status(request.json().get("msg_id").asText().equals("1") ? "SEND_FAIL" : "SEND_SUCCESS"));
+        Weixin weixin = stub.weixin("wx-broadcast-resend");
+        MemoryCheckpoint checkpoint = new MemoryCheckpoint();
+        List<BroadcastOrchestrator.Progress> progress = run(new BroadcastOrchestrator(checkpoint, 1), weixin, openIds(3));
+
+        Assertions.assertEquals(List.of(JOB_ID + "-0-0", JOB_ID + "-0-1"), clientMsgIds(stub));
+        BroadcastOrchestrator.Shard shard = progress.get(progress.size() - 1).shard();
+        Assertions.assertEquals(1, shard.attempt());
+        Assertions.assertEquals("2", shard.msgId());
+        Assertions.assertEquals(BroadcastOrchestrator.State.SUCCEEDED, shard.state());
+    }
+
+    @Test
+    @DisplayName("clientmsgid对应的群发已存在时视为提交成功，跟踪已存在的群发")
+    public void testDuplicated() {
+        WeixinStub stub = new WeixinStub()
+                .route(WeixinUrl.GET_PUBLISH_SPEED, request -> SPEED)
+                .route(WeixinUrl.PUBLISH_TO_PEERS, request -> "{\"errcode\":45065,\"errmsg\":\"clientmsgid exist\",\"msg_id\":77}")
+                .route(WeixinUrl.GET_PUBLISH_STATUS, request -> status("SEND_SUCCESS"));
+        Weixin weixin = stub.weixin("wx-broadcast-duplicated");
+        List<BroadcastOrchestrator.Progress> progress = run(new BroadcastOrchestrator(null, 1), weixin, openIds(3));
+
+        Assertions.assertEquals(1, stub.requests(WeixinUrl.PUBLISH_TO_PEERS).size());
+        Assertions.assertEquals("77", stub.requests(WeixinUrl.GET_PUBLISH_STATUS).get(0).json().get("msg_id").asText());
+        BroadcastOrchestrator.Progress last = progress.get(progress.size() - 1);
+        Assertions.assertEquals(1, last.succeeded());
+        Assertions.assertEquals(3, last.reached());
+    }
+
+    @Test
+    @DisplayName("受众分片数与断点不一致时拒绝继续，不发送")
+    public void testAudienceChanged() {
+        WeixinStub stub = new WeixinStub()
+                .route(WeixinUrl.GET_PUBLISH_SPEED, request -> SPEED)
+                .route(WeixinUrl.PUBLISH_TO_PEERS, BroadcastOrchestratorTest::submit);
+        Weixin weixin = stub.weixin("wx-broadcast-changed");
+        MemoryCheckpoint checkpoint = new MemoryCheckpoint();
+        checkpoint.save(key("wx-broadcast-changed"), "0:1:SUCCEEDED,0::PENDING");
+        StepVerifier.create(new BroadcastOrchestrator(checkpoint, 1).broadcast(weixin, JOB_ID, openIds(3), MessageType.MP_NEWS, NEWS, false, null))
+                .expectError(IllegalStateException.class)
+                .verify(Duration.ofSeconds(10));
+        Assertions.assertTrue(stub.requests(WeixinUrl.PUBLISH_TO_PEERS).isEmpty());
+    }
+
+    @Test
+    @DisplayName("任务标识不合法或受众少于2个openid时立即拒绝")
+    public void testIllegalArguments() {
+        Weixin weixin = new WeixinStub().weixin("wx-broadcast-illegal");
+        BroadcastOrchestrator orchestrator = new BroadcastOrchestrator(null, 1);
+        Assertions.assertThrows(IllegalArgumentException.class, () -> orchestrator.broadcast(weixin, "", openIds(3), MessageType.MP_NEWS, NEWS, false, null));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> orchestrator.broadcast(weixin, "x".repeat(41), openIds(3), MessageType.MP_NEWS, NEWS, false, null));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> orchestrator.broadcast(weixin, JOB_ID, openIds(1), MessageType.MP_NEWS, NEWS, false, null));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> orchestrator.broadcast(weixin, JOB_ID, List.of(), MessageType.MP_NEWS, NEWS, false, null));
+    }
+}
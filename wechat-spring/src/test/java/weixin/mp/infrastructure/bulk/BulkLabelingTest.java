@@ -0,0 +1,95 @@
+package weixin.mp.infrastructure.bulk;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import weixin.mp.infrastructure.exceptions.WeixinExceptionUtil;
+import weixin.mp.infrastructure.rpc.Weixin;
+import weixin.mp.infrastructure.rpc.WeixinUrl;
+
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+public class BulkLabelingTest {
+
+    private static final String OK = "{\"errcode\":0,\"errmsg\":\"ok\"}";
+
+    private static final String THROTTLED = "{\"errcode\":45011,\"errmsg\":\"api minute-quota reach limit\"}";
+
+    private static final String INVALID_OPENID = "{\"errcode\":40003,\"errmsg\":\"invalid openid\"}";
+
+    private static final int TAG_ID = 134;
+
+    private static List<String> openIds(int count) {
+        return IntStream.range(0, count).mapToObj(i -> "o" + i).collect(Collectors.toList());
+    }
+
+    private static List<BulkLabeling.Result> sorted(List<BulkLabeling.Result> results) {
+        return results.stream().sorted(Comparator.comparingLong(BulkLabeling.Result::index)).toList();
+    }
+
+    @Test
+    @DisplayName("按每批最多50个openid打标签，每批返回一个结果")
+    public void testMark() {
+        WeixinStub stub = new WeixinStub().route(WeixinUrl.LABELING, request -> OK);
+        Weixin weixin = stub.weixin("wx-bulk-mark");
+        List<BulkLabeling.Result> results = sorted(new BulkLabeling(2).mark(weixin, openIds(120), TAG_ID)
+                .collectList().block(Duration.ofSeconds(10)));
+
+        Assertions.assertEquals(3, results.size());
+        Assertions.assertTrue(results.stream().allMatch(BulkLabeling.Result::isSuccess));
+        Assertions.assertEquals(List.of(50, 50, 20), results.stream().map(r -> r.users().size()).toList());
+        Assertions.assertEquals(openIds(120), results.stream().flatMap(r -> r.users().stream()).toList());
+        Assertions.assertEquals(3, stub.requests(WeixinUrl.LABELING).size());
+        Assertions.assertTrue(stub.requests(WeixinUrl.LABELING).stream().allMatch(r ->
+                r.json().get("tagid").asInt() == TAG_ID && r.json().get("openid_list").size() <= BulkLabeling.BATCH_SIZE));
+    }
+
+    @Test
+    @DisplayName("取消标签调用取消标签接口")
+    public void testUnmark() {
+        WeixinStub stub = new WeixinStub().route(WeixinUrl.UNLABELING, request -> OK);
+        Weixin weixin = stub.weixin("wx-bulk-unmark");
+        List<BulkLabeling.Result> results = new BulkLabeling(2).unmark(weixin, openIds(50), TAG_ID)
+                .collectList().block(Duration.ofSeconds(10));
+
+        Assertions.assertEquals(1, results.size());
+        Assertions.assertTrue(results.get(0).isSuccess());
+        Assertions.assertEquals(1, stub.requests(WeixinUrl.UNLABELING).size());
+        Assertions.assertTrue(stub.requests(WeixinUrl.LABELING).isEmpty());
+    }
+
+    @Test
+    @DisplayName("单个批次失败不影响其他批次")
+    public void testBatchFail() {
+        WeixinStub stub = new WeixinStub().route(WeixinUrl.LABELING, request ->
+                request.json().get("openid_list").get(0).asText().equals("o50") ? INVALID_OPENID : OK);
+        Weixin weixin = stub.weixin("wx-bulk-fail");
+        List<BulkLabeling.Result> results = sorted(new BulkLabeling(2).mark(weixin, openIds(120), TAG_ID)
+                .collectList().block(Duration.ofSeconds(10)));
+
+        Assertions.assertEquals(3, results.size());
+        Assertions.assertTrue(results.get(0).isSuccess());
+        Assertions.assertFalse(results.get(1).isSuccess());
+        Assertions.assertEquals(40003, WeixinExceptionUtil.errorCode(results.get(1).error()));
+        Assertions.assertTrue(results.get(2).isSuccess());
+    }
+
+    @Test
+    @DisplayName("调用太频繁时退避重试该批次")
+    public void testThrottled() {
+        AtomicInteger calls = new AtomicInteger();
+        WeixinStub stub = new WeixinStub().route(WeixinUrl.LABELING, request -> calls.incrementAndGet() == 1 ? THROTTLED : OK);
+        Weixin weixin = stub.weixin("wx-bulk-throttled");
+        List<BulkLabeling.Result> results = new BulkLabeling(1).mark(weixin, openIds(50), TAG_ID)
+                .collectList().block(Duration.ofSeconds(10));
+
+        Assertions.assertEquals(1, results.size());
+        Assertions.assertTrue(results.get(0).isSuccess());
+        Assertions.assertEquals(2, calls.get());
+    }
+}
@@ -0,0 +1,148 @@
+package weixin.mp.infrastructure.bulk;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import weixin.mp.domain.Context;
+import weixin.mp.domain.InterestedEvent;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+public class DeliveryTrackerTest {
+
+    private static final String APP_ID = "wx-delivery";
+
+    private static final Context CTX = new Context("gh_de0f036ce08f", APP_ID, null, "GreedIsGood", null, null);
+
+    /**
+     * 与XmlParser一致，创建时间为毫秒
+     */
+    private static InterestedEvent.TemplateMsgPushResultEvent event(String msgId, String status) {
+        return new InterestedEvent.TemplateMsgPushResultEvent("ooUo26seZPcU3qKfcMiXLneG3fO4", "gh_de0f036ce08f",
+                1395658920000L, msgId, status);
+    }
+
+    private static DeliveryTracker.Delivery get(CompletableFuture<DeliveryTracker.Delivery> future) throws Exception {
+        return future.get(10, TimeUnit.SECONDS);
+    }
+
+    @Test
+    @DisplayName("收到送达通知时完成等待中的CompletableFuture，时延按收到通知的时间计算")
+    public void testAwait() throws Exception {
+        try (DeliveryTracker tracker = new DeliveryTracker(100, Duration.ofMinutes(10))) {
+            long before = System.currentTimeMillis();
+            CompletableFuture<DeliveryTracker.Delivery> future = tracker.await(APP_ID, 200163836L, "order-1");
+            Assertions.assertFalse(future.isDone());
+            tracker.dispatch(CTX, event("200163836", "success"));
+            long elapsed = System.currentTimeMillis() - before;
+
+            DeliveryTracker.Delivery delivery = get(future);
+            Assertions.assertEquals(new DeliveryTracker.Delivery(APP_ID, 200163836L, DeliveryTracker.Status.SUCCESS,
+                    delivery.latency(), "order-1"), delivery);
+            Assertions.assertTrue(delivery.latency() >= 0 && delivery.latency() <= elapsed);
+
+            DeliveryTracker.Stats stats = tracker.stats(APP_ID);
+            Assertions.assertEquals(1, stats.tracked());
+            Assertions.assertEquals(0, stats.pending());
+            Assertions.assertEquals(1, stats.succeeded());
+        }
+    }
+
+    @Test
+    @DisplayName("按通知的发送状态区分送达、用户拒绝接收、发送失败")
+    public void testStatus() throws Exception {
+        try (DeliveryTracker tracker = new DeliveryTracker(100, Duration.ofMinutes(10))) {
+            CompletableFuture<DeliveryTracker.Delivery> blocked = tracker.await(APP_ID, 1, null);
+            CompletableFuture<DeliveryTracker.Delivery> failed = tracker.await(APP_ID, 2, null);
+            tracker.dispatch(CTX, event("1", "failed:user block"));
+            tracker.dispatch(CTX, event("2", "failed: system failed"));
+
+            Assertions.assertEquals(DeliveryTracker.Status.USER_BLOCK, get(blocked).status());
+            Assertions.assertEquals(DeliveryTracker.Status.FAILED, get(failed).status());
+            DeliveryTracker.Stats stats = tracker.stats(APP_ID);
+            Assertions.assertEquals(1, stats.blocked());
+            Assertions.assertEquals(1, stats.failed());
+        }
+    }
+
+    @Test
+    @DisplayName("重复登记同一msgid只计一次，以最后一次登记的上下文为准")
+    public void testTrackTwice() throws Exception {
+        try (DeliveryTracker tracker = new DeliveryTracker(100, Duration.ofMinutes(10))) {
+            tracker.track(APP_ID, 200163836L, "first");
+            CompletableFuture<DeliveryTracker.Delivery> future = tracker.await(APP_ID, 200163836L, "second");
+            DeliveryTracker.Stats stats = tracker.stats(APP_ID);
+            Assertions.assertEquals(1, stats.tracked());
+            Assertions.assertEquals(1, stats.pending());
+
+            tracker.dispatch(CTX, event("200163836", "success"));
+            Assertions.assertEquals("second", get(future).attachment());
+        }
+    }
+
+    @Test
+    @DisplayName("重复等待同一msgid时，先前等待中的CompletableFuture随之完成，各自带回登记时的上下文")
+    public void testAwaitTwice() throws Exception {
+        try (DeliveryTracker tracker = new DeliveryTracker(100, Duration.ofMinutes(10))) {
+            CompletableFuture<DeliveryTracker.Delivery> first = tracker.await(APP_ID, 200163836L, "first");
+            CompletableFuture<DeliveryTracker.Delivery> second = tracker.await(APP_ID, 200163836L, "second");
+            tracker.track(APP_ID, 200163836L, "third");
+            Assertions.assertEquals(1, tracker.stats(APP_ID).pending());
+
+            tracker.dispatch(CTX, event("200163836", "success"));
+            DeliveryTracker.Delivery delivery = get(second);
+            Assertions.assertEquals("second", delivery.attachment());
+            Assertions.assertEquals(new DeliveryTracker.Delivery(APP_ID, 200163836L, DeliveryTracker.Status.SUCCESS,
+                    delivery.latency(), "first"), get(first));
+            Assertions.assertEquals(1, tracker.stats(APP_ID).succeeded());
+        }
+    }
+
+    @Test
+    @DisplayName("重复等待的msgid过期时，先前等待中的CompletableFuture同样以过期完成")
+    public void testAwaitTwiceEvicted() throws Exception {
+        try (DeliveryTracker tracker = new DeliveryTracker(1, Duration.ofMinutes(10))) {
+            CompletableFuture<DeliveryTracker.Delivery> first = tracker.await(APP_ID, 1, "first");
+            CompletableFuture<DeliveryTracker.Delivery> second = tracker.await(APP_ID, 1, "second");
+            tracker.track(APP_ID, 2, null);
+
+            Assertions.assertEquals(new DeliveryTracker.Delivery(APP_ID, 1, DeliveryTracker.Status.EXPIRED, -1, "first"), get(first));
+            Assertions.assertEquals(new DeliveryTracker.Delivery(APP_ID, 1, DeliveryTracker.Status.EXPIRED, -1, "second"), get(second));
+            Assertions.assertEquals(1, tracker.stats(APP_ID).expired());
+        }
+    }
+
+    @Test
+    @DisplayName("未登记或格式不正确的msgid计入未匹配；未登记过的公众号忽略")
+    public void testUnmatched() {
+        try (DeliveryTracker tracker = new DeliveryTracker(100, Duration.ofMinutes(10))) {
+            tracker.track(APP_ID, 1, null);
+            tracker.dispatch(CTX, event("2", "success"));
+            tracker.dispatch(CTX, event("not-a-number", "success"));
+            tracker.dispatch(new Context("gh_de0f036ce08f", "wx-unknown", null, "GreedIsGood", null, null), event("1", "success"));
+
+            DeliveryTracker.Stats stats = tracker.stats(APP_ID);
+            Assertions.assertEquals(2, stats.unmatched());
+            Assertions.assertEquals(1, stats.pending());
+            Assertions.assertNull(tracker.stats("wx-unknown"));
+        }
+    }
+
+    @Test
+    @DisplayName("容量满时淘汰最早登记的，等待中的CompletableFuture以过期完成")
+    public void testEvicted() throws Exception {
+        try (DeliveryTracker tracker = new DeliveryTracker(1, Duration.ofMinutes(10))) {
+            CompletableFuture<DeliveryTracker.Delivery> first = tracker.await(APP_ID, 1, "first");
+            CompletableFuture<DeliveryTracker.Delivery> second = tracker.await(APP_ID, 2, "second");
+
+            Assertions.assertEquals(new DeliveryTracker.Delivery(APP_ID, 1, DeliveryTracker.Status.EXPIRED, -1, "first"), get(first));
+            Assertions.assertFalse(second.isDone());
+            DeliveryTracker.Stats stats = tracker.stats(APP_ID);
+            Assertions.assertEquals(2, stats.tracked());
+            Assertions.assertEquals(1, stats.expired());
+            Assertions.assertEquals(1, stats.pending());
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package weixin.mp.infrastructure.bulk;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+public class ExpiringLongMapTest {
+
+    private static final ExpiringLongMap.Evicted<String> IGNORED = (key, time, value) -> {};
+
+    /**
+     * 删除键并返回其值，不存在时为null
+     */
+    private static <V> V remove(ExpiringLongMap<V> map, long key) {
+        List<V> removed = new ArrayList<>();
+        map.remove(key, (k, time, value) -> removed.add(value));
+        return removed.isEmpty() ? null : removed.get(0);
+    }
+
+    /**
+     * 与ExpiringLongMap.home一致的散列
+     */
+    private static int home(long key, int mask) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    /**
+     * @return 散列到指定槽位的键
+     */
+    private static List<Long> keys(int slot, int mask, int count) {
+        List<Long> keys = new ArrayList<>();
+        for (long key = 1; keys.size() < count; key++) {
+            if (home(key, mask) == slot) {
+                keys.add(key);
+            }
+        }
+        return keys;
+    }
+
+    @Test
+    @DisplayName("写入新键返回true；已存在的键只替换值，保留原写入时间")
+    public void testPut() {
+        ExpiringLongMap<String> map = new ExpiringLongMap<>(8);
+        Assertions.assertTrue(map.put(200163836L, 100, "first", IGNORED));
+        Assertions.assertFalse(map.put(200163836L, 200, "second", IGNORED));
+        Assertions.assertEquals(1, map.size());
+
+        List<Long> times = new ArrayList<>();
+        Assertions.assertTrue(map.remove(200163836L, (key, time, value) -> {
+            times.add(time);
+            Assertions.assertEquals("second", value);
+        }));
+        Assertions.assertEquals(List.of(100L), times);
+        Assertions.assertEquals(0, map.size());
+        Assertions.assertFalse(map.remove(200163836L, IGNORED));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> map.put(0, 100, "zero", IGNORED));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new ExpiringLongMap<String>(0));
+    }
+
+    @Test
+    @DisplayName("已存在的键以原值与新值合并，新键直接写入")
+    public void testMerge() {
+        ExpiringLongMap<String> map = new ExpiringLongMap<>(8);
+        List<String> replaced = new ArrayList<>();
+        Assertions.assertTrue(map.put(200163836L, 100, "first", (old, v) -> {
+            replaced.add(old);
+            return old + v;
+        }, IGNORED));
+        Assertions.assertEquals(List.of(), replaced);
+        Assertions.assertFalse(map.put(200163836L, 200, "second", (old, v) -> {
+            replaced.add(old);
+            return old + "," + v;
+        }, IGNORED));
+        Assertions.assertEquals(List.of("first"), replaced);
+        Assertions.assertEquals("first,second", remove(map, 200163836L));
+    }
+
+    @Test
+    @DisplayName("按写入顺序淘汰写入时间不晚于期限的条目，已删除的键不再淘汰")
+    public void testExpire() {
+        ExpiringLongMap<String> map = new ExpiringLongMap<>(8);
+        for (long key = 1; key <= 5; key++) {
+            map.put(key, key * 100, "v" + key, IGNORED);
+        }
+        Assertions.assertEquals("v2", remove(map, 2));
+
+        List<Long> expired = new ArrayList<>();
+        map.expire(300, (key, time, value) -> expired.add(key));
+        Assertions.assertEquals(List.of(1L, 3L), expired);
+        Assertions.assertEquals(2, map.size());
+
+        map.expire(300, (key, time, value) -> expired.add(key));
+        Assertions.assertEquals(List.of(1L, 3L), expired);
+        Assertions.assertEquals("v4", remove(map, 4));
+        Assertions.assertEquals("v5", remove(map, 5));
+    }
+
+    @Test
+    @DisplayName("容量满时淘汰最早写入的条目")
+    public void testEvict() {
+        ExpiringLongMap<String> map = new ExpiringLongMap<>(3);
+        List<Long> evicted = new ArrayList<>();
+        for (long key = 1; key <= 5; key++) {
+            map.put(key, key * 100, "v" + key, (k, time, value) -> evicted.add(k));
+        }
+        Assertions.assertEquals(List.of(1L, 2L), evicted);
+        Assertions.assertEquals(3, map.size());
+        Assertions.assertNull(remove(map, 1));
+        Assertions.assertEquals("v3", remove(map, 3));
+        Assertions.assertEquals("v5", remove(map, 5));
+    }
+
+    @Test
+    @DisplayName("从小容量按需扩容，扩容后条目不丢失，达到容量上限后淘汰")
+    public void testGrow() {
+        ExpiringLongMap<String> map = new ExpiringLongMap<>(1000);
+        for (long key = 1; key <= 1000; key++) {
+            Assertions.assertTrue(map.put(key, key, "v" + key, IGNORED));
+        }
+        Assertions.assertEquals(1000, map.size());
+
+        List<Long> evicted = new ArrayList<>();
+        map.put(1001, 1001, "v1001", (key, time, value) -> evicted.add(key));
+        Assertions.assertEquals(List.of(1L), evicted);
+        for (long key = 2; key <= 1001; key++) {
+            Assertions.assertEquals("v" + key, remove(map, key));
+        }
+        Assertions.assertEquals(0, map.size());
+    }
+
+    @Test
+    @DisplayName("探测链跨过数组末尾时，删除后链上的条目仍可找到")
+    public void testWraparound() {
+        // 容量4时哈希表有16个槽位
+        int mask = 15;
+        List<Long> tail = keys(mask, mask, 2);
+        long head = keys(0, mask, 1).get(0);
+        ExpiringLongMap<String> map = new ExpiringLongMap<>(4);
+        map.put(tail.get(0), 100, "a", IGNORED);
+        map.put(tail.get(1), 200, "b", IGNORED);
+        map.put(head, 300, "c", IGNORED);
+
+        Assertions.assertEquals("a", remove(map, tail.get(0)));
+        Assertions.assertEquals("c", remove(map, head));
+        Assertions.assertEquals("b", remove(map, tail.get(1)));
+        Assertions.assertEquals(0, map.size());
+    }
+
+    @Test
+    @DisplayName("随机写入、删除、过期，与HashMap结果一致")
+    public void testRandom() {
+        Random random = new Random(20230401);
+        ExpiringLongMap<Long> map = new ExpiringLongMap<>(64);
+        Map<Long, Long> expected = new HashMap<>();
+        ExpiringLongMap.Evicted<Long> evicted = (key, time, value) -> Assertions.assertEquals(value, expected.remove(key));
+        for (long time = 1; time <= 100_000; time++) {
+            long key = 1 + random.nextInt(200);
+            switch (random.nextInt(10)) {
+                case 0 -> map.expire(time - 500, evicted);
+                case 1, 2, 3 -> Assertions.assertEquals(expected.remove(key), remove(map, key));
+                default -> {
+                    boolean inserted = !expected.containsKey(key);
+                    Assertions.assertEquals(inserted, map.put(key, time, time, evicted));
+                    expected.put(key, time);
+                }
+            }
+            Assertions.assertEquals(expected.size(), map.size());
+        }
+        for (Map.Entry<Long, Long> entry : new HashMap<>(expected).entrySet()) {
+            Assertions.assertEquals(entry.getValue(), remove(map, entry.getKey()));
+        }
+    }
+}
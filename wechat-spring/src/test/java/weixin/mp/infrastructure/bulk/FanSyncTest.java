@@ -0,0 +1,130 @@
+package weixin.mp.infrastructure.bulk;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import weixin.mp.facade.WeixinUserApiFacade.Customer;
+import weixin.mp.infrastructure.cache.CacheKey;
+import weixin.mp.infrastructure.rpc.Weixin;
+import weixin.mp.infrastructure.rpc.WeixinUrl;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+public class FanSyncTest {
+
+    private static final String THROTTLED = "{\"errcode\":45011,\"errmsg\":\"api minute-quota reach limit\"}";
+
+    private static List<String> openIds(int from, int to) {
+        return IntStream.range(from, to).mapToObj(i -> "o" + i).collect(Collectors.toList());
+    }
+
+    /**
+     * 共250个粉丝，每页最多150个
+     */
+    private static String listUsers(WeixinStub.Request request) {
+        String cursor = request.query("next_openid");
+        int from = cursor == null || cursor.isEmpty() ? 0 : Integer.parseInt(cursor.substring(1)) + 1;
+        List<String> page = openIds(from, Math.min(from + 150, 250));
+        if (page.isEmpty()) {
+            return "{\"total\":250,\"count\":0,\"next_openid\":\"\"}";
+        }
+        return "{\"total\":250,\"count\":%1$d,\"data\":{\"openid\":%2$s},\"next_openid\":\"%3$s\"}"
+                .formatted(page.size(), WeixinStub.array(page), page.get(page.size() - 1));
+    }
+
+    private static String listCustomers(WeixinStub.Request request) {
+        List<String> users = new ArrayList<>();
+        for (JsonNode user : request.json().get("user_list")) {
+            users.add("{\"subscribe\":1,\"openid\":\"%1$s\",\"language\":\"zh_CN\"}".formatted(user.get("openid").asText()));
+        }
+        return "{\"user_info_list\":[" + String.join(",", users) + "]}";
+    }
+
+    private static FanSync.Sink collect(List<String> synced) {
+        return (appId, customers) -> {
+            customers.stream().map(Customer::openId).forEach(synced::add);
+            return CompletableFuture.completedFuture(null);
+        };
+    }
+
+    @Test
+    @DisplayName("逐页同步，每100个openid批量获取一次；每页完成后保存断点，全部完成后清除")
+    public void testSync() {
+        WeixinStub stub = new WeixinStub()
+                .route(WeixinUrl.RETRIEVE_FANS_ID, FanSyncTest::listUsers)
+                .route(WeixinUrl.BATCH_RETRIEVE_FANS, FanSyncTest::listCustomers);
+        Weixin weixin = stub.weixin("wx-fan-sync");
+        MemoryCheckpoint checkpoint = new MemoryCheckpoint();
+        List<String> synced = new CopyOnWriteArrayList<>();
+        List<FanSync.Progress> progress = new FanSync(checkpoint, 2).sync(weixin, collect(synced))
+                .collectList().block(Duration.ofSeconds(10));
+
+        Assertions.assertEquals(List.of(new FanSync.Progress("o149", 150, 250), new FanSync.Progress("o249", 250, 250)), progress);
+        Assertions.assertEquals(250, synced.size());
+        Assertions.assertEquals(new HashSet<>(openIds(0, 250)), new HashSet<>(synced));
+        Assertions.assertEquals(3, stub.requests(WeixinUrl.BATCH_RETRIEVE_FANS).size());
+        Assertions.assertTrue(stub.requests(WeixinUrl.BATCH_RETRIEVE_FANS).stream().allMatch(r -> r.json().get("user_list").size() <= FanSync.BATCH_SIZE));
+        Assertions.assertEquals(List.of("o149", "o249"), checkpoint.saved);
+        Assertions.assertNull(checkpoint.get(CacheKey.FAN_SYNC_CHECKPOINT_FMT.formatted("wx-fan-sync")));
+    }
+
+    @Test
+    @DisplayName("从断点继续同步")
+    public void testResume() {
+        WeixinStub stub = new WeixinStub()
+                .route(WeixinUrl.RETRIEVE_FANS_ID, FanSyncTest::listUsers)
+                .route(WeixinUrl.BATCH_RETRIEVE_FANS, FanSyncTest::listCustomers);
+        Weixin weixin = stub.weixin("wx-fan-resume");
+        MemoryCheckpoint checkpoint = new MemoryCheckpoint();
+        checkpoint.save(CacheKey.FAN_SYNC_CHECKPOINT_FMT.formatted("wx-fan-resume"), "o149");
+        List<String> synced = new CopyOnWriteArrayList<>();
+        List<FanSync.Progress> progress = new FanSync(checkpoint, 2).sync(weixin, collect(synced))
+                .collectList().block(Duration.ofSeconds(10));
+
+        Assertions.assertEquals(List.of(new FanSync.Progress("o249", 100, 250)), progress);
+        Assertions.assertEquals("o149", stub.requests(WeixinUrl.RETRIEVE_FANS_ID).get(0).query("next_openid"));
+        Assertions.assertEquals(100, synced.size());
+    }
+
+    @Test
+    @DisplayName("写入失败时终止同步，断点停留在最后完成的一页")
+    public void testSinkFail() {
+        WeixinStub stub = new WeixinStub()
+                .route(WeixinUrl.RETRIEVE_FANS_ID, FanSyncTest::listUsers)
+                .route(WeixinUrl.BATCH_RETRIEVE_FANS, FanSyncTest::listCustomers);
+        Weixin weixin = stub.weixin("wx-fan-sink-fail");
+        MemoryCheckpoint checkpoint = new MemoryCheckpoint();
+        FanSync.Sink sink = (appId, customers) -> customers.stream().anyMatch(c -> c.openId().equals("o200")) ?
+                CompletableFuture.failedFuture(new IllegalStateException("database down")) :
+                CompletableFuture.completedFuture(null);
+        Assertions.assertThrows(IllegalStateException.class, () -> new FanSync(checkpoint, 2).sync(weixin, sink)
+                .collectList().block(Duration.ofSeconds(10)));
+        Assertions.assertEquals("o149", checkpoint.get(CacheKey.FAN_SYNC_CHECKPOINT_FMT.formatted("wx-fan-sink-fail")));
+    }
+
+    @Test
+    @DisplayName("调用太频繁时退避重试该批次")
+    public void testThrottled() {
+        AtomicInteger calls = new AtomicInteger();
+        WeixinStub stub = new WeixinStub()
+                .route(WeixinUrl.RETRIEVE_FANS_ID, FanSyncTest::listUsers)
+                .route(WeixinUrl.BATCH_RETRIEVE_FANS, request -> calls.incrementAndGet() == 1 ? THROTTLED : listCustomers(request));
+        Weixin weixin = stub.weixin("wx-fan-throttled");
+        List<String> synced = new CopyOnWriteArrayList<>();
+        List<FanSync.Progress> progress = new FanSync(null, 1).sync(weixin, collect(synced))
+                .collectList().block(Duration.ofSeconds(10));
+
+        Assertions.assertEquals(2, progress.size());
+        Assertions.assertEquals(250, synced.size());
+        Assertions.assertEquals(4, calls.get());
+    }
+}
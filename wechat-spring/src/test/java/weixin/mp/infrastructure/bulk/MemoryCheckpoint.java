@@ -0,0 +1,41 @@
+package weixin.mp.infrastructure.bulk;
+
+import weixin.mp.infrastructure.cache.Checkpoint;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * 内存中的断点，记录每次保存的位置
+ */
+final class MemoryCheckpoint implements Checkpoint {
+
+    private final Map<String, String> positions = new ConcurrentHashMap<>();
+
+    final List<String> saved = new CopyOnWriteArrayList<>();
+
+    @Override
+    public CompletableFuture<String> load(String key) {
+        return CompletableFuture.completedFuture(positions.get(key));
+    }
+
+    @Override
+    public CompletableFuture<Void> save(String key, String position) {
+        positions.put(key, position);
+        saved.add(position);
+        return CompletableFuture.completedFuture(null);
+    }
+
+    @Override
+    public CompletableFuture<Void> clear(String key) {
+        positions.remove(key);
+        return CompletableFuture.completedFuture(null);
+    }
+
+    String get(String key) {
+        return positions.get(key);
+    }
+}
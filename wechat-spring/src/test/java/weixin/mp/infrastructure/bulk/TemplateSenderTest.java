@@ -0,0 +1,155 @@
+package weixin.mp.infrastructure.bulk;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+import weixin.mp.facade.WeixinMessageApiFacade.PlaceHolder;
+import weixin.mp.facade.WeixinMessageApiFacade.TemplateMessage;
+import weixin.mp.infrastructure.exceptions.WeixinExceptionUtil;
+import weixin.mp.infrastructure.limit.RateLimiter;
+import weixin.mp.infrastructure.rpc.Weixin;
+import weixin.mp.infrastructure.rpc.WeixinUrl;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.IntStream;
+
+public class TemplateSenderTest {
+
+    private static final String THROTTLED = "{\"errcode\":45011,\"errmsg\":\"api minute-quota reach limit\"}";
+
+    private static final String QUOTA_EXCEEDED = "{\"errcode\":45009,\"errmsg\":\"reach max api daily quota limit\"}";
+
+    private static final String NO_MSG_ID = "{\"errcode\":0,\"errmsg\":\"ok\"}";
+
+    private record Message(String receiver) implements TemplateMessage {
+
+        @Override
+        public String templateId() {
+            return "ngqIpbwh8bUfcSsECmogfXcV14J0tQlEpBO27izEYtY";
+        }
+
+        @Override
+        public Map<String, ? extends PlaceHolder> data() {
+            return Map.of();
+        }
+
+        @Override
+        public String msgId() {
+            return null;
+        }
+    }
+
+    private static Flux<Message> messages(int count) {
+        return Flux.fromStream(IntStream.range(0, count).mapToObj(i -> new Message("o" + i)));
+    }
+
+    /**
+     * 按调用次数生成msgid
+     */
+    private static String sent(AtomicLong msgIds) {
+        return "{\"errcode\":0,\"errmsg\":\"ok\",\"msgid\":%1$d}".formatted(msgIds.incrementAndGet());
+    }
+
+    private static List<TemplateSender.Receipt> send(TemplateSender sender, Weixin weixin, int count) {
+        return sender.send(weixin, messages(count)).collectList().block(Duration.ofSeconds(30));
+    }
+
+    @Test
+    @DisplayName("每条消息返回回执，发送成功的msgid登记送达跟踪")
+    public void testSend() {
+        AtomicLong msgIds = new AtomicLong(200228332);
+        WeixinStub stub = new WeixinStub().route(WeixinUrl.SEND_TEMPLATE_MESSAGE, request -> sent(msgIds));
+        Weixin weixin = stub.weixin("wx-template-send");
+        try (DeliveryTracker tracker = new DeliveryTracker(100, Duration.ofMinutes(10))) {
+            TemplateSender sender = new TemplateSender(4, tracker);
+            List<TemplateSender.Receipt> receipts = send(sender, weixin, 10);
+
+            Assertions.assertEquals(10, receipts.size());
+            Assertions.assertTrue(receipts.stream().allMatch(r -> r.isSuccess() && r.msgId() > 200228332));
+            Assertions.assertEquals(10, stub.requests(WeixinUrl.SEND_TEMPLATE_MESSAGE).size());
+            Assertions.assertEquals(10, tracker.stats("wx-template-send").tracked());
+            TemplateSender.Metrics metrics = sender.metrics("wx-template-send");
+            Assertions.assertEquals(10, metrics.sent());
+            Assertions.assertEquals(0, metrics.inFlight());
+            Assertions.assertEquals(4, metrics.limit());
+        }
+    }
+
+    @Test
+    @DisplayName("微信未返回msgid时仍视为发送成功，不登记送达跟踪")
+    public void testWithoutMsgId() {
+        WeixinStub stub = new WeixinStub().route(WeixinUrl.SEND_TEMPLATE_MESSAGE, request -> NO_MSG_ID);
+        Weixin weixin = stub.weixin("wx-template-no-msgid");
+        try (DeliveryTracker tracker = new DeliveryTracker(100, Duration.ofMinutes(10))) {
+            TemplateSender sender = new TemplateSender(2, tracker);
+            List<TemplateSender.Receipt> receipts = send(sender, weixin, 2);
+
+            Assertions.assertEquals(2, receipts.size());
+            Assertions.assertTrue(receipts.stream().allMatch(r -> r.isSuccess() && r.msgId() == null));
+            Assertions.assertNull(tracker.stats("wx-template-no-msgid"));
+            Assertions.assertEquals(2, sender.metrics("wx-template-no-msgid").sent());
+            Assertions.assertEquals(0, sender.metrics("wx-template-no-msgid").failed());
+        }
+    }
+
+    @Test
+    @DisplayName("微信返回调用太频繁时窗口减半并退避重试")
+    public void testThrottled() {
+        AtomicLong msgIds = new AtomicLong();
+        AtomicInteger calls = new AtomicInteger();
+        WeixinStub stub = new WeixinStub().route(WeixinUrl.SEND_TEMPLATE_MESSAGE, request ->
+                calls.incrementAndGet() == 1 ? THROTTLED : sent(msgIds));
+        Weixin weixin = stub.weixin("wx-template-throttled");
+        TemplateSender sender = new TemplateSender(4, null);
+        List<TemplateSender.Receipt> receipts = send(sender, weixin, 1);
+
+        Assertions.assertTrue(receipts.get(0).isSuccess());
+        Assertions.assertEquals(2, calls.get());
+        TemplateSender.Metrics metrics = sender.metrics("wx-template-throttled");
+        Assertions.assertEquals(1, metrics.throttled());
+        Assertions.assertEquals(1, metrics.sent());
+        Assertions.assertEquals(2, metrics.limit());
+    }
+
+    @Test
+    @DisplayName("本地限流拒绝的请求退避重试，不缩小窗口")
+    public void testRateLimited() {
+        AtomicLong msgIds = new AtomicLong();
+        WeixinStub stub = new WeixinStub().route(WeixinUrl.SEND_TEMPLATE_MESSAGE, request -> sent(msgIds));
+        RateLimiter limiter = new RateLimiter(0, Map.of(WeixinUrl.SEND_TEMPLATE_MESSAGE.name(), 2.0), Duration.ZERO);
+        Weixin weixin = stub.weixin("wx-template-rate-limited", limiter);
+        TemplateSender sender = new TemplateSender(4, null);
+        List<TemplateSender.Receipt> receipts = send(sender, weixin, 4);
+
+        Assertions.assertTrue(receipts.stream().allMatch(TemplateSender.Receipt::isSuccess));
+        Assertions.assertEquals(4, stub.requests(WeixinUrl.SEND_TEMPLATE_MESSAGE).size());
+        TemplateSender.Metrics metrics = sender.metrics("wx-template-rate-limited");
+        Assertions.assertEquals(0, metrics.throttled());
+        Assertions.assertEquals(4, metrics.sent());
+        Assertions.assertEquals(4, metrics.limit());
+    }
+
+    @Test
+    @DisplayName("超出每日调用额度后当天不再请求，剩余消息直接返回失败")
+    public void testQuotaExceeded() {
+        WeixinStub stub = new WeixinStub().route(WeixinUrl.SEND_TEMPLATE_MESSAGE, request -> QUOTA_EXCEEDED);
+        Weixin weixin = stub.weixin("wx-template-quota");
+        TemplateSender sender = new TemplateSender(1, null);
+        List<TemplateSender.Receipt> receipts = send(sender, weixin, 3);
+
+        Assertions.assertEquals(3, receipts.size());
+        Assertions.assertTrue(receipts.stream().noneMatch(TemplateSender.Receipt::isSuccess));
+        Assertions.assertTrue(receipts.stream().allMatch(r -> WeixinExceptionUtil.isQuotaExceeded(r.error())));
+        Assertions.assertEquals(1, stub.requests(WeixinUrl.SEND_TEMPLATE_MESSAGE).size());
+        Assertions.assertEquals(1, sender.metrics("wx-template-quota").failed());
+
+        List<TemplateSender.Receipt> next = send(sender, weixin, 1);
+        Assertions.assertFalse(next.get(0).isSuccess());
+        Assertions.assertEquals(1, stub.requests(WeixinUrl.SEND_TEMPLATE_MESSAGE).size());
+    }
+}
@@ -0,0 +1,127 @@
+package weixin.mp.infrastructure.bulk;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.cache.Cache;
+import org.springframework.cache.concurrent.ConcurrentMapCache;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.reactive.ClientHttpConnector;
+import org.springframework.mock.http.client.reactive.MockClientHttpRequest;
+import org.springframework.mock.http.client.reactive.MockClientHttpResponse;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.util.UriComponentsBuilder;
+import reactor.core.publisher.Mono;
+import weixin.mp.domain.Context;
+import weixin.mp.infrastructure.cache.CacheKey;
+import weixin.mp.infrastructure.cache.CacheName;
+import weixin.mp.infrastructure.cache.TokenReplica;
+import weixin.mp.infrastructure.limit.RateLimiter;
+import weixin.mp.infrastructure.lock.StripedLockRegistry;
+import weixin.mp.infrastructure.rpc.Weixin;
+import weixin.mp.infrastructure.rpc.WeixinTest;
+import weixin.mp.infrastructure.rpc.WeixinUrl;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * 按接口路径返回预设响应的微信服务器，记录收到的请求
+ */
+final class WeixinStub {
+
+    private static final ObjectMapper JSON = new ObjectMapper();
+
+    private static final String NOT_FOUND = "{\"errcode\":48001,\"errmsg\":\"api unauthorized\"}";
+
+    /**
+     * @param uri 请求地址
+     * @param body 请求体，没有时为空字符串
+     */
+    record Request(URI uri, String body) {
+
+        String query(String name) {
+            return UriComponentsBuilder.fromUri(uri).build().getQueryParams().getFirst(name);
+        }
+
+        JsonNode json() {
+            try {
+                return JSON.readTree(body);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    private final Map<String, Function<Request, String>> routes = new ConcurrentHashMap<>();
+
+    private final Map<String, List<Request>> requests = new ConcurrentHashMap<>();
+
+    /**
+     * @param url 接口
+     * @param response 以请求生成响应的json
+     */
+    WeixinStub route(WeixinUrl url, Function<Request, String> response) {
+        routes.put(url.getPath(), response);
+        return this;
+    }
+
+    /**
+     * @return 该接口按先后顺序收到的请求
+     */
+    List<Request> requests(WeixinUrl url) {
+        return requests.getOrDefault(url.getPath(), List.of());
+    }
+
+    /**
+     * 以预设的access_token构造公众号客户端，所有公众号客户端都访问此服务器
+     * @param appId 各用例使用不同的appId，熔断、令牌互不影响
+     */
+    Weixin weixin(String appId) {
+        return weixin(appId, null);
+    }
+
+    /**
+     * @param appId 各用例使用不同的appId，熔断、令牌互不影响
+     * @param limiter 本地限流，可为null
+     */
+    Weixin weixin(String appId, RateLimiter limiter) {
+        ClientHttpConnector connector = (method, uri, callback) -> {
+            MockClientHttpRequest request = new MockClientHttpRequest(method, uri);
+            return callback.apply(request)
+                    .then(Mono.defer(request::getBodyAsString).defaultIfEmpty(""))
+                    .map(body -> respond(new Request(uri, body)));
+        };
+        WeixinTest.customizerWeixinJavaClient(WebClient.builder().clientConnector(connector));
+        Cache cache = new ConcurrentMapCache(CacheName.ACCESS_TOKEN);
+        cache.put(CacheKey.TOKEN_FMT.formatted(appId), new TokenReplica.Token("ACCESS_TOKEN", System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(7200)));
+        return new Weixin(new Context("gh_de0f036ce08f", appId, null, "GreedIsGood", null, null), cache, new StripedLockRegistry(16), limiter, null);
+    }
+
+    private MockClientHttpResponse respond(Request request) {
+        requests.computeIfAbsent(request.uri().getPath(), k -> new CopyOnWriteArrayList<>()).add(request);
+        Function<Request, String> route = routes.get(request.uri().getPath());
+        MockClientHttpResponse response = new MockClientHttpResponse(HttpStatus.OK);
+        response.getHeaders().setContentType(MediaType.APPLICATION_JSON);
+        response.setBody(route != null ? route.apply(request) : NOT_FOUND);
+        return response;
+    }
+
+    /**
+     * @return json字符串数组
+     */
+    static String array(List<String> values) {
+        try {
+            return JSON.writeValueAsString(values);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package weixin.mp.infrastructure.config;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.http.client.reactive.ClientHttpConnector;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Mono;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.server.HttpServer;
+import weixin.SpringContainerStarter;
+
+import java.time.Duration;
+import java.util.Map;
+
+public class PoolMetricsRegistrarTest extends SpringContainerStarter {
+
+    @Autowired
+    private PoolMetricsRegistrar registrar;
+
+    @Autowired
+    @Qualifier("weixinHttpConnector")
+    private ClientHttpConnector weixinHttpConnector;
+
+    @Test
+    public void testRegisterWeixinPool() {
+        DisposableServer server = HttpServer.create().host("127.0.0.1").port(0)
+                .handle((request, response) -> response.sendString(Mono.just("{\"errcode\":0,\"errmsg\":\"ok\"}")))
+                .bindNow();
+        try {
+            String body = WebClient.builder().clientConnector(weixinHttpConnector).build()
+                    .get().uri("http://127.0.0.1:" + server.port() + "/cgi-bin/get_api_domain_ip")
+                    .retrieve()
+                    .bodyToMono(String.class)
+                    .block(Duration.ofSeconds(10));
+            Assertions.assertEquals("{\"errcode\":0,\"errmsg\":\"ok\"}", body);
+
+            Map.Entry<String, PoolMetricsRegistrar.Usage> pool = registrar.snapshot().entrySet().stream()
+                    .filter(e -> e.getKey().startsWith("weixin@") && e.getKey().endsWith(":" + server.port()))
+                    .findFirst()
+                    .orElseThrow();
+            // 连接在响应读完后异步归还，只断言已建立连接
+            Assertions.assertEquals(1, pool.getValue().allocated());
+            Assertions.assertEquals(0, pool.getValue().pending());
+            Assertions.assertTrue(pool.getValue().maxAllocated() > 0);
+        } finally {
+            server.disposeNow();
+        }
+    }
+}
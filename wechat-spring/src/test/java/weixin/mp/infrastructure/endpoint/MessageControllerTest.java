@@ -7,6 +7,7 @@ import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.ValueSource;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.test.web.reactive.server.WebTestClient;
 import weixin.Application;
@@ -690,4 +691,38 @@ public class MessageControllerTest {
                 .exchange()
                 .expectStatus().isOk();
     }
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+            "<xml><ToUserName><![CDATA[gh_de0f036ce08f]]></ToUserName><MsgType><![CDATA[text]]>",
+            "<xml><ToUserName><![CDATA[gh_de0f036ce08f]]></ToUserName><Content><![CDATA[no type]]></Content></xml>",
+    })
+    @DisplayName("格式错误的消息")
+    public void testOnMalformedMessage(String rawXml) {
+        webClient.post().uri("/test?signature=8e54ae7d2bee997f244afeea959387250adfb889&timestamp=1668869542&nonce=973755032&openid=ooUo26seZPcU3qKfcMiXLneG3fO4")
+                .contentType(MediaType.TEXT_XML)
+                .bodyValue(rawXml)
+                .exchange()
+                .expectStatus().isBadRequest();
+    }
+
+    @Test
+    @DisplayName("超出大小上限的消息")
+    public void testOnOversizedMessage() {
+        String rawXml = "<xml><Content><![CDATA[" + "a".repeat(64 * 1024) + "]]></Content></xml>";
+        webClient.post().uri("/test?signature=8e54ae7d2bee997f244afeea959387250adfb889&timestamp=1668869542&nonce=973755032&openid=ooUo26seZPcU3qKfcMiXLneG3fO4")
+                .contentType(MediaType.TEXT_XML)
+                .bodyValue(rawXml)
+                .exchange()
+                .expectStatus().isEqualTo(HttpStatus.PAYLOAD_TOO_LARGE);
+    }
+
+    @Test
+    @DisplayName("空消息")
+    public void testOnEmptyMessage() {
+        webClient.post().uri("/test?signature=8e54ae7d2bee997f244afeea959387250adfb889&timestamp=1668869542&nonce=973755032&openid=ooUo26seZPcU3qKfcMiXLneG3fO4")
+                .contentType(MediaType.TEXT_XML)
+                .exchange()
+                .expectStatus().isBadRequest();
+    }
 }
@@ -1,5 +1,6 @@
 package weixin.mp.infrastructure.endpoint;
 
+import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.Mock;
@@ -22,10 +23,12 @@ import reactor.core.publisher.Mono;
 import weixin.SpringContainerStarter;
 import weixin.mp.infrastructure.cache.CacheKey;
 import weixin.mp.infrastructure.cache.CacheName;
-import weixin.mp.infrastructure.rpc.Weixin;
+import weixin.mp.infrastructure.cache.TokenReplica;
 import weixin.mp.infrastructure.rpc.WeixinTest;
 
 import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 public class WeixinMessageControllerTest extends SpringContainerStarter {
 
@@ -44,7 +47,7 @@ public class WeixinMessageControllerTest extends SpringContainerStarter {
     @BeforeEach
     public void setUp() {
         WeixinTest.customizerWeixinJavaClient(WebClient.builder().clientConnector(clientHttpConnector));
-        cacheManager.getCache(CacheName.ACCESS_TOKEN).put(CacheKey.TOKEN_FMT.formatted("wxd3a0f6c8176edcab"), new Weixin.AuthenticationResponse(0, null, "66_QPewa1GdoE8rvPukCmRJPpXRxQdn85FPX8Ku9KNNHjB3JdbH8MGAe0mwWC6OnMn551MYxPVUmTKQcuCVfitPwo56rTfuDtAMwH7UvCJ6gpP8Tew7coVxq5utLUYFGCbAEAABX", 7200));
+        cacheManager.getCache(CacheName.ACCESS_TOKEN).put(CacheKey.TOKEN_FMT.formatted("wxd3a0f6c8176edcab"), new TokenReplica.Token("66_QPewa1GdoE8rvPukCmRJPpXRxQdn85FPX8Ku9KNNHjB3JdbH8MGAe0mwWC6OnMn551MYxPVUmTKQcuCVfitPwo56rTfuDtAMwH7UvCJ6gpP8Tew7coVxq5utLUYFGCbAEAABX", System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(7200)));
 
     }
 
@@ -90,6 +93,29 @@ public class WeixinMessageControllerTest extends SpringContainerStarter {
                 .expectBody().jsonPath("$").isNumber();
     }
 
+    @Test
+    public void testSendTplMsgs() {
+        MultiValueMap<String, String> headers = new LinkedMultiValueMap<>();
+        headers.add("Content-Type", "application/json; encoding=utf-8");
+        String body = "{\"errcode\":0,\"errmsg\":\"ok\",\"msgid\":2860528972743540739}";
+
+        Mockito.when(clientHttpConnector.connect(Mockito.eq(HttpMethod.POST), Mockito.argThat(x -> true), Mockito.argThat(x -> true)))
+                .thenReturn(Mono.just(clientHttpResponse));
+        Mockito.when(clientHttpResponse.getStatusCode()).thenReturn(HttpStatus.OK);
+        Mockito.when(clientHttpResponse.getHeaders()).thenReturn(HttpHeaders.readOnlyHttpHeaders(headers));
+        Mockito.when(clientHttpResponse.getBody()).thenAnswer(x -> Flux.just(DefaultDataBufferFactory.sharedInstance.wrap(body.getBytes(StandardCharsets.UTF_8))));
+
+        String msg = "{\"receiver\":\"ooUo26seZPcU3qKfcMiXLneG3fO4\",\"templateId\":\"jPhQR1ueRFWAhf4FYEZ0-bwFs6oQFXql_gc4v1XcjGA\",\"data\":{\"number01\":{\"value\":\"6a6y\",\"color\":\"#CAFAFE\"}}}";
+        webClient.post().uri("/mp/message/batch")
+                .contentType(MediaType.APPLICATION_NDJSON)
+                .accept(MediaType.APPLICATION_NDJSON)
+                .bodyValue(msg + "\n" + msg + "\n")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBodyList(Map.class).hasSize(2)
+                .value(receipts -> receipts.forEach(x -> Assertions.assertEquals(2860528972743540739L, x.get("msgId"))));
+    }
+
     @Test
     public void testDeleteTpl() {
         MultiValueMap<String, String> headers = new LinkedMultiValueMap<>();
@@ -25,12 +25,13 @@ import weixin.SpringContainerStarter;
 import weixin.mp.domain.FileType;
 import weixin.mp.infrastructure.cache.CacheKey;
 import weixin.mp.infrastructure.cache.CacheName;
+import weixin.mp.infrastructure.cache.TokenReplica;
 import weixin.mp.infrastructure.rpc.InputStreamUtil;
-import weixin.mp.infrastructure.rpc.Weixin;
 import weixin.mp.infrastructure.rpc.WeixinTest;
 
 import java.nio.charset.StandardCharsets;
 import java.util.Base64;
+import java.util.concurrent.TimeUnit;
 
 public class WeixinSupportControllerTest extends SpringContainerStarter {
 
@@ -49,7 +50,7 @@ public class WeixinSupportControllerTest extends SpringContainerStarter {
     @BeforeEach
     public void setUp() {
         WeixinTest.customizerWeixinJavaClient(WebClient.builder().clientConnector(clientHttpConnector));
-        cacheManager.getCache(CacheName.ACCESS_TOKEN).put(CacheKey.TOKEN_FMT.formatted("wxd3a0f6c8176edcab"), new Weixin.AuthenticationResponse(0, null, "66_QPewa1GdoE8rvPukCmRJPpXRxQdn85FPX8Ku9KNNHjB3JdbH8MGAe0mwWC6OnMn551MYxPVUmTKQcuCVfitPwo56rTfuDtAMwH7UvCJ6gpP8Tew7coVxq5utLUYFGCbAEAABX", 7200));
+        cacheManager.getCache(CacheName.ACCESS_TOKEN).put(CacheKey.TOKEN_FMT.formatted("wxd3a0f6c8176edcab"), new TokenReplica.Token("66_QPewa1GdoE8rvPukCmRJPpXRxQdn85FPX8Ku9KNNHjB3JdbH8MGAe0mwWC6OnMn551MYxPVUmTKQcuCVfitPwo56rTfuDtAMwH7UvCJ6gpP8Tew7coVxq5utLUYFGCbAEAABX", System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(7200)));
     }
 
     @ParameterizedTest
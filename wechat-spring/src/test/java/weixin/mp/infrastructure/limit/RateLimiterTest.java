@@ -0,0 +1,65 @@
+package weixin.mp.infrastructure.limit;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+public class RateLimiterTest {
+
+    @Test
+    @DisplayName("不大于0时不限制")
+    public void testUnlimited() throws Exception {
+        RateLimiter limiter = new RateLimiter(0, null, Duration.ZERO);
+        for (int i = 0; i < 1000; i++) {
+            Assertions.assertTrue(limiter.acquire("wxd3a0f6c8176edcab", "SEND_TEMPLATE_MESSAGE").get());
+        }
+    }
+
+    @Test
+    @DisplayName("新建的桶立即可用，容量为1、不等待时首次调用也放行")
+    public void testFirstCall() throws Exception {
+        RateLimiter limiter = new RateLimiter(0, Map.of("GET_USER_INFO", 1.0), Duration.ZERO);
+        Assertions.assertTrue(limiter.acquire("wxd3a0f6c8176edcab", "GET_USER_INFO").get());
+        Assertions.assertFalse(limiter.acquire("wxd3a0f6c8176edcab", "GET_USER_INFO").get());
+    }
+
+    @Test
+    @DisplayName("按公众号分别计数")
+    public void testPerAccount() throws Exception {
+        RateLimiter limiter = new RateLimiter(2, null, Duration.ZERO);
+        Assertions.assertTrue(limiter.acquire("wxd3a0f6c8176edcab", "SEND_TEMPLATE_MESSAGE").get());
+        Assertions.assertTrue(limiter.acquire("wxd3a0f6c8176edcab", "GET_USER_INFO").get());
+        Assertions.assertFalse(limiter.acquire("wxd3a0f6c8176edcab", "GET_USER_INFO").get());
+        Assertions.assertTrue(limiter.acquire("wxabb8e5e80f591861", "GET_USER_INFO").get());
+    }
+
+    @Test
+    @DisplayName("接口配额用尽时拒绝，并归还已预约的公众号配额")
+    public void testPerEndpoint() throws Exception {
+        RateLimiter limiter = new RateLimiter(2, Map.of("SEND_TEMPLATE_MESSAGE", 1.0), Duration.ZERO);
+        Assertions.assertTrue(limiter.acquire("wxd3a0f6c8176edcab", "SEND_TEMPLATE_MESSAGE").get());
+        Assertions.assertFalse(limiter.acquire("wxd3a0f6c8176edcab", "SEND_TEMPLATE_MESSAGE").get());
+        Assertions.assertTrue(limiter.acquire("wxd3a0f6c8176edcab", "GET_USER_INFO").get());
+        Assertions.assertFalse(limiter.acquire("wxd3a0f6c8176edcab", "GET_USER_INFO").get());
+    }
+
+    @Test
+    @DisplayName("超出配额时排队，不超过最长等待时间即放行，超过则拒绝")
+    public void testWait() throws Exception {
+        RateLimiter limiter = new RateLimiter(10, null, Duration.ofMillis(150));
+        for (int i = 0; i < 10; i++) {
+            Assertions.assertTrue(limiter.acquire("wxd3a0f6c8176edcab", "GET_USER_INFO").isDone());
+        }
+        long start = System.nanoTime();
+        CompletableFuture<Boolean> queued = limiter.acquire("wxd3a0f6c8176edcab", "GET_USER_INFO");
+        Assertions.assertFalse(queued.isDone());
+        Assertions.assertFalse(limiter.acquire("wxd3a0f6c8176edcab", "GET_USER_INFO").get());
+        Assertions.assertTrue(queued.get(1, TimeUnit.SECONDS));
+        Assertions.assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+    }
+}
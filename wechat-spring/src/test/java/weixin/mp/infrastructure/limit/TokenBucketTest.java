@@ -0,0 +1,54 @@
+package weixin.mp.infrastructure.limit;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+public class TokenBucketTest {
+
+    private static final long INTERVAL = TimeUnit.MILLISECONDS.toNanos(100);
+
+    @Test
+    @DisplayName("桶满时可连续取出容量个令牌，之后按间隔等待，超过最长等待时间不预约")
+    public void testBurstThenWait() {
+        TokenBucket bucket = new TokenBucket(10, 10);
+        long now = System.nanoTime();
+        for (int i = 0; i < 10; i++) {
+            Assertions.assertEquals(0, bucket.reserve(now, 0));
+        }
+        Assertions.assertEquals(-1, bucket.reserve(now, 0));
+        Assertions.assertEquals(INTERVAL, bucket.reserve(now, 2 * INTERVAL));
+        Assertions.assertEquals(2 * INTERVAL, bucket.reserve(now, 2 * INTERVAL));
+        Assertions.assertEquals(-1, bucket.reserve(now, 2 * INTERVAL));
+    }
+
+    @Test
+    @DisplayName("空闲后按速率恢复，余量不超过容量")
+    public void testRefill() {
+        TokenBucket bucket = new TokenBucket(10, 2);
+        long now = System.nanoTime();
+        Assertions.assertEquals(0, bucket.reserve(now, 0));
+        Assertions.assertEquals(0, bucket.reserve(now, 0));
+        Assertions.assertEquals(-1, bucket.reserve(now, 0));
+        now += INTERVAL;
+        Assertions.assertEquals(0, bucket.reserve(now, 0));
+        Assertions.assertEquals(-1, bucket.reserve(now, 0));
+        now += TimeUnit.SECONDS.toNanos(10);
+        Assertions.assertEquals(0, bucket.reserve(now, 0));
+        Assertions.assertEquals(0, bucket.reserve(now, 0));
+        Assertions.assertEquals(-1, bucket.reserve(now, 0));
+    }
+
+    @Test
+    @DisplayName("归还预约后令牌可再次被取出")
+    public void testCancel() {
+        TokenBucket bucket = new TokenBucket(10, 1);
+        long now = System.nanoTime();
+        Assertions.assertEquals(0, bucket.reserve(now, 0));
+        Assertions.assertEquals(-1, bucket.reserve(now, 0));
+        bucket.cancel();
+        Assertions.assertEquals(0, bucket.reserve(now, 0));
+    }
+}
@@ -0,0 +1,90 @@
+package weixin.mp.infrastructure.lock;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class LocalReactiveLockTest {
+
+    private static final Duration LEASE = Duration.ofSeconds(30);
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(10);
+
+    @Test
+    @DisplayName("已被占有时获取为空，释放后可再次获得，防护令牌递增")
+    public void testTryAcquire() {
+        ReactiveLock lock = new LocalReactiveLock("lock:weixin.mp.wx-local.access_token");
+        LockHandle first = lock.tryAcquire(LEASE).block(TIMEOUT);
+        Assertions.assertNotNull(first);
+        Assertions.assertEquals("lock:weixin.mp.wx-local.access_token", first.key());
+        Assertions.assertEquals(1, first.fencingToken());
+        Assertions.assertNull(lock.tryAcquire(LEASE).block(TIMEOUT));
+
+        Assertions.assertTrue(first.release().block(TIMEOUT));
+        Assertions.assertFalse(first.release().block(TIMEOUT));
+        LockHandle second = lock.tryAcquire(LEASE).block(TIMEOUT);
+        Assertions.assertNotNull(second);
+        Assertions.assertEquals(2, second.fencingToken());
+    }
+
+    @Test
+    @DisplayName("租期到期后可被他人获得，原持有者释放失败且不影响新持有者")
+    public void testLeaseExpired() throws Exception {
+        ReactiveLock lock = new LocalReactiveLock("lock:weixin.mp.wx-local.access_token");
+        LockHandle expired = lock.tryAcquire(Duration.ofMillis(50)).block(TIMEOUT);
+        Assertions.assertNotNull(expired);
+        TimeUnit.MILLISECONDS.sleep(100);
+
+        LockHandle current = lock.tryAcquire(LEASE).block(TIMEOUT);
+        Assertions.assertNotNull(current);
+        Assertions.assertTrue(current.fencingToken() > expired.fencingToken());
+        Assertions.assertFalse(expired.release().block(TIMEOUT));
+        Assertions.assertNull(lock.tryAcquire(LEASE).block(TIMEOUT));
+        Assertions.assertTrue(current.release().block(TIMEOUT));
+    }
+
+    @Test
+    @DisplayName("等待时间内持有者释放，退避重试后获得锁")
+    public void testAcquire() {
+        ReactiveLock lock = new LocalReactiveLock("lock:weixin.mp.wx-local.access_token");
+        LockHandle holder = lock.tryAcquire(LEASE).block(TIMEOUT);
+        Assertions.assertNotNull(holder);
+        long before = System.currentTimeMillis();
+        CompletableFuture.delayedExecutor(200, TimeUnit.MILLISECONDS).execute(() -> holder.release().block(TIMEOUT));
+
+        LockHandle acquired = lock.acquire(LEASE, Duration.ofSeconds(5)).block(TIMEOUT);
+        Assertions.assertNotNull(acquired);
+        Assertions.assertEquals(2, acquired.fencingToken());
+        Assertions.assertTrue(System.currentTimeMillis() - before >= 200);
+    }
+
+    @Test
+    @DisplayName("超过等待时间返回空；重试按指数退避，不会空转")
+    public void testAcquireTimeout() {
+        AtomicInteger tries = new AtomicInteger();
+        ReactiveLock busy = new ReactiveLock() {
+            @Override
+            public String key() {
+                return "lock:weixin.mp.wx-busy.access_token";
+            }
+
+            @Override
+            public Mono<LockHandle> tryAcquire(Duration lease) {
+                return Mono.fromRunnable(tries::incrementAndGet);
+            }
+        };
+
+        long before = System.currentTimeMillis();
+        Assertions.assertNull(busy.acquire(LEASE, Duration.ofMillis(300)).block(TIMEOUT));
+        long elapsed = System.currentTimeMillis() - before;
+        Assertions.assertTrue(elapsed >= 300 && elapsed < 300 + ReactiveLock.MAX_BACKOFF.toMillis() * 2, "elapsed " + elapsed);
+        // 最小退避20ms、每次翻倍（含抖动），300ms内最多重试6次
+        Assertions.assertTrue(tries.get() >= 2 && tries.get() <= 8, "tries " + tries.get());
+    }
+}
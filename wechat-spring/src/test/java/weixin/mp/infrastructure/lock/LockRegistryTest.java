@@ -0,0 +1,137 @@
+package weixin.mp.infrastructure.lock;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import weixin.mp.infrastructure.cache.LockKey;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+public class LockRegistryTest {
+
+    private static final Duration LEASE = Duration.ofSeconds(30);
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(10);
+
+    private static final String REFRESH_MENU = "refresh_menu";
+
+    private static LockHandle tryAcquire(LockRegistry registry, String appId, String operation) {
+        return registry.obtain(appId, operation).tryAcquire(LEASE).block(TIMEOUT);
+    }
+
+    /**
+     * 同一公众号、同一操作互斥；另一公众号或另一操作不受影响
+     */
+    private static void assertScoped(LockRegistry registry, String appId, String otherAppId) {
+        LockHandle held = tryAcquire(registry, appId, LockKey.ACCESS_TOKEN);
+        Assertions.assertNotNull(held);
+        Assertions.assertNull(tryAcquire(registry, appId, LockKey.ACCESS_TOKEN));
+
+        LockHandle otherApp = tryAcquire(registry, otherAppId, LockKey.ACCESS_TOKEN);
+        LockHandle otherOperation = tryAcquire(registry, appId, REFRESH_MENU);
+        Assertions.assertNotNull(otherApp);
+        Assertions.assertNotNull(otherOperation);
+
+        Assertions.assertTrue(held.release().block(TIMEOUT));
+        Assertions.assertNotNull(tryAcquire(registry, appId, LockKey.ACCESS_TOKEN));
+        Assertions.assertTrue(otherApp.release().block(TIMEOUT));
+        Assertions.assertTrue(otherOperation.release().block(TIMEOUT));
+    }
+
+    /**
+     * 多线程争用同一key，临界区内同时最多一个持有者
+     */
+    private static void assertExclusive(LockRegistry registry, String appId) throws Exception {
+        AtomicInteger holders = new AtomicInteger();
+        AtomicInteger overlapped = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Integer>> futures = executor.invokeAll(Collections.nCopies(8, () -> {
+                int acquired = 0;
+                for (int i = 0; i < 10; i++) {
+                    LockHandle handle = registry.obtain(appId, LockKey.ACCESS_TOKEN).acquire(LEASE, TIMEOUT).block(TIMEOUT);
+                    Assertions.assertNotNull(handle);
+                    if (holders.incrementAndGet() > 1) {
+                        overlapped.incrementAndGet();
+                    }
+                    TimeUnit.MILLISECONDS.sleep(1);
+                    holders.decrementAndGet();
+                    Assertions.assertTrue(handle.release().block(TIMEOUT));
+                    acquired++;
+                }
+                return acquired;
+            }));
+            for (Future<Integer> future : futures) {
+                Assertions.assertEquals(10, future.get(60, TimeUnit.SECONDS));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        Assertions.assertEquals(0, overlapped.get());
+    }
+
+    @Test
+    @DisplayName("redis锁按公众号和操作划分：同一key互斥，不同公众号、不同操作互不阻塞")
+    public void testRedisScoped() {
+        MemoryRedis redis = new MemoryRedis();
+        RedisLockRegistry registry = new RedisLockRegistry(redis.template());
+        Assertions.assertSame(registry.obtain("wx-redis-a", LockKey.ACCESS_TOKEN), registry.obtain("wx-redis-a", LockKey.ACCESS_TOKEN));
+        Assertions.assertEquals(LockKey.LOCK_FMT.formatted("wx-redis-a", LockKey.ACCESS_TOKEN),
+                registry.obtain("wx-redis-a", LockKey.ACCESS_TOKEN).key());
+
+        assertScoped(registry, "wx-redis-a", "wx-redis-b");
+        // 不同registry实例（即不同节点）共用同一redis时同样互斥
+        Assertions.assertNull(tryAcquire(new RedisLockRegistry(redis.template()), "wx-redis-a", LockKey.ACCESS_TOKEN));
+    }
+
+    @Test
+    @DisplayName("redis锁同一key多线程争用时互斥")
+    public void testRedisExclusive() throws Exception {
+        assertExclusive(new RedisLockRegistry(new MemoryRedis().template()), "wx-redis-exclusive");
+    }
+
+    @Test
+    @DisplayName("分段锁：同一key落在同一段互斥，落在不同段的公众号、操作互不阻塞")
+    public void testStripedScoped() {
+        StripedLockRegistry registry = new StripedLockRegistry(16);
+        Assertions.assertSame(registry.obtain("wx-striped-a", LockKey.ACCESS_TOKEN), registry.obtain("wx-striped-a", LockKey.ACCESS_TOKEN));
+        // 分段锁偶有不同key共用同一段，这里选取落在不同段的公众号
+        String otherAppId = IntStream.range(0, 100)
+                .mapToObj(i -> "wx-striped-" + i)
+                .filter(appId -> registry.obtain(appId, LockKey.ACCESS_TOKEN) != registry.obtain("wx-striped-a", LockKey.ACCESS_TOKEN))
+                .findFirst()
+                .orElseThrow();
+        Assertions.assertNotSame(registry.obtain("wx-striped-a", LockKey.ACCESS_TOKEN), registry.obtain("wx-striped-a", REFRESH_MENU));
+
+        assertScoped(registry, "wx-striped-a", otherAppId);
+    }
+
+    @Test
+    @DisplayName("分段数向上取整为2的幂，key分散到各段")
+    public void testStripes() {
+        StripedLockRegistry registry = new StripedLockRegistry(10);
+        long stripes = IntStream.range(0, 1000)
+                .mapToObj(i -> registry.obtain("wx" + i, LockKey.ACCESS_TOKEN).key())
+                .distinct()
+                .count();
+        Assertions.assertEquals(16, stripes);
+        Assertions.assertEquals(1, IntStream.range(0, 100)
+                .mapToObj(i -> new StripedLockRegistry(1).obtain("wx" + i, LockKey.ACCESS_TOKEN).key())
+                .distinct()
+                .count());
+    }
+
+    @Test
+    @DisplayName("分段锁同一key多线程争用时互斥")
+    public void testStripedExclusive() throws Exception {
+        assertExclusive(new StripedLockRegistry(16), "wx-striped-exclusive");
+    }
+}
@@ -0,0 +1,79 @@
+package weixin.mp.infrastructure.lock;
+
+import org.mockito.Mockito;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import reactor.core.publisher.Flux;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 按{@link RedisBasedDistributableLock}的脚本语义模拟单redis：SET NX PX + INCR、GET比较后DEL，并记录每次调用的keys。
+ * 与ReactiveStringRedisTemplate一致，订阅时才执行脚本，重试时重新执行
+ */
+public class MemoryRedis {
+
+    private final Map<String, String> values = new HashMap<>();
+
+    private final Map<String, Long> expireAt = new HashMap<>();
+
+    private final Map<String, Long> counters = new HashMap<>();
+
+    private final List<List<String>> calls = new ArrayList<>();
+
+    /**
+     * @return 脚本在本实例上执行的ReactiveStringRedisTemplate
+     */
+    @SuppressWarnings("unchecked")
+    public ReactiveStringRedisTemplate template() {
+        ReactiveStringRedisTemplate stringRedisTemplate = Mockito.mock(ReactiveStringRedisTemplate.class);
+        Mockito.when(stringRedisTemplate.execute(Mockito.any(RedisScript.class), Mockito.anyList(), Mockito.anyList()))
+                .thenAnswer(invocation -> execute(invocation.getArgument(0), invocation.getArgument(1), invocation.getArgument(2)));
+        return stringRedisTemplate;
+    }
+
+    private Flux<Long> execute(RedisScript<?> script, List<String> keys, List<?> args) {
+        return Flux.defer(() -> Flux.just(eval(script, keys, args)));
+    }
+
+    private synchronized long eval(RedisScript<?> script, List<String> keys, List<?> args) {
+        calls.add(List.copyOf(keys));
+        String key = keys.get(0);
+        Long expire = expireAt.get(key);
+        if (expire != null && expire <= System.currentTimeMillis()) {
+            values.remove(key);
+            expireAt.remove(key);
+        }
+        if (script.getScriptAsString().contains("'incr'")) {
+            if (values.containsKey(key)) {
+                return 0;
+            }
+            values.put(key, (String) args.get(0));
+            expireAt.put(key, System.currentTimeMillis() + Long.parseLong((String) args.get(1)));
+            return counters.merge(keys.get(1), 1L, Long::sum);
+        }
+        if (args.get(0).equals(values.get(key))) {
+            values.remove(key);
+            expireAt.remove(key);
+            return 1;
+        }
+        return 0;
+    }
+
+    /**
+     * @return 当前持有者，未被占有时为null
+     */
+    public synchronized String owner(String key) {
+        return values.get(key);
+    }
+
+    /**
+     * @return 按调用顺序，每次执行脚本的keys
+     */
+    public synchronized List<List<String>> calls() {
+        return List.copyOf(calls);
+    }
+}
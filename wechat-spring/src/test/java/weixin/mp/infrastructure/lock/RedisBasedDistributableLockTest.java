@@ -0,0 +1,126 @@
+package weixin.mp.infrastructure.lock;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+public class RedisBasedDistributableLockTest {
+
+    private static final String KEY = "lock:weixin.mp.wx-redis.access_token";
+
+    private static final Duration LEASE = Duration.ofSeconds(30);
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(10);
+
+    /**
+     * 按redis cluster规则取hash tag：第一个{与其后第一个}之间非空时按其散列
+     */
+    private static String hashTag(String key) {
+        int start = key.indexOf('{');
+        int end = start < 0 ? -1 : key.indexOf('}', start + 1);
+        return end > start + 1 ? key.substring(start + 1, end) : key;
+    }
+
+    private MemoryRedis redis;
+
+    private ReactiveStringRedisTemplate stringRedisTemplate;
+
+    @BeforeEach
+    public void setUp() {
+        redis = new MemoryRedis();
+        stringRedisTemplate = redis.template();
+    }
+
+    @Test
+    @DisplayName("获取时写入持有者与租期并递增防护令牌；已被其他节点占有时为空")
+    public void testTryAcquire() {
+        ReactiveLock lock = new RedisBasedDistributableLock(stringRedisTemplate, KEY);
+        ReactiveLock other = new RedisBasedDistributableLock(stringRedisTemplate, KEY);
+        LockHandle first = lock.tryAcquire(LEASE).block(TIMEOUT);
+        Assertions.assertNotNull(first);
+        Assertions.assertEquals(KEY, first.key());
+        Assertions.assertEquals(1, first.fencingToken());
+        Assertions.assertNull(other.tryAcquire(LEASE).block(TIMEOUT));
+
+        Assertions.assertTrue(first.release().block(TIMEOUT));
+        Assertions.assertNull(redis.owner("{" + KEY + "}"));
+        LockHandle second = other.tryAcquire(LEASE).block(TIMEOUT);
+        Assertions.assertNotNull(second);
+        Assertions.assertEquals(2, second.fencingToken());
+        Assertions.assertNotNull(redis.owner("{" + KEY + "}"));
+    }
+
+    @Test
+    @DisplayName("租期到期后他人获得锁，原持有者释放时比较持有者，不误删新持有者的锁")
+    public void testReleaseAfterExpired() throws Exception {
+        ReactiveLock lock = new RedisBasedDistributableLock(stringRedisTemplate, KEY);
+        LockHandle expired = lock.tryAcquire(Duration.ofMillis(50)).block(TIMEOUT);
+        Assertions.assertNotNull(expired);
+        TimeUnit.MILLISECONDS.sleep(100);
+
+        LockHandle current = lock.tryAcquire(LEASE).block(TIMEOUT);
+        Assertions.assertNotNull(current);
+        Assertions.assertEquals(2, current.fencingToken());
+        String owner = redis.owner("{" + KEY + "}");
+
+        Assertions.assertFalse(expired.release().block(TIMEOUT));
+        Assertions.assertEquals(owner, redis.owner("{" + KEY + "}"));
+        Assertions.assertTrue(current.release().block(TIMEOUT));
+        Assertions.assertFalse(current.release().block(TIMEOUT));
+    }
+
+    @Test
+    @DisplayName("锁与防护令牌的key使用相同的hash tag，集群模式下落在同一slot")
+    public void testHashTag() {
+        ReactiveLock lock = new RedisBasedDistributableLock(stringRedisTemplate, KEY);
+        LockHandle handle = lock.tryAcquire(LEASE).block(TIMEOUT);
+        Assertions.assertNotNull(handle);
+        handle.release().block(TIMEOUT);
+
+        List<String> acquire = redis.calls().get(0);
+        Assertions.assertEquals(List.of("{" + KEY + "}", "{" + KEY + "}.fence"), acquire);
+        Assertions.assertEquals(hashTag(acquire.get(0)), hashTag(acquire.get(1)));
+        Assertions.assertEquals(KEY, hashTag(acquire.get(1)));
+        Assertions.assertEquals(List.of("{" + KEY + "}"), redis.calls().get(1));
+    }
+
+    @Test
+    @DisplayName("获取脚本的参数为持有者标识与租期毫秒数，每次获取的持有者不同")
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public void testOwner() {
+        ReactiveLock lock = new RedisBasedDistributableLock(stringRedisTemplate, KEY);
+        lock.tryAcquire(LEASE).flatMap(LockHandle::release).block(TIMEOUT);
+        lock.tryAcquire(Duration.ofSeconds(5)).flatMap(LockHandle::release).block(TIMEOUT);
+
+        ArgumentCaptor<List> args = ArgumentCaptor.forClass(List.class);
+        Mockito.verify(stringRedisTemplate, Mockito.times(4)).execute(Mockito.any(RedisScript.class), Mockito.anyList(), args.capture());
+        List<List<String>> calls = (List<List<String>>) (List<?>) args.getAllValues();
+        Assertions.assertEquals(String.valueOf(LEASE.toMillis()), calls.get(0).get(1));
+        Assertions.assertEquals("5000", calls.get(2).get(1));
+        Assertions.assertEquals(calls.get(0).get(0), calls.get(1).get(0));
+        Assertions.assertNotEquals(calls.get(0).get(0), calls.get(2).get(0));
+    }
+
+    @Test
+    @DisplayName("其他节点持有时退避重试，租期到期后获得锁")
+    public void testAcquire() {
+        ReactiveLock lock = new RedisBasedDistributableLock(stringRedisTemplate, KEY);
+        Assertions.assertNotNull(lock.tryAcquire(Duration.ofMillis(200)).block(TIMEOUT));
+
+        LockHandle acquired = new RedisBasedDistributableLock(stringRedisTemplate, KEY)
+                .acquire(LEASE, Duration.ofSeconds(5))
+                .block(TIMEOUT);
+        Assertions.assertNotNull(acquired);
+        Assertions.assertEquals(2, acquired.fencingToken());
+        Assertions.assertNull(lock.acquire(LEASE, Duration.ofMillis(100)).block(TIMEOUT));
+    }
+}
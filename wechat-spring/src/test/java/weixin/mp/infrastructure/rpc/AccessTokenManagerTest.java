@@ -0,0 +1,151 @@
+package weixin.mp.infrastructure.rpc;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.cache.Cache;
+import org.springframework.cache.concurrent.ConcurrentMapCache;
+import weixin.mp.infrastructure.cache.TokenReplica;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+public class AccessTokenManagerTest {
+
+    private static final String KEY = "access_token";
+
+    /**
+     * 每次获取返回新令牌，有效期7200秒
+     */
+    private static Supplier<CompletableFuture<Weixin.AuthenticationResponse>> fetcher(AtomicInteger calls) {
+        return () -> CompletableFuture.completedFuture(new Weixin.AuthenticationResponse(0, "ok", "fetched-" + calls.incrementAndGet(), 7200));
+    }
+
+    @Test
+    @DisplayName("缓存的令牌按保存的绝对过期时间计算剩余有效期，未进入提前刷新期时不获取")
+    public void testCachedToken() throws Exception {
+        Cache cache = new ConcurrentMapCache("accessToken");
+        cache.put(KEY, new TokenReplica.Token("cached", System.currentTimeMillis() + TimeUnit.HOURS.toMillis(1)));
+        AtomicInteger calls = new AtomicInteger();
+        AccessTokenManager manager = AccessTokenManager.of("wx-cached");
+        Assertions.assertEquals("cached", manager.get(cache, KEY, null, null, fetcher(calls)).get());
+        Assertions.assertEquals(0, calls.get());
+    }
+
+    @Test
+    @DisplayName("缓存的令牌临近过期时仍直接返回，同时后台刷新")
+    public void testCachedTokenNearExpiry() throws Exception {
+        Cache cache = new ConcurrentMapCache("accessToken");
+        cache.put(KEY, new TokenReplica.Token("cached", System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(2)));
+        AtomicInteger calls = new AtomicInteger();
+        AccessTokenManager manager = AccessTokenManager.of("wx-near-expiry");
+        Assertions.assertEquals("cached", manager.get(cache, KEY, null, null, fetcher(calls)).get());
+        Assertions.assertEquals(1, calls.get());
+        Assertions.assertEquals("fetched-1", manager.get(cache, KEY, null, null, fetcher(calls)).get());
+    }
+
+    @Test
+    @DisplayName("缓存的令牌已过期时重新获取，缓存中保存按发起时间计算的过期时间")
+    public void testCachedTokenExpired() throws Exception {
+        Cache cache = new ConcurrentMapCache("accessToken");
+        cache.put(KEY, new TokenReplica.Token("expired", System.currentTimeMillis() - 1));
+        AtomicInteger calls = new AtomicInteger();
+        AccessTokenManager manager = AccessTokenManager.of("wx-expired");
+        long before = System.currentTimeMillis();
+        Assertions.assertEquals("fetched-1", manager.get(cache, KEY, null, null, fetcher(calls)).get());
+        long after = System.currentTimeMillis();
+        TokenReplica.Token cached = cache.get(KEY, TokenReplica.Token.class);
+        Assertions.assertEquals("fetched-1", cached.value());
+        Assertions.assertTrue(cached.expireAt() >= before + TimeUnit.SECONDS.toMillis(7200));
+        Assertions.assertTrue(cached.expireAt() <= after + TimeUnit.SECONDS.toMillis(7200));
+    }
+
+    @Test
+    @DisplayName("并发获取共享同一个刷新请求")
+    public void testCoalesce() throws Exception {
+        Cache cache = new ConcurrentMapCache("accessToken");
+        AtomicInteger calls = new AtomicInteger();
+        CompletableFuture<Weixin.AuthenticationResponse> pending = new CompletableFuture<>();
+        Supplier<CompletableFuture<Weixin.AuthenticationResponse>> fetcher = () -> {
+            calls.incrementAndGet();
+            return pending;
+        };
+        AccessTokenManager manager = AccessTokenManager.of("wx-coalesce");
+        CompletableFuture<String> first = manager.get(cache, KEY, null, null, fetcher);
+        CompletableFuture<String> second = manager.get(cache, KEY, null, null, fetcher);
+        Assertions.assertFalse(first.isDone());
+        pending.complete(new Weixin.AuthenticationResponse(0, "ok", "shared", 7200));
+        Assertions.assertEquals("shared", first.get());
+        Assertions.assertEquals("shared", second.get());
+        Assertions.assertEquals(1, calls.get());
+    }
+
+    @Test
+    @DisplayName("令牌被拒绝后作废，下次获取时重新获取；作废其他令牌无影响")
+    public void testInvalidate() throws Exception {
+        Cache cache = new ConcurrentMapCache("accessToken");
+        AtomicInteger calls = new AtomicInteger();
+        AccessTokenManager manager = AccessTokenManager.of("wx-invalidate");
+        Assertions.assertEquals("fetched-1", manager.get(cache, KEY, null, null, fetcher(calls)).get());
+        manager.invalidate("unknown");
+        Assertions.assertEquals("fetched-1", manager.get(cache, KEY, null, null, fetcher(calls)).get());
+        manager.invalidate("fetched-1");
+        Assertions.assertNull(cache.get(KEY, TokenReplica.Token.class));
+        Assertions.assertEquals("fetched-2", manager.get(cache, KEY, null, null, fetcher(calls)).get());
+    }
+
+    @Test
+    @DisplayName("获取失败时所有等待者失败，下次获取重新发起")
+    public void testFetchFail() throws Exception {
+        Cache cache = new ConcurrentMapCache("accessToken");
+        AtomicInteger calls = new AtomicInteger();
+        AccessTokenManager manager = AccessTokenManager.of("wx-fetch-fail");
+        CompletableFuture<String> failed = manager.get(cache, KEY, null, null,
+                () -> CompletableFuture.failedFuture(new IllegalStateException("invalid appsecret")));
+        Assertions.assertThrows(ExecutionException.class, failed::get);
+        Assertions.assertEquals("fetched-1", manager.get(cache, KEY, null, null, fetcher(calls)).get());
+    }
+
+    @Test
+    @DisplayName("远端副本未进入提前刷新期时直接采用；收到刷新通知后以远端副本替换内存中的令牌")
+    public void testReplica() throws Exception {
+        Map<String, TokenReplica.Token> shared = new ConcurrentHashMap<>();
+        TokenReplica replica = new TokenReplica() {
+            @Override
+            public CompletableFuture<Token> load(String appId) {
+                return CompletableFuture.completedFuture(shared.get(appId));
+            }
+
+            @Override
+            public CompletableFuture<Void> publish(String appId, Token token) {
+                shared.put(appId, token);
+                return CompletableFuture.completedFuture(null);
+            }
+
+            @Override
+            public void subscribe(Consumer<String> listener) {
+            }
+        };
+        long expireAt = System.currentTimeMillis() + TimeUnit.HOURS.toMillis(1);
+        shared.put("wx-replica", new TokenReplica.Token("shared-1", expireAt));
+        Cache cache = new ConcurrentMapCache("accessToken");
+        AtomicInteger calls = new AtomicInteger();
+        AccessTokenManager manager = AccessTokenManager.of("wx-replica");
+        Assertions.assertEquals("shared-1", manager.get(cache, KEY, null, replica, fetcher(calls)).get());
+        Assertions.assertEquals(0, calls.get());
+
+        shared.put("wx-replica", new TokenReplica.Token("shared-2", expireAt + 1));
+        manager.reload(replica);
+        Assertions.assertEquals("shared-2", manager.get(cache, KEY, null, replica, fetcher(calls)).get());
+
+        manager.invalidate("shared-2");
+        Assertions.assertEquals("fetched-1", manager.get(cache, KEY, null, replica, fetcher(calls)).get());
+        Assertions.assertEquals("fetched-1", shared.get("wx-replica").value());
+    }
+}
@@ -0,0 +1,102 @@
+package weixin.mp.infrastructure.rpc;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import weixin.mp.infrastructure.exceptions.ClientError;
+import weixin.mp.infrastructure.exceptions.RetryableException;
+import weixin.mp.infrastructure.exceptions.ServerError;
+
+import java.lang.reflect.Field;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+
+public class CircuitBreakerTest {
+
+    private static final RuntimeException BUSY = new RetryableException("system busy");
+
+    private static void fail(CircuitBreaker breaker, int times) {
+        for (int i = 0; i < times; i++) {
+            Assertions.assertTrue(breaker.tryAcquire());
+            breaker.record(BUSY);
+        }
+    }
+
+    /**
+     * 把断开时间拨回冷却期之前
+     */
+    private static void cooldown(CircuitBreaker breaker) throws Exception {
+        Field openedAt = CircuitBreaker.class.getDeclaredField("openedAt");
+        openedAt.setAccessible(true);
+        openedAt.setLong(breaker, System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(1));
+    }
+
+    @Test
+    @DisplayName("连续服务端故障达到阈值后断开，断开期间不放行")
+    public void testOpen() {
+        CircuitBreaker breaker = CircuitBreaker.of("wx-open", WeixinUrl.GET_MENU);
+        Assertions.assertSame(breaker, CircuitBreaker.of("wx-open", WeixinUrl.GET_MENU));
+        fail(breaker, 4);
+        Assertions.assertTrue(breaker.tryAcquire());
+        breaker.record(new CompletionException(new ServerError(47001, "data format error", HttpStatus.INTERNAL_SERVER_ERROR)));
+        Assertions.assertFalse(breaker.tryAcquire());
+    }
+
+    @Test
+    @DisplayName("客户端错误说明服务端正常，清零失败计数")
+    public void testClientErrorResets() {
+        CircuitBreaker breaker = CircuitBreaker.of("wx-client-error", WeixinUrl.GET_MENU);
+        fail(breaker, 4);
+        breaker.record(new ClientError(40003, "invalid openid", HttpStatus.BAD_REQUEST));
+        fail(breaker, 4);
+        breaker.record(WebClientResponseException.create(404, "Not Found", null, null, null));
+        fail(breaker, 4);
+        breaker.record(null);
+        fail(breaker, 4);
+        Assertions.assertTrue(breaker.tryAcquire());
+    }
+
+    @Test
+    @DisplayName("按公众号 + 接口分别熔断，互不影响")
+    public void testIsolation() {
+        CircuitBreaker breaker = CircuitBreaker.of("wx-isolated", WeixinUrl.GET_MENU);
+        fail(breaker, 5);
+        Assertions.assertFalse(breaker.tryAcquire());
+        Assertions.assertTrue(CircuitBreaker.of("wx-isolated", WeixinUrl.GET_CUSTOM_MENU).tryAcquire());
+        Assertions.assertTrue(CircuitBreaker.of("wx-other", WeixinUrl.GET_MENU).tryAcquire());
+    }
+
+    @Test
+    @DisplayName("冷却后只放行一次试探：成功则恢复，失败则重新断开")
+    public void testHalfOpen() throws Exception {
+        CircuitBreaker breaker = CircuitBreaker.of("wx-half-open", WeixinUrl.GET_MENU);
+        fail(breaker, 5);
+        cooldown(breaker);
+        Assertions.assertTrue(breaker.tryAcquire());
+        Assertions.assertFalse(breaker.tryAcquire());
+        breaker.record(WebClientResponseException.create(502, "Bad Gateway", null, null, null));
+        Assertions.assertFalse(breaker.tryAcquire());
+
+        cooldown(breaker);
+        Assertions.assertTrue(breaker.tryAcquire());
+        breaker.record(null);
+        Assertions.assertTrue(breaker.tryAcquire());
+        Assertions.assertTrue(breaker.tryAcquire());
+    }
+
+    @Test
+    @DisplayName("试探未发出调用时作废，恢复断开；未断开时无影响")
+    public void testAbandon() throws Exception {
+        CircuitBreaker breaker = CircuitBreaker.of("wx-abandon", WeixinUrl.GET_MENU);
+        breaker.abandon();
+        Assertions.assertTrue(breaker.tryAcquire());
+
+        fail(breaker, 5);
+        cooldown(breaker);
+        Assertions.assertTrue(breaker.tryAcquire());
+        breaker.abandon();
+        Assertions.assertTrue(breaker.tryAcquire());
+    }
+}
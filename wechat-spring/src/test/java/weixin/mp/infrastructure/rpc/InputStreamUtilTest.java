@@ -0,0 +1,124 @@
+package weixin.mp.infrastructure.rpc;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import weixin.mp.domain.FileType;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+public class InputStreamUtilTest {
+
+    private static byte[] bytes(int... values) {
+        byte[] data = new byte[values.length];
+        for (int i = 0; i < values.length; i++) {
+            data[i] = (byte) values[i];
+        }
+        return data;
+    }
+
+    /**
+     * @param offset 前面补齐的字节数
+     */
+    private static byte[] ascii(int offset, String signature) {
+        byte[] data = new byte[offset + signature.length()];
+        System.arraycopy(signature.getBytes(StandardCharsets.US_ASCII), 0, data, offset, signature.length());
+        return data;
+    }
+
+    private static byte[] concat(byte[] head, byte[] tail) {
+        byte[] data = Arrays.copyOf(head, head.length + tail.length);
+        System.arraycopy(tail, 0, data, head.length, tail.length);
+        return data;
+    }
+
+    @Test
+    @DisplayName("按文件头识别图片格式")
+    public void testImage() {
+        Assertions.assertEquals(FileType.PNG, InputStreamUtil.lookup(bytes(0x89, 0x50, 0x4E, 0x47, 0x0D, 0x0A, 0x1A, 0x0A, 0x00)));
+        Assertions.assertEquals(FileType.JPG, InputStreamUtil.lookup(bytes(0xFF, 0xD8, 0xFF, 0xE0)));
+        Assertions.assertEquals(FileType.GIF, InputStreamUtil.lookup(ascii(0, "GIF87a")));
+        Assertions.assertEquals(FileType.GIF, InputStreamUtil.lookup(ascii(0, "GIF89a")));
+        Assertions.assertEquals(FileType.BMP, InputStreamUtil.lookup(ascii(0, "BM")));
+        Assertions.assertEquals(FileType.WEBP, InputStreamUtil.lookup(concat(ascii(0, "RIFF"), ascii(4, "WEBP"))));
+        Assertions.assertEquals(FileType.HEIC, InputStreamUtil.lookup(concat(ascii(4, "ftyp"), ascii(0, "heic"))));
+        Assertions.assertEquals(FileType.HEIC, InputStreamUtil.lookup(concat(ascii(4, "ftyp"), ascii(0, "mif1"))));
+    }
+
+    @Test
+    @DisplayName("按文件头识别音视频格式，同一容器按子格式区分")
+    public void testAudioVideo() {
+        Assertions.assertEquals(FileType.WAV, InputStreamUtil.lookup(concat(ascii(0, "RIFF"), ascii(4, "WAVE"))));
+        Assertions.assertEquals(FileType.AVI, InputStreamUtil.lookup(concat(ascii(0, "RIFF"), ascii(4, "AVI "))));
+        Assertions.assertEquals(FileType.AMR, InputStreamUtil.lookup(ascii(0, "#!AMR\n")));
+        Assertions.assertEquals(FileType.MP3, InputStreamUtil.lookup(ascii(0, "ID3")));
+        Assertions.assertEquals(FileType.WMA, InputStreamUtil.lookup(bytes(0x30, 0x26, 0xB2, 0x75, 0x8E, 0x66, 0xCF, 0x11,
+                0xA6, 0xD9, 0x00, 0xAA, 0x00, 0x62, 0xCE, 0x6C)));
+        Assertions.assertEquals(FileType.M4A, InputStreamUtil.lookup(concat(ascii(4, "ftyp"), ascii(0, "M4A "))));
+        Assertions.assertEquals(FileType.MOV, InputStreamUtil.lookup(concat(ascii(4, "ftyp"), ascii(0, "qt  "))));
+        Assertions.assertEquals(FileType.MP4, InputStreamUtil.lookup(concat(ascii(4, "ftyp"), ascii(0, "isom"))));
+        byte[] ebml = bytes(0x1A, 0x45, 0xDF, 0xA3, 0x9F, 0x42, 0x86, 0x81, 0x01, 0x42, 0x82, 0x84);
+        Assertions.assertEquals(FileType.WEBM, InputStreamUtil.lookup(concat(ebml, ascii(0, "webm"))));
+        Assertions.assertEquals(FileType.MKV, InputStreamUtil.lookup(concat(ebml, ascii(0, "matroska"))));
+    }
+
+    @Test
+    @DisplayName("文件头不完整或无法识别时为null")
+    public void testUnknown() {
+        Assertions.assertNull(InputStreamUtil.lookup(new byte[0]));
+        Assertions.assertNull(InputStreamUtil.lookup(bytes(0x89, 0x50, 0x4E, 0x47)));
+        Assertions.assertNull(InputStreamUtil.lookup(ascii(0, "RIFF")));
+        Assertions.assertNull(InputStreamUtil.lookup(concat(ascii(0, "RIFF"), ascii(4, "XXXX"))));
+        Assertions.assertNull(InputStreamUtil.lookup(bytes(0x1A, 0x45, 0xDF, 0xA3)));
+        Assertions.assertNull(InputStreamUtil.lookup(ascii(0, "<xml>")));
+    }
+
+    @Test
+    @DisplayName("支持mark/reset的流读取文件头后重置，不消耗流；不支持的流不读取")
+    public void testLookupStream() throws Exception {
+        byte[] png = bytes(0x89, 0x50, 0x4E, 0x47, 0x0D, 0x0A, 0x1A, 0x0A, 0x00, 0x01);
+        InputStream is = new ByteArrayInputStream(png);
+        Assertions.assertEquals(FileType.PNG, InputStreamUtil.lookup(is));
+        Assertions.assertArrayEquals(png, is.readAllBytes());
+
+        InputStream buffered = new BufferedInputStream(new ByteArrayInputStream(png));
+        Assertions.assertEquals(FileType.PNG, InputStreamUtil.lookup(buffered));
+        Assertions.assertArrayEquals(png, buffered.readAllBytes());
+
+        InputStream unmarkable = new FilterInputStream(new ByteArrayInputStream(png)) {
+            @Override
+            public boolean markSupported() {
+                return false;
+            }
+        };
+        Assertions.assertNull(InputStreamUtil.lookup(unmarkable));
+        Assertions.assertArrayEquals(png, unmarkable.readAllBytes());
+    }
+
+    @Test
+    @DisplayName("文件流从当前位置读取文件头，不改变读取位置")
+    public void testLookupFile() throws Exception {
+        Path file = Files.createTempFile("input-stream-util-", null);
+        try {
+            byte[] jpg = bytes(0xFF, 0xD8, 0xFF, 0xE0, 0x00, 0x10);
+            Files.write(file, concat(ascii(0, "GIF89a"), jpg));
+            try (FileInputStream fis = new FileInputStream(file.toFile())) {
+                Assertions.assertEquals(FileType.GIF, InputStreamUtil.lookup(fis));
+                Assertions.assertEquals(0, fis.getChannel().position());
+                fis.skipNBytes(6);
+                Assertions.assertEquals(FileType.JPG, InputStreamUtil.lookup(fis));
+                Assertions.assertArrayEquals(jpg, fis.readAllBytes());
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package weixin.mp.infrastructure.rpc;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import reactor.core.publisher.Flux;
+import weixin.mp.facade.WeixinMaterialApiFacade;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+public class MediaCacheTest {
+
+    private static final long MAX_SIZE = 1024 * 1024;
+
+    @TempDir
+    Path directory;
+
+    private static MediaStream media(String content) {
+        byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+        return new MediaStream("qrcode.jpg", "image/jpeg", bytes.length,
+                Flux.defer(() -> Flux.just(DefaultDataBufferFactory.sharedInstance.wrap(bytes.clone()))));
+    }
+
+    /**
+     * 每次下载返回同样的内容，记录下载次数
+     */
+    private static Supplier<CompletableFuture<MediaStream>> loader(AtomicInteger calls, String content) {
+        return () -> {
+            calls.incrementAndGet();
+            return CompletableFuture.completedFuture(media(content));
+        };
+    }
+
+    /**
+     * 读完响应体，读完后才写入缓存
+     */
+    private static String consume(CompletableFuture<WeixinMaterialApiFacade.Downloadable> downloadable) throws Exception {
+        MediaStream media = (MediaStream) downloadable.get(10, TimeUnit.SECONDS);
+        DataBuffer joined = DataBufferUtils.join(media.body()).block(Duration.ofSeconds(10));
+        byte[] bytes = new byte[joined.readableByteCount()];
+        joined.read(bytes);
+        DataBufferUtils.release(joined);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private long blobs() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(f -> f.getFileName().toString().endsWith(".media")).count();
+        }
+    }
+
+    @Test
+    @DisplayName("首次下载边透传边写入，之后命中缓存不再下载；多次命中后映射到内存读取")
+    public void testHit() throws Exception {
+        MediaCache cache = new MediaCache(directory, Duration.ofDays(3), MAX_SIZE, MAX_SIZE);
+        AtomicInteger calls = new AtomicInteger();
+        Assertions.assertEquals("二维码", consume(cache.get("qrcode", false, loader(calls, "二维码"))));
+        for (int i = 0; i < 3; i++) {
+            Assertions.assertEquals("二维码", consume(cache.get("qrcode", false, loader(calls, "二维码"))));
+        }
+        Assertions.assertEquals(1, calls.get());
+        Assertions.assertEquals(1, blobs());
+    }
+
+    @Test
+    @DisplayName("下载期间的其他请求等待写入完成后读取，同一key只下载一次")
+    public void testSingleFlight() throws Exception {
+        MediaCache cache = new MediaCache(directory, Duration.ofDays(3), MAX_SIZE, MAX_SIZE);
+        AtomicInteger calls = new AtomicInteger();
+        CompletableFuture<MediaStream> pending = new CompletableFuture<>();
+        CompletableFuture<WeixinMaterialApiFacade.Downloadable> first = cache.get("qrcode", false, () -> {
+            calls.incrementAndGet();
+            return pending;
+        });
+        CompletableFuture<WeixinMaterialApiFacade.Downloadable> waiting = cache.get("qrcode", false, loader(calls, "其他内容"));
+        Assertions.assertFalse(waiting.isDone());
+        pending.complete(media("二维码"));
+        Assertions.assertEquals("二维码", consume(first));
+        Assertions.assertEquals("二维码", consume(waiting));
+        Assertions.assertEquals(1, calls.get());
+    }
+
+    @Test
+    @DisplayName("首个请求下载失败时，等待的请求各自下载；失败不缓存")
+    public void testLoadFail() throws Exception {
+        MediaCache cache = new MediaCache(directory, Duration.ofDays(3), MAX_SIZE, MAX_SIZE);
+        AtomicInteger calls = new AtomicInteger();
+        CompletableFuture<MediaStream> pending = new CompletableFuture<>();
+        CompletableFuture<WeixinMaterialApiFacade.Downloadable> first = cache.get("qrcode", false, () -> pending);
+        CompletableFuture<WeixinMaterialApiFacade.Downloadable> waiting = cache.get("qrcode", false, loader(calls, "二维码"));
+        pending.completeExceptionally(new IllegalStateException("download fail"));
+        Assertions.assertThrows(ExecutionException.class, first::get);
+        Assertions.assertEquals("二维码", consume(waiting));
+        Assertions.assertEquals(1, calls.get());
+    }
+
+    @Test
+    @DisplayName("内容相同的文件只存一份，所有key失效后删除")
+    public void testSameContent() throws Exception {
+        MediaCache cache = new MediaCache(directory, Duration.ofDays(3), MAX_SIZE, MAX_SIZE);
+        AtomicInteger calls = new AtomicInteger();
+        consume(cache.get("first", false, loader(calls, "二维码")));
+        consume(cache.get("first", false, loader(calls, "二维码")));
+        consume(cache.get("second", false, loader(calls, "二维码")));
+        consume(cache.get("second", false, loader(calls, "二维码")));
+        Assertions.assertEquals(2, calls.get());
+        Assertions.assertEquals(1, blobs());
+
+        cache.invalidate("first");
+        Assertions.assertEquals(1, blobs());
+        cache.invalidate("second");
+        Assertions.assertEquals(0, blobs());
+        consume(cache.get("first", false, loader(calls, "二维码")));
+        Assertions.assertEquals(3, calls.get());
+    }
+
+    @Test
+    @DisplayName("磁盘占用超限时淘汰最近最少使用的文件")
+    public void testEvict() throws Exception {
+        MediaCache cache = new MediaCache(directory, Duration.ofDays(3), 10, 10);
+        AtomicInteger calls = new AtomicInteger();
+        consume(cache.get("first", false, loader(calls, "123456")));
+        consume(cache.get("first", false, loader(calls, "123456")));
+        consume(cache.get("second", false, loader(calls, "abcdef")));
+        consume(cache.get("second", false, loader(calls, "abcdef")));
+        Assertions.assertEquals(2, calls.get());
+        Assertions.assertEquals(1, blobs());
+        Assertions.assertEquals("123456", consume(cache.get("first", false, loader(calls, "123456"))));
+        Assertions.assertEquals(3, calls.get());
+    }
+
+    @Test
+    @DisplayName("会过期的内容超过有效期后重新下载")
+    public void testExpire() throws Exception {
+        MediaCache cache = new MediaCache(directory, Duration.ofMillis(100), MAX_SIZE, MAX_SIZE);
+        AtomicInteger calls = new AtomicInteger();
+        consume(cache.get("media", true, loader(calls, "临时素材")));
+        consume(cache.get("media", true, loader(calls, "临时素材")));
+        Assertions.assertEquals(1, calls.get());
+        Thread.sleep(200);
+        consume(cache.get("media", true, loader(calls, "临时素材")));
+        Assertions.assertEquals(2, calls.get());
+    }
+
+    @Test
+    @DisplayName("关闭时写入索引，重启后恢复")
+    public void testRecover() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        try (MediaCache cache = new MediaCache(directory, Duration.ofDays(3), MAX_SIZE, MAX_SIZE)) {
+            consume(cache.get("qrcode", false, loader(calls, "二维码")));
+            consume(cache.get("qrcode", false, loader(calls, "二维码")));
+        }
+        Files.writeString(directory.resolve("orphan.media"), "未被引用");
+        MediaCache recovered = new MediaCache(directory, Duration.ofDays(3), MAX_SIZE, MAX_SIZE);
+        MediaStream media = (MediaStream) recovered.get("qrcode", false, loader(calls, "二维码")).get();
+        Assertions.assertEquals("qrcode.jpg", media.filename());
+        Assertions.assertEquals("image/jpeg", media.contentType());
+        Assertions.assertEquals("二维码", consume(CompletableFuture.completedFuture(media)));
+        Assertions.assertEquals(1, calls.get());
+        Assertions.assertEquals(1, blobs());
+    }
+
+    @Test
+    @DisplayName("视频、图文等json结构不缓存")
+    public void testNotCached() throws Exception {
+        MediaCache cache = new MediaCache(directory, Duration.ofDays(3), MAX_SIZE, MAX_SIZE);
+        AtomicInteger calls = new AtomicInteger();
+        WeixinMaterialApiFacade.Downloadable news = new WeixinMaterialApiFacade.Downloadable() {};
+        for (int i = 0; i < 2; i++) {
+            Assertions.assertSame(news, cache.get("news", false, () -> {
+                calls.incrementAndGet();
+                return CompletableFuture.completedFuture(news);
+            }).get());
+        }
+        Assertions.assertEquals(2, calls.get());
+    }
+}